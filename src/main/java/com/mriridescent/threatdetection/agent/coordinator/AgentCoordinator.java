@@ -1,29 +1,42 @@
 package com.mriridescent.threatdetection.agent.coordinator;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import com.mriridescent.threatdetection.correlation.CorrelationCriteria;
+import com.mriridescent.threatdetection.correlation.ThreatCorrelationEngine;
 import com.mriridescent.threatdetection.model.*;
 import com.mriridescent.threatdetection.orchestration.AgentOrchestrator;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
+import io.github.resilience4j.ratelimiter.RequestNotPermitted;
 import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
 import io.micrometer.core.annotation.Timed;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Enhanced Agent Coordinator that orchestrates complex workflows between multiple AI agents.
@@ -37,25 +50,81 @@ import java.util.concurrent.atomic.AtomicLong;
  * - Workflow state management
  * - Conditional workflow execution
  * - Performance optimization with caching
+ *
+ * Workflows are declared as DAGs of steps and run by a {@link WorkflowEngine} on the
+ * {@code workflowExecutor}, which uses virtual threads when
+ * {@code threat-detection.agents.virtual-threads} is set. Independent steps overlap, every step
+ * runs under a single end-to-end {@link WorkflowDeadline}, and no thread waits on an agent.
+ * The workflow methods are not {@code @Async}: the caller only admits the workflow and schedules
+ * its steps, and the returned future completes when the engine finishes, without a thread
+ * waiting on it in between.
+ *
+ * Agent submissions carry a {@link TaskPriority}: response actions run first, then
+ * intelligence enrichment that completes an in-flight workflow, then new detection work,
+ * with pattern learning last.
+ *
+ * Workflows are admitted through a fair pool of {@code max-concurrent-workflows} permits.
+ * Network traffic workflows are admitted first, then correlation and behavior workflows for
+ * failed activities, with behavior workflows for successful activities shed first under load.
+ * Rejected workflows fail with {@link WorkflowRejectedException}, which is not retried and
+ * is returned to API clients as 429 with a {@code Retry-After} header.
+ *
+ * Network and behavior workflows are keyed by invocation: {@code @Retry} re-runs a call with the
+ * same packet or activity instance, and every attempt shares the key minted for the first one.
+ * Client-supplied ids are not unique, so a later call with a reused id is a new unit of work. A
+ * workflow that fails for a transient reason returns a retryable result, which {@code @Retry}
+ * re-runs; the retry resumes from the failed step, reusing the results of the steps that
+ * completed. Response actions are submitted under the step's idempotency key, so they are
+ * carried out at most once per invocation.
  */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class AgentCoordinator {
 
     private final AgentOrchestrator orchestrator;
     private final MeterRegistry meterRegistry;
+    private final WorkflowEngine workflowEngine;
+    private final ThreatCorrelationEngine correlationEngine = new ThreatCorrelationEngine();
+
+    // Workflow definitions; conditions read configuration at run time
+    private final WorkflowDefinition<NetworkPacket> networkTrafficWorkflow;
+    private final WorkflowDefinition<UserActivity> userBehaviorWorkflow;
+    private final WorkflowDefinition<CorrelationInput> threatCorrelationWorkflow;
 
     // Configuration properties
     @Value("${threat-detection.coordinator.max-concurrent-workflows:50}")
     private int maxConcurrentWorkflows;
 
+    @Value("${threat-detection.coordinator.admission.queue-timeout:50ms}")
+    private Duration admissionQueueTimeout;
+
+    @Value("${threat-detection.coordinator.admission.retry-after:1s}")
+    private Duration admissionRetryAfter;
+
+    @Value("${threat-detection.coordinator.admission.reserve.normal:0.1}")
+    private double normalAdmissionReserve;
+
+    @Value("${threat-detection.coordinator.admission.reserve.low:0.3}")
+    private double lowAdmissionReserve;
+
+    @Value("${threat-detection.coordinator.correlation.chunk-size:256}")
+    private int correlationChunkSize;
+
+    @Value("${threat-detection.coordinator.correlation.max-in-flight-chunks:4}")
+    private int correlationMaxInFlightChunks;
+
+    @Value("${threat-detection.coordinator.checkpoint-retention:5m}")
+    private Duration checkpointRetention;
+
     @Value("${threat-detection.coordinator.workflow-timeout:300}")
     private int workflowTimeoutSeconds;
 
     @Value("${threat-detection.coordinator.enable-intelligence-enrichment:true}")
     private boolean enableIntelligenceEnrichment;
 
+    @Value("${threat-detection.coordinator.intelligence-timeout:30}")
+    private int intelligenceTimeoutSeconds;
+
     // Metrics
     private Counter workflowStartedCounter;
     private Counter workflowCompletedCounter;
@@ -65,6 +134,22 @@ public class AgentCoordinator {
     // Workflow state management
     private final Map<String, WorkflowExecution> activeWorkflows = new ConcurrentHashMap<>();
     private final AtomicLong workflowIdGenerator = new AtomicLong(0);
+    private WorkflowAdmission admission;
+    // Failed executions by workflow key, kept for retries to resume from
+    private Cache<String, WorkflowExecution> checkpoints;
+    // Workflow key of each invocation by its input instance, compared by identity
+    private Cache<Object, String> invocationKeys;
+
+    public AgentCoordinator(AgentOrchestrator orchestrator,
+                            MeterRegistry meterRegistry,
+                            @Qualifier("workflowExecutor") Executor workflowExecutor) {
+        this.orchestrator = orchestrator;
+        this.meterRegistry = meterRegistry;
+        this.workflowEngine = new WorkflowEngine(workflowExecutor, meterRegistry);
+        this.networkTrafficWorkflow = defineNetworkTrafficWorkflow();
+        this.userBehaviorWorkflow = defineUserBehaviorWorkflow();
+        this.threatCorrelationWorkflow = defineThreatCorrelationWorkflow();
+    }
 
     @PostConstruct
     public void initializeMetrics() {
@@ -84,272 +169,319 @@ public class AgentCoordinator {
                 .description("Duration of workflow execution")
                 .register(meterRegistry);
 
+        admission = new WorkflowAdmission(maxConcurrentWorkflows,
+                Map.of(TaskPriority.NORMAL, normalAdmissionReserve, TaskPriority.LOW, lowAdmissionReserve),
+                admissionQueueTimeout, admissionRetryAfter, meterRegistry);
+        checkpoints = Caffeine.newBuilder()
+                .expireAfterWrite(checkpointRetention)
+                .maximumSize(10_000)
+                .build();
+        invocationKeys = Caffeine.newBuilder()
+                .weakKeys()
+                .expireAfterWrite(checkpointRetention)
+                .maximumSize(10_000)
+                .build();
+
         log.info("Agent Coordinator initialized with max concurrent workflows: {}", maxConcurrentWorkflows);
     }
 
     /**
      * Enhanced network traffic analysis workflow with comprehensive threat detection pipeline.
      * Includes intelligence enrichment, pattern learning, and adaptive response.
+     *
+     * Pattern learning runs alongside intelligence enrichment once a threat is detected;
+     * response generation waits for the enriched alert. See {@link #networkTrafficWorkflow}.
      */
-    @Async
-    @Timed(name = "network_traffic_workflow", description = "Time taken for network traffic workflow")
+    @Timed(value = "network_traffic_workflow", description = "Time taken for network traffic workflow")
     @CircuitBreaker(name = "network-analysis", fallbackMethod = "fallbackNetworkAnalysis")
     @Retry(name = "network-analysis")
     @RateLimiter(name = "network-analysis")
     public CompletableFuture<WorkflowResult<List<ResponseAction>>> processNetworkTrafficWorkflow(NetworkPacket packet) {
-        String workflowId = generateWorkflowId("network-traffic");
-        WorkflowExecution execution = startWorkflow(workflowId, "Network Traffic Analysis", packet);
-
-        log.info("Starting enhanced network traffic analysis workflow {} for: {}", workflowId, packet.getSourceIp());
-        workflowStartedCounter.increment();
-
-        Timer.Sample sample = Timer.start(meterRegistry);
-
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Step 1: Initial network analysis
-                execution.addStep("network-analysis", "Analyzing network packet");
-                ThreatAlert alert = orchestrator.<NetworkPacket, ThreatAlert>submitTask("network-monitor", packet)
-                        .get(workflowTimeoutSeconds, java.util.concurrent.TimeUnit.SECONDS);
-
-                if (alert == null) {
-                    execution.complete("No threats detected");
-                    workflowCompletedCounter.increment();
-                    return WorkflowResult.<List<ResponseAction>>builder()
-                            .workflowId(workflowId)
-                            .success(true)
-                            .result(Collections.emptyList())
-                            .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
-                            .build();
-                }
-
-                log.info("Threat detected in workflow {}: {}", workflowId, alert.getDescription());
-                execution.addStep("threat-detected", "Threat detected: " + alert.getDescription());
-
-                // Step 2: Intelligence enrichment (if enabled)
-                if (enableIntelligenceEnrichment) {
-                    execution.addStep("intelligence-enrichment", "Enriching threat with intelligence data");
-                    ThreatIntelligence intelligence = enrichThreatWithIntelligence(alert);
-                    alert.setIntelligenceData(intelligence);
-                }
-
-                // Step 3: Pattern learning and model update
-                execution.addStep("pattern-learning", "Updating detection patterns");
-                updateDetectionPatterns(packet, alert);
-
-                // Step 4: Generate response actions
-                execution.addStep("response-generation", "Generating response actions");
-                List<ResponseAction> actions = orchestrator.<ThreatAlert, List<ResponseAction>>submitTask(
-                        "threat-response", alert)
-                        .get(workflowTimeoutSeconds, java.util.concurrent.TimeUnit.SECONDS);
-
-                // Step 5: Validate and prioritize actions
-                execution.addStep("action-validation", "Validating and prioritizing actions");
-                List<ResponseAction> validatedActions = validateAndPrioritizeActions(actions, alert);
-
-                execution.complete("Workflow completed successfully with " + validatedActions.size() + " actions");
-                workflowCompletedCounter.increment();
-
-                return WorkflowResult.<List<ResponseAction>>builder()
-                        .workflowId(workflowId)
-                        .success(true)
-                        .result(validatedActions)
-                        .threatAlert(alert)
-                        .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
-                        .build();
-
-            } catch (Exception e) {
-                log.error("Network traffic workflow {} failed", workflowId, e);
-                execution.fail("Workflow failed: " + e.getMessage());
-                workflowFailedCounter.increment();
-
-                return WorkflowResult.<List<ResponseAction>>builder()
-                        .workflowId(workflowId)
-                        .success(false)
-                        .error(e.getMessage())
-                        .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
-                        .build();
-            } finally {
-                sample.stop(workflowDurationTimer);
-                activeWorkflows.remove(workflowId);
-            }
-        });
+        return runWorkflow("network-traffic", TaskPriority.HIGH, networkTrafficWorkflow, packet,
+                packet, packet,
+                "source " + packet.getSourceIp(),
+                ctx -> WorkflowResult.<List<ResponseAction>>builder()
+                        .result(ctx.hasResult("action-validation") ? ctx.get("action-validation") : Collections.emptyList())
+                        .threatAlert(ctx.get("network-analysis")));
     }
 
     /**
      * Enhanced user behavior analysis workflow with contextual analysis and risk scoring.
+     *
+     * Risk assessment and historical analysis run concurrently once an anomaly is detected.
+     * See {@link #userBehaviorWorkflow}.
      */
-    @Async
-    @Timed(name = "user_behavior_workflow", description = "Time taken for user behavior workflow")
+    @Timed(value = "user_behavior_workflow", description = "Time taken for user behavior workflow")
     @CircuitBreaker(name = "behavior-analysis", fallbackMethod = "fallbackBehaviorAnalysis")
     @Retry(name = "behavior-analysis")
     @RateLimiter(name = "behavior-analysis")
     public CompletableFuture<WorkflowResult<List<ResponseAction>>> processUserActivityWorkflow(UserActivity activity) {
-        String workflowId = generateWorkflowId("user-behavior");
-        WorkflowExecution execution = startWorkflow(workflowId, "User Behavior Analysis", activity);
-
-        log.info("Starting enhanced user behavior analysis workflow {} for user: {}", workflowId, activity.getUserId());
-        workflowStartedCounter.increment();
-
-        Timer.Sample sample = Timer.start(meterRegistry);
-
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Step 1: Behavioral analysis
-                execution.addStep("behavior-analysis", "Analyzing user behavior patterns");
-                ThreatAlert alert = orchestrator.<UserActivity, ThreatAlert>submitTask("behavior-analysis", activity)
-                        .get(workflowTimeoutSeconds, java.util.concurrent.TimeUnit.SECONDS);
-
-                if (alert == null) {
-                    execution.complete("No behavioral anomalies detected");
-                    workflowCompletedCounter.increment();
-                    return WorkflowResult.<List<ResponseAction>>builder()
-                            .workflowId(workflowId)
-                            .success(true)
-                            .result(Collections.emptyList())
-                            .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
-                            .build();
-                }
-
-                log.info("Behavioral anomaly detected in workflow {}: {}", workflowId, alert.getDescription());
-                execution.addStep("anomaly-detected", "Behavioral anomaly detected: " + alert.getDescription());
-
-                // Step 2: Contextual risk assessment
-                execution.addStep("risk-assessment", "Performing contextual risk assessment");
-                RiskScore riskScore = calculateContextualRisk(activity, alert);
-                alert.setRiskScore(riskScore);
-
-                // Step 3: Historical pattern analysis
-                execution.addStep("historical-analysis", "Analyzing historical patterns");
-                UserBehaviorProfile profile = analyzeHistoricalBehavior(activity.getUserId());
-
-                // Step 4: Generate adaptive response
-                execution.addStep("adaptive-response", "Generating adaptive response actions");
-                List<ResponseAction> actions = generateAdaptiveResponse(alert, profile, riskScore);
-
-                execution.complete("Workflow completed with risk score: " + riskScore.getScore());
-                workflowCompletedCounter.increment();
-
-                return WorkflowResult.<List<ResponseAction>>builder()
-                        .workflowId(workflowId)
-                        .success(true)
-                        .result(actions)
-                        .threatAlert(alert)
-                        .riskScore(riskScore)
-                        .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
-                        .build();
-
-            } catch (Exception e) {
-                log.error("User behavior workflow {} failed", workflowId, e);
-                execution.fail("Workflow failed: " + e.getMessage());
-                workflowFailedCounter.increment();
-
-                return WorkflowResult.<List<ResponseAction>>builder()
-                        .workflowId(workflowId)
-                        .success(false)
-                        .error(e.getMessage())
-                        .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
-                        .build();
-            } finally {
-                sample.stop(workflowDurationTimer);
-                activeWorkflows.remove(workflowId);
-            }
-        });
+        // Failed activities carry more signal than routine successful ones and are shed last
+        TaskPriority admissionClass = activity.isSuccessful() ? TaskPriority.LOW : TaskPriority.NORMAL;
+        return runWorkflow("user-behavior", admissionClass, userBehaviorWorkflow, activity,
+                activity, activity,
+                "user " + activity.getUserId(),
+                ctx -> WorkflowResult.<List<ResponseAction>>builder()
+                        .result(ctx.hasResult("adaptive-response") ? ctx.get("adaptive-response") : Collections.emptyList())
+                        .threatAlert(ctx.get("behavior-analysis"))
+                        .riskScore(ctx.get("risk-assessment")));
     }
 
     /**
      * Comprehensive threat correlation workflow that analyzes multiple data sources.
+     *
+     * Network and behavior analysis run concurrently. See {@link #threatCorrelationWorkflow}.
+     * Alerts are correlated by {@link ThreatCorrelationEngine} according to {@code criteria}.
      */
-    @Async
-    @Timed(name = "threat_correlation_workflow", description = "Time taken for threat correlation workflow")
+    @Timed(value = "threat_correlation_workflow", description = "Time taken for threat correlation workflow")
     @CircuitBreaker(name = "threat-correlation", fallbackMethod = "fallbackThreatCorrelation")
     @Retry(name = "threat-correlation")
     public CompletableFuture<WorkflowResult<ThreatCorrelationReport>> correlateThreatDataWorkflow(
-            List<NetworkPacket> networkData, List<UserActivity> userActivities) {
-
-        String workflowId = generateWorkflowId("threat-correlation");
-        WorkflowExecution execution = startWorkflow(workflowId, "Threat Correlation Analysis",
-                Map.of("networkPackets", networkData.size(), "userActivities", userActivities.size()));
-
-        log.info("Starting threat correlation workflow {} with {} network packets and {} user activities",
-                workflowId, networkData.size(), userActivities.size());
-        workflowStartedCounter.increment();
-
-        Timer.Sample sample = Timer.start(meterRegistry);
+            List<NetworkPacket> networkData, List<UserActivity> userActivities, CorrelationCriteria criteria) {
+
+        LocalDateTime startTime = LocalDateTime.now();
+        return runWorkflow("threat-correlation", TaskPriority.NORMAL, threatCorrelationWorkflow,
+                new CorrelationInput(networkData, userActivities, criteria), null,
+                Map.of("networkPackets", networkData.size(), "userActivities", userActivities.size()),
+                networkData.size() + " network packets and " + userActivities.size() + " user activities",
+                ctx -> {
+                    ThreatCorrelationReport report = new ThreatCorrelationReport();
+                    report.setWorkflowId(ctx.workflowId());
+                    report.setStartTime(startTime);
+                    report.setNetworkAlerts(ctx.get("network-analysis"));
+                    report.setBehaviorAlerts(ctx.get("behavior-analysis"));
+                    report.setCorrelations(ctx.get("correlation-analysis"));
+                    report.setAggregatedRiskScore(ctx.<Double>get("risk-aggregation"));
+                    report.setResponseActions(ctx.get("comprehensive-response"));
+                    report.setEndTime(LocalDateTime.now());
+                    return WorkflowResult.<ThreatCorrelationReport>builder().result(report);
+                });
+    }
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                ThreatCorrelationReport report = new ThreatCorrelationReport();
-                report.setWorkflowId(workflowId);
-                report.setStartTime(LocalDateTime.now());
+    // ==================== WORKFLOW DEFINITIONS ====================
+
+    private WorkflowDefinition<NetworkPacket> defineNetworkTrafficWorkflow() {
+        Predicate<WorkflowContext<NetworkPacket>> threatDetected = ctx -> ctx.hasResult("network-analysis");
+
+        return WorkflowDefinition.<NetworkPacket>builder("Network Traffic Analysis")
+                .step("network-analysis", "Analyzing network packet")
+                    .call(ctx -> orchestrator.<NetworkPacket, ThreatAlert>submitTask("network-monitor", ctx.input()))
+                .step("intelligence-enrichment", "Enriching threat with intelligence data")
+                    .after("network-analysis")
+                    .when(threatDetected.and(ctx -> enableIntelligenceEnrichment))
+                    .call(ctx -> enrichThreatWithIntelligence(ctx.get("network-analysis"), ctx.deadline()))
+                .step("pattern-learning", "Updating detection patterns")
+                    .after("network-analysis")
+                    .when(threatDetected)
+                    .compute(ctx -> {
+                        updateDetectionPatterns(ctx.input(), ctx.get("network-analysis"));
+                        return null;
+                    })
+                .step("response-generation", "Generating response actions")
+                    .after("intelligence-enrichment")
+                    .when(threatDetected)
+                    .call(ctx -> {
+                        ThreatAlert alert = ctx.get("network-analysis");
+                        if (ctx.hasResult("intelligence-enrichment")) {
+                            alert.setIntelligenceData(ctx.get("intelligence-enrichment"));
+                        }
+                        return orchestrator.<ThreatAlert, List<ResponseAction>>submitTask(
+                                "threat-response", alert, TaskPriority.CRITICAL,
+                                ctx.idempotencyKey("response-generation"));
+                    })
+                .step("action-validation", "Validating and prioritizing actions")
+                    .after("response-generation")
+                    .when(threatDetected)
+                    .compute(ctx -> validateAndPrioritizeActions(ctx.get("response-generation"), ctx.get("network-analysis")))
+                .summary(ctx -> ctx.hasResult("network-analysis")
+                        ? "Workflow completed successfully with " + ctx.<List<?>>get("action-validation").size() + " actions"
+                        : "No threats detected")
+                .build();
+    }
 
-                // Step 1: Parallel analysis of network and user data
-                execution.addStep("parallel-analysis", "Running parallel threat analysis");
+    private WorkflowDefinition<UserActivity> defineUserBehaviorWorkflow() {
+        Predicate<WorkflowContext<UserActivity>> anomalyDetected = ctx -> ctx.hasResult("behavior-analysis");
+
+        return WorkflowDefinition.<UserActivity>builder("User Behavior Analysis")
+                .step("behavior-analysis", "Analyzing user behavior patterns")
+                    .call(ctx -> orchestrator.<UserActivity, ThreatAlert>submitTask("behavior-analysis", ctx.input()))
+                .step("risk-assessment", "Performing contextual risk assessment")
+                    .after("behavior-analysis")
+                    .when(anomalyDetected)
+                    .compute(ctx -> {
+                        ThreatAlert alert = ctx.get("behavior-analysis");
+                        RiskScore riskScore = calculateContextualRisk(ctx.input(), alert);
+                        alert.setRiskScore(riskScore);
+                        return riskScore;
+                    })
+                .step("historical-analysis", "Analyzing historical patterns")
+                    .after("behavior-analysis")
+                    .when(anomalyDetected)
+                    .compute(ctx -> analyzeHistoricalBehavior(ctx.input().getUserId()))
+                .step("adaptive-response", "Generating adaptive response actions")
+                    .after("risk-assessment", "historical-analysis")
+                    .when(anomalyDetected)
+                    .compute(ctx -> generateAdaptiveResponse(
+                            ctx.get("behavior-analysis"), ctx.get("historical-analysis"), ctx.get("risk-assessment")))
+                .summary(ctx -> ctx.hasResult("behavior-analysis")
+                        ? "Workflow completed with risk score: " + ctx.<RiskScore>get("risk-assessment").getScore()
+                        : "No behavioral anomalies detected")
+                .build();
+    }
 
-                List<CompletableFuture<ThreatAlert>> networkAnalyses = networkData.stream()
-                        .map(packet -> orchestrator.<NetworkPacket, ThreatAlert>submitTask("network-monitor", packet))
-                        .toList();
+    private WorkflowDefinition<CorrelationInput> defineThreatCorrelationWorkflow() {
+        return WorkflowDefinition.<CorrelationInput>builder("Threat Correlation Analysis")
+                .step("network-analysis", "Analyzing network traffic")
+                    .call(ctx -> analyzeAll(ctx, "network-analysis", "network-monitor", ctx.input().getNetworkData()))
+                .step("behavior-analysis", "Analyzing user behavior")
+                    .call(ctx -> analyzeAll(ctx, "behavior-analysis", "behavior-analysis",
+                            ctx.input().getUserActivities()))
+                .step("correlation-analysis", "Correlating threat indicators")
+                    .after("network-analysis", "behavior-analysis")
+                    .compute(ctx -> correlationEngine.correlate(
+                            ctx.get("network-analysis"), ctx.get("behavior-analysis"), ctx.input().getCriteria()))
+                .step("risk-aggregation", "Aggregating risk scores")
+                    .after("correlation-analysis")
+                    .compute(ctx -> calculateAggregatedRisk(ctx.get("correlation-analysis")))
+                .step("comprehensive-response", "Generating comprehensive response plan")
+                    .after("correlation-analysis", "risk-aggregation")
+                    .compute(ctx -> generateComprehensiveResponse(
+                            ctx.get("correlation-analysis"), ctx.<Double>get("risk-aggregation")))
+                .summary(ctx -> "Correlation analysis completed with "
+                        + ctx.<List<?>>get("correlation-analysis").size() + " correlations found")
+                .build();
+    }
 
-                List<CompletableFuture<ThreatAlert>> behaviorAnalyses = userActivities.stream()
-                        .map(activity -> orchestrator.<UserActivity, ThreatAlert>submitTask("behavior-analysis", activity))
-                        .toList();
+    /**
+     * Submit every input to an agent and collect the alerts raised.
+     *
+     * Inputs are submitted in chunks of {@code correlation.chunk-size} with at most
+     * {@code correlation.max-in-flight-chunks} chunks outstanding, so large batches do not flood
+     * the agent's mailbox. Alerts reach the streaming correlator as each input completes and the
+     * step's progress is updated per chunk; when the workflow fails, remaining chunks are cancelled.
+     */
+    private <T> CompletableFuture<List<ThreatAlert>> analyzeAll(WorkflowContext<?> ctx, String stepName,
+                                                                String agentId, List<T> inputs) {
+        AtomicInteger completed = new AtomicInteger();
+        ctx.reportProgress(stepName, 0, inputs.size());
+
+        return ChunkedFanOut.<T, ThreatAlert>run(inputs, correlationChunkSize, correlationMaxInFlightChunks,
+                chunk -> analyzeChunk(agentId, chunk),
+                (chunk, alerts) -> ctx.reportProgress(stepName, completed.addAndGet(chunk.size()), inputs.size()));
+    }
 
-                // Wait for all analyses to complete
-                List<ThreatAlert> networkAlerts = networkAnalyses.stream()
-                        .map(CompletableFuture::join)
-                        .filter(Objects::nonNull)
-                        .toList();
+    private <T> CompletableFuture<List<ThreatAlert>> analyzeChunk(String agentId, List<T> chunk) {
+        List<CompletableFuture<ThreatAlert>> analyses = chunk.stream()
+                .map(input -> orchestrator.<T, ThreatAlert>submitTask(agentId, input))
+                .toList();
 
-                List<ThreatAlert> behaviorAlerts = behaviorAnalyses.stream()
+        CompletableFuture<List<ThreatAlert>> alerts = CompletableFuture.allOf(analyses.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> analyses.stream()
                         .map(CompletableFuture::join)
                         .filter(Objects::nonNull)
-                        .toList();
-
-                // Step 2: Correlation analysis
-                execution.addStep("correlation-analysis", "Correlating threat indicators");
-                List<ThreatCorrelation> correlations = findThreatCorrelations(networkAlerts, behaviorAlerts);
-
-                // Step 3: Risk aggregation
-                execution.addStep("risk-aggregation", "Aggregating risk scores");
-                double aggregatedRisk = calculateAggregatedRisk(correlations);
-
-                // Step 4: Generate comprehensive response
-                execution.addStep("comprehensive-response", "Generating comprehensive response plan");
-                List<ResponseAction> responseActions = generateComprehensiveResponse(correlations, aggregatedRisk);
-
-                report.setNetworkAlerts(networkAlerts);
-                report.setBehaviorAlerts(behaviorAlerts);
-                report.setCorrelations(correlations);
-                report.setAggregatedRiskScore(aggregatedRisk);
-                report.setResponseActions(responseActions);
-                report.setEndTime(LocalDateTime.now());
-
-                execution.complete("Correlation analysis completed with " + correlations.size() + " correlations found");
-                workflowCompletedCounter.increment();
-
-                return WorkflowResult.<ThreatCorrelationReport>builder()
-                        .workflowId(workflowId)
-                        .success(true)
-                        .result(report)
-                        .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
-                        .build();
-
-            } catch (Exception e) {
-                log.error("Threat correlation workflow {} failed", workflowId, e);
-                execution.fail("Workflow failed: " + e.getMessage());
-                workflowFailedCounter.increment();
-
-                return WorkflowResult.<ThreatCorrelationReport>builder()
-                        .workflowId(workflowId)
-                        .success(false)
-                        .error(e.getMessage())
-                        .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
-                        .build();
-            } finally {
-                sample.stop(workflowDurationTimer);
-                activeWorkflows.remove(workflowId);
+                        .toList());
+        alerts.whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                // Cancelled tasks still queued in the agent's mailbox are skipped
+                analyses.forEach(analysis -> analysis.cancel(false));
             }
         });
+        return alerts;
+    }
+
+    /**
+     * Input of the threat correlation workflow.
+     */
+    @lombok.Value
+    private static class CorrelationInput {
+        List<NetworkPacket> networkData;
+        List<UserActivity> userActivities;
+        CorrelationCriteria criteria;
+    }
+
+    /**
+     * Run a workflow definition with the bookkeeping shared by every coordinator workflow:
+     * admission, the end-to-end deadline, metrics, and conversion into a {@link WorkflowResult}.
+     *
+     * @param admissionClass Class the workflow is admitted under; see {@link WorkflowAdmission}
+     * @param invocation     Input instance {@code @Retry} passes to every attempt of the call, whose
+     *                       attempts share a workflow key; {@code null} if retries start over
+     * @param result         Builds the workflow-specific part of a successful result
+     * @return Future of the result, or failed with {@link WorkflowRejectedException} if not admitted
+     */
+    private <I, O> CompletableFuture<WorkflowResult<O>> runWorkflow(
+            String workflowType, TaskPriority admissionClass, WorkflowDefinition<I> definition, I input,
+            Object invocation, Object executionInput, String subject,
+            Function<WorkflowContext<I>, WorkflowResult.WorkflowResultBuilder<O>> result) {
+
+        try {
+            admission.acquire(workflowType, admissionClass);
+        } catch (WorkflowRejectedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        String workflowId = generateWorkflowId(workflowType);
+        // The first attempt's id keys the checkpoints and step idempotency of the whole call
+        String workflowKey = invocation != null ? invocationKeys.get(invocation, first -> workflowId) : null;
+        WorkflowExecution previousAttempt = workflowKey != null ? checkpoints.asMap().remove(workflowKey) : null;
+        WorkflowExecution execution;
+        try {
+            execution = startWorkflow(workflowId, definition.getName(), executionInput);
+        } catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+        execution.setWorkflowKey(workflowKey);
+        if (previousAttempt != null) {
+            execution.setResumedFrom(previousAttempt.getWorkflowId());
+            log.info("Resuming {} workflow {} from failed attempt {}",
+                    definition.getName(), workflowId, previousAttempt.getWorkflowId());
+        }
+        WorkflowDeadline deadline = WorkflowDeadline.after(Duration.ofSeconds(workflowTimeoutSeconds));
+
+        log.info("Starting {} workflow {} for {}", definition.getName(), workflowId, subject);
+        workflowStartedCounter.increment();
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+
+        return workflowEngine.execute(definition, input, execution, previousAttempt, deadline)
+                .thenApply(ctx -> {
+                    execution.complete(definition.getSummary().apply(ctx));
+                    workflowCompletedCounter.increment();
+                    forgetInvocation(invocation);
+
+                    return result.apply(ctx)
+                            .workflowId(workflowId)
+                            .success(true)
+                            .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
+                            .build();
+                })
+                .exceptionally(ex -> {
+                    Throwable cause = unwrap(ex);
+                    log.error("{} workflow {} failed", definition.getName(), workflowId, cause);
+                    execution.fail("Workflow failed: " + cause.getMessage());
+                    workflowFailedCounter.increment();
+
+                    boolean retryable = isTransient(cause);
+                    if (retryable && workflowKey != null && execution.hasCheckpoints()) {
+                        checkpoints.put(workflowKey, execution);
+                    } else if (!retryable) {
+                        forgetInvocation(invocation);
+                    }
+
+                    return WorkflowResult.<O>builder()
+                            .workflowId(workflowId)
+                            .success(false)
+                            .retryable(retryable)
+                            .error(cause.getMessage())
+                            .executionTime(Duration.between(execution.getStartTime(), LocalDateTime.now()))
+                            .build();
+                })
+                .whenComplete((workflowResult, ex) -> {
+                    sample.stop(workflowDurationTimer);
+                    activeWorkflows.remove(workflowId);
+                    admission.release();
+                });
     }
 
     /**
@@ -386,22 +518,27 @@ public class AgentCoordinator {
     }
     // ==================== WORKFLOW MANAGEMENT METHODS ====================
 
+    /**
+     * Let a call that will not be retried be submitted again as a new unit of work.
+     */
+    private void forgetInvocation(Object invocation) {
+        if (invocation != null) {
+            invocationKeys.invalidate(invocation);
+        }
+    }
+
     private String generateWorkflowId(String workflowType) {
         return workflowType + "-" + workflowIdGenerator.incrementAndGet() + "-" + System.currentTimeMillis();
     }
 
     private WorkflowExecution startWorkflow(String workflowId, String workflowName, Object input) {
-        if (activeWorkflows.size() >= maxConcurrentWorkflows) {
-            throw new IllegalStateException("Maximum concurrent workflows exceeded: " + maxConcurrentWorkflows);
-        }
-
         WorkflowExecution execution = WorkflowExecution.builder()
                 .workflowId(workflowId)
                 .workflowName(workflowName)
                 .startTime(LocalDateTime.now())
                 .status(WorkflowStatus.RUNNING)
                 .input(input)
-                .steps(new ArrayList<>())
+                .steps(new CopyOnWriteArrayList<>())
                 .build();
 
         activeWorkflows.put(workflowId, execution);
@@ -430,23 +567,30 @@ public class AgentCoordinator {
 
     // ==================== INTELLIGENCE AND ANALYSIS METHODS ====================
 
-    private ThreatIntelligence enrichThreatWithIntelligence(ThreatAlert alert) {
-        try {
-            IntelligenceQuery query = IntelligenceQuery.builder()
-                    .indicator(alert.getSourceIp())
-                    .indicatorType(IntelligenceQuery.IndicatorType.IP)
-                    .build();
+    /**
+     * Look up intelligence for the alert's source IP within the workflow deadline.
+     * The lookup is capped at {@code intelligence-timeout} seconds; on timeout or failure the
+     * lookup is abandoned (its queued task is skipped once no other workflow waits for it) and an
+     * UNKNOWN verdict is used instead, so a slow intelligence source cannot stall the rest of the
+     * pipeline.
+     */
+    private CompletableFuture<ThreatIntelligence> enrichThreatWithIntelligence(ThreatAlert alert, WorkflowDeadline deadline) {
+        IntelligenceQuery query = IntelligenceQuery.builder()
+                .indicator(alert.getSourceIp())
+                .indicatorType(IntelligenceQuery.IndicatorType.IP)
+                .build();
 
-            return orchestrator.<IntelligenceQuery, ThreatIntelligence>submitTask("threat-intelligence", query)
-                    .get(30, java.util.concurrent.TimeUnit.SECONDS);
-        } catch (Exception e) {
-            log.warn("Failed to enrich threat with intelligence: {}", e.getMessage());
-            return ThreatIntelligence.builder()
-                    .indicator(alert.getSourceIp())
-                    .reputation("UNKNOWN")
-                    .confidence(0.0)
-                    .build();
-        }
+        return deadline.run("intelligence-enrichment", Duration.ofSeconds(intelligenceTimeoutSeconds),
+                        () -> orchestrator.<IntelligenceQuery, ThreatIntelligence>submitTask(
+                                "threat-intelligence", query, TaskPriority.HIGH))
+                .exceptionally(ex -> {
+                    log.warn("Failed to enrich threat with intelligence: {}", unwrap(ex).getMessage());
+                    return ThreatIntelligence.builder()
+                            .indicator(alert.getSourceIp())
+                            .reputation("UNKNOWN")
+                            .confidence(0.0)
+                            .build();
+                });
     }
 
     private void updateDetectionPatterns(NetworkPacket packet, ThreatAlert alert) {
@@ -457,7 +601,7 @@ public class AgentCoordinator {
                     .timestamp(LocalDateTime.now())
                     .build();
 
-            orchestrator.submitTask("pattern-learning", learningData);
+            orchestrator.submitTask("pattern-learning", learningData, TaskPriority.LOW);
         } catch (Exception e) {
             log.warn("Failed to update detection patterns: {}", e.getMessage());
         }
@@ -582,52 +726,6 @@ public class AgentCoordinator {
         return actions;
     }
 
-    private List<ThreatCorrelation> findThreatCorrelations(List<ThreatAlert> networkAlerts, List<ThreatAlert> behaviorAlerts) {
-        List<ThreatCorrelation> correlations = new ArrayList<>();
-
-        // Time-based correlation
-        for (ThreatAlert networkAlert : networkAlerts) {
-            for (ThreatAlert behaviorAlert : behaviorAlerts) {
-                if (isTimeCorrelated(networkAlert, behaviorAlert)) {
-                    correlations.add(ThreatCorrelation.builder()
-                            .correlationType("TIME_BASED")
-                            .networkAlert(networkAlert)
-                            .behaviorAlert(behaviorAlert)
-                            .confidence(0.7)
-                            .description("Alerts occurred within suspicious time window")
-                            .build());
-                }
-            }
-        }
-
-        // IP-based correlation
-        for (ThreatAlert networkAlert : networkAlerts) {
-            for (ThreatAlert behaviorAlert : behaviorAlerts) {
-                if (isIpCorrelated(networkAlert, behaviorAlert)) {
-                    correlations.add(ThreatCorrelation.builder()
-                            .correlationType("IP_BASED")
-                            .networkAlert(networkAlert)
-                            .behaviorAlert(behaviorAlert)
-                            .confidence(0.9)
-                            .description("Alerts from same IP address")
-                            .build());
-                }
-            }
-        }
-
-        return correlations;
-    }
-
-    private boolean isTimeCorrelated(ThreatAlert alert1, ThreatAlert alert2) {
-        Duration timeDiff = Duration.between(alert1.getDetectionTime(), alert2.getDetectionTime());
-        return timeDiff.abs().toMinutes() <= 30; // Within 30 minutes
-    }
-
-    private boolean isIpCorrelated(ThreatAlert networkAlert, ThreatAlert behaviorAlert) {
-        return networkAlert.getSourceIp() != null &&
-               networkAlert.getSourceIp().equals(behaviorAlert.getSourceIp());
-    }
-
     private double calculateAggregatedRisk(List<ThreatCorrelation> correlations) {
         if (correlations.isEmpty()) {
             return 0.0;
@@ -671,9 +769,31 @@ public class AgentCoordinator {
         return actions;
     }
 
+    /**
+     * Failures that may not recur when the workflow is run again.
+     */
+    private static boolean isTransient(Throwable cause) {
+        return cause instanceof TimeoutException || cause instanceof IOException;
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
     // ==================== FALLBACK METHODS ====================
 
+    /**
+     * Load rejections are passed through to the caller as 429s instead of being turned into
+     * "temporarily unavailable" results.
+     */
+    private static boolean isRejection(Exception ex) {
+        return ex instanceof WorkflowRejectedException || ex instanceof RequestNotPermitted;
+    }
+
     public CompletableFuture<WorkflowResult<List<ResponseAction>>> fallbackNetworkAnalysis(NetworkPacket packet, Exception ex) {
+        if (isRejection(ex)) {
+            return CompletableFuture.failedFuture(ex);
+        }
         log.warn("Network analysis workflow fallback triggered for packet: {}", packet.getSourceIp(), ex);
 
         return CompletableFuture.completedFuture(
@@ -688,6 +808,9 @@ public class AgentCoordinator {
     }
 
     public CompletableFuture<WorkflowResult<List<ResponseAction>>> fallbackBehaviorAnalysis(UserActivity activity, Exception ex) {
+        if (isRejection(ex)) {
+            return CompletableFuture.failedFuture(ex);
+        }
         log.warn("Behavior analysis workflow fallback triggered for user: {}", activity.getUserId(), ex);
 
         return CompletableFuture.completedFuture(
@@ -702,7 +825,11 @@ public class AgentCoordinator {
     }
 
     public CompletableFuture<WorkflowResult<ThreatCorrelationReport>> fallbackThreatCorrelation(
-            List<NetworkPacket> networkData, List<UserActivity> userActivities, Exception ex) {
+            List<NetworkPacket> networkData, List<UserActivity> userActivities, CorrelationCriteria criteria,
+            Exception ex) {
+        if (isRejection(ex)) {
+            return CompletableFuture.failedFuture(ex);
+        }
         log.warn("Threat correlation workflow fallback triggered", ex);
 
         return CompletableFuture.completedFuture(
@@ -0,0 +1,83 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import com.mriridescent.threatdetection.agent.core.BoundedWindow;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Processes a large list of inputs in chunks with a bounded number of chunks in flight.
+ *
+ * Each chunk is handed to {@code submitChunk} and the next chunk is submitted as soon as one
+ * completes, so at most {@code maxInFlight * chunkSize} inputs are outstanding at any time.
+ * Every completed chunk and its results are passed to {@code onChunk} as they arrive. If a chunk
+ * fails, or the returned future is completed by the caller (for example when the workflow
+ * deadline runs out), chunks in flight are cancelled and no further chunks are submitted.
+ */
+@Slf4j
+final class ChunkedFanOut {
+
+    private ChunkedFanOut() {
+    }
+
+    /**
+     * Process {@code inputs} in chunks of {@code chunkSize}, at most {@code maxInFlight} at a time.
+     *
+     * @return Future of every chunk's results, in input order
+     */
+    static <T, R> CompletableFuture<List<R>> run(List<T> inputs, int chunkSize, int maxInFlight,
+                                                 Function<List<T>, CompletableFuture<List<R>>> submitChunk,
+                                                 BiConsumer<List<T>, List<R>> onChunk) {
+        if (chunkSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("chunkSize and maxInFlight must be at least 1");
+        }
+        List<List<T>> chunks = new ArrayList<>((inputs.size() + chunkSize - 1) / chunkSize);
+        for (int from = 0; from < inputs.size(); from += chunkSize) {
+            chunks.add(inputs.subList(from, Math.min(inputs.size(), from + chunkSize)));
+        }
+        if (chunks.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        AtomicReferenceArray<List<R>> results = new AtomicReferenceArray<>(chunks.size());
+        CompletableFuture<List<R>> result = new CompletableFuture<>();
+        BoundedWindow<List<R>> window = new BoundedWindow<>(chunks.size(), maxInFlight,
+                index -> submitChunk.apply(chunks.get(index)),
+                (index, chunkResults, failure) -> {
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                        return;
+                    }
+                    results.set(index, chunkResults);
+                    try {
+                        onChunk.accept(chunks.get(index), chunkResults);
+                    } catch (RuntimeException e) {
+                        log.warn("Chunk listener failed: {}", e.getMessage());
+                    }
+                });
+        // A failed chunk or the caller giving up stops the window and cancels the chunks in flight
+        result.whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                window.done().completeExceptionally(ex);
+            } else {
+                window.done().complete(null);
+            }
+        });
+        window.start().thenRun(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            List<R> all = new ArrayList<>();
+            for (int i = 0; i < results.length(); i++) {
+                all.addAll(results.get(i));
+            }
+            result.complete(all);
+        });
+        return result;
+    }
+}
@@ -0,0 +1,20 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import com.mriridescent.threatdetection.model.WorkflowResult;
+
+import java.util.function.Predicate;
+
+/**
+ * Resilience4j retry result predicate matching workflow results that failed for a transient
+ * reason. Workflows report failures as unsuccessful results rather than exceptions, so this is
+ * what lets {@code @Retry} re-run them; the retry resumes from the failed step.
+ *
+ * Configured as {@code resilience4j.retry.instances.<name>.resultPredicate}.
+ */
+public class RetryableWorkflowResultPredicate implements Predicate<Object> {
+
+    @Override
+    public boolean test(Object result) {
+        return result instanceof WorkflowResult<?> workflowResult && workflowResult.isRetryable();
+    }
+}
@@ -0,0 +1,94 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import com.mriridescent.threatdetection.model.WorkflowStep;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State of one workflow execution shared by its steps: the workflow input, the deadline and
+ * the result of every step that has finished.
+ *
+ * Each step has an idempotency key derived from the workflow key, which stays the same across
+ * retries of the same unit of work; steps with side effects pass it on so they take effect once.
+ *
+ * A step's result is published before any step that runs after it starts, so steps can read
+ * their dependencies' results without further synchronization. Steps working through many
+ * items report their progress with {@link #reportProgress}, which is recorded on the step.
+ *
+ * @param <I> Type of the workflow input
+ */
+public class WorkflowContext<I> {
+
+    // ConcurrentHashMap does not hold nulls; skipped steps and null results are stored as this marker
+    private static final Object NO_RESULT = new Object();
+
+    private final String workflowId;
+    private final String workflowKey;
+    private final I input;
+    private final WorkflowDeadline deadline;
+    private final Map<String, Object> results = new ConcurrentHashMap<>();
+    private final Map<String, WorkflowStep> runningSteps = new ConcurrentHashMap<>();
+
+    public WorkflowContext(String workflowId, String workflowKey, I input, WorkflowDeadline deadline) {
+        this.workflowId = workflowId;
+        this.workflowKey = workflowKey != null ? workflowKey : workflowId;
+        this.input = input;
+        this.deadline = deadline;
+    }
+
+    public String workflowId() {
+        return workflowId;
+    }
+
+    /**
+     * Idempotency key of a step: the same for every attempt of this workflow's unit of work.
+     */
+    public String idempotencyKey(String stepName) {
+        return workflowKey + "/" + stepName;
+    }
+
+    public I input() {
+        return input;
+    }
+
+    public WorkflowDeadline deadline() {
+        return deadline;
+    }
+
+    /**
+     * Result of a finished step, or {@code null} if it was skipped or produced no result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String stepName) {
+        Object result = results.get(stepName);
+        return result == NO_RESULT ? null : (T) result;
+    }
+
+    public boolean hasResult(String stepName) {
+        return get(stepName) != null;
+    }
+
+    /**
+     * Record how many of a running step's items have been processed.
+     */
+    public void reportProgress(String stepName, int completedItems, int totalItems) {
+        WorkflowStep step = runningSteps.get(stepName);
+        if (step != null) {
+            step.progress(completedItems, totalItems);
+        }
+    }
+
+    void started(WorkflowStep step) {
+        runningSteps.put(step.getStepName(), step);
+    }
+
+    void put(String stepName, Object result) {
+        runningSteps.remove(stepName);
+        results.put(stepName, result == null ? NO_RESULT : result);
+    }
+
+    void failed(String stepName) {
+        runningSteps.remove(stepName);
+    }
+}
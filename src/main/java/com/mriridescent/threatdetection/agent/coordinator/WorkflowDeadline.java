@@ -0,0 +1,75 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * End-to-end time budget shared by every step of a workflow.
+ *
+ * Steps are started through {@link #run}, which refuses to start a step once the budget
+ * is spent and times out a running step when the budget runs out. A timed-out agent
+ * future is completed exceptionally, so a task still waiting in the agent's mailbox is
+ * skipped instead of being processed for a workflow that has already given up on it.
+ */
+public final class WorkflowDeadline {
+
+    private final long deadlineNanos;
+
+    private WorkflowDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static WorkflowDeadline after(Duration budget) {
+        return new WorkflowDeadline(System.nanoTime() + budget.toNanos());
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Start a step within the remaining budget.
+     *
+     * @param stepName Name used in the timeout message
+     * @param step     Starts the step and returns its future
+     * @return Future that fails with {@link TimeoutException} if the budget runs out first
+     */
+    public <T> CompletableFuture<T> run(String stepName, Supplier<CompletableFuture<T>> step) {
+        return run(stepName, null, step);
+    }
+
+    /**
+     * Start a step within the remaining budget, additionally capped by a per-step limit.
+     */
+    public <T> CompletableFuture<T> run(String stepName, Duration stepLimit, Supplier<CompletableFuture<T>> step) {
+        long budgetNanos = deadlineNanos - System.nanoTime();
+        if (stepLimit != null) {
+            budgetNanos = Math.min(budgetNanos, stepLimit.toNanos());
+        }
+        if (budgetNanos <= 0) {
+            return CompletableFuture.failedFuture(timeout(stepName));
+        }
+
+        return step.get()
+                .orTimeout(budgetNanos, TimeUnit.NANOSECONDS)
+                .handle((value, ex) -> {
+                    if (ex == null) {
+                        return value;
+                    }
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    throw new CompletionException(cause instanceof TimeoutException ? timeout(stepName) : cause);
+                });
+    }
+
+    private static TimeoutException timeout(String stepName) {
+        return new TimeoutException("Workflow deadline exceeded during " + stepName);
+    }
+}
@@ -0,0 +1,210 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Declarative workflow: a DAG of named steps over a workflow input.
+ *
+ * Each step lists the steps it runs after and, optionally, a condition evaluated once those
+ * have finished; a step whose condition is false is skipped and its result is {@code null}.
+ * Steps with no path between them run concurrently, up to {@code maxParallelSteps} at a time.
+ *
+ * <pre>{@code
+ * WorkflowDefinition.<NetworkPacket>builder("Network Traffic Analysis")
+ *         .step("network-analysis", "Analyzing network packet")
+ *             .call(ctx -> orchestrator.submitTask("network-monitor", ctx.input()))
+ *         .step("pattern-learning", "Updating detection patterns")
+ *             .after("network-analysis")
+ *             .when(ctx -> ctx.get("network-analysis") != null)
+ *             .compute(ctx -> learn(ctx.input(), ctx.get("network-analysis")))
+ *         .build();
+ * }</pre>
+ *
+ * @param <I> Type of the workflow input
+ */
+@Getter
+public class WorkflowDefinition<I> {
+
+    private final String name;
+    private final int maxParallelSteps;
+    /** Steps in an order where every step follows the steps it runs after. */
+    private final List<Step<I>> steps;
+    private final Function<WorkflowContext<I>, String> summary;
+
+    private WorkflowDefinition(String name, int maxParallelSteps, List<Step<I>> steps,
+                               Function<WorkflowContext<I>, String> summary) {
+        this.name = name;
+        this.maxParallelSteps = maxParallelSteps;
+        this.steps = steps;
+        this.summary = summary;
+    }
+
+    public static <I> Builder<I> builder(String name) {
+        return new Builder<>(name);
+    }
+
+    /**
+     * A single node of the workflow DAG.
+     */
+    @Getter
+    public static class Step<I> {
+        private final String name;
+        private final String description;
+        private final List<String> after;
+        private final Predicate<WorkflowContext<I>> condition;
+        private final Function<WorkflowContext<I>, CompletableFuture<?>> action;
+
+        private Step(String name, String description, List<String> after,
+                     Predicate<WorkflowContext<I>> condition,
+                     Function<WorkflowContext<I>, CompletableFuture<?>> action) {
+            this.name = name;
+            this.description = description;
+            this.after = after;
+            this.condition = condition;
+            this.action = action;
+        }
+    }
+
+    public static class Builder<I> {
+        private final String name;
+        private final Map<String, Step<I>> steps = new LinkedHashMap<>();
+        private int maxParallelSteps = 4;
+        private Function<WorkflowContext<I>, String> summary = ctx -> "Workflow completed successfully";
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Start defining a step; finish it with {@link StepBuilder#call} or {@link StepBuilder#compute}.
+         */
+        public StepBuilder<I> step(String stepName, String description) {
+            if (steps.containsKey(stepName)) {
+                throw new IllegalArgumentException("Duplicate workflow step: " + stepName);
+            }
+            return new StepBuilder<>(this, stepName, description);
+        }
+
+        /**
+         * Maximum number of steps of one workflow execution running at the same time.
+         */
+        public Builder<I> maxParallelSteps(int maxParallelSteps) {
+            if (maxParallelSteps < 1) {
+                throw new IllegalArgumentException("maxParallelSteps must be at least 1");
+            }
+            this.maxParallelSteps = maxParallelSteps;
+            return this;
+        }
+
+        /**
+         * Message recorded on the execution when the workflow completes.
+         */
+        public Builder<I> summary(Function<WorkflowContext<I>, String> summary) {
+            this.summary = summary;
+            return this;
+        }
+
+        public WorkflowDefinition<I> build() {
+            return new WorkflowDefinition<>(name, maxParallelSteps, topologicalOrder(), summary);
+        }
+
+        /**
+         * Order steps so each follows its dependencies, rejecting unknown steps and cycles.
+         */
+        private List<Step<I>> topologicalOrder() {
+            Map<String, Integer> unmetDependencies = new HashMap<>();
+            Map<String, List<String>> dependents = new HashMap<>();
+            for (Step<I> step : steps.values()) {
+                for (String dependency : step.after) {
+                    if (!steps.containsKey(dependency)) {
+                        throw new IllegalStateException("Step " + step.name + " runs after unknown step " + dependency);
+                    }
+                    dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(step.name);
+                }
+                unmetDependencies.put(step.name, new HashSet<>(step.after).size());
+            }
+
+            List<Step<I>> ordered = new ArrayList<>(steps.size());
+            List<String> ready = new ArrayList<>();
+            unmetDependencies.forEach((step, unmet) -> {
+                if (unmet == 0) {
+                    ready.add(step);
+                }
+            });
+            // Keep declaration order among steps that become ready together
+            List<String> declared = new ArrayList<>(steps.keySet());
+            ready.sort((a, b) -> Integer.compare(declared.indexOf(a), declared.indexOf(b)));
+
+            while (!ready.isEmpty()) {
+                String next = ready.remove(0);
+                ordered.add(steps.get(next));
+                for (String dependent : dependents.getOrDefault(next, List.of())) {
+                    if (unmetDependencies.merge(dependent, -1, Integer::sum) == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+
+            if (ordered.size() != steps.size()) {
+                throw new IllegalStateException("Workflow " + name + " has a dependency cycle");
+            }
+            return List.copyOf(ordered);
+        }
+    }
+
+    public static class StepBuilder<I> {
+        private final Builder<I> parent;
+        private final String name;
+        private final String description;
+        private final Set<String> after = new HashSet<>();
+        private Predicate<WorkflowContext<I>> condition = ctx -> true;
+
+        private StepBuilder(Builder<I> parent, String name, String description) {
+            this.parent = parent;
+            this.name = name;
+            this.description = description;
+        }
+
+        /**
+         * Run this step only after the given steps have finished.
+         */
+        public StepBuilder<I> after(String... stepNames) {
+            after.addAll(List.of(stepNames));
+            return this;
+        }
+
+        /**
+         * Skip this step unless the condition holds once its dependencies have finished.
+         */
+        public StepBuilder<I> when(Predicate<WorkflowContext<I>> condition) {
+            this.condition = condition;
+            return this;
+        }
+
+        /**
+         * Asynchronous step, typically an agent submission; bounded by the workflow deadline.
+         */
+        public <T> Builder<I> call(Function<WorkflowContext<I>, CompletableFuture<T>> action) {
+            parent.steps.put(name, new Step<>(name, description, List.copyOf(after), condition, action::apply));
+            return parent;
+        }
+
+        /**
+         * Local computation run on the workflow executor.
+         */
+        public <T> Builder<I> compute(Function<WorkflowContext<I>, T> action) {
+            return call(ctx -> CompletableFuture.completedFuture(action.apply(ctx)));
+        }
+    }
+}
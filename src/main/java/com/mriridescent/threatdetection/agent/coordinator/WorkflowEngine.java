@@ -0,0 +1,243 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import com.mriridescent.threatdetection.model.WorkflowExecution;
+import com.mriridescent.threatdetection.model.WorkflowStep;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs {@link WorkflowDefinition}s.
+ *
+ * Every step starts as soon as the steps it runs after have finished, subject to the
+ * definition's parallelism bound, and runs within the workflow's {@link WorkflowDeadline}.
+ * The first failing step fails the workflow; steps that have not started by then are not run
+ * and the futures of steps still running are cancelled, so they can stop early.
+ * Each step's start, end and duration are recorded on the {@link WorkflowExecution} and
+ * published as {@code threat_detection_workflow_step_duration}.
+ *
+ * An execution can resume a failed earlier attempt of the same workflow: steps that attempt
+ * completed are not run again, their recorded results are reused instead.
+ */
+@Slf4j
+public class WorkflowEngine {
+
+    private final Executor executor;
+    private final MeterRegistry meterRegistry;
+
+    public WorkflowEngine(Executor executor, MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Execute a workflow.
+     *
+     * @return Future completed with the context holding every step's result once all steps
+     *         have finished, or exceptionally with the cause of the first failed step
+     */
+    public <I> CompletableFuture<WorkflowContext<I>> execute(WorkflowDefinition<I> definition, I input,
+                                                             WorkflowExecution execution, WorkflowDeadline deadline) {
+        return execute(definition, input, execution, null, deadline);
+    }
+
+    /**
+     * Execute a workflow, reusing the completed steps of a failed earlier attempt.
+     *
+     * @param previousAttempt Failed execution of the same workflow and input, or {@code null}
+     */
+    public <I> CompletableFuture<WorkflowContext<I>> execute(WorkflowDefinition<I> definition, I input,
+                                                             WorkflowExecution execution,
+                                                             WorkflowExecution previousAttempt,
+                                                             WorkflowDeadline deadline) {
+        WorkflowContext<I> context = new WorkflowContext<>(
+                execution.getWorkflowId(), execution.getWorkflowKey(), input, deadline);
+        CompletableFuture<WorkflowContext<I>> outcome = new CompletableFuture<>();
+        StepLimiter limiter = new StepLimiter(definition.getMaxParallelSteps());
+        AtomicInteger remaining = new AtomicInteger(definition.getSteps().size());
+        Set<CompletableFuture<?>> running = ConcurrentHashMap.newKeySet();
+        outcome.whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                running.forEach(action -> action.cancel(false));
+            }
+        });
+
+        if (definition.getSteps().isEmpty()) {
+            outcome.complete(context);
+            return outcome;
+        }
+
+        // Steps are in dependency order, so every dependency's future exists before its dependents
+        Map<String, CompletableFuture<Void>> finished = new HashMap<>();
+        for (WorkflowDefinition.Step<I> step : definition.getSteps()) {
+            CompletableFuture<?>[] dependencies = step.getAfter().stream()
+                    .map(finished::get)
+                    .toArray(CompletableFuture[]::new);
+
+            CompletableFuture<Void> stepFinished = CompletableFuture.allOf(dependencies)
+                    .thenComposeAsync(ignored -> runStep(definition, step, context, execution, previousAttempt,
+                            outcome, limiter, running), executor);
+
+            stepFinished.whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    outcome.completeExceptionally(unwrap(ex));
+                } else if (remaining.decrementAndGet() == 0) {
+                    outcome.complete(context);
+                }
+            });
+            finished.put(step.getName(), stepFinished);
+        }
+        return outcome;
+    }
+
+    private <I> CompletableFuture<Void> runStep(WorkflowDefinition<I> definition, WorkflowDefinition.Step<I> step,
+                                                WorkflowContext<I> context, WorkflowExecution execution,
+                                                WorkflowExecution previousAttempt,
+                                                CompletableFuture<?> outcome, StepLimiter limiter,
+                                                Set<CompletableFuture<?>> running) {
+        if (outcome.isDone()) {
+            // Another step already failed the workflow
+            return CompletableFuture.completedFuture(null);
+        }
+        WorkflowStep checkpoint = previousAttempt != null
+                ? previousAttempt.findCheckpoint(step.getName()).orElse(null)
+                : null;
+        if (checkpoint != null) {
+            execution.reuseStep(checkpoint);
+            context.put(step.getName(), checkpoint.getResult());
+            Counter.builder("threat_detection_workflow_steps_reused_total")
+                    .description("Workflow steps whose result was reused from an earlier attempt")
+                    .tag("workflow", definition.getName())
+                    .tag("step", step.getName())
+                    .register(meterRegistry)
+                    .increment();
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!step.getCondition().test(context)) {
+            execution.skipStep(step.getName(), step.getDescription());
+            context.put(step.getName(), null);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return limiter.submit(() -> {
+            WorkflowStep record = execution.startStep(step.getName(), step.getDescription(),
+                    context.idempotencyKey(step.getName()));
+            context.started(record);
+            return context.deadline()
+                    .run(step.getName(), () -> track(step.getAction().apply(context), running, outcome))
+                    .handle((result, ex) -> {
+                        Timer.builder("threat_detection_workflow_step_duration")
+                                .description("Duration of individual workflow steps")
+                                .tag("workflow", definition.getName())
+                                .tag("step", step.getName())
+                                .tag("outcome", ex == null ? "success" : "failure")
+                                .register(meterRegistry)
+                                .record(System.nanoTime() - record.getStartNanos(), TimeUnit.NANOSECONDS);
+
+                        if (ex != null) {
+                            Throwable cause = unwrap(ex);
+                            record.fail(cause.getMessage());
+                            context.failed(step.getName());
+                            log.debug("Step {} of workflow {} failed: {}",
+                                    step.getName(), context.workflowId(), cause.getMessage());
+                            throw new CompletionException(cause);
+                        }
+                        context.put(step.getName(), result);
+                        record.complete(result);
+                        return null;
+                    });
+        });
+    }
+
+    /**
+     * Keep a running step's future until it finishes, so a workflow failure can cancel it.
+     */
+    private static <T> CompletableFuture<T> track(CompletableFuture<T> action, Set<CompletableFuture<?>> running,
+                                                  CompletableFuture<?> outcome) {
+        running.add(action);
+        action.whenComplete((ignored, ex) -> running.remove(action));
+        if (outcome.isCompletedExceptionally()) {
+            // Failed while this step was starting
+            action.cancel(false);
+        }
+        return action;
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    /**
+     * Bounds how many steps of one execution run at once; excess steps start, in the order
+     * they became ready, as running steps finish.
+     */
+    private final class StepLimiter {
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private int permits;
+
+        private StepLimiter(int permits) {
+            this.permits = permits;
+        }
+
+        <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> step) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Runnable start = () -> {
+                CompletableFuture<T> running;
+                try {
+                    running = step.get();
+                } catch (RuntimeException e) {
+                    running = CompletableFuture.failedFuture(e);
+                }
+                running.whenComplete((value, ex) -> {
+                    release();
+                    if (ex != null) {
+                        result.completeExceptionally(unwrap(ex));
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            };
+
+            boolean startNow;
+            synchronized (this) {
+                startNow = permits > 0;
+                if (startNow) {
+                    permits--;
+                } else {
+                    waiting.add(start);
+                }
+            }
+            if (startNow) {
+                start.run();
+            }
+            return result;
+        }
+
+        private void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    permits++;
+                }
+            }
+            if (next != null) {
+                executor.execute(next);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown when the coordinator does not admit a workflow because it is saturated.
+ * Carries a hint for how long callers should wait before retrying; it is not retried
+ * internally, so an overload is not amplified by retries.
+ */
+@Getter
+public class WorkflowRejectedException extends RuntimeException {
+
+    private final String workflowType;
+    private final TaskPriority priority;
+    private final Duration retryAfter;
+
+    public WorkflowRejectedException(String workflowType, TaskPriority priority, String message, Duration retryAfter) {
+        super(message);
+        this.workflowType = workflowType;
+        this.priority = priority;
+        this.retryAfter = retryAfter;
+    }
+}
@@ -2,31 +2,43 @@ package com.mriridescent.threatdetection.agent.core;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * Abstract base implementation of the AgentFramework.
  * Provides common functionality for all AI agents.
+ *
+ * Task counters are {@link LongAdder}s and activity timestamps come from the
+ * {@link CoarseClock}, so status bookkeeping stays accurate and uncontended when many
+ * consumer threads finish tasks at once; {@link #getStatus()} assembles a snapshot on demand.
  */
 @Slf4j
 public abstract class AbstractAgent implements AgentFramework {
 
     @Getter
     protected final String agentId;
-    protected final ThreadPoolTaskExecutor executor;
-    protected final AgentStatus status;
+    protected final TaskExecutor executor;
+    protected final AgentMailbox mailbox;
     protected boolean initialized = false;
 
-    public AbstractAgent(String agentId, ThreadPoolTaskExecutor executor) {
+    private final LongAdder pendingTasks = new LongAdder();
+    private final LongAdder completedTasks = new LongAdder();
+    private volatile AgentStatus.AgentState state;
+    private volatile long lastActivityMillis;
+    private volatile String additionalInfo;
+
+    public AbstractAgent(String agentId, TaskExecutor executor, AgentMailboxFactory mailboxFactory) {
         this.agentId = agentId;
         this.executor = executor;
-        this.status = new AgentStatus();
-        this.status.setAgentId(agentId);
-        this.status.setState(AgentStatus.AgentState.INITIALIZING);
-        this.status.setLastActivity(LocalDateTime.now());
+        this.mailbox = mailboxFactory.create(agentId, executor);
+        updateState(AgentStatus.AgentState.INITIALIZING);
     }
 
     @Override
@@ -34,8 +46,7 @@ public abstract class AbstractAgent implements AgentFramework {
         log.info("Initializing agent: {}", agentId);
         // Specific initialization logic to be implemented by subclasses
         initialized = true;
-        status.setState(AgentStatus.AgentState.READY);
-        status.setLastActivity(LocalDateTime.now());
+        updateState(AgentStatus.AgentState.READY);
     }
 
     @Override
@@ -44,48 +55,128 @@ public abstract class AbstractAgent implements AgentFramework {
             initialize();
         }
         log.info("Starting agent: {}", agentId);
-        status.setState(AgentStatus.AgentState.PROCESSING);
-        status.setLastActivity(LocalDateTime.now());
+        updateState(AgentStatus.AgentState.PROCESSING);
     }
 
     @Override
     public void stop() {
         log.info("Stopping agent: {}", agentId);
-        status.setState(AgentStatus.AgentState.STOPPED);
-        status.setLastActivity(LocalDateTime.now());
+        updateState(AgentStatus.AgentState.STOPPED);
     }
 
     @Override
     public AgentStatus getStatus() {
+        AgentStatus status = new AgentStatus();
+        status.setAgentId(agentId);
+        status.setState(state);
+        status.setLastActivity(CoarseClock.toLocalDateTime(lastActivityMillis));
+        status.setPendingTasks(Math.max(0, pendingTasks.sum()));
+        status.setCompletedTasks(completedTasks.sum());
+        status.setQueueDepth(mailbox.depth());
+        status.setQueueCapacity(mailbox.capacity());
+        status.setQueueWait(mailbox.latency().queueWait());
+        status.setProcessing(mailbox.latency().processing());
+        status.setAdditionalInfo(additionalInfo);
         return status;
     }
 
+    /**
+     * Set the agent state and touch the activity timestamp, skipping writes that would not
+     * change anything so hot paths do not keep invalidating the shared cache lines.
+     */
+    private void updateState(AgentStatus.AgentState newState) {
+        if (state != newState) {
+            state = newState;
+        }
+        touch();
+    }
+
+    private void touch() {
+        long now = CoarseClock.currentTimeMillis();
+        if (lastActivityMillis != now) {
+            lastActivityMillis = now;
+        }
+    }
+
     @Override
     public <T, R> CompletableFuture<R> submitTask(AgentTask<T, R> task) {
         log.debug("Agent {} received task: {}", agentId, task.getTaskId());
         task.setTargetAgentId(agentId);
-        status.setPendingTasks(status.getPendingTasks() + 1);
-        status.setLastActivity(LocalDateTime.now());
+        return enqueue(1, task.getTaskId(), TaskPriority.of(task.getPriority()), () -> processTask(task));
+    }
+
+    @Override
+    public <T, R> CompletableFuture<List<R>> submitBatch(List<T> inputs, TaskPriority priority) {
+        if (inputs.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        log.debug("Agent {} received batch of {} tasks", agentId, inputs.size());
+        return enqueue(inputs.size(), "batch of " + inputs.size(), priority, () -> this.<T, R>processBatch(inputs));
+    }
 
-        return CompletableFuture.supplyAsync(() -> {
+    /**
+     * Queue work covering {@code taskCount} tasks as a single mailbox entry.
+     */
+    private <R> CompletableFuture<R> enqueue(int taskCount, String description, TaskPriority priority,
+                                             Supplier<R> work) {
+        pendingTasks.add(taskCount);
+        touch();
+
+        // Exactly one of the consumer or the abandonment callback claims the work
+        AtomicBoolean claimed = new AtomicBoolean();
+
+        CompletableFuture<R> future = mailbox.submit(priority, () -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
             try {
-                status.setState(AgentStatus.AgentState.PROCESSING);
-                R result = processTask(task);
-                status.setPendingTasks(status.getPendingTasks() - 1);
-                status.setCompletedTasks(status.getCompletedTasks() + 1);
-                if (status.getPendingTasks() == 0) {
-                    status.setState(AgentStatus.AgentState.READY);
+                updateState(AgentStatus.AgentState.PROCESSING);
+                R result = work.get();
+                pendingTasks.add(-taskCount);
+                completedTasks.add(taskCount);
+                if (pendingTasks.sum() <= 0) {
+                    updateState(AgentStatus.AgentState.READY);
                 }
                 return result;
             } catch (Exception e) {
-                log.error("Error processing task: {}", task.getTaskId(), e);
-                status.setState(AgentStatus.AgentState.ERROR);
-                status.setAdditionalInfo("Error: " + e.getMessage());
+                log.error("Error processing task: {}", description, e);
+                pendingTasks.add(-taskCount);
+                state = AgentStatus.AgentState.ERROR;
+                additionalInfo = "Error: " + e.getMessage();
                 throw new RuntimeException("Agent processing error", e);
             } finally {
-                status.setLastActivity(LocalDateTime.now());
+                touch();
+            }
+        });
+
+        // Refused, evicted, cancelled or timed out before it started: release its pending slots.
+        // The caller's future is returned as-is so cancelling it skips the queued work.
+        future.whenComplete((result, ex) -> {
+            if (ex != null && claimed.compareAndSet(false, true)) {
+                pendingTasks.add(-taskCount);
             }
-        }, executor);
+        });
+        return future;
+    }
+
+    /**
+     * Process a batch of inputs and return one result per input, in input order.
+     * The default implementation runs {@link #processTask} for each input using a single
+     * shared task envelope; agents with a cheaper vectorised path should override it.
+     *
+     * @param inputs The inputs to process
+     * @return Results aligned with the inputs, with {@code null} where an input produced no result
+     */
+    protected <T, R> List<R> processBatch(List<T> inputs) {
+        AgentTask<T, R> task = new AgentTask<>();
+        task.setTargetAgentId(agentId);
+
+        List<R> results = new ArrayList<>(inputs.size());
+        for (T input : inputs) {
+            task.setInput(input);
+            results.add(processTask(task));
+        }
+        return results;
     }
 
     /**
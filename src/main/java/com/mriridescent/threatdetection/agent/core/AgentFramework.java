@@ -1,5 +1,7 @@
 package com.mriridescent.threatdetection.agent.core;
 
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -8,6 +10,12 @@ import java.util.concurrent.CompletableFuture;
  */
 public interface AgentFramework {
 
+    /**
+     * Returns the unique identifier of the agent.
+     * @return Agent ID used for task routing
+     */
+    String getAgentId();
+
     /**
      * Initializes the agent with necessary configuration.
      */
@@ -29,10 +37,41 @@ public interface AgentFramework {
      */
     AgentStatus getStatus();
 
+    /**
+     * Answers an input on the caller's thread when the agent can do so cheaply and without
+     * queueing, such as a lookup known to miss. Submissions try this before creating a task.
+     * @param input Input about to be submitted
+     * @return The result, or empty to process the input as a task
+     */
+    default <T, R> Optional<R> answerInline(T input) {
+        return Optional.empty();
+    }
+
     /**
      * Submits a task to the agent for asynchronous processing.
+     * The task is queued in the agent's bounded mailbox; if the mailbox is full the
+     * returned future may complete with {@link AgentOverloadedException}. Queued tasks are
+     * scheduled by the {@link TaskPriority} class of {@link AgentTask#getPriority()}.
      * @param task Task to process
      * @return Future result of task processing
      */
     <T, R> CompletableFuture<R> submitTask(AgentTask<T, R> task);
+
+    /**
+     * Submits a batch of inputs to be processed together as one unit of work.
+     * Avoids the per-task envelope and queueing overhead of {@link #submitTask}.
+     * @param inputs Inputs to process
+     * @return Future list of results aligned with the inputs ({@code null} where an input produced no result)
+     */
+    default <T, R> CompletableFuture<List<R>> submitBatch(List<T> inputs) {
+        return submitBatch(inputs, TaskPriority.NORMAL);
+    }
+
+    /**
+     * Submits a batch of inputs to be processed together at the given priority.
+     * @param inputs   Inputs to process
+     * @param priority Scheduling class of the batch
+     * @return Future list of results aligned with the inputs
+     */
+    <T, R> CompletableFuture<List<R>> submitBatch(List<T> inputs, TaskPriority priority);
 }
@@ -0,0 +1,118 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Per-agent latency histograms for queue wait and processing time.
+ *
+ * Writers record into HdrHistogram {@link Recorder}s, which are wait-free and do not share
+ * a lock between recording threads. Readers periodically swap out the recorded interval and
+ * fold it into a rolling window, so percentiles reflect the last one to two minutes of
+ * traffic at a fixed memory cost regardless of the task rate.
+ */
+public class AgentLatencyRecorder {
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final long WINDOW_MILLIS = 60_000;
+    private static final long REFRESH_MILLIS = 1_000;
+
+    private final Phase queueWait = new Phase();
+    private final Phase processing = new Phase();
+
+    public AgentLatencyRecorder(String agentId, MeterRegistry meterRegistry) {
+        register(meterRegistry, agentId, "queue_wait", queueWait);
+        register(meterRegistry, agentId, "processing", processing);
+    }
+
+    private static void register(MeterRegistry meterRegistry, String agentId, String phase, Phase histogram) {
+        quantileGauge(meterRegistry, agentId, phase, histogram, "0.5", LatencySnapshot::getP50Millis);
+        quantileGauge(meterRegistry, agentId, phase, histogram, "0.9", LatencySnapshot::getP90Millis);
+        quantileGauge(meterRegistry, agentId, phase, histogram, "0.99", LatencySnapshot::getP99Millis);
+
+        Gauge.builder("threat_detection_agent_latency_max", histogram,
+                        h -> h.snapshot().getMaxMillis() / 1000.0)
+                .description("Maximum agent task latency over the recent window")
+                .baseUnit("seconds")
+                .tag("agent", agentId)
+                .tag("phase", phase)
+                .register(meterRegistry);
+    }
+
+    private static void quantileGauge(MeterRegistry meterRegistry, String agentId, String phase, Phase histogram,
+                                      String quantile, ToDoubleFunction<LatencySnapshot> millis) {
+        Gauge.builder("threat_detection_agent_latency", histogram,
+                        h -> millis.applyAsDouble(h.snapshot()) / 1000.0)
+                .description("Agent task latency percentile over the recent window")
+                .baseUnit("seconds")
+                .tag("agent", agentId)
+                .tag("phase", phase)
+                .tag("quantile", quantile)
+                .register(meterRegistry);
+    }
+
+    public void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    public void recordProcessing(long nanos) {
+        processing.record(nanos);
+    }
+
+    public LatencySnapshot queueWait() {
+        return queueWait.snapshot();
+    }
+
+    public LatencySnapshot processing() {
+        return processing.snapshot();
+    }
+
+    private static final class Phase {
+        // Values are recorded in microseconds
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+
+        private Histogram interval;
+        private Histogram current = new Histogram(SIGNIFICANT_DIGITS);
+        private Histogram previous = new Histogram(SIGNIFICANT_DIGITS);
+        private long windowStart = CoarseClock.currentTimeMillis();
+
+        private LatencySnapshot cached = LatencySnapshot.EMPTY;
+        private long cachedAt;
+
+        void record(long nanos) {
+            recorder.recordValue(Math.max(0, nanos / 1_000));
+        }
+
+        synchronized LatencySnapshot snapshot() {
+            long now = CoarseClock.currentTimeMillis();
+            if (cachedAt != 0 && now - cachedAt < REFRESH_MILLIS) {
+                return cached;
+            }
+
+            interval = recorder.getIntervalHistogram(interval);
+            current.add(interval);
+            if (now - windowStart >= WINDOW_MILLIS) {
+                Histogram recycled = previous;
+                previous = current;
+                current = recycled;
+                current.reset();
+                windowStart = now;
+            }
+
+            Histogram window = previous.copy();
+            window.add(current);
+            cached = window.getTotalCount() == 0 ? LatencySnapshot.EMPTY : new LatencySnapshot(
+                    window.getTotalCount(),
+                    window.getValueAtPercentile(50) / 1000.0,
+                    window.getValueAtPercentile(90) / 1000.0,
+                    window.getValueAtPercentile(99) / 1000.0,
+                    window.getMaxValue() / 1000.0);
+            cachedAt = now;
+            return cached;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bounded task queue owned by a single agent.
+ *
+ * Submissions are buffered in the mailbox and drained by at most {@code consumers}
+ * concurrent consumer loops running on the shared executor. A slow agent can therefore
+ * occupy no more than its own consumer slots, and the executor queue never holds more
+ * than one drain job per slot, so bursts surface as mailbox backpressure rather than
+ * {@link RejectedExecutionException}s.
+ *
+ * Queued tasks are kept per {@link TaskPriority} class. Consumers take the task with the
+ * highest effective priority: its class rank plus one class per aging interval waited, so
+ * urgent work jumps the queue while long-waiting background work is never starved. A task
+ * only starts when its class has a free slot in the shared {@link PriorityScheduler}.
+ *
+ * Only submitters that opted in with {@link #allowBlocking()}, such as API request threads,
+ * wait for space in a full {@link OverflowPolicy#BLOCK} mailbox. Agent consumers, workflow steps
+ * and future callbacks are refused at once instead, so one full mailbox cannot stall unrelated
+ * agents, or deadlock two agents that submit to each other.
+ */
+@Slf4j
+public class AgentMailbox {
+
+    /**
+     * What to do with a submission when the mailbox is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the submitter until space frees up or the block timeout elapses, if it opted in
+         * with {@link #allowBlocking()}; refuse other submitters as {@link #REJECT} does.
+         */
+        BLOCK,
+        /** Evict the oldest queued task to make room for the new one. */
+        DROP_OLDEST,
+        /** Fail the submission immediately with a retry-after hint. */
+        REJECT
+    }
+
+    /**
+     * Mailbox sizing and overflow behaviour.
+     */
+    @Getter
+    @Builder
+    public static class Settings {
+        @Builder.Default
+        private final int capacity = 1000;
+        @Builder.Default
+        private final int consumers = 2;
+        @Builder.Default
+        private final int drainBatchSize = 64;
+        @Builder.Default
+        private final OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+        @Builder.Default
+        private final Duration blockTimeout = Duration.ofMillis(500);
+    }
+
+    /**
+     * Scope within which the current thread's submissions may block; see {@link #allowBlocking()}.
+     */
+    public interface BlockingScope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final Duration MIN_RETRY_AFTER = Duration.ofMillis(100);
+    private static final ThreadLocal<Boolean> MAY_BLOCK = ThreadLocal.withInitial(() -> false);
+
+    private final String agentId;
+    private final Settings settings;
+    private final Executor executor;
+    private final PriorityScheduler scheduler;
+    private final AtomicInteger activeConsumers = new AtomicInteger();
+
+    // One FIFO per priority class, indexed by ordinal and guarded by lock
+    private final ArrayDeque<Envelope<?>>[] queues;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger depth = new AtomicInteger();
+
+    // Exponentially weighted moving average of task service time, used for retry-after hints
+    private final AtomicLong avgServiceNanos = new AtomicLong(TimeUnit.MILLISECONDS.toNanos(10));
+
+    private final Map<TaskPriority, Timer> waitTimers = new EnumMap<>(TaskPriority.class);
+    private final AgentLatencyRecorder latency;
+    private final Counter rejectedCounter;
+    private final Counter droppedCounter;
+    private final Counter blockTimeoutCounter;
+    private final Counter executorRejectedCounter;
+
+    @SuppressWarnings("unchecked")
+    public AgentMailbox(String agentId, Settings settings, Executor executor,
+                        PriorityScheduler scheduler, MeterRegistry meterRegistry) {
+        this.agentId = agentId;
+        this.settings = settings;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.queues = new ArrayDeque[TaskPriority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+
+        Gauge.builder("threat_detection_agent_mailbox_depth", depth, AtomicInteger::get)
+                .description("Number of tasks waiting in the agent mailbox")
+                .tag("agent", agentId)
+                .register(meterRegistry);
+
+        Gauge.builder("threat_detection_agent_mailbox_capacity", settings, Settings::getCapacity)
+                .description("Configured capacity of the agent mailbox")
+                .tag("agent", agentId)
+                .register(meterRegistry);
+
+        latency = new AgentLatencyRecorder(agentId, meterRegistry);
+        for (TaskPriority priority : TaskPriority.values()) {
+            waitTimers.put(priority, Timer.builder("threat_detection_agent_mailbox_wait")
+                    .description("Time tasks spend queued in the agent mailbox before processing")
+                    .tag("agent", agentId)
+                    .tag("priority", priority.tag())
+                    .register(meterRegistry));
+        }
+
+        rejectedCounter = overflowCounter(meterRegistry, "rejected");
+        droppedCounter = overflowCounter(meterRegistry, "dropped");
+        blockTimeoutCounter = overflowCounter(meterRegistry, "block_timeout");
+        executorRejectedCounter = overflowCounter(meterRegistry, "executor_rejected");
+
+        scheduler.register(this::scheduleConsumer);
+    }
+
+    private Counter overflowCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("threat_detection_agent_mailbox_overflow_total")
+                .description("Submissions refused or evicted because the agent mailbox was full")
+                .tag("agent", agentId)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Let the current thread wait for space in full {@link OverflowPolicy#BLOCK} mailboxes until the
+     * returned scope is closed. Only threads that may stall without holding up agents opt in.
+     */
+    public static BlockingScope allowBlocking() {
+        boolean previous = MAY_BLOCK.get();
+        MAY_BLOCK.set(true);
+        return () -> MAY_BLOCK.set(previous);
+    }
+
+    /**
+     * Enqueue a unit of work at {@link TaskPriority#NORMAL} priority.
+     */
+    public <R> CompletableFuture<R> submit(Supplier<R> work) {
+        return submit(TaskPriority.NORMAL, work);
+    }
+
+    /**
+     * Enqueue a unit of work, applying the overflow policy if the mailbox is full.
+     *
+     * @param priority Scheduling class of the work
+     * @param work     The work to run on a mailbox consumer
+     * @return Future completed with the work's result, or exceptionally with
+     *         {@link AgentOverloadedException} if the submission was refused or evicted
+     */
+    public <R> CompletableFuture<R> submit(TaskPriority priority, Supplier<R> work) {
+        Envelope<R> envelope = new Envelope<>(priority, work);
+
+        if (!enqueue(envelope)) {
+            return envelope.future;
+        }
+
+        scheduleConsumer();
+        return envelope.future;
+    }
+
+    private boolean enqueue(Envelope<?> envelope) {
+        Envelope<?> evicted = null;
+        String refusal = null;
+
+        lock.lock();
+        try {
+            if (depth.get() < settings.getCapacity()) {
+                add(envelope);
+                return true;
+            }
+
+            switch (settings.getOverflowPolicy()) {
+                case BLOCK -> {
+                    if (!MAY_BLOCK.get()) {
+                        rejectedCounter.increment();
+                        refusal = "Mailbox full";
+                        break;
+                    }
+                    long nanos = settings.getBlockTimeout().toNanos();
+                    try {
+                        while (depth.get() >= settings.getCapacity() && nanos > 0) {
+                            nanos = notFull.awaitNanos(nanos);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (depth.get() < settings.getCapacity()) {
+                        add(envelope);
+                        return true;
+                    }
+                    blockTimeoutCounter.increment();
+                    refusal = "Mailbox full, timed out after " + settings.getBlockTimeout().toMillis() + "ms";
+                }
+                case DROP_OLDEST -> {
+                    // Evict the oldest task of the least urgent class, unless the newcomer is less urgent still
+                    evicted = pollOldest(envelope.priority);
+                    if (evicted != null) {
+                        droppedCounter.increment();
+                        add(envelope);
+                    } else {
+                        rejectedCounter.increment();
+                        refusal = "Mailbox full of higher-priority tasks";
+                    }
+                }
+                default -> {
+                    rejectedCounter.increment();
+                    refusal = "Mailbox full";
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Fail futures outside the lock so their callbacks cannot run while holding it
+        if (evicted != null) {
+            evicted.future.completeExceptionally(overloaded("Task evicted by newer submission"));
+            return true;
+        }
+        envelope.future.completeExceptionally(overloaded(refusal));
+        return false;
+    }
+
+    private void add(Envelope<?> envelope) {
+        queues[envelope.priority.ordinal()].addLast(envelope);
+        depth.incrementAndGet();
+    }
+
+    private Envelope<?> pollOldest(TaskPriority atOrBelow) {
+        for (int i = queues.length - 1; i >= atOrBelow.ordinal(); i--) {
+            Envelope<?> oldest = queues[i].pollFirst();
+            if (oldest != null) {
+                depth.decrementAndGet();
+                return oldest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take the queued task with the highest effective priority whose class has a free slot,
+     * claiming that slot. Effective priority is the class rank, in aging intervals, plus the
+     * time the task has waited, so a task gains one class per aging interval spent queued.
+     */
+    private Envelope<?> poll() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long aging = scheduler.agingNanos();
+            boolean[] skipped = new boolean[queues.length];
+
+            while (true) {
+                int best = -1;
+                long bestScore = Long.MIN_VALUE;
+                for (int i = 0; i < queues.length; i++) {
+                    Envelope<?> head = queues[i].peekFirst();
+                    if (head == null || skipped[i]) {
+                        continue;
+                    }
+                    long score = (queues.length - 1 - i) * aging + (now - head.enqueuedAt);
+                    if (score > bestScore) {
+                        best = i;
+                        bestScore = score;
+                    }
+                }
+                if (best < 0) {
+                    return null;
+                }
+                if (scheduler.tryAcquire(TaskPriority.values()[best])) {
+                    Envelope<?> envelope = queues[best].pollFirst();
+                    depth.decrementAndGet();
+                    notFull.signal();
+                    return envelope;
+                }
+                skipped[best] = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether any queued task belongs to a class with a free running slot.
+     */
+    private boolean hasRunnableWork() {
+        if (depth.get() == 0) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < queues.length; i++) {
+                if (!queues[i].isEmpty() && scheduler.hasCapacity(TaskPriority.values()[i])) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private AgentOverloadedException overloaded(String reason) {
+        return new AgentOverloadedException(agentId,
+                "Agent " + agentId + " overloaded: " + reason, retryAfterHint());
+    }
+
+    /**
+     * Start another consumer loop if there is runnable work and a free consumer slot.
+     */
+    private void scheduleConsumer() {
+        while (hasRunnableWork()) {
+            int active = activeConsumers.get();
+            if (active >= settings.getConsumers()) {
+                return;
+            }
+            if (activeConsumers.compareAndSet(active, active + 1)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Executor saturated by something other than mailbox consumers. Draining here would
+                    // run agent work on the submitter's thread, so give the slot back instead; a running
+                    // consumer re-checks when it finishes, and without one the queued work is refused.
+                    if (activeConsumers.decrementAndGet() == 0) {
+                        log.warn("Executor rejected consumer for agent {}, refusing queued tasks", agentId);
+                        refuseQueued("Executor rejected consumer");
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void refuseQueued(String reason) {
+        ArrayDeque<Envelope<?>> refused = new ArrayDeque<>();
+        lock.lock();
+        try {
+            for (ArrayDeque<Envelope<?>> queue : queues) {
+                refused.addAll(queue);
+                queue.clear();
+            }
+            depth.addAndGet(-refused.size());
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        executorRejectedCounter.increment(refused.size());
+        for (Envelope<?> envelope : refused) {
+            envelope.future.completeExceptionally(overloaded(reason));
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < settings.getDrainBatchSize(); i++) {
+                Envelope<?> envelope = poll();
+                if (envelope == null) {
+                    break;
+                }
+                envelope.run();
+            }
+        } finally {
+            activeConsumers.decrementAndGet();
+            // Re-check after releasing the slot so a concurrent submit cannot be stranded
+            scheduleConsumer();
+        }
+    }
+
+    /**
+     * Estimate how long it will take to work through the current backlog.
+     */
+    public Duration retryAfterHint() {
+        long backlogNanos = depth.get() * avgServiceNanos.get() / Math.max(1, settings.getConsumers());
+        Duration hint = Duration.ofNanos(backlogNanos);
+        return hint.compareTo(MIN_RETRY_AFTER) < 0 ? MIN_RETRY_AFTER : hint;
+    }
+
+    public int depth() {
+        return depth.get();
+    }
+
+    public int capacity() {
+        return settings.getCapacity();
+    }
+
+    /**
+     * Queue wait and processing latency of tasks run from this mailbox.
+     */
+    public AgentLatencyRecorder latency() {
+        return latency;
+    }
+
+    private void recordServiceTime(long nanos) {
+        avgServiceNanos.updateAndGet(avg -> avg + (nanos - avg) / 8);
+    }
+
+    private final class Envelope<R> {
+        private final TaskPriority priority;
+        private final Supplier<R> work;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+
+        private Envelope(TaskPriority priority, Supplier<R> work) {
+            this.priority = priority;
+            this.work = work;
+        }
+
+        /**
+         * Run the work; the caller has already claimed a running slot for its class.
+         */
+        private void run() {
+            long startedAt = System.nanoTime();
+            waitTimers.get(priority).record(startedAt - enqueuedAt, TimeUnit.NANOSECONDS);
+            latency.recordQueueWait(startedAt - enqueuedAt);
+
+            try {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(work.get());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+                long serviceNanos = System.nanoTime() - startedAt;
+                recordServiceTime(serviceNanos);
+                latency.recordProcessing(serviceNanos);
+            } finally {
+                scheduler.release(priority);
+            }
+        }
+    }
+}
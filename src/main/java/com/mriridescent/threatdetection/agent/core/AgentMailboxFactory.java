@@ -0,0 +1,70 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Creates agent mailboxes from configuration.
+ *
+ * Defaults are read from {@code threat-detection.agents.mailbox.*} and can be overridden
+ * per agent under {@code threat-detection.agents.<agent-id>.mailbox.*}. All mailboxes share one
+ * {@link PriorityScheduler} configured under {@code threat-detection.agents.scheduler.*}.
+ */
+@Component
+public class AgentMailboxFactory {
+
+    private static final String PREFIX = "threat-detection.agents.";
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final PriorityScheduler scheduler;
+
+    public AgentMailboxFactory(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+        this.scheduler = createScheduler();
+    }
+
+    public AgentMailbox create(String agentId, Executor executor) {
+        return new AgentMailbox(agentId, settingsFor(agentId), executor, scheduler, meterRegistry);
+    }
+
+    private PriorityScheduler createScheduler() {
+        Map<TaskPriority, Integer> maxConcurrent = new EnumMap<>(TaskPriority.class);
+        for (TaskPriority priority : TaskPriority.values()) {
+            Integer limit = environment.getProperty(
+                    PREFIX + "scheduler.max-concurrent." + priority.tag(), Integer.class);
+            if (limit != null) {
+                maxConcurrent.put(priority, limit);
+            }
+        }
+        Duration agingInterval = environment.getProperty(
+                PREFIX + "scheduler.aging-interval", Duration.class, Duration.ofMillis(500));
+
+        return new PriorityScheduler(maxConcurrent, agingInterval, meterRegistry);
+    }
+
+    AgentMailbox.Settings settingsFor(String agentId) {
+        AgentMailbox.Settings defaults = AgentMailbox.Settings.builder().build();
+
+        return AgentMailbox.Settings.builder()
+                .capacity(property(agentId, "capacity", Integer.class, defaults.getCapacity()))
+                .consumers(property(agentId, "consumers", Integer.class, defaults.getConsumers()))
+                .drainBatchSize(property(agentId, "drain-batch-size", Integer.class, defaults.getDrainBatchSize()))
+                .overflowPolicy(property(agentId, "overflow-policy", AgentMailbox.OverflowPolicy.class,
+                        defaults.getOverflowPolicy()))
+                .blockTimeout(property(agentId, "block-timeout", Duration.class, defaults.getBlockTimeout()))
+                .build();
+    }
+
+    private <V> V property(String agentId, String name, Class<V> type, V defaultValue) {
+        V shared = environment.getProperty(PREFIX + "mailbox." + name, type, defaultValue);
+        return environment.getProperty(PREFIX + agentId + ".mailbox." + name, type, shared);
+    }
+}
@@ -0,0 +1,22 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown when an agent cannot accept more work because its mailbox is full.
+ * Carries a hint for how long callers should wait before retrying.
+ */
+@Getter
+public class AgentOverloadedException extends RuntimeException {
+
+    private final String agentId;
+    private final Duration retryAfter;
+
+    public AgentOverloadedException(String agentId, String message, Duration retryAfter) {
+        super(message);
+        this.agentId = agentId;
+        this.retryAfter = retryAfter;
+    }
+}
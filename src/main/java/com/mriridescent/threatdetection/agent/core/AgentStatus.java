@@ -4,15 +4,19 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 /**
- * Represents the current status of an AI agent.
+ * Point-in-time snapshot of the status of an AI agent.
  */
 @Data
 public class AgentStatus {
     private String agentId;
     private AgentState state;
     private LocalDateTime lastActivity;
-    private int pendingTasks;
-    private int completedTasks;
+    private long pendingTasks;
+    private long completedTasks;
+    private int queueDepth;
+    private int queueCapacity;
+    private LatencySnapshot queueWait;
+    private LatencySnapshot processing;
     private String additionalInfo;
 
     public enum AgentState {
@@ -0,0 +1,142 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Submits a numbered sequence of tasks with at most {@code maxInFlight} outstanding.
+ *
+ * Task {@code i} is started by {@code submit.apply(i)}, and the next task is started as soon as
+ * one completes. Each task's outcome is passed to {@code onComplete} as it arrives, in completion
+ * order; tasks that complete synchronously report on the submitting thread. Completing
+ * {@link #done()} stops further submissions, and completing it exceptionally also cancels the
+ * tasks in flight.
+ *
+ * @param <R> Result type of each task
+ */
+@Slf4j
+public final class BoundedWindow<R> {
+
+    /**
+     * Receives the outcome of one task.
+     */
+    @FunctionalInterface
+    public interface Completion<R> {
+        /**
+         * @param index   Number of the task
+         * @param result  Result of the task, or {@code null} if it failed
+         * @param failure Why the task failed, or {@code null}
+         */
+        void onComplete(int index, R result, Throwable failure);
+    }
+
+    private final int count;
+    private final int maxInFlight;
+    private final IntFunction<CompletableFuture<R>> submit;
+    private final Completion<R> onComplete;
+    private final Set<CompletableFuture<R>> inFlight = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    // Guarded by this
+    private int next;
+    private int running;
+    private int completed;
+    private boolean pumping;
+
+    public BoundedWindow(int count, int maxInFlight, IntFunction<CompletableFuture<R>> submit,
+                         Completion<R> onComplete) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.count = count;
+        this.maxInFlight = maxInFlight;
+        this.submit = submit;
+        this.onComplete = onComplete;
+        done.whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                inFlight.forEach(task -> task.cancel(false));
+            }
+        });
+    }
+
+    /**
+     * Submit the first tasks, up to {@code maxInFlight}.
+     *
+     * @return {@link #done()}
+     */
+    public CompletableFuture<Void> start() {
+        pump();
+        return done;
+    }
+
+    /**
+     * Future completed once every task has completed and reported.
+     */
+    public CompletableFuture<Void> done() {
+        return done;
+    }
+
+    /**
+     * Submit tasks until the window is full. Tasks completing during the loop call back in here;
+     * they only free a slot, and the running loop fills it.
+     */
+    private void pump() {
+        synchronized (this) {
+            if (pumping) {
+                return;
+            }
+            pumping = true;
+        }
+        while (true) {
+            int index;
+            synchronized (this) {
+                if (done.isDone() || next == count || running == maxInFlight) {
+                    pumping = false;
+                    if (completed == count) {
+                        done.complete(null);
+                    }
+                    return;
+                }
+                index = next++;
+                running++;
+            }
+            submit(index);
+        }
+    }
+
+    private void submit(int index) {
+        CompletableFuture<R> task;
+        try {
+            task = submit.apply(index);
+        } catch (RuntimeException e) {
+            task = CompletableFuture.failedFuture(e);
+        }
+        inFlight.add(task);
+        if (done.isCompletedExceptionally()) {
+            // Stopped while this task was being submitted
+            task.cancel(false);
+        }
+        CompletableFuture<R> submitted = task;
+        task.whenComplete((result, ex) -> completed(index, submitted, result, ex));
+    }
+
+    private void completed(int index, CompletableFuture<R> task, R result, Throwable ex) {
+        inFlight.remove(task);
+        try {
+            onComplete.onComplete(index, result,
+                    ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+        } catch (RuntimeException e) {
+            log.warn("Completion handler for task {} failed: {}", index, e.getMessage());
+        }
+        synchronized (this) {
+            running--;
+            completed++;
+        }
+        pump();
+    }
+}
@@ -0,0 +1,50 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wall clock with millisecond-level resolution that is cheap to read on hot paths.
+ *
+ * A daemon thread refreshes a cached timestamp every {@value #TICK_MILLIS}ms, so reading
+ * the time is a single volatile load instead of a system call and, for
+ * {@link LocalDateTime}, an allocation and a time-zone lookup per read.
+ */
+public final class CoarseClock {
+
+    static final long TICK_MILLIS = 10;
+
+    private static volatile long currentMillis = System.currentTimeMillis();
+
+    static {
+        Thread ticker = new Thread(CoarseClock::tick, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private CoarseClock() {
+    }
+
+    /**
+     * Current time in epoch milliseconds, accurate to about {@value #TICK_MILLIS}ms.
+     */
+    public static long currentTimeMillis() {
+        return currentMillis;
+    }
+
+    /**
+     * Convert a timestamp from {@link #currentTimeMillis()} for display.
+     */
+    public static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static void tick() {
+        while (true) {
+            currentMillis = System.currentTimeMillis();
+            LockSupport.parkNanos(TICK_MILLIS * 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import lombok.Value;
+
+/**
+ * Latency distribution of one phase of agent task handling over the recent window.
+ * All durations are in milliseconds.
+ */
+@Value
+public class LatencySnapshot {
+    public static final LatencySnapshot EMPTY = new LatencySnapshot(0, 0, 0, 0, 0);
+
+    long count;
+    double p50Millis;
+    double p90Millis;
+    double p99Millis;
+    double maxMillis;
+}
@@ -0,0 +1,99 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cross-agent scheduling policy shared by every agent mailbox.
+ *
+ * Caps how many tasks of each {@link TaskPriority} may run at once across all agents, so
+ * background classes cannot occupy every executor thread during an incident, and defines the
+ * aging interval mailboxes use to promote long-waiting tasks past newer, more urgent ones.
+ */
+public class PriorityScheduler {
+
+    private final Map<TaskPriority, Integer> limits = new EnumMap<>(TaskPriority.class);
+    private final Map<TaskPriority, AtomicInteger> running = new EnumMap<>(TaskPriority.class);
+    private final long agingNanos;
+
+    // Mailboxes to wake when a capped class frees a slot
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param maxConcurrent Per-class concurrency caps; classes without an entry are unlimited
+     * @param agingInterval Wait after which a queued task is promoted by one class
+     */
+    public PriorityScheduler(Map<TaskPriority, Integer> maxConcurrent, Duration agingInterval,
+                             MeterRegistry meterRegistry) {
+        this.agingNanos = Math.max(1, agingInterval.toNanos());
+
+        for (TaskPriority priority : TaskPriority.values()) {
+            limits.put(priority, maxConcurrent.getOrDefault(priority, Integer.MAX_VALUE));
+            AtomicInteger count = new AtomicInteger();
+            running.put(priority, count);
+
+            Gauge.builder("threat_detection_agent_priority_running", count, AtomicInteger::get)
+                    .description("Agent tasks currently running in each priority class")
+                    .tag("priority", priority.tag())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Scheduler without concurrency caps.
+     */
+    public static PriorityScheduler unlimited(Duration agingInterval, MeterRegistry meterRegistry) {
+        return new PriorityScheduler(Map.of(), agingInterval, meterRegistry);
+    }
+
+    public long agingNanos() {
+        return agingNanos;
+    }
+
+    /**
+     * Whether a task of the given class could start now.
+     */
+    public boolean hasCapacity(TaskPriority priority) {
+        return running.get(priority).get() < limits.get(priority);
+    }
+
+    /**
+     * Claim a running slot for the given class.
+     *
+     * @return {@code false} if the class is at its concurrency cap
+     */
+    public boolean tryAcquire(TaskPriority priority) {
+        AtomicInteger count = running.get(priority);
+        int limit = limits.get(priority);
+        while (true) {
+            int current = count.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release a running slot and wake mailboxes that may be waiting on it.
+     */
+    public void release(TaskPriority priority) {
+        running.get(priority).decrementAndGet();
+        if (limits.get(priority) != Integer.MAX_VALUE) {
+            listeners.forEach(Runnable::run);
+        }
+    }
+
+    void register(Runnable onSlotFreed) {
+        listeners.add(onSlotFreed);
+    }
+}
@@ -0,0 +1,174 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into one in-flight call.
+ *
+ * The first caller for a key starts the call; callers arriving while it is in flight share
+ * its outcome instead of starting their own. Once the call completes the key is released, so
+ * the next caller starts a fresh call. Each caller receives its own copy of the shared future,
+ * so one caller timing out or cancelling does not affect the others. Once every caller has
+ * timed out or cancelled, the call itself is cancelled and the key released, so work nobody
+ * waits for any more is not carried out.
+ *
+ * Publishes {@code threat_detection_single_flight_calls_total} tagged {@code result=started},
+ * {@code result=coalesced} or {@code result=abandoned}, and the number of calls in flight, per
+ * {@code flight} name.
+ *
+ * @param <K> Key type
+ * @param <V> Result type
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter started;
+    private final Counter coalesced;
+    private final Counter abandoned;
+
+    public SingleFlight(String name, MeterRegistry meterRegistry) {
+        this.started = callCounter(meterRegistry, name, "started");
+        this.coalesced = callCounter(meterRegistry, name, "coalesced");
+        this.abandoned = callCounter(meterRegistry, name, "abandoned");
+        Gauge.builder("threat_detection_single_flight_in_flight", inFlight, Map::size)
+                .description("Calls in flight that later callers for the same key join")
+                .tag("flight", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start {@code call} for the key, or join the call already in flight for it.
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        while (true) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                started.increment();
+                return start(key, flight, call);
+            }
+            CompletableFuture<V> waiter = existing.join(() -> leave(key, existing));
+            if (waiter != null) {
+                coalesced.increment();
+                return waiter;
+            }
+            // Every caller of the existing call left while this one was joining it
+            inFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * Number of keys with a call in flight.
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    private CompletableFuture<V> start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((value, ex) -> {
+            // Release the key first, so callers that see the outcome and call again start afresh
+            inFlight.remove(key, flight);
+            if (ex != null) {
+                flight.outcome.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null
+                        ? ex.getCause() : ex);
+            } else {
+                flight.outcome.complete(value);
+            }
+        });
+        flight.started(result);
+        return flight.waiter(() -> leave(key, flight));
+    }
+
+    private void leave(K key, Flight<V> flight) {
+        CompletableFuture<V> call = flight.leave();
+        if (call != null) {
+            inFlight.remove(key, flight);
+            if (call.cancel(false)) {
+                abandoned.increment();
+            }
+        }
+    }
+
+    private static Counter callCounter(MeterRegistry meterRegistry, String name, String result) {
+        return Counter.builder("threat_detection_single_flight_calls_total")
+                .description("Calls started, calls that joined a call already in flight for the same key, "
+                        + "and calls cancelled because every caller left")
+                .tag("flight", name)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A call in flight and the callers waiting for it.
+     */
+    private static final class Flight<V> {
+        private final CompletableFuture<V> outcome = new CompletableFuture<>();
+
+        // Guarded by this; the starting caller counts as a waiter from the outset
+        private CompletableFuture<V> call;
+        private int waiters = 1;
+        private boolean abandoned;
+
+        /**
+         * Record the started call; the starting caller has not left yet, so nobody has tried to cancel it.
+         */
+        private synchronized void started(CompletableFuture<V> call) {
+            this.call = call;
+        }
+
+        /**
+         * Join the call as another waiter.
+         *
+         * @return The waiter's copy of the outcome, or {@code null} if the call was abandoned
+         */
+        private CompletableFuture<V> join(Runnable onLeave) {
+            synchronized (this) {
+                if (abandoned) {
+                    return null;
+                }
+                waiters++;
+            }
+            return waiter(onLeave);
+        }
+
+        /**
+         * Copy of the outcome for one waiter; {@code onLeave} runs if the copy completes first.
+         */
+        private CompletableFuture<V> waiter(Runnable onLeave) {
+            CompletableFuture<V> waiter = outcome.copy();
+            waiter.whenComplete((value, ex) -> {
+                if (!outcome.isDone()) {
+                    onLeave.run();
+                }
+            });
+            return waiter;
+        }
+
+        /**
+         * Count a waiter that timed out or cancelled.
+         *
+         * @return The call to cancel if this was the last waiter, else {@code null}
+         */
+        private synchronized CompletableFuture<V> leave() {
+            if (--waiters > 0 || outcome.isDone()) {
+                return null;
+            }
+            abandoned = true;
+            return call;
+        }
+    }
+}
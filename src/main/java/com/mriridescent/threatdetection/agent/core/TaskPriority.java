@@ -0,0 +1,51 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import lombok.Getter;
+
+/**
+ * Scheduling class of an agent task, derived from {@link AgentTask#getPriority()}.
+ * Classes are declared from most to least urgent.
+ */
+@Getter
+public enum TaskPriority {
+    /** Response actions for confirmed threats. */
+    CRITICAL(9),
+    /** Work that completes an in-flight workflow, such as intelligence enrichment. */
+    HIGH(7),
+    /** Default class for detection and API submissions. */
+    NORMAL(5),
+    /** Background work such as pattern learning. */
+    LOW(2);
+
+    /**
+     * Representative {@link AgentTask} priority level for this class.
+     */
+    private final int level;
+
+    TaskPriority(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Map an {@link AgentTask} priority level (1-10, higher is more urgent) onto its class.
+     */
+    public static TaskPriority of(int level) {
+        if (level >= CRITICAL.level) {
+            return CRITICAL;
+        }
+        if (level >= HIGH.level) {
+            return HIGH;
+        }
+        if (level >= 4) {
+            return NORMAL;
+        }
+        return LOW;
+    }
+
+    /**
+     * Metric tag value for this class.
+     */
+    public String tag() {
+        return name().toLowerCase();
+    }
+}
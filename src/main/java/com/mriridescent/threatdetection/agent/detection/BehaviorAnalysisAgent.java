@@ -1,12 +1,13 @@
 package com.mriridescent.threatdetection.agent.detection;
 
 import com.mriridescent.threatdetection.agent.core.AbstractAgent;
+import com.mriridescent.threatdetection.agent.core.AgentMailboxFactory;
 import com.mriridescent.threatdetection.agent.core.AgentTask;
 import com.mriridescent.threatdetection.model.UserActivity;
 import com.mriridescent.threatdetection.model.ThreatAlert;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 
 /**
@@ -16,8 +17,10 @@ import org.springframework.stereotype.Component;
 @Component
 public class BehaviorAnalysisAgent extends AbstractAgent {
 
-    public BehaviorAnalysisAgent(@Qualifier("agentTaskExecutor") ThreadPoolTaskExecutor executor) {
-        super("behavior-analysis", executor);
+    public BehaviorAnalysisAgent(
+            @Qualifier("agentTaskExecutor") TaskExecutor executor,
+            AgentMailboxFactory mailboxFactory) {
+        super("behavior-analysis", executor, mailboxFactory);
     }
 
     @Override
@@ -0,0 +1,284 @@
+package com.mriridescent.threatdetection.agent.detection;
+
+import com.mriridescent.threatdetection.agent.core.CoarseClock;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.packet.FlowTable;
+import com.mriridescent.threatdetection.packet.NetworkPackets;
+import com.mriridescent.threatdetection.packet.PacketBatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Connection-level detection for the network-monitor agent, run on the flows of {@link FlowShards}
+ * as packets are added to them and as they complete.
+ *
+ * <ul>
+ *   <li>Beaconing: a flow whose packets keep arriving at near-constant intervals, as a
+ *       command-and-control implant polling home does.</li>
+ *   <li>Exfiltration: a single flow carrying more than a threshold of bytes.</li>
+ *   <li>Slow scanning: a source whose TCP connection attempts go unanswered, counted over a
+ *       window far longer than per-packet checks can see. Counts are kept per source in a fixed
+ *       number of slots, a new source taking over a slot from the one already there.</li>
+ * </ul>
+ *
+ * Flow alerts concern a flow rather than the packet or batch being analyzed, so they are handed
+ * to a sink of their own rather than returned. Each flow raises each alert at most once.
+ *
+ * Live traffic and each replayed capture keep separate flows, since their packet times are
+ * unrelated. Live flows go idle by the wall clock, checked by {@link #expire()}; a replay's flows
+ * go idle by the replay's packet time, and are all completed once no batch of the replay has
+ * arrived for {@code capture-retention}. Settings are under
+ * {@code threat-detection.agents.network-monitor.flows.*}. Thread-safe.
+ */
+final class FlowDetectors {
+
+    private static final String PREFIX = "threat-detection.agents.network-monitor.flows.";
+
+    // Flow marks for alerts already raised
+    private static final int BEACON = 1;
+    private static final int EXFILTRATION = 1 << 1;
+
+    private final int shards;
+    private final int maxFlows;
+    private final long idleTimeoutMicros;
+    private final long tickMicros;
+    private final long captureRetentionNanos;
+    private final int beaconMinIntervals;
+    private final double beaconMinMeanMicros;
+    private final double beaconMaxVariation;
+    private final long exfiltrationBytes;
+    private final long scanWindowMicros;
+    private final int scanThreshold;
+    private final int scanSources;
+
+    private final Consumer<ThreatAlert> alerts;
+    private final Timeline live;
+    private final Map<Integer, Timeline> captures = new ConcurrentHashMap<>();
+    // Totals of the replays whose flows have been dropped, for counters that never go down
+    private final AtomicLong retiredCompleted = new AtomicLong();
+    private final AtomicLong retiredEvicted = new AtomicLong();
+
+    private final Counter beaconAlerts;
+    private final Counter exfiltrationAlerts;
+    private final Counter scanAlerts;
+
+    FlowDetectors(Environment environment, Consumer<ThreatAlert> alerts, MeterRegistry meterRegistry) {
+        this(environment.getProperty(PREFIX + "shards", Integer.class, 16),
+                environment.getProperty(PREFIX + "max-flows", Integer.class, 262_144),
+                environment.getProperty(PREFIX + "idle-timeout", Duration.class, Duration.ofSeconds(120)),
+                environment.getProperty(PREFIX + "tick", Duration.class, Duration.ofSeconds(1)),
+                environment.getProperty(PREFIX + "capture-retention", Duration.class, Duration.ofSeconds(30)),
+                environment.getProperty(PREFIX + "beacon.min-intervals", Integer.class, 8),
+                environment.getProperty(PREFIX + "beacon.min-interval", Duration.class, Duration.ofSeconds(1)),
+                environment.getProperty(PREFIX + "beacon.max-variation", Double.class, 0.1),
+                environment.getProperty(PREFIX + "exfiltration.bytes", Long.class, 100L << 20),
+                environment.getProperty(PREFIX + "scan.window", Duration.class, Duration.ofHours(1)),
+                environment.getProperty(PREFIX + "scan.threshold", Integer.class, 50),
+                environment.getProperty(PREFIX + "scan.sources", Integer.class, 65_536),
+                alerts, meterRegistry);
+    }
+
+    FlowDetectors(int shards, int maxFlows, Duration idleTimeout, Duration tick, Duration captureRetention,
+                  int beaconMinIntervals, Duration beaconMinInterval, double beaconMaxVariation,
+                  long exfiltrationBytes, Duration scanWindow, int scanThreshold, int scanSources,
+                  Consumer<ThreatAlert> alerts, MeterRegistry meterRegistry) {
+        this.shards = shards;
+        this.maxFlows = maxFlows;
+        this.idleTimeoutMicros = micros(idleTimeout);
+        this.tickMicros = micros(tick);
+        this.captureRetentionNanos = captureRetention.toNanos();
+        this.beaconMinIntervals = beaconMinIntervals;
+        this.beaconMinMeanMicros = micros(beaconMinInterval);
+        this.beaconMaxVariation = beaconMaxVariation;
+        this.exfiltrationBytes = exfiltrationBytes;
+        this.scanWindowMicros = micros(scanWindow);
+        this.scanThreshold = scanThreshold;
+        this.scanSources = scanSources;
+        this.alerts = alerts;
+        this.live = new Timeline();
+
+        Gauge.builder("threat_detection_flow_table_flows", this, d -> d.sum(FlowShards::size))
+                .description("Flows tracked by the network-monitor agent, live and replayed")
+                .register(meterRegistry);
+        Gauge.builder("threat_detection_flow_table_bytes", this,
+                        d -> (double) d.sum(FlowShards::capacity) * FlowTable.BYTES_PER_FLOW)
+                .description("Memory set aside for tracked flows")
+                .register(meterRegistry);
+        FunctionCounter.builder("threat_detection_flow_table_completed_total", this,
+                        d -> d.retiredCompleted.get() + d.sum(FlowShards::getCompleted))
+                .description("Flows completed by idle timeout, FIN/RST or eviction")
+                .register(meterRegistry);
+        FunctionCounter.builder("threat_detection_flow_table_evictions_total", this,
+                        d -> d.retiredEvicted.get() + d.sum(FlowShards::getEvicted))
+                .description("Flows completed early because the table was full")
+                .register(meterRegistry);
+        this.beaconAlerts = alertCounter("beaconing", meterRegistry);
+        this.exfiltrationAlerts = alertCounter("exfiltration", meterRegistry);
+        this.scanAlerts = alertCounter("scan", meterRegistry);
+    }
+
+    /**
+     * Add a batch's packets to their flows and run the detectors. A replayed capture's flows that
+     * went idle by the batch's packet time are completed too.
+     */
+    void observe(PacketBatch packets) {
+        long now = CoarseClock.currentTimeMillis() * 1_000;
+        if (packets.capture() == PacketBatch.LIVE_CAPTURE) {
+            live.flows.update(packets, now, false, live);
+            return;
+        }
+        Timeline replay = captures.get(packets.capture());
+        if (replay == null) {
+            replay = captures.computeIfAbsent(packets.capture(), capture -> new Timeline());
+        }
+        replay.flows.update(packets, now, true, replay);
+    }
+
+    /**
+     * Complete the live flows that have gone idle, and all flows of replays that have finished.
+     */
+    void expire() {
+        live.flows.advance(CoarseClock.currentTimeMillis() * 1_000, live);
+
+        long now = System.nanoTime();
+        for (Iterator<Timeline> it = captures.values().iterator(); it.hasNext(); ) {
+            Timeline replay = it.next();
+            if (now - replay.flows.getLastUpdated() > captureRetentionNanos) {
+                it.remove();
+                replay.flows.completeAll(replay);
+                retiredCompleted.addAndGet(replay.flows.getCompleted());
+                retiredEvicted.addAndGet(replay.flows.getEvicted());
+            }
+        }
+    }
+
+    private long sum(ToLongFunction<FlowShards> value) {
+        long total = value.applyAsLong(live.flows);
+        for (Timeline replay : captures.values()) {
+            total += value.applyAsLong(replay.flows);
+        }
+        return total;
+    }
+
+    private Counter alertCounter(String type, MeterRegistry meterRegistry) {
+        return Counter.builder("threat_detection_flow_alerts_total")
+                .tag("type", type)
+                .description("Alerts raised on flows by the network-monitor agent")
+                .register(meterRegistry);
+    }
+
+    private void raise(ThreatAlert alert, Counter counter) {
+        counter.increment();
+        alerts.accept(alert);
+    }
+
+    private static ThreatAlert alert(FlowTable flows, int flow, ThreatAlert.Severity severity, String threatType,
+                                     String description) {
+        ThreatAlert alert = new ThreatAlert();
+        alert.setSourceIp(NetworkPackets.address(flows.sourceHigh(flow), flows.sourceLow(flow)));
+        alert.setDestinationIp(NetworkPackets.address(flows.destinationHigh(flow), flows.destinationLow(flow)));
+        alert.setDescription(description + " (" + flows.sourcePort(flow) + " -> " + flows.destinationPort(flow) + ")");
+        alert.setSeverity(severity);
+        alert.setThreatType(threatType);
+        alert.setDetectionTime(NetworkPackets.timestamp(flows.lastSeen(flow)));
+        return alert;
+    }
+
+    private static long micros(Duration duration) {
+        return duration.toNanos() / 1_000;
+    }
+
+    /**
+     * Flows on one time axis, live or one replay, and their sources' unanswered connection attempts.
+     */
+    private final class Timeline implements FlowTable.Listener {
+
+        final FlowShards flows = new FlowShards(shards, maxFlows, idleTimeoutMicros, tickMicros);
+
+        // Unanswered connection attempts per source, in slots picked by a hash of the source
+        private final ReentrantLock scanLock = new ReentrantLock();
+        private final long[] scanSourceHigh;
+        private final long[] scanSourceLow;
+        private final long[] scanWindowStart;
+        private final int[] scanAttempts;
+        private final int scanMask;
+
+        Timeline() {
+            int slots = Integer.highestOneBit(Math.max(1, scanSources) * 2 - 1);
+            this.scanSourceHigh = new long[slots];
+            this.scanSourceLow = new long[slots];
+            this.scanWindowStart = new long[slots];
+            this.scanAttempts = new int[slots];
+            this.scanMask = slots - 1;
+        }
+
+        @Override
+        public void onUpdate(FlowTable table, int flow, PacketBatch packets, int packet) {
+            if (!table.isMarked(flow, EXFILTRATION) && table.bytes(flow) >= exfiltrationBytes) {
+                table.mark(flow, EXFILTRATION);
+                raise(alert(table, flow, ThreatAlert.Severity.HIGH, "Possible Data Exfiltration",
+                        "Flow carried " + table.bytes(flow) + " bytes in " + table.packets(flow) + " packets"),
+                        exfiltrationAlerts);
+            }
+
+            if (!table.isMarked(flow, BEACON) && table.interArrivals(flow) >= beaconMinIntervals) {
+                double mean = table.meanInterArrival(flow);
+                if (mean >= beaconMinMeanMicros && table.interArrivalDeviation(flow) <= beaconMaxVariation * mean) {
+                    table.mark(flow, BEACON);
+                    raise(alert(table, flow, ThreatAlert.Severity.MEDIUM, "Beaconing",
+                            String.format("Flow sent %d packets every %.1fs with little variation",
+                                    table.packets(flow), mean / 1_000_000)), beaconAlerts);
+                }
+            }
+        }
+
+        @Override
+        public void onComplete(FlowTable table, int flow) {
+            if (table.protocol(flow) != NetworkPackets.TCP
+                    || (table.tcpFlags(flow) & (FlowTable.TCP_SYN | FlowTable.TCP_ACK)) != FlowTable.TCP_SYN) {
+                return;
+            }
+            // A connection attempt nobody answered; both directions are in the same shard
+            if (table.find(table.destinationHigh(flow), table.destinationLow(flow), table.sourceHigh(flow),
+                    table.sourceLow(flow), table.destinationPort(flow), table.sourcePort(flow), NetworkPackets.TCP) >= 0) {
+                return;
+            }
+            long high = table.sourceHigh(flow);
+            long low = table.sourceLow(flow);
+            long time = table.lastSeen(flow);
+            long hash = (high * 0x9e3779b97f4a7c15L ^ low) * 0xc2b2ae3d27d4eb4fL;
+            int slot = (int) (hash >>> 32) & scanMask;
+            boolean scanning;
+            scanLock.lock();
+            try {
+                if (scanSourceHigh[slot] != high || scanSourceLow[slot] != low
+                        || time - scanWindowStart[slot] > scanWindowMicros) {
+                    scanSourceHigh[slot] = high;
+                    scanSourceLow[slot] = low;
+                    scanWindowStart[slot] = time;
+                    scanAttempts[slot] = 0;
+                }
+                scanning = ++scanAttempts[slot] == scanThreshold;
+            } finally {
+                scanLock.unlock();
+            }
+            if (scanning) {
+                raise(alert(table, flow, ThreatAlert.Severity.HIGH, "Port Scan",
+                        "Source made " + scanThreshold + " unanswered connection attempts within "
+                                + Duration.ofMillis(scanWindowMicros / 1_000)), scanAlerts);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.mriridescent.threatdetection.agent.detection;
+
+import com.mriridescent.threatdetection.packet.FlowTable;
+import com.mriridescent.threatdetection.packet.PacketBatch;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link FlowTable}s split by a hash of each flow's endpoints, each behind its own lock, so
+ * batches from several consumers update flows concurrently.
+ *
+ * The hash does not depend on direction, so both directions of a connection are in the same
+ * shard and a listener can look up a flow's reverse there. A batch takes each shard's lock once,
+ * for all of its packets in that shard.
+ */
+final class FlowShards {
+
+    private final FlowTable[] tables;
+    private final ReentrantLock[] locks;
+    private final int mask;
+    // System.nanoTime() of the last update, for dropping the flows of a finished replay
+    private volatile long lastUpdated = System.nanoTime();
+
+    /**
+     * @param shards   Rounded up to a power of two
+     * @param maxFlows Flows tracked at once, over all shards
+     */
+    FlowShards(int shards, int maxFlows, long idleTimeoutMicros, long tickMicros) {
+        int count = Integer.highestOneBit(Math.max(1, shards) * 2 - 1);
+        this.tables = new FlowTable[count];
+        this.locks = new ReentrantLock[count];
+        this.mask = count - 1;
+        for (int s = 0; s < count; s++) {
+            tables[s] = new FlowTable(Math.max(1, maxFlows / count), idleTimeoutMicros, tickMicros);
+            locks[s] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Add the packets of a batch to their flows.
+     *
+     * @param advance Whether to complete flows that went idle as of the latest packet time, in
+     *                every shard
+     */
+    void update(PacketBatch packets, long nowMicros, boolean advance, FlowTable.Listener listener) {
+        lastUpdated = System.nanoTime();
+        int size = packets.size();
+        long latest = tables.length == 1
+                ? apply(0, packets, null, 0, size, nowMicros, listener)
+                : applySharded(packets, nowMicros, listener);
+        if (advance && latest != Long.MIN_VALUE) {
+            advance(latest, listener);
+        }
+    }
+
+    private long applySharded(PacketBatch packets, long nowMicros, FlowTable.Listener listener) {
+        int size = packets.size();
+
+        // Packets grouped by shard, in batch order within each
+        int[] shardOf = new int[size];
+        int[] starts = new int[tables.length + 1];
+        for (int i = 0; i < size; i++) {
+            shardOf[i] = shard(packets, i);
+            starts[shardOf[i] + 1]++;
+        }
+        for (int s = 0; s < tables.length; s++) {
+            starts[s + 1] += starts[s];
+        }
+        int[] order = new int[size];
+        int[] filled = starts.clone();
+        for (int i = 0; i < size; i++) {
+            order[filled[shardOf[i]]++] = i;
+        }
+
+        long latest = Long.MIN_VALUE;
+        for (int s = 0; s < tables.length; s++) {
+            if (starts[s] < starts[s + 1]) {
+                latest = Math.max(latest, apply(s, packets, order, starts[s], starts[s + 1], nowMicros, listener));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Complete the flows that have been idle for the idle timeout at {@code nowMicros}.
+     */
+    void advance(long nowMicros, FlowTable.Listener listener) {
+        for (int s = 0; s < tables.length; s++) {
+            locks[s].lock();
+            try {
+                tables[s].advance(nowMicros, listener);
+            } finally {
+                locks[s].unlock();
+            }
+        }
+    }
+
+    void completeAll(FlowTable.Listener listener) {
+        for (int s = 0; s < tables.length; s++) {
+            locks[s].lock();
+            try {
+                tables[s].completeAll(listener);
+            } finally {
+                locks[s].unlock();
+            }
+        }
+    }
+
+    long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    // Read without the locks, for metrics
+
+    int size() {
+        int size = 0;
+        for (FlowTable table : tables) {
+            size += table.size();
+        }
+        return size;
+    }
+
+    int capacity() {
+        int capacity = 0;
+        for (FlowTable table : tables) {
+            capacity += table.capacity();
+        }
+        return capacity;
+    }
+
+    long getCompleted() {
+        long completed = 0;
+        for (FlowTable table : tables) {
+            completed += table.getCompleted();
+        }
+        return completed;
+    }
+
+    long getEvicted() {
+        long evicted = 0;
+        for (FlowTable table : tables) {
+            evicted += table.getEvicted();
+        }
+        return evicted;
+    }
+
+    /**
+     * @return Latest packet time added to the shard
+     */
+    private long apply(int s, PacketBatch packets, int[] order, int from, int to, long nowMicros,
+                       FlowTable.Listener listener) {
+        locks[s].lock();
+        try {
+            return order == null
+                    ? tables[s].update(packets, nowMicros, listener)
+                    : tables[s].update(packets, order, from, to, nowMicros, listener);
+        } finally {
+            locks[s].unlock();
+        }
+    }
+
+    private int shard(PacketBatch packets, int i) {
+        // Summing the endpoints' hashes makes the result the same in either direction
+        long source = endpoint(packets.sourceHigh(i), packets.sourceLow(i), packets.sourcePort(i));
+        long destination = endpoint(packets.destinationHigh(i), packets.destinationLow(i), packets.destinationPort(i));
+        long h = (source + destination + packets.protocol(i)) * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 40) & mask;
+    }
+
+    private static long endpoint(long high, long low, int port) {
+        long h = (high ^ port) * 0xc2b2ae3d27d4eb4fL;
+        return (h ^ low) * 0x9e3779b97f4a7c15L;
+    }
+}
@@ -1,25 +1,82 @@
 package com.mriridescent.threatdetection.agent.detection;
 
 import com.mriridescent.threatdetection.agent.core.AbstractAgent;
+import com.mriridescent.threatdetection.agent.core.AgentMailboxFactory;
 import com.mriridescent.threatdetection.agent.core.AgentTask;
+import com.mriridescent.threatdetection.intel.IocEntry;
+import com.mriridescent.threatdetection.intel.IocIndex;
+import com.mriridescent.threatdetection.intel.IocStore;
 import com.mriridescent.threatdetection.model.NetworkPacket;
 import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.orchestration.AlertListener;
+import com.mriridescent.threatdetection.packet.NetworkPackets;
+import com.mriridescent.threatdetection.packet.PacketBatch;
+import com.mriridescent.threatdetection.packet.PacketBatchPool;
+import com.mriridescent.threatdetection.signature.Signature;
+import com.mriridescent.threatdetection.signature.SignatureMatcher;
+import com.mriridescent.threatdetection.signature.SignatureStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * AI agent responsible for monitoring network traffic and detecting potential threats.
+ * Every packet's addresses are matched against the IOC feeds held by the {@link IocStore}, and
+ * its payload is scanned for the signatures held by the {@link SignatureStore}.
+ *
+ * Analysis runs on {@link PacketBatch} columns, allocating only for packets that raise an alert.
+ * A {@code PacketBatch} input yields the list of its alerts; {@link NetworkPacket} DTOs are
+ * converted into pooled batches sized by {@code threat-detection.agents.network-monitor.packet-batch.*}
+ * and yield their alert or {@code null}.
+ *
+ * Packets are also added to per-flow state for connection-level detection by {@link FlowDetectors}.
+ * Flow alerts are not the result of any one input, so they go straight to the {@link AlertListener}s
+ * as alerts of this agent, and idle flows are completed on a schedule of
+ * {@code threat-detection.agents.network-monitor.flows.expiry-interval-ms}, whether or not packets
+ * arrive. Disabled with {@code threat-detection.agents.network-monitor.flows.enabled}.
  */
 @Slf4j
 @Component
 public class NetworkMonitorAgent extends AbstractAgent {
 
-    public NetworkMonitorAgent(@Qualifier("agentTaskExecutor") ThreadPoolTaskExecutor executor) {
-        super("network-monitor", executor);
+    private static final String BATCH_PREFIX = "threat-detection.agents.network-monitor.packet-batch.";
+
+    private final IocStore iocStore;
+    private final SignatureStore signatureStore;
+
+    // Batches packet DTOs are converted into for analysis
+    private final PacketBatchPool batches;
+
+    // Connection-level detection, or null if disabled
+    private final FlowDetectors flowDetectors;
+    private final List<AlertListener> alertListeners;
+
+    public NetworkMonitorAgent(
+            @Qualifier("agentTaskExecutor") TaskExecutor executor,
+            AgentMailboxFactory mailboxFactory,
+            IocStore iocStore,
+            SignatureStore signatureStore,
+            List<AlertListener> alertListeners,
+            Environment environment,
+            MeterRegistry meterRegistry) {
+        super("network-monitor", executor, mailboxFactory);
+        this.iocStore = iocStore;
+        this.signatureStore = signatureStore;
+        this.batches = new PacketBatchPool(
+                environment.getProperty(BATCH_PREFIX + "capacity", Integer.class, 1024),
+                environment.getProperty(BATCH_PREFIX + "payload-bytes", Integer.class, 2 << 20),
+                environment.getProperty(BATCH_PREFIX + "pooled", Integer.class, 16));
+        this.alertListeners = List.copyOf(alertListeners);
+        this.flowDetectors = environment.getProperty("threat-detection.agents.network-monitor.flows.enabled",
+                Boolean.class, true) ? new FlowDetectors(environment, this::publishFlowAlert, meterRegistry) : null;
     }
 
     @Override
@@ -34,40 +91,175 @@ public class NetworkMonitorAgent extends AbstractAgent {
             log.debug("Processing network packet: {}", packet.getPacketId());
 
             // Analyze network packet for anomalies
-            boolean isAnomaly = analyzeNetworkPacket(packet);
+            return (R) processBatch(List.of(packet)).get(0);
+        }
+        if (task.getInput() instanceof PacketBatch packets) {
+            return (R) analyzePackets(packets, iocStore.current(), signatureStore.current());
+        }
+
+        throw new IllegalArgumentException("Unsupported task input type for NetworkMonitorAgent");
+    }
+
+    /**
+     * Analyze a batch of packets in one pass without per-packet task envelopes or logging.
+     * Packet DTOs are converted into a pooled {@link PacketBatch} and analyzed from there.
+     */
+    @Override
+    protected <T, R> List<R> processBatch(List<T> inputs) {
+        IocIndex iocs = iocStore.current();
+        SignatureMatcher signatures = signatureStore.current();
+        List<R> results = new ArrayList<>(Collections.nCopies(inputs.size(), null));
+        PacketBatch batch = batches.acquire();
+        try {
+            // Input each packet of the batch came from
+            int[] owners = new int[batch.capacity()];
+            for (int n = 0; n < inputs.size(); n++) {
+                T input = inputs.get(n);
+                if (input instanceof PacketBatch packets) {
+                    results.set(n, (R) analyzePackets(packets, iocs, signatures));
+                    continue;
+                }
+                if (!(input instanceof NetworkPacket packet)) {
+                    throw new IllegalArgumentException("Unsupported task input type for NetworkMonitorAgent");
+                }
+                int i = NetworkPackets.append(batch, packet);
+                if (i < 0) {
+                    analyzeConverted(batch, owners, inputs, results, iocs, signatures);
+                    batch.clear();
+                    i = NetworkPackets.append(batch, packet);
+                }
+                owners[i] = n;
+            }
+            analyzeConverted(batch, owners, inputs, results, iocs, signatures);
+        } finally {
+            batches.release(batch);
+        }
+
+        log.debug("Processed batch of {} network packets", inputs.size());
+        return results;
+    }
+
+    /**
+     * Alerts for the packets of a batch, in packet order, leaving out benign packets.
+     */
+    private List<ThreatAlert> analyzePackets(PacketBatch packets, IocIndex iocs, SignatureMatcher signatures) {
+        List<ThreatAlert> alerts = new ArrayList<>();
+        for (int i = 0; i < packets.size(); i++) {
+            ThreatAlert alert = analyzePacket(packets, i, iocs, signatures);
+            if (alert != null) {
+                alerts.add(alert);
+            }
+        }
+        if (flowDetectors != null) {
+            flowDetectors.observe(packets);
+        }
+        return alerts;
+    }
 
-            if (isAnomaly) {
-                ThreatAlert alert = new ThreatAlert();
+    /**
+     * Store the alert for each converted DTO as the result of the input it came from, keeping
+     * the addresses as the DTO spelled them.
+     */
+    private <T, R> void analyzeConverted(PacketBatch batch, int[] owners, List<T> inputs, List<R> results,
+                                         IocIndex iocs, SignatureMatcher signatures) {
+        for (int i = 0; i < batch.size(); i++) {
+            ThreatAlert alert = analyzePacket(batch, i, iocs, signatures);
+            if (alert != null) {
+                NetworkPacket packet = (NetworkPacket) inputs.get(owners[i]);
                 alert.setSourceIp(packet.getSourceIp());
                 alert.setDestinationIp(packet.getDestinationIp());
-                alert.setDescription("Anomalous network traffic detected");
-                alert.setSeverity(ThreatAlert.Severity.MEDIUM);
-                alert.setDetectionTime(packet.getTimestamp());
-
-                return (R) alert;
+                results.set(owners[i], (R) alert);
             }
+        }
+        if (flowDetectors != null) {
+            flowDetectors.observe(batch);
+        }
+    }
 
-            return null;
+    /**
+     * Complete flows that have gone idle, running the detectors on them even when no packets arrive.
+     */
+    @Scheduled(fixedDelayString = "${threat-detection.agents.network-monitor.flows.expiry-interval-ms:1000}")
+    public void expireFlows() {
+        if (flowDetectors != null) {
+            flowDetectors.expire();
         }
+    }
 
-        throw new IllegalArgumentException("Unsupported task input type for NetworkMonitorAgent");
+    private void publishFlowAlert(ThreatAlert alert) {
+        for (AlertListener listener : alertListeners) {
+            try {
+                listener.onAlert(agentId, alert);
+            } catch (RuntimeException e) {
+                log.warn("Alert listener {} failed: {}", listener.getClass().getSimpleName(), e.getMessage());
+            }
+        }
     }
 
-    private boolean analyzeNetworkPacket(NetworkPacket packet) {
-        // Advanced AI-based analysis would be implemented here
-        // This is a simplified placeholder implementation
+    private ThreatAlert createAlert(PacketBatch packets, int i, ThreatAlert.Severity severity, String description) {
+        ThreatAlert alert = new ThreatAlert();
+        alert.setSourceIp(NetworkPackets.sourceAddress(packets, i));
+        alert.setDestinationIp(NetworkPackets.destinationAddress(packets, i));
+        alert.setDescription(description);
+        alert.setSeverity(severity);
+        alert.setDetectionTime(NetworkPackets.timestamp(packets, i));
+        return alert;
+    }
 
-        // Check for known malicious patterns
-        if (packet.getPayload().contains("malicious_signature")) {
-            return true;
+    /**
+     * Nothing here allocates unless the packet raises an alert.
+     *
+     * @return Alert for the packet, or {@code null} if it looks benign
+     */
+    private ThreatAlert analyzePacket(PacketBatch packets, int i, IocIndex iocs, SignatureMatcher signatures) {
+        // Traffic to or from a listed address
+        IocEntry ioc = matchAddress(iocs, packets.destinationHigh(i), packets.destinationLow(i));
+        if (ioc == null) {
+            ioc = matchAddress(iocs, packets.sourceHigh(i), packets.sourceLow(i));
+        }
+        if (ioc != null) {
+            ThreatAlert alert = createAlert(packets, i, ThreatAlert.Severity.HIGH,
+                    "Traffic with known malicious address " + ioc.getIndicator() + " (" + ioc.getSource() + ")");
+            alert.setThreatType(ioc.getThreatType());
+            alert.setConfidenceScore(ioc.getConfidence());
+            return alert;
+        }
+
+        // Payload signatures, all found in one pass over the payload bytes
+        if (packets.payloadLength(i) > 0) {
+            List<Signature> matched = signatures.scan(packets.payloads(), packets.payloadOffset(i), packets.payloadLength(i));
+            if (!matched.isEmpty()) {
+                return signatureAlert(packets, i, matched);
+            }
         }
 
         // Check for unusual destination ports
-        List<Integer> suspiciousPorts = List.of(4444, 31337, 8090);
-        if (suspiciousPorts.contains(packet.getDestinationPort())) {
-            return true;
+        return isSuspiciousPort(packets.destinationPort(i))
+                ? createAlert(packets, i, ThreatAlert.Severity.MEDIUM, "Anomalous network traffic detected")
+                : null;
+    }
+
+    private ThreatAlert signatureAlert(PacketBatch packets, int i, List<Signature> matched) {
+        Signature worst = matched.get(0);
+        StringBuilder ids = new StringBuilder();
+        for (Signature signature : matched) {
+            if (signature.getSeverity().compareTo(worst.getSeverity()) > 0) {
+                worst = signature;
+            }
+            ids.append(ids.isEmpty() ? "" : ", ").append(signature.getId());
         }
+        ThreatAlert alert = createAlert(packets, i, worst.getSeverity(),
+                worst.getDescription() + " (signatures " + ids + ")");
+        alert.setThreatType("Signature Match");
+        return alert;
+    }
+
+    private static IocEntry matchAddress(IocIndex iocs, long high, long low) {
+        // The unspecified address stands for a missing one
+        return high != 0 || low != 0 ? iocs.matchAddress(high, low) : null;
+    }
 
-        return false;
+    private static boolean isSuspiciousPort(int port) {
+        return port == 4444 || port == 31337 || port == 8090;
     }
 }
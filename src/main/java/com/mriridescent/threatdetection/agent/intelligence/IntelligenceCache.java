@@ -0,0 +1,271 @@
+package com.mriridescent.threatdetection.agent.intelligence;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.mriridescent.threatdetection.agent.core.SingleFlight;
+import com.mriridescent.threatdetection.model.IntelligenceQuery;
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+import com.mriridescent.threatdetection.model.ThreatIntelligence;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded, concurrent cache of threat intelligence verdicts.
+ *
+ * Verdicts are cached per indicator and type for a time-to-live that depends on the indicator
+ * type, since IP reputation changes faster than a file hash's. Clean verdicts are cached too,
+ * for the shorter {@code negative-ttl}, so repeated lookups of benign indicators do not reach
+ * the intelligence sources every time but a newly listed indicator is picked up soon.
+ *
+ * A read of a verdict past {@code refresh-ahead} of its time-to-live returns the cached verdict
+ * and reloads it in the background, so indicators that are looked up often are refreshed before
+ * they expire and never wait for a load. Only a miss or an expired verdict loads on the caller's
+ * thread. Concurrent misses for the same indicator are coalesced through a {@link SingleFlight}:
+ * one caller queries the sources and the others wait for its verdict, without holding the
+ * cache's hash bin, and other indicators, while the sources respond.
+ */
+class IntelligenceCache {
+
+    /**
+     * Cache settings, read from {@code threat-detection.agents.threat-intelligence.cache.*}.
+     */
+    @Getter
+    @Builder
+    static class Settings {
+        @Builder.Default
+        private final long maximumSize = 1_000_000;
+        /** Time-to-live of verdicts for indicator types without their own. */
+        @Builder.Default
+        private final Duration defaultTtl = Duration.ofHours(24);
+        @Builder.Default
+        private final Map<IndicatorType, Duration> ttlByType = Map.of();
+        /** Time-to-live of clean verdicts; never longer than the type's time-to-live. */
+        @Builder.Default
+        private final Duration negativeTtl = Duration.ofMinutes(15);
+        /** Share of a verdict's time-to-live after which a read reloads it in the background. */
+        @Builder.Default
+        private final double refreshAhead = 0.8;
+
+        Duration ttl(IndicatorType type) {
+            return ttlByType.getOrDefault(type, defaultTtl);
+        }
+    }
+
+    private static final String PREFIX = "threat-detection.agents.threat-intelligence.cache.";
+
+    private final Settings settings;
+    private final Function<IntelligenceQuery, ThreatIntelligence> source;
+    private final Ticker ticker;
+    private final LoadingCache<Key, Verdict> cache;
+    private final SingleFlight<Key, Verdict> loads;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    IntelligenceCache(Settings settings, Function<IntelligenceQuery, ThreatIntelligence> source,
+                      Executor refreshExecutor, Ticker ticker, MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.source = source;
+        this.ticker = ticker;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(settings.getMaximumSize())
+                .expireAfter(new VerdictExpiry())
+                .executor(refreshExecutor)
+                .ticker(ticker)
+                .recordStats()
+                .build(new CacheLoader<>() {
+                    @Override
+                    public Verdict load(Key key) {
+                        return IntelligenceCache.this.load(source, key);
+                    }
+
+                    @Override
+                    public Verdict reload(Key key, Verdict oldVerdict) {
+                        refreshes.increment();
+                        return IntelligenceCache.this.load(source, key);
+                    }
+                });
+
+        this.loads = new SingleFlight<>("threat-intelligence-sources", meterRegistry);
+
+        FunctionCounter.builder("threat_detection_intel_cache_requests_total", hits, LongAdder::sum)
+                .description("Threat intelligence lookups answered by the verdict cache or loaded")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("threat_detection_intel_cache_requests_total", misses, LongAdder::sum)
+                .description("Threat intelligence lookups answered by the verdict cache or loaded")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("threat_detection_intel_cache_evictions_total", cache, c -> c.stats().evictionCount())
+                .description("Verdicts evicted from the cache because they expired or the cache was full")
+                .register(meterRegistry);
+        FunctionCounter.builder("threat_detection_intel_cache_refreshes_total", refreshes, LongAdder::sum)
+                .description("Verdicts reloaded in the background before they expired")
+                .register(meterRegistry);
+        Gauge.builder("threat_detection_intel_cache_size", cache, LoadingCache::estimatedSize)
+                .description("Verdicts held in the threat intelligence cache")
+                .register(meterRegistry);
+    }
+
+    static Settings settingsFrom(Environment environment) {
+        Settings defaults = Settings.builder().build();
+        Map<IndicatorType, Duration> ttlByType = new EnumMap<>(IndicatorType.class);
+        for (IndicatorType type : IndicatorType.values()) {
+            Duration ttl = environment.getProperty(
+                    PREFIX + "ttl." + type.name().toLowerCase(Locale.ROOT).replace('_', '-'), Duration.class);
+            if (ttl != null) {
+                ttlByType.put(type, ttl);
+            }
+        }
+        return Settings.builder()
+                .maximumSize(environment.getProperty(PREFIX + "maximum-size", Long.class, defaults.getMaximumSize()))
+                .defaultTtl(environment.getProperty(PREFIX + "ttl.default", Duration.class, defaults.getDefaultTtl()))
+                .ttlByType(ttlByType)
+                .negativeTtl(environment.getProperty(PREFIX + "negative-ttl", Duration.class, defaults.getNegativeTtl()))
+                .refreshAhead(environment.getProperty(PREFIX + "refresh-ahead", Double.class, defaults.getRefreshAhead()))
+                .build();
+    }
+
+    /**
+     * Cached verdict for the query's indicator, loaded from the intelligence sources if absent.
+     */
+    ThreatIntelligence get(IntelligenceQuery query) {
+        ThreatIntelligence cached = getIfPresent(query);
+        if (cached != null) {
+            return cached;
+        }
+        misses.increment();
+        return load(new Key(query.getIndicatorType(), query.getIndicator())).intelligence;
+    }
+
+    /**
+     * Cached verdict for the query's indicator, or {@code null} without loading it if absent.
+     */
+    ThreatIntelligence getIfPresent(IntelligenceQuery query) {
+        Key key = new Key(query.getIndicatorType(), query.getIndicator());
+        Verdict verdict = cache.getIfPresent(key);
+        if (verdict == null) {
+            return null;
+        }
+        hits.increment();
+        if (ticker.read() - verdict.loadedNanos >= verdict.refreshAfterNanos) {
+            // Reloads on the refresh executor; a refresh already in flight is not started again
+            cache.refresh(key);
+        }
+        return verdict.intelligence;
+    }
+
+    private Verdict load(Key key) {
+        try {
+            // The leader queries the sources itself and stores the verdict, rather than loading through
+            // cache.get, which would hold the key's hash bin, and so other keys', for the whole query
+            return loads.execute(key, () -> {
+                Verdict verdict = cache.getIfPresent(key);
+                if (verdict == null) {
+                    verdict = load(source, key);
+                    cache.put(key, verdict);
+                }
+                return CompletableFuture.completedFuture(verdict);
+            }).join();
+        } catch (CompletionException e) {
+            // Report the sources' failure as the caller's own, as an uncoalesced load would
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drop all cached verdicts, e.g. after the intelligence sources changed.
+     */
+    void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    private Verdict load(Function<IntelligenceQuery, ThreatIntelligence> source, Key key) {
+        ThreatIntelligence intelligence = source.apply(IntelligenceQuery.builder()
+                .indicator(key.indicator)
+                .indicatorType(key.type)
+                .build());
+
+        long ttlNanos = settings.ttl(key.type).toNanos();
+        if (!intelligence.isMalicious()) {
+            ttlNanos = Math.min(ttlNanos, settings.getNegativeTtl().toNanos());
+        }
+        return new Verdict(intelligence, ticker.read(), ttlNanos, (long) (ttlNanos * settings.getRefreshAhead()));
+    }
+
+    private static final class VerdictExpiry implements Expiry<Key, Verdict> {
+        @Override
+        public long expireAfterCreate(Key key, Verdict verdict, long currentTime) {
+            return verdict.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(Key key, Verdict verdict, long currentTime, long currentDuration) {
+            return verdict.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterRead(Key key, Verdict verdict, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    private static final class Key {
+        private final IndicatorType type;
+        private final String indicator;
+
+        private Key(IndicatorType type, String indicator) {
+            this.type = type;
+            this.indicator = indicator;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && type == other.type && indicator.equals(other.indicator);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, indicator);
+        }
+    }
+
+    private static final class Verdict {
+        private final ThreatIntelligence intelligence;
+        private final long loadedNanos;
+        private final long ttlNanos;
+        private final long refreshAfterNanos;
+
+        private Verdict(ThreatIntelligence intelligence, long loadedNanos, long ttlNanos, long refreshAfterNanos) {
+            this.intelligence = intelligence;
+            this.loadedNanos = loadedNanos;
+            this.ttlNanos = ttlNanos;
+            this.refreshAfterNanos = refreshAfterNanos;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.mriridescent.threatdetection.agent.intelligence;
+
+import com.mriridescent.threatdetection.intel.IocIndex;
+import com.mriridescent.threatdetection.model.IntelligenceQuery;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Rules out unlisted indicators with the IOC index's Bloom filters before any task is scheduled.
+ *
+ * Most indicators looked up are in no feed. An indicator the filter of its type rejects is
+ * definitely not listed, so the agent answers it inline with a clean verdict instead of queueing
+ * a task and consulting the verdict cache. An indicator the filter passes goes the full task path.
+ *
+ * The caller reports whether each passed indicator turned out to be listed, to tell listed
+ * indicators from false positives, so {@code threat_detection_intel_prefilter_false_positive_rate}
+ * is the measured share of unlisted indicators the filter failed to reject.
+ */
+class IntelligencePrefilter {
+
+    private final Counter definiteMisses;
+    private final Counter listed;
+    private final Counter falsePositives;
+
+    IntelligencePrefilter(MeterRegistry meterRegistry) {
+        this.definiteMisses = resultCounter(meterRegistry, "definite_miss");
+        this.listed = resultCounter(meterRegistry, "listed");
+        this.falsePositives = resultCounter(meterRegistry, "false_positive");
+        Gauge.builder("threat_detection_intel_prefilter_false_positive_rate", this,
+                        IntelligencePrefilter::falsePositiveRate)
+                .description("Share of unlisted indicators that the Bloom filters passed to a full lookup")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Whether the query's indicator is definitely in none of the index's feeds. If not, report
+     * whether it was listed with {@link #recordPassed}.
+     */
+    boolean definitelyUnlisted(IocIndex index, IntelligenceQuery query) {
+        if (index.mightMatch(query.getIndicatorType(), query.getIndicator())) {
+            return false;
+        }
+        definiteMisses.increment();
+        return true;
+    }
+
+    /**
+     * Record whether an indicator the filter passed matched the index.
+     */
+    void recordPassed(boolean matched) {
+        (matched ? listed : falsePositives).increment();
+    }
+
+    double falsePositiveRate() {
+        double unlisted = falsePositives.count() + definiteMisses.count();
+        return unlisted == 0 ? 0 : falsePositives.count() / unlisted;
+    }
+
+    private static Counter resultCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("threat_detection_intel_prefilter_total")
+                .description("Intelligence lookups ruled out by the Bloom filters, or passed to a full lookup")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
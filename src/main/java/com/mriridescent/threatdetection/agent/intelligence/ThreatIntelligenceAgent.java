@@ -1,37 +1,91 @@
 package com.mriridescent.threatdetection.agent.intelligence;
 
+import com.github.benmanes.caffeine.cache.Ticker;
 import com.mriridescent.threatdetection.agent.core.AbstractAgent;
+import com.mriridescent.threatdetection.agent.core.AgentMailboxFactory;
 import com.mriridescent.threatdetection.agent.core.AgentTask;
+import com.mriridescent.threatdetection.intel.IocEntry;
+import com.mriridescent.threatdetection.intel.IocIndex;
+import com.mriridescent.threatdetection.intel.IocStore;
 import com.mriridescent.threatdetection.model.IntelligenceQuery;
 import com.mriridescent.threatdetection.model.ThreatIntelligence;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Optional;
 
 /**
  * AI agent responsible for gathering and analyzing threat intelligence from various sources.
+ * Verdicts are served from an {@link IntelligenceCache} configured under
+ * {@code threat-detection.agents.threat-intelligence.cache.*} and computed from the IOC feeds
+ * held by the {@link IocStore}.
+ *
+ * Queries are answered inline, without a task, when the IOC index or the cache already holds the
+ * verdict. With {@code threat-detection.agents.threat-intelligence.prefilter} set, indicators the
+ * {@link IntelligencePrefilter} rules out skip the index too. Only the remaining misses become tasks.
  */
 @Slf4j
 @Component
 public class ThreatIntelligenceAgent extends AbstractAgent {
 
-    // Cache for threat intelligence data
-    private final Map<String, ThreatIntelligence> intelligenceCache = new HashMap<>();
+    private final IocStore iocStore;
 
-    public ThreatIntelligenceAgent(@Qualifier("agentTaskExecutor") ThreadPoolTaskExecutor executor) {
-        super("threat-intelligence", executor);
+    // Cache for threat intelligence data
+    private final IntelligenceCache intelligenceCache;
+
+    // Bloom filter check ahead of the task path, or null if disabled
+    private final IntelligencePrefilter prefilter;
+
+    public ThreatIntelligenceAgent(
+            @Qualifier("agentTaskExecutor") TaskExecutor executor,
+            AgentMailboxFactory mailboxFactory,
+            IocStore iocStore,
+            Environment environment,
+            MeterRegistry meterRegistry) {
+        super("threat-intelligence", executor, mailboxFactory);
+        this.iocStore = iocStore;
+        this.intelligenceCache = new IntelligenceCache(IntelligenceCache.settingsFrom(environment),
+                this::queryThreatIntelligence, executor, Ticker.systemTicker(), meterRegistry);
+        // Verdicts from the previous feeds are stale once new ones are loaded
+        iocStore.addReloadListener(intelligenceCache::invalidateAll);
+        this.prefilter = environment.getProperty("threat-detection.agents.threat-intelligence.prefilter",
+                Boolean.class, true) ? new IntelligencePrefilter(meterRegistry) : null;
     }
 
     @Override
     public void initialize() {
         super.initialize();
-        log.info("Threat Intelligence Agent initialized with data sources");
-        // In a real implementation, this would initialize connections to intelligence feeds
+        log.info("Threat Intelligence Agent initialized with {} indicators of compromise", iocStore.current().size());
+    }
+
+    /**
+     * Answer indicators that are definitely in no feed, are listed, or have a cached verdict,
+     * without a task.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T, R> Optional<R> answerInline(T input) {
+        if (!(input instanceof IntelligenceQuery query)
+                || query.getIndicator() == null || query.getIndicatorType() == null) {
+            return Optional.empty();
+        }
+        IocIndex index = iocStore.current();
+        if (prefilter != null && prefilter.definitelyUnlisted(index, query)) {
+            return Optional.of((R) verdict(query, null));
+        }
+        IocEntry ioc = index.match(query.getIndicatorType(), query.getIndicator());
+        if (prefilter != null) {
+            prefilter.recordPassed(ioc != null);
+        }
+        if (ioc != null) {
+            return Optional.of((R) verdict(query, ioc));
+        }
+        return Optional.ofNullable((R) intelligenceCache.getIfPresent(query));
     }
 
     @Override
@@ -39,81 +93,33 @@ public class ThreatIntelligenceAgent extends AbstractAgent {
         if (task.getInput() instanceof IntelligenceQuery query) {
             log.debug("Processing intelligence query for: {}", query.getIndicator());
 
-            // Check cache first
-            ThreatIntelligence cachedIntel = intelligenceCache.get(query.getIndicator());
-            if (cachedIntel != null && !isCacheExpired(cachedIntel)) {
-                return (R) cachedIntel;
-            }
-
-            // Query external sources for threat intelligence
-            ThreatIntelligence intelligence = queryThreatIntelligence(query);
-
-            // Update cache
-            intelligenceCache.put(query.getIndicator(), intelligence);
-
-            return (R) intelligence;
+            // Served from cache; misses query external sources for threat intelligence
+            return (R) intelligenceCache.get(query);
         }
 
         throw new IllegalArgumentException("Unsupported task input type for ThreatIntelligenceAgent");
     }
 
-    private boolean isCacheExpired(ThreatIntelligence intelligence) {
-        // Check if the cached intelligence is older than 24 hours
-        return intelligence.getTimestamp().plusHours(24).isBefore(LocalDateTime.now());
-    }
-
     private ThreatIntelligence queryThreatIntelligence(IntelligenceQuery query) {
-        // In a real implementation, this would query various intelligence sources
-        // This is a simplified placeholder implementation
+        // Match against the loaded IOC feeds: CIDR ranges, domains with their subdomains, exact values
+        return verdict(query, iocStore.current().match(query.getIndicatorType(), query.getIndicator()));
+    }
 
+    private static ThreatIntelligence verdict(IntelligenceQuery query, IocEntry ioc) {
         ThreatIntelligence intelligence = new ThreatIntelligence();
         intelligence.setIndicator(query.getIndicator());
         intelligence.setIndicatorType(query.getIndicatorType());
         intelligence.setTimestamp(LocalDateTime.now());
 
-        // Simulate querying external threat intelligence sources
-        switch (query.getIndicatorType()) {
-            case IP:
-                // Check if this IP is known in threat intelligence feeds
-                if (query.getIndicator().startsWith("10.")) {
-                    intelligence.setMalicious(false);
-                    intelligence.setConfidenceScore(0.1);
-                    intelligence.setThreatType("None");
-                } else {
-                    intelligence.setMalicious(true);
-                    intelligence.setConfidenceScore(0.85);
-                    intelligence.setThreatType("Command and Control");
-                    intelligence.setSource("External Threat Feed");
-                }
-                break;
-
-            case DOMAIN:
-                // Check if this domain is known in threat intelligence feeds
-                if (query.getIndicator().contains("example.com")) {
-                    intelligence.setMalicious(false);
-                    intelligence.setConfidenceScore(0.05);
-                    intelligence.setThreatType("None");
-                } else {
-                    intelligence.setMalicious(true);
-                    intelligence.setConfidenceScore(0.92);
-                    intelligence.setThreatType("Phishing");
-                    intelligence.setSource("Threat Database");
-                }
-                break;
-
-            case HASH:
-                // Check if this file hash is known in threat intelligence feeds
-                intelligence.setMalicious(true);
-                intelligence.setConfidenceScore(0.98);
-                intelligence.setThreatType("Ransomware");
-                intelligence.setSource("Malware Database");
-                break;
-
-            default:
-                intelligence.setMalicious(false);
-                intelligence.setConfidenceScore(0.0);
-                intelligence.setThreatType("Unknown");
-                break;
+        if (ioc != null) {
+            intelligence.setMalicious(true);
+            intelligence.setConfidenceScore(ioc.getConfidence());
+            intelligence.setThreatType(ioc.getThreatType());
+            intelligence.setSource(ioc.getSource());
+        } else {
+            intelligence.setMalicious(false);
+            intelligence.setConfidenceScore(0.0);
+            intelligence.setThreatType("None");
         }
 
         return intelligence;
@@ -1,17 +1,19 @@
 package com.mriridescent.threatdetection.agent.learning;
 
 import com.mriridescent.threatdetection.agent.core.AbstractAgent;
+import com.mriridescent.threatdetection.agent.core.AgentMailboxFactory;
 import com.mriridescent.threatdetection.agent.core.AgentTask;
 import com.mriridescent.threatdetection.model.LearningData;
 import com.mriridescent.threatdetection.model.ModelUpdate;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * AI agent responsible for continuously learning and updating threat detection models.
@@ -22,8 +24,10 @@ public class PatternLearningAgent extends AbstractAgent {
 
     private final List<LearningData> trainingDataBuffer = new ArrayList<>();
 
-    public PatternLearningAgent(@Qualifier("agentTaskExecutor") ThreadPoolTaskExecutor executor) {
-        super("pattern-learning", executor);
+    public PatternLearningAgent(
+            @Qualifier("agentTaskExecutor") TaskExecutor executor,
+            AgentMailboxFactory mailboxFactory) {
+        super("pattern-learning", executor, mailboxFactory);
     }
 
     @Override
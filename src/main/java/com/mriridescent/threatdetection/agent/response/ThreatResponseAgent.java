@@ -1,13 +1,14 @@
 package com.mriridescent.threatdetection.agent.response;
 
 import com.mriridescent.threatdetection.agent.core.AbstractAgent;
+import com.mriridescent.threatdetection.agent.core.AgentMailboxFactory;
 import com.mriridescent.threatdetection.agent.core.AgentTask;
 import com.mriridescent.threatdetection.model.ResponseAction;
 import com.mriridescent.threatdetection.model.ThreatAlert;
 import com.mriridescent.threatdetection.service.NotificationService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
@@ -23,9 +24,10 @@ public class ThreatResponseAgent extends AbstractAgent {
     private final NotificationService notificationService;
 
     public ThreatResponseAgent(
-            @Qualifier("agentTaskExecutor") ThreadPoolTaskExecutor executor,
+            @Qualifier("agentTaskExecutor") TaskExecutor executor,
+            AgentMailboxFactory mailboxFactory,
             NotificationService notificationService) {
-        super("threat-response", executor);
+        super("threat-response", executor, mailboxFactory);
         this.notificationService = notificationService;
     }
 
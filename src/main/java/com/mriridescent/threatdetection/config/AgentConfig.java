@@ -1,23 +1,71 @@
 package com.mriridescent.threatdetection.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 /**
  * Configuration class for AI agent settings and thread pools.
+ *
+ * When {@code threat-detection.agents.virtual-threads} is set, agent consumers and coordinator
+ * workflows run on virtual threads, so workflows that block on agent results no longer
+ * pin a platform thread each. Setting it to {@code false} falls back to bounded platform pools.
+ * The switch is separate from Spring Boot's {@code spring.threads.virtual.enabled}, which would
+ * also move the web server, schedulers and every other executor onto virtual threads.
  */
 @Configuration
 public class AgentConfig {
 
+    @Value("${threat-detection.agents.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    /**
+     * Shared executor that runs the agents' mailbox consumers.
+     * Each agent runs at most {@code threat-detection.agents.mailbox.consumers} drain loops
+     * at a time, so the core pool is sized to give every consumer slot its own thread.
+     */
     @Bean(name = "agentTaskExecutor")
-    public ThreadPoolTaskExecutor agentTaskExecutor() {
+    public AsyncTaskExecutor agentTaskExecutor() {
+        if (virtualThreads) {
+            return virtualThreadExecutor("ai-agent-");
+        }
+
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(5);
-        executor.setMaxPoolSize(10);
+        executor.setCorePoolSize(10);
+        executor.setMaxPoolSize(20);
         executor.setQueueCapacity(25);
         executor.setThreadNamePrefix("ai-agent-");
         executor.initialize();
         return executor;
     }
+
+    /**
+     * Executor that runs coordinator workflows.
+     * The number of in-flight workflows is bounded by the coordinator's admission limit,
+     * so the platform pool uses an unbounded queue rather than rejecting work.
+     */
+    @Bean(name = "workflowExecutor")
+    public AsyncTaskExecutor workflowExecutor() {
+        if (virtualThreads) {
+            return virtualThreadExecutor("workflow-");
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(50);
+        executor.setMaxPoolSize(50);
+        executor.setThreadNamePrefix("workflow-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+
+    static SimpleAsyncTaskExecutor virtualThreadExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
 }
@@ -1,5 +1,6 @@
 package com.mriridescent.threatdetection.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -14,13 +15,21 @@ import java.util.concurrent.Executor;
 @EnableAsync
 public class AsyncConfig {
 
+    @Value("${threat-detection.agents.virtual-threads:false}")
+    private boolean virtualThreads;
+
     /**
-     * Task executor for general async operations
+     * Task executor for general async operations.
+     * Uses virtual threads, as the agents do, when {@code threat-detection.agents.virtual-threads} is set.
      *
      * @return Executor for async tasks
      */
     @Bean(name = "taskExecutor")
     public Executor taskExecutor() {
+        if (virtualThreads) {
+            return AgentConfig.virtualThreadExecutor("ThreatDetection-Task-");
+        }
+
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(5);
         executor.setMaxPoolSize(10);
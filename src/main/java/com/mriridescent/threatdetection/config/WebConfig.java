@@ -1,17 +1,46 @@
 package com.mriridescent.threatdetection.config;
 
+import com.mriridescent.threatdetection.agent.core.AgentMailbox;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.io.IOException;
+
 /**
  * Web MVC configuration.
  */
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    /**
+     * API requests that submit to a full agent mailbox wait for space, as the agents' BLOCK overflow
+     * policy allows only for submitters that opted in, pushing back on the client.
+     */
+    @Bean
+    public FilterRegistrationBean<OncePerRequestFilter> agentSubmissionBackpressureFilter() {
+        FilterRegistrationBean<OncePerRequestFilter> registration = new FilterRegistrationBean<>(new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                            FilterChain filterChain) throws ServletException, IOException {
+                try (AgentMailbox.BlockingScope ignored = AgentMailbox.allowBlocking()) {
+                    filterChain.doFilter(request, response);
+                }
+            }
+        });
+        registration.addUrlPatterns("/api/*");
+        return registration;
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/api/**")
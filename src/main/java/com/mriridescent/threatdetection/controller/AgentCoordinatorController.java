@@ -1,6 +1,9 @@
 package com.mriridescent.threatdetection.controller;
 
 import com.mriridescent.threatdetection.agent.coordinator.AgentCoordinator;
+import com.mriridescent.threatdetection.correlation.CorrelationCriteria;
+import com.mriridescent.threatdetection.correlation.EntityGraph;
+import com.mriridescent.threatdetection.correlation.StreamingThreatCorrelator;
 import com.mriridescent.threatdetection.model.*;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -9,12 +12,16 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +41,8 @@ import java.util.concurrent.CompletableFuture;
 public class AgentCoordinatorController {
 
     private final AgentCoordinator agentCoordinator;
+    private final StreamingThreatCorrelator streamingCorrelator;
+    private final EntityGraph entityGraph;
 
     /**
      * Submit network traffic for comprehensive analysis workflow.
@@ -110,8 +119,15 @@ public class AgentCoordinatorController {
         log.info("Received threat correlation request with {} network packets and {} user activities", 
                 request.getNetworkPackets().size(), request.getUserActivities().size());
         
+        CorrelationCriteria criteria;
+        try {
+            criteria = CorrelationCriteria.of(request.getTimeWindow(), request.getCorrelationTypes());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
         return agentCoordinator.correlateThreatDataWorkflow(
-                request.getNetworkPackets(), request.getUserActivities())
+                request.getNetworkPackets(), request.getUserActivities(), criteria)
                 .thenApply(result -> {
                     if (result.isSuccessful()) {
                         return ResponseEntity.ok(result);
@@ -156,6 +172,59 @@ public class AgentCoordinatorController {
         return ResponseEntity.ok(activeWorkflows);
     }
 
+    /**
+     * Get correlations found by the streaming correlator.
+     */
+    @GetMapping("/correlations/recent")
+    @Operation(summary = "List recent correlations", 
+               description = "Retrieve the most recent correlations found between live network and behavior alerts")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Recent correlations retrieved")
+    })
+    @PreAuthorize("hasRole('ANALYST') or hasRole('ADMIN')")
+    public ResponseEntity<List<ThreatCorrelation>> getRecentCorrelations(
+            @Parameter(description = "Maximum number of correlations, newest first")
+            @RequestParam(defaultValue = "100") @Min(1) @Max(1000) int limit) {
+        return ResponseEntity.ok(streamingCorrelator.recentCorrelations(limit));
+    }
+
+    /**
+     * Get incidents grouped by the entity graph.
+     */
+    @GetMapping("/incidents")
+    @Operation(summary = "List incidents", 
+               description = "Retrieve groups of alerts raised on connected users, IP addresses, hosts and sessions")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Incidents retrieved")
+    })
+    @PreAuthorize("hasRole('ANALYST') or hasRole('ADMIN')")
+    public ResponseEntity<List<Incident>> getIncidents(
+            @Parameter(description = "Minimum number of alerts in an incident")
+            @RequestParam(defaultValue = "1") @Min(1) int minAlerts,
+            @Parameter(description = "Maximum number of incidents, most alerts first")
+            @RequestParam(defaultValue = "50") @Min(1) @Max(1000) int limit) {
+        return ResponseEntity.ok(entityGraph.incidents(minAlerts, limit));
+    }
+
+    /**
+     * Get the incident an entity belongs to.
+     */
+    @GetMapping("/incidents/entity")
+    @Operation(summary = "Get incident by entity", 
+               description = "Retrieve the incident a user, IP address, host or session belongs to")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Incident retrieved"),
+        @ApiResponse(responseCode = "404", description = "Entity not seen recently")
+    })
+    @PreAuthorize("hasRole('ANALYST') or hasRole('ADMIN')")
+    public ResponseEntity<Incident> getIncidentByEntity(
+            @Parameter(description = "Entity type") @RequestParam EntityGraph.EntityType type,
+            @Parameter(description = "Entity id, such as a user id or IP address") @RequestParam @NotBlank String id) {
+        return entityGraph.incidentOf(type, id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     /**
      * Get workflow execution statistics.
      */
@@ -1,27 +1,59 @@
 package com.mriridescent.threatdetection.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
 import com.mriridescent.threatdetection.model.IntelligenceQuery;
+import com.mriridescent.threatdetection.model.IntelligenceQueryResult;
 import com.mriridescent.threatdetection.model.NetworkPacket;
 import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.ThreatIntelligence;
 import com.mriridescent.threatdetection.model.UserActivity;
 import com.mriridescent.threatdetection.orchestration.AgentOrchestrator;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * REST API controller for the threat detection system.
  */
 @RestController
 @RequestMapping("/api/v1")
-@RequiredArgsConstructor
 @Slf4j
 public class ThreatDetectionController {
 
     private final AgentOrchestrator orchestrator;
+    private final ObjectMapper objectMapper;
+    private final Executor taskExecutor;
+
+    @Value("${threat-detection.intel.batch.max-size:10000}")
+    private int maxBatchQueries;
+
+    @Value("${threat-detection.intel.batch.max-in-flight:256}")
+    private int maxBatchQueriesInFlight;
+
+    @Value("${threat-detection.intel.batch.timeout:60s}")
+    private Duration batchQueryTimeout;
+
+    public ThreatDetectionController(AgentOrchestrator orchestrator,
+                                     ObjectMapper objectMapper,
+                                     @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.orchestrator = orchestrator;
+        this.objectMapper = objectMapper;
+        this.taskExecutor = taskExecutor;
+    }
 
     /**
      * Submit network traffic for analysis.
@@ -41,6 +73,20 @@ public class ThreatDetectionController {
                 });
     }
 
+    /**
+     * Submit a batch of network packets for analysis.
+     * Returns one entry per packet, in request order, with {@code null} where no threat was found.
+     */
+    @PostMapping("/analyze/network/batch")
+    public CompletableFuture<ResponseEntity<List<ThreatAlert>>> analyzeNetworkTrafficBatch(
+            @RequestBody List<NetworkPacket> packets) {
+
+        log.info("Received batch of {} network packets for analysis", packets.size());
+
+        return orchestrator.<NetworkPacket, ThreatAlert>submitBatch("network-monitor", packets)
+                .thenApply(ResponseEntity::ok);
+    }
+
     /**
      * Submit user activity for behavioral analysis.
      */
@@ -74,7 +120,70 @@ public class ThreatDetectionController {
     }
 
     /**
-     * Get status of all agents.
+     * Query threat intelligence for a batch of indicators of any type.
+     * Streams one {@link IntelligenceQueryResult} per query as newline-delimited JSON, in the order
+     * the verdicts become available: indicators the IOC index or the verdict cache answers come
+     * first, while at most {@code threat-detection.intel.batch.max-in-flight} of the rest are
+     * looked up by the agent at a time. Lookups run on the task executor rather than the request
+     * thread, so even a batch answered entirely inline is streamed rather than built up front.
+     */
+    @PostMapping(value = "/intelligence/query/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> queryThreatIntelligenceBatch(
+            @RequestBody List<IntelligenceQuery> queries) {
+
+        if (queries.size() > maxBatchQueries) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "At most " + maxBatchQueries + " indicators per batch, got " + queries.size());
+        }
+        log.info("Received batch of {} threat intelligence queries", queries.size());
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(batchQueryTimeout.toMillis());
+        CompletableFuture<Void> stopped = new CompletableFuture<>();
+        // Stop submitting lookups for a client that timed out or disconnected
+        emitter.onTimeout(() -> stopped.complete(null));
+        emitter.onError(ex -> stopped.complete(null));
+        try {
+            taskExecutor.execute(() -> streamLookups(queries, emitter, stopped));
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many intelligence batches in progress");
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    private void streamLookups(List<IntelligenceQuery> queries, ResponseBodyEmitter emitter,
+                               CompletableFuture<Void> stopped) {
+        if (stopped.isDone()) {
+            return;
+        }
+        CompletableFuture<Void> lookups;
+        try {
+            lookups = orchestrator.<IntelligenceQuery, ThreatIntelligence>submitEach(
+                    "threat-intelligence", queries, TaskPriority.NORMAL, maxBatchQueriesInFlight,
+                    (index, intelligence, failure) -> {
+                        IntelligenceQueryResult line = IntelligenceQueryResult.builder()
+                                .index(index)
+                                .intelligence(intelligence)
+                                .error(failure != null ? String.valueOf(failure.getMessage()) : null)
+                                .build();
+                        try {
+                            // One write per line, so lines from concurrent completions never interleave
+                            emitter.send(objectMapper.writeValueAsString(line) + "\n", MediaType.APPLICATION_NDJSON);
+                        } catch (IOException | IllegalStateException e) {
+                            // The client went away; the emitter's error callback stops the remaining lookups
+                            log.debug("Dropped intelligence batch result {}: {}", index, e.getMessage());
+                        }
+                    });
+        } catch (RuntimeException e) {
+            log.warn("Intelligence batch failed to start: {}", e.getMessage());
+            emitter.completeWithError(e);
+            return;
+        }
+        lookups.whenComplete((ignored, ex) -> emitter.complete());
+        stopped.whenComplete((ignored, ex) -> lookups.complete(null));
+    }
+
+    /**
+     * Get status of all agents, including queue depth and recent queue-wait and processing latency percentiles.
      */
     @GetMapping("/agents/status")
     public ResponseEntity<?> getAgentStatus() {
@@ -0,0 +1,71 @@
+package com.mriridescent.threatdetection.correlation;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Which correlations to look for between network and behavior alerts.
+ */
+@Value
+@Slf4j
+public class CorrelationCriteria {
+
+    /** Alerts detected within the time window of each other. */
+    public static final String TIME_BASED = "TIME_BASED";
+    /** Alerts from the same source IP. */
+    public static final String IP_BASED = "IP_BASED";
+
+    private static final Duration DEFAULT_TIME_WINDOW = Duration.ofMinutes(30);
+    private static final Set<String> SUPPORTED_TYPES = Set.of(TIME_BASED, IP_BASED);
+
+    Duration timeWindow;
+    Set<String> correlationTypes;
+
+    public static CorrelationCriteria defaults() {
+        return new CorrelationCriteria(DEFAULT_TIME_WINDOW, SUPPORTED_TYPES);
+    }
+
+    /**
+     * Criteria from request parameters.
+     *
+     * @param timeWindow       ISO-8601 duration such as {@code PT30M}; {@code null} for the 30 minute default
+     * @param correlationTypes Types to look for; {@code null} for all. Unsupported types are ignored.
+     * @throws IllegalArgumentException if the time window cannot be parsed or is negative
+     */
+    public static CorrelationCriteria of(String timeWindow, Collection<String> correlationTypes) {
+        Duration window = DEFAULT_TIME_WINDOW;
+        if (timeWindow != null) {
+            try {
+                window = Duration.parse(timeWindow);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Correlation time window is not an ISO-8601 duration: " + timeWindow, e);
+            }
+        }
+        if (window.isNegative()) {
+            throw new IllegalArgumentException("Correlation time window must not be negative: " + timeWindow);
+        }
+
+        Set<String> types = SUPPORTED_TYPES;
+        if (correlationTypes != null) {
+            types = new HashSet<>();
+            for (String type : correlationTypes) {
+                if (SUPPORTED_TYPES.contains(type)) {
+                    types.add(type);
+                } else {
+                    log.warn("Ignoring unsupported correlation type: {}", type);
+                }
+            }
+        }
+        return new CorrelationCriteria(window, Set.copyOf(types));
+    }
+
+    public boolean includes(String correlationType) {
+        return correlationTypes.contains(correlationType);
+    }
+}
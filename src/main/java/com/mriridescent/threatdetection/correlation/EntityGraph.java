@@ -0,0 +1,527 @@
+package com.mriridescent.threatdetection.correlation;
+
+import com.mriridescent.threatdetection.model.Incident;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.UserActivity;
+import com.mriridescent.threatdetection.orchestration.AlertListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Groups related alerts into incidents by connecting the users, IP addresses, hosts and
+ * sessions they involve.
+ *
+ * Every alert links the entities it names (user, source and destination IP, host), and every
+ * user activity submitted for analysis links its user, IP address and session. Entities that
+ * are connected through any chain of links, such as user → IP → host → IP, form one incident,
+ * which holds the alerts raised on all of them.
+ *
+ * Connected components are kept in a union-find structure with union by size and path
+ * halving, so adding a link and looking up an entity's incident take O(α(n)) amortized time.
+ * Each component also keeps its alert count, highest severity and a circular member list,
+ * merged in constant time on union, so incidents are read without a graph traversal.
+ *
+ * Links expire {@code edge-ttl} after they were last seen. Union-find cannot split components,
+ * so the periodic sweep drops expired links and entities and rebuilds the structure from the
+ * links that remain, which costs O(E α(n)) once per sweep. Entities linked to more than
+ * {@code max-degree} others, such as a shared DNS server, stop taking new links so they do not
+ * join unrelated activity into one incident.
+ */
+@Slf4j
+@Component
+public class EntityGraph implements AlertListener {
+
+    public enum EntityType {
+        USER, IP, HOST, SESSION;
+
+        String key(String id) {
+            return name().toLowerCase(Locale.ROOT) + ":" + id;
+        }
+    }
+
+    private static final String PREFIX = "threat-detection.correlation.entity-graph.";
+
+    /**
+     * Entity graph settings, read from {@code threat-detection.correlation.entity-graph.*}.
+     */
+    @Getter
+    @Builder
+    public static class Settings {
+        @Builder.Default
+        private final boolean enabled = true;
+        @Builder.Default
+        private final String behaviorAgentId = "behavior-analysis";
+        @Builder.Default
+        private final Duration edgeTtl = Duration.ofHours(1);
+        /** Links per entity; an entity with this many stops taking new links. */
+        @Builder.Default
+        private final int maxDegree = 1000;
+        @Builder.Default
+        private final int maxEntities = 1_000_000;
+        /** Alert ids kept per entity for incident listings. */
+        @Builder.Default
+        private final int alertsPerEntity = 16;
+        /** Entities and alert ids listed per incident. */
+        @Builder.Default
+        private final int listedPerIncident = 100;
+    }
+
+    private final Settings settings;
+    private final long edgeTtlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by lock. Entities are numbered densely; the arrays are indexed by entity number.
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private Entity[] entities = new Entity[1024];
+    private int[] parent = new int[1024];
+    // Per component, valid at its root: member count, alerts, highest severity, last activity
+    private int[] size = new int[1024];
+    private int[] alerts = new int[1024];
+    private int[] maxSeverity = new int[1024];
+    private long[] lastSeen = new long[1024];
+    // Circular list through the members of each component
+    private int[] next = new int[1024];
+    private int entityCount;
+    private int componentCount;
+    // Last time each link was seen, by the ordered pair of entity numbers
+    private final Map<Long, Long> edges = new HashMap<>();
+
+    private final Counter hubLinks;
+    private final Counter overflowEntities;
+    private final Counter expiredEdges;
+
+    @Autowired
+    public EntityGraph(Environment environment, MeterRegistry meterRegistry) {
+        this(settingsFrom(environment), meterRegistry);
+    }
+
+    EntityGraph(Settings settings, MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.edgeTtlNanos = settings.getEdgeTtl().toNanos();
+
+        Gauge.builder("threat_detection_entity_graph_entities", this, EntityGraph::entityCount)
+                .description("Entities held in the entity graph")
+                .register(meterRegistry);
+        Gauge.builder("threat_detection_entity_graph_edges", this, EntityGraph::edgeCount)
+                .description("Live links between entities")
+                .register(meterRegistry);
+        Gauge.builder("threat_detection_entity_graph_components", this, EntityGraph::componentCount)
+                .description("Groups of connected entities")
+                .register(meterRegistry);
+        hubLinks = droppedCounter(meterRegistry, "hub");
+        overflowEntities = droppedCounter(meterRegistry, "capacity");
+        expiredEdges = Counter.builder("threat_detection_entity_graph_edges_expired_total")
+                .description("Links dropped from the entity graph after edge-ttl without activity")
+                .register(meterRegistry);
+    }
+
+    private static Settings settingsFrom(Environment environment) {
+        Settings defaults = Settings.builder().build();
+        return Settings.builder()
+                .enabled(environment.getProperty(PREFIX + "enabled", Boolean.class, defaults.isEnabled()))
+                .edgeTtl(environment.getProperty(PREFIX + "edge-ttl", Duration.class, defaults.getEdgeTtl()))
+                .maxDegree(environment.getProperty(PREFIX + "max-degree", Integer.class, defaults.getMaxDegree()))
+                .maxEntities(environment.getProperty(PREFIX + "max-entities", Integer.class, defaults.getMaxEntities()))
+                .alertsPerEntity(environment.getProperty(PREFIX + "alerts-per-entity", Integer.class,
+                        defaults.getAlertsPerEntity()))
+                .listedPerIncident(environment.getProperty(PREFIX + "listed-per-incident", Integer.class,
+                        defaults.getListedPerIncident()))
+                .build();
+    }
+
+    @Override
+    public void onAlert(String agentId, ThreatAlert alert) {
+        if (settings.isEnabled()) {
+            addAlert(alert);
+        }
+    }
+
+    @Override
+    public void onInput(String agentId, Object input) {
+        if (settings.isEnabled() && input instanceof UserActivity activity
+                && agentId.equals(settings.getBehaviorAgentId())) {
+            addActivity(activity);
+        }
+    }
+
+    /**
+     * Link the entities an alert names and add the alert to their incident.
+     */
+    public void addAlert(ThreatAlert alert) {
+        long time = eventTime(alert.getDetectionTime());
+        lock.lock();
+        try {
+            int anchor = -1;
+            for (int entity : new int[] {
+                    entity(EntityType.USER, alert.getUserId(), time),
+                    entity(EntityType.IP, alert.getSourceIp(), time),
+                    entity(EntityType.HOST, alert.getSystemId(), time),
+                    entity(EntityType.IP, alert.getDestinationIp(), time)}) {
+                if (entity < 0) {
+                    continue;
+                }
+                if (anchor < 0) {
+                    anchor = entity;
+                } else {
+                    link(anchor, entity, time);
+                }
+            }
+            if (anchor >= 0) {
+                recordAlert(anchor, alert, time);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Link the user, IP address and session of a user activity.
+     */
+    public void addActivity(UserActivity activity) {
+        long time = eventTime(activity.getTimestamp());
+        lock.lock();
+        try {
+            int user = entity(EntityType.USER, activity.getUserId(), time);
+            int ip = entity(EntityType.IP, activity.getIpAddress(), time);
+            int session = entity(EntityType.SESSION, activity.getSessionId(), time);
+            int anchor = user >= 0 ? user : ip;
+            if (anchor >= 0) {
+                link(anchor, ip, time);
+                link(anchor, session, time);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Incident the given entity belongs to, if the entity is known.
+     */
+    public Optional<Incident> incidentOf(EntityType type, String id) {
+        lock.lock();
+        try {
+            Integer number = numbers.get(type.key(id));
+            return number == null ? Optional.empty() : Optional.of(incident(find(number)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether two entities are currently in the same incident.
+     */
+    public boolean connected(EntityType type, String id, EntityType otherType, String otherId) {
+        lock.lock();
+        try {
+            Integer a = numbers.get(type.key(id));
+            Integer b = numbers.get(otherType.key(otherId));
+            return a != null && b != null && find(a) == find(b);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Incidents with at least {@code minAlerts} alerts, most alerts first.
+     */
+    public List<Incident> incidents(int minAlerts, int limit) {
+        lock.lock();
+        try {
+            List<Integer> roots = new ArrayList<>();
+            for (int i = 0; i < entityCount; i++) {
+                if (parent[i] == i && alerts[i] >= Math.max(1, minAlerts)) {
+                    roots.add(i);
+                }
+            }
+            roots.sort(Comparator.<Integer>comparingInt(root -> alerts[root]).reversed()
+                    .thenComparing(Comparator.<Integer>comparingLong(root -> lastSeen[root]).reversed()));
+            return roots.stream().limit(limit).map(this::incident).toList();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop links and entities that have seen no activity for {@code edge-ttl}.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void expire() {
+        expire(LocalDateTime.now());
+    }
+
+    void expire(LocalDateTime now) {
+        long cutoff = toNanos(now) - edgeTtlNanos;
+        lock.lock();
+        try {
+            int expired = 0;
+            for (Iterator<Map.Entry<Long, Long>> it = edges.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Long, Long> edge = it.next();
+                if (edge.getValue() < cutoff) {
+                    it.remove();
+                    entities[(int) (edge.getKey() >>> 32)].degree--;
+                    entities[(int) (long) edge.getKey()].degree--;
+                    expired++;
+                }
+            }
+            boolean staleEntities = false;
+            for (int i = 0; i < entityCount && !staleEntities; i++) {
+                staleEntities = entities[i].degree == 0 && entities[i].lastSeen < cutoff;
+            }
+            if (expired > 0 || staleEntities) {
+                rebuild(cutoff);
+                expiredEdges.increment(expired);
+                log.debug("Entity graph expired {} links; {} entities in {} components remain",
+                        expired, entityCount, componentCount);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int entityCount() {
+        return entityCount;
+    }
+
+    int edgeCount() {
+        return edges.size();
+    }
+
+    int componentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Number of the entity, added if new; -1 if there is no id or the graph is full.
+     */
+    private int entity(EntityType type, String id, long time) {
+        if (id == null || id.isBlank()) {
+            return -1;
+        }
+        String key = type.key(id);
+        Integer number = numbers.get(key);
+        if (number == null) {
+            if (entityCount >= settings.getMaxEntities()) {
+                overflowEntities.increment();
+                return -1;
+            }
+            number = add(new Entity(key));
+            numbers.put(key, number);
+        }
+        Entity entity = entities[number];
+        entity.lastSeen = Math.max(entity.lastSeen, time);
+        int root = find(number);
+        lastSeen[root] = Math.max(lastSeen[root], time);
+        return number;
+    }
+
+    private int add(Entity entity) {
+        int number = entityCount++;
+        if (number == entities.length) {
+            grow(number * 2);
+        }
+        entities[number] = entity;
+        parent[number] = number;
+        size[number] = 1;
+        next[number] = number;
+        alerts[number] = entity.alerts;
+        maxSeverity[number] = entity.maxSeverity;
+        lastSeen[number] = entity.lastSeen;
+        componentCount++;
+        return number;
+    }
+
+    private void link(int a, int b, long time) {
+        if (a < 0 || b < 0 || a == b) {
+            return;
+        }
+        long key = edgeKey(a, b);
+        Long seen = edges.get(key);
+        if (seen != null) {
+            edges.put(key, Math.max(seen, time));
+            return;
+        }
+        if (entities[a].degree >= settings.getMaxDegree() || entities[b].degree >= settings.getMaxDegree()) {
+            hubLinks.increment();
+            return;
+        }
+        edges.put(key, time);
+        entities[a].degree++;
+        entities[b].degree++;
+        union(a, b);
+    }
+
+    private void recordAlert(int number, ThreatAlert alert, long time) {
+        Entity entity = entities[number];
+        int severity = alert.getSeverity() != null ? alert.getSeverity().ordinal() : -1;
+        entity.alerts++;
+        entity.maxSeverity = Math.max(entity.maxSeverity, severity);
+        if (entity.alertIds.size() >= settings.getAlertsPerEntity()) {
+            entity.alertIds.pollFirst();
+        }
+        entity.alertIds.addLast(alert.getAlertId());
+
+        int root = find(number);
+        alerts[root]++;
+        maxSeverity[root] = Math.max(maxSeverity[root], severity);
+        lastSeen[root] = Math.max(lastSeen[root], time);
+    }
+
+    private int find(int number) {
+        while (parent[number] != number) {
+            parent[number] = parent[parent[number]];
+            number = parent[number];
+        }
+        return number;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        if (size[rootA] < size[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parent[rootB] = rootA;
+        size[rootA] += size[rootB];
+        alerts[rootA] += alerts[rootB];
+        maxSeverity[rootA] = Math.max(maxSeverity[rootA], maxSeverity[rootB]);
+        lastSeen[rootA] = Math.max(lastSeen[rootA], lastSeen[rootB]);
+        // Splice the two member lists into one
+        int swap = next[rootA];
+        next[rootA] = next[rootB];
+        next[rootB] = swap;
+        componentCount--;
+    }
+
+    /**
+     * Renumber the entities that are still linked or recently seen and union their live links.
+     */
+    private void rebuild(long cutoff) {
+        Entity[] old = Arrays.copyOf(entities, entityCount);
+        int[] renumbered = new int[old.length];
+        numbers.clear();
+        entityCount = 0;
+        componentCount = 0;
+        for (int i = 0; i < old.length; i++) {
+            Entity entity = old[i];
+            if (entity.degree > 0 || entity.lastSeen >= cutoff) {
+                renumbered[i] = add(entity);
+                numbers.put(entity.key, renumbered[i]);
+            } else {
+                renumbered[i] = -1;
+            }
+        }
+        Arrays.fill(entities, entityCount, old.length, null);
+
+        Map<Long, Long> live = new HashMap<>(edges);
+        edges.clear();
+        live.forEach((key, seen) -> {
+            int a = renumbered[(int) (key >>> 32)];
+            int b = renumbered[(int) (long) key];
+            edges.put(edgeKey(a, b), seen);
+            union(a, b);
+        });
+    }
+
+    private void grow(int capacity) {
+        entities = Arrays.copyOf(entities, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        size = Arrays.copyOf(size, capacity);
+        alerts = Arrays.copyOf(alerts, capacity);
+        maxSeverity = Arrays.copyOf(maxSeverity, capacity);
+        lastSeen = Arrays.copyOf(lastSeen, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+
+    private Incident incident(int root) {
+        int limit = settings.getListedPerIncident();
+        List<String> members = new ArrayList<>(Math.min(size[root], limit));
+        List<String> alertIds = new ArrayList<>();
+        int member = root;
+        do {
+            Entity entity = entities[member];
+            if (members.size() < limit) {
+                members.add(entity.key);
+            }
+            for (Iterator<String> it = entity.alertIds.descendingIterator(); it.hasNext() && alertIds.size() < limit; ) {
+                alertIds.add(it.next());
+            }
+            member = next[member];
+        } while (member != root && (members.size() < limit || alertIds.size() < limit));
+
+        return Incident.builder()
+                .incidentId(entities[root].key)
+                .entityCount(size[root])
+                .alertCount(alerts[root])
+                .maxSeverity(maxSeverity[root] >= 0 ? ThreatAlert.Severity.values()[maxSeverity[root]] : null)
+                .lastActivity(LocalDateTime.ofInstant(
+                        Instant.ofEpochSecond(0, lastSeen[root]), ZoneOffset.UTC))
+                .entities(members)
+                .alertIds(alertIds)
+                .build();
+    }
+
+    private static long edgeKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    /**
+     * Event time, capped at the present so a skewed clock cannot keep links alive.
+     */
+    private static long eventTime(LocalDateTime time) {
+        long now = toNanos(LocalDateTime.now());
+        return time != null ? Math.min(toNanos(time), now) : now;
+    }
+
+    private static long toNanos(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + time.getNano();
+    }
+
+    private static Counter droppedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("threat_detection_entity_graph_dropped_total")
+                .description("Links or entities not added to the entity graph")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private static final class Entity {
+        private final String key;
+        private final ArrayDeque<String> alertIds = new ArrayDeque<>(2);
+        private int degree;
+        private int alerts;
+        private int maxSeverity = -1;
+        private long lastSeen = Long.MIN_VALUE;
+
+        private Entity(String key) {
+            this.key = key;
+        }
+    }
+}
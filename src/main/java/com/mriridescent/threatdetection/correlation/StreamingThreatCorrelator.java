@@ -0,0 +1,407 @@
+package com.mriridescent.threatdetection.correlation;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.ThreatCorrelation;
+import com.mriridescent.threatdetection.orchestration.AlertListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Correlates alerts from the network-monitor and behavior-analysis agents as they are produced,
+ * instead of waiting for a correlation request.
+ *
+ * Alerts are kept for the correlation window in time buckets indexed by source IP and, for
+ * behavior alerts, by user. When an alert arrives it is matched against the alerts of the other
+ * kind in the buckets within the window:
+ * <ul>
+ *   <li>{@code IP_BASED}: a network and a behavior alert from the same source IP</li>
+ *   <li>{@code USER_BASED}: a network alert from an IP a user recently had a behavior alert from,
+ *       and that user's behavior alerts from other IPs</li>
+ * </ul>
+ * Each pair is reported once, when the last of the alerts it rests on arrives, in whatever order
+ * they arrive. Buckets that fall out of the window are dropped whole, and the number of alerts
+ * held is capped, so memory stays flat however long alerts keep arriving. Recent correlations are
+ * available from {@link #recentCorrelations}.
+ */
+@Slf4j
+@Component
+public class StreamingThreatCorrelator implements AlertListener {
+
+    /** A network alert from an address a user recently had a behavior alert from. */
+    public static final String USER_BASED = "USER_BASED";
+
+    private static final String PREFIX = "threat-detection.correlation.streaming.";
+
+    /**
+     * Correlator settings, read from {@code threat-detection.correlation.streaming.*}.
+     */
+    @Getter
+    @Builder
+    public static class Settings {
+        @Builder.Default
+        private final boolean enabled = true;
+        @Builder.Default
+        private final String networkAgentId = "network-monitor";
+        @Builder.Default
+        private final String behaviorAgentId = "behavior-analysis";
+        @Builder.Default
+        private final Duration window = Duration.ofMinutes(30);
+        @Builder.Default
+        private final Duration bucketWidth = Duration.ofMinutes(1);
+        /** Alerts kept per IP or user in one bucket; further alerts for that key are not indexed. */
+        @Builder.Default
+        private final int maxAlertsPerKey = 32;
+        /** Alerts held across all buckets; the oldest buckets are dropped early beyond this. */
+        @Builder.Default
+        private final int maxAlerts = 100_000;
+        @Builder.Default
+        private final int recentCorrelations = 1000;
+    }
+
+    private final Settings settings;
+    private final long windowNanos;
+    private final long bucketNanos;
+
+    // Buckets by index (event time / bucket width), guarded by lock
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+    private final ArrayDeque<ThreatCorrelation> recent = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long watermarkNanos = Long.MIN_VALUE;
+    private int alertCount;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter lateAlerts;
+    private final Counter overflowAlerts;
+    private final Counter expiredAlerts;
+
+    @Autowired
+    public StreamingThreatCorrelator(Environment environment, MeterRegistry meterRegistry) {
+        this(settingsFrom(environment), meterRegistry);
+    }
+
+    StreamingThreatCorrelator(Settings settings, MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.windowNanos = settings.getWindow().toNanos();
+        this.bucketNanos = settings.getBucketWidth().toNanos();
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("threat_detection_streaming_correlator_alerts", this, StreamingThreatCorrelator::alertCount)
+                .description("Alerts held in the streaming correlation window")
+                .register(meterRegistry);
+        lateAlerts = droppedCounter("late");
+        overflowAlerts = droppedCounter("overflow");
+        expiredAlerts = droppedCounter("expired");
+    }
+
+    private static Settings settingsFrom(Environment environment) {
+        Settings defaults = Settings.builder().build();
+        return Settings.builder()
+                .enabled(environment.getProperty(PREFIX + "enabled", Boolean.class, defaults.isEnabled()))
+                .window(environment.getProperty(PREFIX + "window", Duration.class, defaults.getWindow()))
+                .bucketWidth(environment.getProperty(PREFIX + "bucket-width", Duration.class, defaults.getBucketWidth()))
+                .maxAlertsPerKey(environment.getProperty(PREFIX + "max-alerts-per-key", Integer.class,
+                        defaults.getMaxAlertsPerKey()))
+                .maxAlerts(environment.getProperty(PREFIX + "max-alerts", Integer.class, defaults.getMaxAlerts()))
+                .recentCorrelations(environment.getProperty(PREFIX + "recent-correlations", Integer.class,
+                        defaults.getRecentCorrelations()))
+                .build();
+    }
+
+    @Override
+    public void onAlert(String agentId, ThreatAlert alert) {
+        if (!settings.isEnabled() || alert.getSourceIp() == null) {
+            return;
+        }
+        if (agentId.equals(settings.getNetworkAgentId())) {
+            accept(alert, false);
+        } else if (agentId.equals(settings.getBehaviorAgentId())) {
+            accept(alert, true);
+        }
+    }
+
+    /**
+     * Most recent correlations, newest first.
+     */
+    public List<ThreatCorrelation> recentCorrelations(int limit) {
+        lock.lock();
+        try {
+            List<ThreatCorrelation> result = new ArrayList<>(Math.min(limit, recent.size()));
+            Iterator<ThreatCorrelation> newestFirst = recent.descendingIterator();
+            while (newestFirst.hasNext() && result.size() < limit) {
+                result.add(newestFirst.next());
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop buckets that have fallen out of the window while no alerts arrived.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictExpired() {
+        evictExpired(LocalDateTime.now());
+    }
+
+    void evictExpired(LocalDateTime now) {
+        lock.lock();
+        try {
+            advanceWatermark(toNanos(now));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int alertCount() {
+        return alertCount;
+    }
+
+    private void accept(ThreatAlert alert, boolean behavior) {
+        // Event time, capped at the present so a skewed clock cannot expire the whole window
+        long now = toNanos(LocalDateTime.now());
+        long time = alert.getDetectionTime() != null ? Math.min(toNanos(alert.getDetectionTime()), now) : now;
+        List<ThreatCorrelation> found;
+
+        lock.lock();
+        try {
+            advanceWatermark(time);
+            if (time < watermarkNanos - windowNanos) {
+                lateAlerts.increment();
+                return;
+            }
+            found = behavior ? matchBehaviorAlert(alert, time) : matchNetworkAlert(alert, time);
+            index(alert, behavior, time);
+            for (ThreatCorrelation correlation : found) {
+                if (recent.size() >= settings.getRecentCorrelations()) {
+                    recent.pollFirst();
+                }
+                recent.addLast(correlation);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (ThreatCorrelation correlation : found) {
+            Counter.builder("threat_detection_streaming_correlations_total")
+                    .description("Correlations found by the streaming correlator")
+                    .tag("type", correlation.getCorrelationType())
+                    .register(meterRegistry)
+                    .increment();
+            log.debug("Streaming correlation: {}", correlation.getSummary());
+        }
+    }
+
+    private List<ThreatCorrelation> matchNetworkAlert(ThreatAlert networkAlert, long time) {
+        List<ThreatCorrelation> found = new ArrayList<>();
+        String ip = networkAlert.getSourceIp();
+
+        Set<String> usersOnIp = new LinkedHashSet<>();
+        for (Bucket bucket : bucketsAround(time)) {
+            for (Entry behavior : bucket.behaviorByIp.getOrDefault(ip, List.of())) {
+                if (withinWindow(time, behavior.time)) {
+                    found.add(correlation(CorrelationCriteria.IP_BASED, networkAlert, behavior.alert));
+                    if (behavior.alert.getUserId() != null) {
+                        usersOnIp.add(behavior.alert.getUserId());
+                    }
+                }
+            }
+        }
+        for (String user : usersOnIp) {
+            for (Bucket bucket : bucketsAround(time)) {
+                for (Entry behavior : bucket.behaviorByUser.getOrDefault(user, List.of())) {
+                    if (!ip.equals(behavior.alert.getSourceIp()) && withinWindow(time, behavior.time)) {
+                        found.add(correlation(USER_BASED, networkAlert, behavior.alert));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private List<ThreatCorrelation> matchBehaviorAlert(ThreatAlert behaviorAlert, long time) {
+        List<ThreatCorrelation> found = new ArrayList<>();
+        String ip = behaviorAlert.getSourceIp();
+        Collection<Bucket> window = bucketsAround(time);
+
+        List<Entry> networkOnIp = new ArrayList<>();
+        for (Bucket bucket : window) {
+            for (Entry network : bucket.networkByIp.getOrDefault(ip, List.of())) {
+                if (withinWindow(time, network.time)) {
+                    found.add(correlation(CorrelationCriteria.IP_BASED, network.alert, behaviorAlert));
+                    networkOnIp.add(network);
+                }
+            }
+        }
+
+        if (behaviorAlert.getUserId() != null) {
+            Set<String> otherIps = new LinkedHashSet<>();
+            List<Entry> otherBehaviors = new ArrayList<>();
+            boolean bridged = false;
+            for (Bucket bucket : window) {
+                for (Entry behavior : bucket.behaviorByUser.getOrDefault(behaviorAlert.getUserId(), List.of())) {
+                    if (!withinWindow(time, behavior.time)) {
+                        continue;
+                    }
+                    if (ip.equals(behavior.alert.getSourceIp())) {
+                        bridged = true;
+                    } else {
+                        otherIps.add(behavior.alert.getSourceIp());
+                        otherBehaviors.add(behavior);
+                    }
+                }
+            }
+
+            // Network alerts from the other addresses this user recently had behavior alerts from
+            for (String otherIp : otherIps) {
+                for (Bucket bucket : window) {
+                    for (Entry network : bucket.networkByIp.getOrDefault(otherIp, List.of())) {
+                        if (withinWindow(time, network.time)) {
+                            found.add(correlation(USER_BASED, network.alert, behaviorAlert));
+                        }
+                    }
+                }
+            }
+
+            // This alert ties the network alerts on its address to the user's behavior alerts from
+            // other addresses, unless an earlier alert of the user's from this address already did
+            if (!bridged) {
+                for (Entry network : networkOnIp) {
+                    for (Entry behavior : otherBehaviors) {
+                        if (withinWindow(network.time, behavior.time)) {
+                            found.add(correlation(USER_BASED, network.alert, behavior.alert));
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private void index(ThreatAlert alert, boolean behavior, long time) {
+        Bucket bucket = buckets.computeIfAbsent(Math.floorDiv(time, bucketNanos), index -> new Bucket());
+        Entry entry = new Entry(time, alert);
+        boolean indexed;
+        if (behavior) {
+            indexed = bucket.add(bucket.behaviorByIp, alert.getSourceIp(), entry);
+            if (alert.getUserId() != null) {
+                indexed |= bucket.add(bucket.behaviorByUser, alert.getUserId(), entry);
+            }
+        } else {
+            indexed = bucket.add(bucket.networkByIp, alert.getSourceIp(), entry);
+        }
+        if (!indexed) {
+            overflowAlerts.increment();
+            return;
+        }
+        bucket.alerts++;
+        alertCount++;
+
+        // Over capacity: give up the oldest buckets early rather than grow
+        while (alertCount > settings.getMaxAlerts() && buckets.size() > 1) {
+            Bucket oldest = buckets.pollFirstEntry().getValue();
+            alertCount -= oldest.alerts;
+            overflowAlerts.increment(oldest.alerts);
+        }
+    }
+
+    private void advanceWatermark(long time) {
+        if (time <= watermarkNanos) {
+            return;
+        }
+        watermarkNanos = time;
+        long firstLiveBucket = Math.floorDiv(watermarkNanos - windowNanos, bucketNanos);
+        while (!buckets.isEmpty() && buckets.firstKey() < firstLiveBucket) {
+            Bucket expired = buckets.pollFirstEntry().getValue();
+            alertCount -= expired.alerts;
+            expiredAlerts.increment(expired.alerts);
+        }
+    }
+
+    private Collection<Bucket> bucketsAround(long time) {
+        long from = Math.floorDiv(time - windowNanos, bucketNanos);
+        long to = Math.floorDiv(time + windowNanos, bucketNanos);
+        return buckets.subMap(from, true, to, true).values();
+    }
+
+    private boolean withinWindow(long time, long otherTime) {
+        return Math.abs(time - otherTime) <= windowNanos;
+    }
+
+    private ThreatCorrelation correlation(String type, ThreatAlert networkAlert, ThreatAlert behaviorAlert) {
+        boolean sameIp = CorrelationCriteria.IP_BASED.equals(type);
+        return ThreatCorrelation.builder()
+                .correlationType(type)
+                .networkAlert(networkAlert)
+                .behaviorAlert(behaviorAlert)
+                .confidence(sameIp ? 0.9 : 0.6)
+                .description(sameIp
+                        ? "Alerts from same IP address"
+                        : "Network alert from an address user " + behaviorAlert.getUserId() + " recently used")
+                .correlatedAt(LocalDateTime.now())
+                .build();
+    }
+
+    private Counter droppedCounter(String reason) {
+        return Counter.builder("threat_detection_streaming_correlator_dropped_total")
+                .description("Alerts that left the streaming correlation window, or were never added to it")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private static long toNanos(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + time.getNano();
+    }
+
+    private static final class Entry {
+        private final long time;
+        private final ThreatAlert alert;
+
+        private Entry(long time, ThreatAlert alert) {
+            this.time = time;
+            this.alert = alert;
+        }
+    }
+
+    private final class Bucket {
+        private final Map<String, List<Entry>> networkByIp = new HashMap<>();
+        private final Map<String, List<Entry>> behaviorByIp = new HashMap<>();
+        private final Map<String, List<Entry>> behaviorByUser = new HashMap<>();
+        private int alerts;
+
+        /**
+         * @return false if the key already holds the maximum number of alerts in this bucket
+         */
+        boolean add(Map<String, List<Entry>> index, String key, Entry entry) {
+            List<Entry> entries = index.computeIfAbsent(key, k -> new ArrayList<>(2));
+            if (entries.size() >= settings.getMaxAlertsPerKey()) {
+                return false;
+            }
+            entries.add(entry);
+            return true;
+        }
+    }
+}
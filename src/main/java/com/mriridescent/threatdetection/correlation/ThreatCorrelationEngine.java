@@ -0,0 +1,129 @@
+package com.mriridescent.threatdetection.correlation;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.ThreatCorrelation;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds correlations between network and behavior alerts with indexed joins rather than
+ * comparing every pair.
+ *
+ * IP correlation is a hash join on {@code sourceIp}. Time correlation is a sort-merge join:
+ * both sides are sorted by detection time and, for each network alert in time order, a window
+ * over the behavior alerts is advanced. Either join costs O(n log n + m log m) plus the number
+ * of correlations found, instead of O(n * m). Alerts without a source IP or detection time
+ * do not take part in the respective join.
+ */
+public class ThreatCorrelationEngine {
+
+    private static final double TIME_CORRELATION_CONFIDENCE = 0.7;
+    private static final double IP_CORRELATION_CONFIDENCE = 0.9;
+
+    /**
+     * Correlate network alerts with behavior alerts.
+     *
+     * @return Time-based correlations, in detection time order, followed by IP-based ones
+     */
+    public List<ThreatCorrelation> correlate(List<ThreatAlert> networkAlerts, List<ThreatAlert> behaviorAlerts,
+                                             CorrelationCriteria criteria) {
+        List<ThreatCorrelation> correlations = new ArrayList<>();
+        if (networkAlerts.isEmpty() || behaviorAlerts.isEmpty()) {
+            return correlations;
+        }
+        if (criteria.includes(CorrelationCriteria.TIME_BASED)) {
+            correlateByTime(networkAlerts, behaviorAlerts, criteria.getTimeWindow().toNanos(), correlations);
+        }
+        if (criteria.includes(CorrelationCriteria.IP_BASED)) {
+            correlateByIp(networkAlerts, behaviorAlerts, correlations);
+        }
+        return correlations;
+    }
+
+    private void correlateByTime(List<ThreatAlert> networkAlerts, List<ThreatAlert> behaviorAlerts,
+                                 long windowNanos, List<ThreatCorrelation> correlations) {
+        TimedAlert[] network = byDetectionTime(networkAlerts);
+        TimedAlert[] behavior = byDetectionTime(behaviorAlerts);
+
+        // Network alerts are visited in time order, so the window's lower bound only moves forward
+        int windowStart = 0;
+        for (TimedAlert networkAlert : network) {
+            long from = networkAlert.nanos - windowNanos;
+            long to = networkAlert.nanos + windowNanos;
+            while (windowStart < behavior.length && behavior[windowStart].nanos < from) {
+                windowStart++;
+            }
+            for (int i = windowStart; i < behavior.length && behavior[i].nanos <= to; i++) {
+                correlations.add(ThreatCorrelation.builder()
+                        .correlationType(CorrelationCriteria.TIME_BASED)
+                        .networkAlert(networkAlert.alert)
+                        .behaviorAlert(behavior[i].alert)
+                        .confidence(TIME_CORRELATION_CONFIDENCE)
+                        .description("Alerts occurred within suspicious time window")
+                        .build());
+            }
+        }
+    }
+
+    private void correlateByIp(List<ThreatAlert> networkAlerts, List<ThreatAlert> behaviorAlerts,
+                               List<ThreatCorrelation> correlations) {
+        Map<String, List<ThreatAlert>> behaviorByIp = new HashMap<>();
+        for (ThreatAlert behaviorAlert : behaviorAlerts) {
+            if (behaviorAlert.getSourceIp() != null) {
+                behaviorByIp.computeIfAbsent(behaviorAlert.getSourceIp(), ip -> new ArrayList<>(1)).add(behaviorAlert);
+            }
+        }
+
+        for (ThreatAlert networkAlert : networkAlerts) {
+            if (networkAlert.getSourceIp() == null) {
+                continue;
+            }
+            for (ThreatAlert behaviorAlert : behaviorByIp.getOrDefault(networkAlert.getSourceIp(), List.of())) {
+                correlations.add(ThreatCorrelation.builder()
+                        .correlationType(CorrelationCriteria.IP_BASED)
+                        .networkAlert(networkAlert)
+                        .behaviorAlert(behaviorAlert)
+                        .confidence(IP_CORRELATION_CONFIDENCE)
+                        .description("Alerts from same IP address")
+                        .build());
+            }
+        }
+    }
+
+    /**
+     * Alerts with a detection time, sorted by it; the sort is stable so ties keep input order.
+     */
+    private static TimedAlert[] byDetectionTime(List<ThreatAlert> alerts) {
+        TimedAlert[] timed = new TimedAlert[alerts.size()];
+        int count = 0;
+        for (ThreatAlert alert : alerts) {
+            if (alert.getDetectionTime() != null) {
+                timed[count++] = new TimedAlert(toNanos(alert.getDetectionTime()), alert);
+            }
+        }
+        timed = Arrays.copyOf(timed, count);
+        Arrays.sort(timed, Comparator.comparingLong(timedAlert -> timedAlert.nanos));
+        return timed;
+    }
+
+    private static long toNanos(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + time.getNano();
+    }
+
+    private static final class TimedAlert {
+        private final long nanos;
+        private final ThreatAlert alert;
+
+        private TimedAlert(long nanos, ThreatAlert alert) {
+            this.nanos = nanos;
+            this.alert = alert;
+        }
+    }
+}
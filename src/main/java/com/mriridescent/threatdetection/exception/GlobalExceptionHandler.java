@@ -1,6 +1,10 @@
 package com.mriridescent.threatdetection.exception;
 
+import com.mriridescent.threatdetection.agent.coordinator.WorkflowRejectedException;
+import com.mriridescent.threatdetection.agent.core.AgentOverloadedException;
 import com.mriridescent.threatdetection.controller.ApiResponse;
+import io.github.resilience4j.ratelimiter.RequestNotPermitted;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -12,7 +16,9 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -62,6 +68,41 @@ public class GlobalExceptionHandler {
         );
     }
 
+    /**
+     * Handle agent backpressure by asking the client to retry later
+     */
+    @ExceptionHandler(AgentOverloadedException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public ResponseEntity<ApiResponse<Void>> handleAgentOverloadedException(AgentOverloadedException ex) {
+        return tooManyRequests(ex.getMessage(), ex.getRetryAfter());
+    }
+
+    /**
+     * Handle workflows refused by coordinator admission control
+     */
+    @ExceptionHandler(WorkflowRejectedException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public ResponseEntity<ApiResponse<Void>> handleWorkflowRejectedException(WorkflowRejectedException ex) {
+        return tooManyRequests(ex.getMessage(), ex.getRetryAfter());
+    }
+
+    /**
+     * Handle rate limiter rejections
+     */
+    @ExceptionHandler(RequestNotPermitted.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public ResponseEntity<ApiResponse<Void>> handleRequestNotPermitted(RequestNotPermitted ex) {
+        return tooManyRequests(ex.getMessage(), Duration.ofSeconds(1));
+    }
+
+    /**
+     * Handle requests refused with an explicit status
+     */
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<ApiResponse<Void>> handleResponseStatusException(ResponseStatusException ex) {
+        return ResponseEntity.status(ex.getStatusCode()).body(ApiResponse.error(ex.getReason()));
+    }
+
     /**
      * Handle all other exceptions
      */
@@ -72,4 +113,11 @@ public class GlobalExceptionHandler {
                 ApiResponse.error("An unexpected error occurred: " + ex.getMessage())
         );
     }
+
+    private static ResponseEntity<ApiResponse<Void>> tooManyRequests(String message, Duration retryAfter) {
+        long retryAfterSeconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(ApiResponse.error(message));
+    }
 }
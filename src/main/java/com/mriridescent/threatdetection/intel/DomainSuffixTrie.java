@@ -0,0 +1,270 @@
+package com.mriridescent.threatdetection.intel;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trie over reversed domain labels for matching a domain and all of its subdomains.
+ *
+ * {@code login.evil.example} is stored as the path {@code example → evil → login}, so a lookup
+ * walks the labels of the queried name from right to left and returns the value of the longest
+ * stored suffix, matching on whole labels: {@code a.login.evil.example} matches the entry but
+ * {@code notevil.example} does not. Names are compared case-insensitively and a trailing dot is
+ * ignored.
+ *
+ * Edges are kept in one open-addressing table keyed by parent node and label hash, with labels
+ * stored in a shared character pool, so a lookup reads labels in place from the queried name and
+ * does not allocate. Pool, nodes and edge table are plain buffers, either on the heap or mapped
+ * from an {@link IocSnapshot}. A trie is immutable and safe to share between threads;
+ * {@link Builder} is not thread-safe.
+ */
+public final class DomainSuffixTrie {
+
+    /** Value returned when no suffix matches. */
+    public static final int NO_MATCH = -1;
+
+    /** Ints per node: label start, label length, value. */
+    static final int NODE_STRIDE = 3;
+    /** Ints per edge slot: parent, label hash, child or empty. */
+    static final int EDGE_STRIDE = 3;
+
+    private static final int ROOT = 0;
+    private static final int EMPTY = -1;
+
+    private final CharBuffer labels;
+    private final IntBuffer nodes;
+    private final IntBuffer edges;
+    private final int mask;
+    private final int domains;
+
+    DomainSuffixTrie(CharBuffer labels, IntBuffer nodes, IntBuffer edges, int domains) {
+        int slots = edges.limit() / EDGE_STRIDE;
+        if (nodes.limit() == 0 || nodes.limit() % NODE_STRIDE != 0
+                || edges.limit() % EDGE_STRIDE != 0 || Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("Malformed domain trie");
+        }
+        this.labels = labels;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.mask = slots - 1;
+        this.domains = domains;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Value of the longest stored domain that is {@code name} or one of its parents, or {@link #NO_MATCH}.
+     */
+    public int lookup(CharSequence name) {
+        int end = name.length();
+        if (end > 0 && name.charAt(end - 1) == '.') {
+            end--;
+        }
+        int best = NO_MATCH;
+        int node = ROOT;
+        while (end > 0) {
+            int start = end - 1;
+            while (start >= 0 && name.charAt(start) != '.') {
+                start--;
+            }
+            start++;
+            if (start == end) {
+                // Empty label
+                return NO_MATCH;
+            }
+            node = child(node, name, start, end);
+            if (node == EMPTY) {
+                break;
+            }
+            int value = nodes.get(node * NODE_STRIDE + 2);
+            if (value != NO_MATCH) {
+                best = value;
+            }
+            end = start - 1;
+        }
+        return best;
+    }
+
+    /**
+     * Number of domains stored.
+     */
+    public int size() {
+        return domains;
+    }
+
+    CharBuffer labels() {
+        return labels.duplicate();
+    }
+
+    IntBuffer nodes() {
+        return nodes.duplicate();
+    }
+
+    IntBuffer edges() {
+        return edges.duplicate();
+    }
+
+    private int child(int parent, CharSequence name, int start, int end) {
+        int hash = hash(name, start, end);
+        int slot = slot(parent, hash, mask);
+        int child;
+        while ((child = edges.get(slot * EDGE_STRIDE + 2)) != EMPTY) {
+            if (edges.get(slot * EDGE_STRIDE) == parent && edges.get(slot * EDGE_STRIDE + 1) == hash
+                    && labelEquals(child, name, start, end)) {
+                return child;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private boolean labelEquals(int node, CharSequence name, int start, int end) {
+        int length = nodes.get(node * NODE_STRIDE + 1);
+        if (length != end - start) {
+            return false;
+        }
+        int offset = nodes.get(node * NODE_STRIDE);
+        for (int i = 0; i < length; i++) {
+            if (labels.get(offset + i) != lower(name.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int slot(int parent, int hash, int mask) {
+        int h = parent * 0x9E3779B9 + hash;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + lower(s.charAt(i));
+        }
+        return h;
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Builds a {@link DomainSuffixTrie}. Adding a domain that is already present replaces its value.
+     */
+    public static final class Builder {
+        private char[] labels = new char[4096];
+        private int labelsUsed;
+        private int[] labelStart = new int[1024];
+        private int[] labelLength = new int[1024];
+        private int[] value = new int[1024];
+        private int[] parent = new int[1024];
+        private int nodes;
+        private int domains;
+        // Children of each node while building, by "parent/label"
+        private final Map<String, Integer> children = new HashMap<>();
+
+        private Builder() {
+            node(EMPTY, "");
+        }
+
+        /**
+         * Add a domain, matching it and all of its subdomains.
+         *
+         * @throws IllegalArgumentException if the domain has an empty label
+         */
+        public Builder add(String domain, int domainValue) {
+            if (domainValue < 0) {
+                throw new IllegalArgumentException("Domain values must not be negative");
+            }
+            String name = domain.endsWith(".") ? domain.substring(0, domain.length() - 1) : domain;
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty domain");
+            }
+
+            int node = ROOT;
+            int end = name.length();
+            while (end > 0) {
+                int start = name.lastIndexOf('.', end - 1) + 1;
+                if (start == end) {
+                    throw new IllegalArgumentException("Empty label in domain: " + domain);
+                }
+                StringBuilder label = new StringBuilder(end - start);
+                for (int i = start; i < end; i++) {
+                    label.append(lower(name.charAt(i)));
+                }
+                String key = node + "/" + label;
+                Integer child = children.get(key);
+                if (child == null) {
+                    child = node(node, label.toString());
+                    children.put(key, child);
+                }
+                node = child;
+                end = start - 1;
+            }
+            if (value[node] == NO_MATCH) {
+                domains++;
+            }
+            value[node] = domainValue;
+            return this;
+        }
+
+        public DomainSuffixTrie build() {
+            int[] nodeData = new int[nodes * NODE_STRIDE];
+            for (int node = 0; node < nodes; node++) {
+                nodeData[node * NODE_STRIDE] = labelStart[node];
+                nodeData[node * NODE_STRIDE + 1] = labelLength[node];
+                nodeData[node * NODE_STRIDE + 2] = value[node];
+            }
+
+            // Size the edge table for a load factor of at most one half
+            int slots = Integer.highestOneBit(Math.max(2, nodes) * 2 - 1) * 2;
+            int mask = slots - 1;
+            int[] edges = new int[slots * EDGE_STRIDE];
+            for (int slot = 0; slot < slots; slot++) {
+                edges[slot * EDGE_STRIDE + 2] = EMPTY;
+            }
+            for (int child = 1; child < nodes; child++) {
+                int hash = 0;
+                for (int i = labelStart[child]; i < labelStart[child] + labelLength[child]; i++) {
+                    hash = 31 * hash + labels[i];
+                }
+                int slot = slot(parent[child], hash, mask);
+                while (edges[slot * EDGE_STRIDE + 2] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                edges[slot * EDGE_STRIDE] = parent[child];
+                edges[slot * EDGE_STRIDE + 1] = hash;
+                edges[slot * EDGE_STRIDE + 2] = child;
+            }
+            return new DomainSuffixTrie(CharBuffer.wrap(Arrays.copyOf(labels, labelsUsed)),
+                    IntBuffer.wrap(nodeData), IntBuffer.wrap(edges), domains);
+        }
+
+        private int node(int parentNode, String label) {
+            if (nodes == value.length) {
+                int capacity = nodes * 2;
+                labelStart = Arrays.copyOf(labelStart, capacity);
+                labelLength = Arrays.copyOf(labelLength, capacity);
+                value = Arrays.copyOf(value, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+            }
+            if (labelsUsed + label.length() > labels.length) {
+                labels = Arrays.copyOf(labels, Math.max(labels.length * 2, labelsUsed + label.length()));
+            }
+            label.getChars(0, label.length(), labels, labelsUsed);
+            int node = nodes++;
+            labelStart[node] = labelsUsed;
+            labelLength[node] = label.length();
+            value[node] = NO_MATCH;
+            parent[node] = parentNode;
+            labelsUsed += label.length();
+            return node;
+        }
+    }
+}
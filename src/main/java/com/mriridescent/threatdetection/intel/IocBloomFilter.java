@@ -0,0 +1,230 @@
+package com.mriridescent.threatdetection.intel;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Bloom filter over the indicators of one type, answering "definitely not listed" without
+ * touching the index itself.
+ *
+ * Exact indicators are keyed by their normalized value. Domains are keyed by the listed name and
+ * probed with every label suffix of the queried name. Address ranges are keyed by prefix and
+ * length, and probed once per prefix length present in the feeds, which real feeds keep to a
+ * handful; the lengths present are recorded alongside the bits.
+ *
+ * At about ten bits per indicator the filter is a small fraction of the index, so it stays in
+ * cache while the index may not. Probes do not allocate. The bits are a plain long buffer, on
+ * the heap or mapped from an {@link IocSnapshot}; a filter is immutable and thread-safe.
+ */
+public final class IocBloomFilter {
+
+    /** Longs of metadata per filter in a snapshot: bit count, hash count and prefix lengths. */
+    static final int META_LONGS = 5;
+
+    private static final IocBloomFilter EMPTY = new IocBloomFilter(LongBuffer.allocate(0), 0, 0, new long[3]);
+
+    private final LongBuffer bits;
+    private final long numBits;
+    private final int hashes;
+    // Prefix lengths 0-128 present, as a bit set
+    private final long[] lengths;
+    private volatile double expectedFalsePositiveRate = -1;
+
+    IocBloomFilter(LongBuffer bits, long numBits, int hashes, long[] lengths) {
+        if (numBits > (long) bits.limit() * 64 || lengths.length != 3) {
+            throw new IllegalArgumentException("Malformed Bloom filter");
+        }
+        this.bits = bits;
+        this.numBits = numBits;
+        this.hashes = hashes;
+        this.lengths = lengths;
+    }
+
+    static IocBloomFilter empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Whether a normalized exact indicator may be listed.
+     */
+    public boolean mightContain(CharSequence normalized) {
+        return numBits > 0 && probe(hash(normalized, 0, normalized.length(), false));
+    }
+
+    /**
+     * Whether a domain or one of its parents may be listed.
+     */
+    public boolean mightContainDomain(CharSequence name) {
+        if (numBits == 0) {
+            return false;
+        }
+        int end = name.length();
+        if (end > 0 && name.charAt(end - 1) == '.') {
+            end--;
+        }
+        for (int start = end - 1; start >= -1; start--) {
+            if (start == -1 || name.charAt(start) == '.') {
+                if (start + 1 < end && probe(hash(name, start + 1, end, true))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a range containing the 128-bit address may be listed.
+     */
+    public boolean mightContainAddress(long high, long low) {
+        if (numBits == 0) {
+            return false;
+        }
+        for (int word = 0; word < lengths.length; word++) {
+            long present = lengths[word];
+            while (present != 0) {
+                int bits = word * 64 + Long.numberOfTrailingZeros(present);
+                present &= present - 1;
+                if (probe(prefixHash(high & highMask(bits), low & lowMask(bits), bits))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Memory held by the filter's bits.
+     */
+    public long sizeInBytes() {
+        return bits.limit() * 8L;
+    }
+
+    /**
+     * False-positive rate expected from the share of bits set, computed once.
+     */
+    public double expectedFalsePositiveRate() {
+        double rate = expectedFalsePositiveRate;
+        if (rate < 0) {
+            long set = 0;
+            for (int i = 0; i < bits.limit(); i++) {
+                set += Long.bitCount(bits.get(i));
+            }
+            rate = numBits == 0 ? 0 : Math.pow((double) set / numBits, hashes);
+            expectedFalsePositiveRate = rate;
+        }
+        return rate;
+    }
+
+    LongBuffer bits() {
+        return bits.duplicate();
+    }
+
+    /**
+     * Bit count, hash count and prefix lengths, as stored in a snapshot.
+     */
+    long[] meta() {
+        return new long[]{numBits, hashes, lengths[0], lengths[1], lengths[2]};
+    }
+
+    static IocBloomFilter fromMeta(LongBuffer bits, long[] meta) {
+        return new IocBloomFilter(bits, meta[0], (int) meta[1], Arrays.copyOfRange(meta, 2, 5));
+    }
+
+    private boolean probe(long hash) {
+        long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((hash + i * step) & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over the characters, finished with a 64-bit mix.
+     */
+    private static long hash(CharSequence s, int start, int end, boolean lowerCase) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (lowerCase && c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            h = (h ^ c) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long prefixHash(long high, long low, int bits) {
+        return mix(mix(high) ^ mix(low + bits));
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long highMask(int bits) {
+        return bits >= 64 ? -1L : bits == 0 ? 0L : -1L << (64 - bits);
+    }
+
+    private static long lowMask(int bits) {
+        return bits <= 64 ? 0L : bits == 128 ? -1L : -1L << (128 - bits);
+    }
+
+    /**
+     * Collects the keys of one indicator type, then sizes and fills a filter for them.
+     */
+    static final class Builder {
+        private long[] keys = new long[256];
+        private int size;
+        private final long[] lengths = new long[3];
+
+        void add(CharSequence normalized) {
+            key(hash(normalized, 0, normalized.length(), false));
+        }
+
+        void addDomain(CharSequence name) {
+            int end = name.length() > 0 && name.charAt(name.length() - 1) == '.' ? name.length() - 1 : name.length();
+            key(hash(name, 0, end, true));
+        }
+
+        void addPrefix(long high, long low, int bits) {
+            lengths[bits >>> 6] |= 1L << bits;
+            key(prefixHash(high & highMask(bits), low & lowMask(bits), bits));
+        }
+
+        IocBloomFilter build(int bitsPerEntry) {
+            if (size == 0) {
+                return EMPTY;
+            }
+            long numBits = Math.max(64, ((long) size * bitsPerEntry + 63) & ~63L);
+            if (numBits / 64 > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Bloom filter too large: " + size + " entries");
+            }
+            int hashes = Math.max(1, (int) Math.round(bitsPerEntry * Math.log(2)));
+            long[] words = new long[(int) (numBits / 64)];
+            for (int i = 0; i < size; i++) {
+                long hash = keys[i];
+                long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+                for (int k = 0; k < hashes; k++) {
+                    long bit = ((hash + k * step) & Long.MAX_VALUE) % numBits;
+                    words[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+            return new IocBloomFilter(LongBuffer.wrap(words), numBits, hashes, lengths.clone());
+        }
+
+        private void key(long hash) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = hash;
+        }
+    }
+}
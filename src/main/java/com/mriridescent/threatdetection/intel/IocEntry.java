@@ -0,0 +1,21 @@
+package com.mriridescent.threatdetection.intel;
+
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Indicator of compromise from a threat intelligence feed.
+ *
+ * {@code indicator} is the value as listed in the feed: an address, a CIDR range, a domain
+ * (matching its subdomains too), a URL, a file hash or an e-mail address.
+ */
+@Value
+@Builder
+public class IocEntry {
+    String indicator;
+    IndicatorType type;
+    String threatType;
+    double confidence;
+    String source;
+}
@@ -0,0 +1,240 @@
+package com.mriridescent.threatdetection.intel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streams IOC feeds into an {@link IocIndex.Builder}.
+ *
+ * Two formats are read, chosen by file extension:
+ * <ul>
+ *   <li>{@code .json}: a STIX 2.1 bundle. Each {@code indicator} object contributes the values
+ *   compared in its pattern, such as {@code [ipv4-addr:value = '198.51.100.0/24']} or
+ *   {@code [file:hashes.'SHA-256' = '...']}; its {@code indicator_types} give the threat type
+ *   and its {@code confidence} (0-100) the confidence.</li>
+ *   <li>anything else: CSV lines of {@code indicator,type[,threat_type[,confidence[,source]]]},
+ *   with {@code #} comments and an optional header line. Types are {@code ip}, {@code cidr},
+ *   {@code domain}, {@code url}, {@code hash} (or {@code md5}, {@code sha1}, {@code sha256}),
+ *   {@code email} and {@code file_name}; confidence is 0-1 or 0-100.</li>
+ * </ul>
+ * Both are read one entry at a time, so a feed never has to fit in memory twice. Malformed
+ * entries are skipped and counted rather than failing the whole feed.
+ */
+@Slf4j
+public final class IocFeedLoader {
+
+    private static final String DEFAULT_THREAT_TYPE = "Malicious";
+    private static final double DEFAULT_CONFIDENCE = 0.8;
+
+    private static final Pattern STIX_VALUE = Pattern.compile(
+            "(ipv4-addr|ipv6-addr|domain-name|url|email-addr|file):(value|name|hashes\\.(?:'[^']+'|[\\w-]+))"
+                    + "\\s*=\\s*'((?:[^'\\\\]|\\\\.)*)'");
+
+    private static final JsonFactory JSON = new ObjectMapper().getFactory();
+
+    private IocFeedLoader() {
+    }
+
+    /**
+     * Entries added from a feed, and entries skipped because they were malformed.
+     */
+    public static final class Result {
+        private final int loaded;
+        private final int rejected;
+
+        private Result(int loaded, int rejected) {
+            this.loaded = loaded;
+            this.rejected = rejected;
+        }
+
+        public int getLoaded() {
+            return loaded;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+    }
+
+    /**
+     * Load a feed file, using the file name as the default source.
+     */
+    public static Result load(Path feed, IocIndex.Builder index) throws IOException {
+        String source = feed.getFileName().toString();
+        if (source.toLowerCase(Locale.ROOT).endsWith(".json")) {
+            try (InputStream in = Files.newInputStream(feed)) {
+                return loadStix(in, source, index);
+            }
+        }
+        try (Reader in = Files.newBufferedReader(feed, StandardCharsets.UTF_8)) {
+            return loadCsv(in, source, index);
+        }
+    }
+
+    public static Result loadCsv(Reader in, String source, IocIndex.Builder index) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader buffered ? buffered : new BufferedReader(in);
+        int loaded = 0;
+        int rejected = 0;
+        boolean first = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (first) {
+                first = false;
+                if (line.toLowerCase(Locale.ROOT).startsWith("indicator,")) {
+                    continue;
+                }
+            }
+            String[] fields = line.split(",", 5);
+            try {
+                IndicatorType type = fields.length > 1 ? csvType(fields[1].trim()) : null;
+                if (type == null) {
+                    throw new IllegalArgumentException("Unknown indicator type");
+                }
+                index.add(IocEntry.builder()
+                        .indicator(fields[0].trim())
+                        .type(type)
+                        .threatType(field(fields, 2, DEFAULT_THREAT_TYPE))
+                        .confidence(confidence(field(fields, 3, null)))
+                        .source(field(fields, 4, source))
+                        .build());
+                loaded++;
+            } catch (IllegalArgumentException e) {
+                rejected++;
+                log.debug("Skipping IOC line in {}: {} ({})", source, line, e.getMessage());
+            }
+        }
+        return new Result(loaded, rejected);
+    }
+
+    public static Result loadStix(InputStream in, String source, IocIndex.Builder index) throws IOException {
+        int loaded = 0;
+        int rejected = 0;
+        try (JsonParser parser = JSON.createParser(in)) {
+            if (!seekObjects(parser)) {
+                return new Result(0, 0);
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                // Only one object of the bundle is materialized at a time
+                JsonNode object = parser.readValueAsTree();
+                if (!"indicator".equals(object.path("type").asText())) {
+                    continue;
+                }
+                String threatType = object.path("indicator_types").path(0).asText(DEFAULT_THREAT_TYPE);
+                double confidence = object.has("confidence")
+                        ? Math.min(1.0, object.path("confidence").asDouble() / 100.0) : DEFAULT_CONFIDENCE;
+                String objectSource = object.path("created_by_ref").asText(source);
+
+                Matcher matcher = STIX_VALUE.matcher(object.path("pattern").asText());
+                boolean matched = false;
+                while (matcher.find()) {
+                    matched = true;
+                    IndicatorType type = stixType(matcher.group(1), matcher.group(2));
+                    try {
+                        if (type == null) {
+                            throw new IllegalArgumentException("Unsupported observable");
+                        }
+                        index.add(IocEntry.builder()
+                                .indicator(matcher.group(3).replace("\\'", "'").replace("\\\\", "\\"))
+                                .type(type)
+                                .threatType(threatType)
+                                .confidence(confidence)
+                                .source(objectSource)
+                                .build());
+                        loaded++;
+                    } catch (IllegalArgumentException e) {
+                        rejected++;
+                        log.debug("Skipping STIX value in {}: {} ({})", source, matcher.group(), e.getMessage());
+                    }
+                }
+                if (!matched) {
+                    rejected++;
+                }
+            }
+        }
+        return new Result(loaded, rejected);
+    }
+
+    /**
+     * Advance to the {@code objects} array of a bundle, or accept a bare array of objects.
+     */
+    private static boolean seekObjects(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            return true;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            token = parser.nextToken();
+            if ("objects".equals(name) && token == JsonToken.START_ARRAY) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private static IndicatorType csvType(String type) {
+        return switch (type.toLowerCase(Locale.ROOT)) {
+            case "ip", "ipv4", "ipv6", "cidr", "ip-src", "ip-dst" -> IndicatorType.IP;
+            case "domain", "hostname", "fqdn" -> IndicatorType.DOMAIN;
+            case "url", "uri" -> IndicatorType.URL;
+            case "hash", "md5", "sha1", "sha256", "sha512" -> IndicatorType.HASH;
+            case "email", "email-addr" -> IndicatorType.EMAIL;
+            case "file_name", "filename" -> IndicatorType.FILE_NAME;
+            default -> null;
+        };
+    }
+
+    private static IndicatorType stixType(String object, String property) {
+        return switch (object) {
+            case "ipv4-addr", "ipv6-addr" -> IndicatorType.IP;
+            case "domain-name" -> IndicatorType.DOMAIN;
+            case "url" -> IndicatorType.URL;
+            case "email-addr" -> IndicatorType.EMAIL;
+            case "file" -> property.startsWith("hashes") ? IndicatorType.HASH
+                    : "name".equals(property) ? IndicatorType.FILE_NAME : null;
+            default -> null;
+        };
+    }
+
+    private static String field(String[] fields, int index, String defaultValue) {
+        if (index >= fields.length || fields[index].isBlank()) {
+            return defaultValue;
+        }
+        return fields[index].trim();
+    }
+
+    private static double confidence(String value) {
+        if (value == null) {
+            return DEFAULT_CONFIDENCE;
+        }
+        double confidence = Double.parseDouble(value);
+        if (confidence < 0 || confidence > 100) {
+            throw new IllegalArgumentException("Confidence out of range: " + value);
+        }
+        return confidence > 1 ? confidence / 100.0 : confidence;
+    }
+}
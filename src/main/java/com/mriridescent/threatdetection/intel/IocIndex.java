@@ -0,0 +1,439 @@
+package com.mriridescent.threatdetection.intel;
+
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the loaded IOC feeds, indexed for matching.
+ *
+ * Addresses and CIDR ranges of both families are matched by longest prefix in an
+ * {@link IpPrefixTrie}, domains by label suffix in a {@link DomainSuffixTrie}, and other
+ * indicators (URLs, hashes, e-mail addresses, file names) exactly, by binary search over their
+ * sorted hashes. Address and domain matching does not allocate, so it is cheap enough to run on
+ * every packet; only a match decodes its {@link IocEntry}. Each indicator type also has an
+ * {@link IocBloomFilter}, so callers can rule out most unlisted indicators with
+ * {@link #mightMatch} before paying for a full lookup.
+ *
+ * All parts are flat buffers: entries are fixed-size records pointing into a UTF-8 string
+ * pool. An index built in memory keeps them on the heap; one written and mapped through
+ * {@link IocSnapshot} reads them straight from the page cache. A snapshot never changes once
+ * built; reloading builds a new one and swaps it in whole, see {@link IocStore}.
+ */
+public final class IocIndex {
+
+    /** Bytes per entry record. */
+    static final int ENTRY_BYTES = 40;
+
+    // Entry record: indicator, threat type and source as (offset, length) into the string pool,
+    // then confidence and indicator type
+    private static final int INDICATOR = 0;
+    private static final int THREAT_TYPE = 8;
+    private static final int SOURCE = 16;
+    private static final int CONFIDENCE = 24;
+    private static final int TYPE = 32;
+
+    private static final IndicatorType[] TYPES = IndicatorType.values();
+    private static final IocIndex EMPTY = builder().build();
+
+    private final IpPrefixTrie addresses;
+    private final DomainSuffixTrie domains;
+    private final ByteBuffer entries;
+    private final ByteBuffer strings;
+    // Sorted type << 32 | hash of the normalized indicator, and the entry of each
+    private final LongBuffer exactKeys;
+    private final IntBuffer exactEntries;
+    private final IocBloomFilter[] filters;
+    private final int size;
+    private final Instant builtAt;
+
+    IocIndex(IpPrefixTrie addresses, DomainSuffixTrie domains, ByteBuffer entries, ByteBuffer strings,
+             LongBuffer exactKeys, IntBuffer exactEntries, IocBloomFilter[] filters, Instant builtAt) {
+        if (entries.limit() % ENTRY_BYTES != 0 || exactKeys.limit() != exactEntries.limit()
+                || filters.length != TYPES.length) {
+            throw new IllegalArgumentException("Malformed IOC index");
+        }
+        this.addresses = addresses;
+        this.domains = domains;
+        this.entries = entries.order(ByteOrder.LITTLE_ENDIAN);
+        this.strings = strings;
+        this.exactKeys = exactKeys;
+        this.exactEntries = exactEntries;
+        this.filters = filters;
+        this.size = entries.limit() / ENTRY_BYTES;
+        this.builtAt = builtAt;
+    }
+
+    public static IocIndex empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Entry of the most specific range containing an IPv4 address from {@link IpAddresses#parseIpv4}.
+     */
+    public IocEntry matchIpv4(long ipv4) {
+        return entry(addresses.lookupIpv4(ipv4));
+    }
+
+    /**
+     * Entry of the most specific range containing a 128-bit address key from {@link IpAddresses},
+     * or {@code null}.
+     */
+    public IocEntry matchAddress(long high, long low) {
+        if (IpAddresses.isIpv4Mapped(high, low)) {
+            return matchIpv4(low & 0xffff_ffffL);
+        }
+        return entry(addresses.lookup(high, low));
+    }
+
+    /**
+     * Entry of the most specific range containing an IPv4 or IPv6 address literal, or {@code null}.
+     */
+    public IocEntry matchIp(CharSequence address) {
+        long ipv4 = IpAddresses.parseIpv4(address);
+        if (ipv4 >= 0) {
+            return matchIpv4(ipv4);
+        }
+        if (IpAddresses.isIpv6(address)) {
+            return entry(addresses.lookup(IpAddresses.ipv6High(address), IpAddresses.ipv6Low(address)));
+        }
+        return null;
+    }
+
+    /**
+     * Entry of the longest listed domain that is {@code name} or one of its parents, or {@code null}.
+     */
+    public IocEntry matchDomain(CharSequence name) {
+        return entry(domains.lookup(name));
+    }
+
+    /**
+     * Entry matching an indicator of the given type, or {@code null}.
+     */
+    public IocEntry match(IndicatorType type, String indicator) {
+        if (indicator == null || type == null) {
+            return null;
+        }
+        return switch (type) {
+            case IP -> matchIp(indicator);
+            case DOMAIN -> matchDomain(indicator);
+            default -> matchExact(type, indicator);
+        };
+    }
+
+    /**
+     * Whether an indicator of the given type may be listed; {@code false} means it definitely is
+     * not, and {@link #match} would return {@code null}. Addresses and domains are checked
+     * without allocating.
+     */
+    public boolean mightMatch(IndicatorType type, String indicator) {
+        if (indicator == null || type == null) {
+            return false;
+        }
+        IocBloomFilter filter = filters[type.ordinal()];
+        return switch (type) {
+            case IP -> {
+                long ipv4 = IpAddresses.parseIpv4(indicator);
+                if (ipv4 >= 0) {
+                    yield filter.mightContainAddress(IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(ipv4));
+                }
+                yield IpAddresses.isIpv6(indicator)
+                        && filter.mightContainAddress(IpAddresses.ipv6High(indicator), IpAddresses.ipv6Low(indicator));
+            }
+            case DOMAIN -> filter.mightContainDomain(indicator);
+            default -> filter.mightContain(normalize(type, indicator));
+        };
+    }
+
+    /**
+     * Bloom filter over the indicators of a type.
+     */
+    public IocBloomFilter bloomFilter(IndicatorType type) {
+        return filters[type.ordinal()];
+    }
+
+    /**
+     * Number of indicators in the snapshot.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int addressCount() {
+        return addresses.size();
+    }
+
+    public int domainCount() {
+        return domains.size();
+    }
+
+    public Instant getBuiltAt() {
+        return builtAt;
+    }
+
+    IpPrefixTrie addresses() {
+        return addresses;
+    }
+
+    DomainSuffixTrie domains() {
+        return domains;
+    }
+
+    ByteBuffer entries() {
+        return entries.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    ByteBuffer strings() {
+        return strings.duplicate();
+    }
+
+    LongBuffer exactKeys() {
+        return exactKeys.duplicate();
+    }
+
+    IntBuffer exactEntries() {
+        return exactEntries.duplicate();
+    }
+
+    IocBloomFilter[] filters() {
+        return filters.clone();
+    }
+
+    private IocEntry matchExact(IndicatorType type, String indicator) {
+        String normalized = normalize(type, indicator);
+        long key = exactKey(type, normalized);
+        // First slot with the key, then every entry sharing the hash
+        int low = 0;
+        int high = exactKeys.limit();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (exactKeys.get(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < exactKeys.limit() && exactKeys.get(i) == key; i++) {
+            int index = exactEntries.get(i);
+            if (normalize(type, string(index * ENTRY_BYTES + INDICATOR)).equals(normalized)) {
+                return entry(index);
+            }
+        }
+        return null;
+    }
+
+    private IocEntry entry(int index) {
+        if (index < 0) {
+            return null;
+        }
+        int base = index * ENTRY_BYTES;
+        return IocEntry.builder()
+                .indicator(string(base + INDICATOR))
+                .type(TYPES[entries.get(base + TYPE)])
+                .threatType(string(base + THREAT_TYPE))
+                .confidence(entries.getDouble(base + CONFIDENCE))
+                .source(string(base + SOURCE))
+                .build();
+    }
+
+    private String string(int field) {
+        byte[] bytes = new byte[entries.getInt(field + 4)];
+        strings.get(entries.getInt(field), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long exactKey(IndicatorType type, String normalized) {
+        return ((long) type.ordinal() << 32) | (normalized.hashCode() & 0xffffffffL);
+    }
+
+    private static String normalize(IndicatorType type, String indicator) {
+        // Hashes and e-mail addresses are case-insensitive; URLs and file names are not
+        return type == IndicatorType.HASH || type == IndicatorType.EMAIL
+                ? indicator.trim().toLowerCase(Locale.ROOT)
+                : indicator.trim();
+    }
+
+    /**
+     * Collects indicators into an {@link IocIndex}. A later entry for the same indicator replaces
+     * an earlier one.
+     */
+    public static final class Builder {
+        private final List<IocEntry> entries = new ArrayList<>();
+        private final IpPrefixTrie.Builder addresses = IpPrefixTrie.builder();
+        private final DomainSuffixTrie.Builder domains = DomainSuffixTrie.builder();
+        // Normalized indicator -> entry, by type, for exact matches
+        private final Map<IndicatorType, Map<String, Integer>> exact = new EnumMap<>(IndicatorType.class);
+        private final IocBloomFilter.Builder[] filters = new IocBloomFilter.Builder[TYPES.length];
+        private int bloomBitsPerEntry = 10;
+
+        private Builder() {
+            for (int i = 0; i < filters.length; i++) {
+                filters[i] = new IocBloomFilter.Builder();
+            }
+        }
+
+        /**
+         * Bloom filter bits per indicator; ten give a false-positive rate of about one percent.
+         */
+        public Builder bloomBitsPerEntry(int bits) {
+            if (bits < 1) {
+                throw new IllegalArgumentException("Bloom filters need at least one bit per entry");
+            }
+            this.bloomBitsPerEntry = bits;
+            return this;
+        }
+
+        /**
+         * Add an indicator.
+         *
+         * @throws IllegalArgumentException if an address, range or domain is malformed
+         */
+        public Builder add(IocEntry entry) {
+            String indicator = entry.getIndicator().trim();
+            int index = entries.size();
+            switch (entry.getType()) {
+                case IP -> addRange(indicator, index);
+                case DOMAIN -> {
+                    domains.add(indicator, index);
+                    filters[IndicatorType.DOMAIN.ordinal()].addDomain(indicator);
+                }
+                default -> {
+                    String normalized = normalize(entry.getType(), indicator);
+                    exact.computeIfAbsent(entry.getType(), type -> new HashMap<>()).put(normalized, index);
+                    filters[entry.getType().ordinal()].add(normalized);
+                }
+            }
+            entries.add(indicator.equals(entry.getIndicator()) ? entry : IocEntry.builder()
+                    .indicator(indicator)
+                    .type(entry.getType())
+                    .threatType(entry.getThreatType())
+                    .confidence(entry.getConfidence())
+                    .source(entry.getSource())
+                    .build());
+            return this;
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        public IocIndex build() {
+            // Threat types and sources repeat across a feed; store each once
+            Map<String, Integer> offsets = new HashMap<>();
+            ByteArrayBuilder pool = new ByteArrayBuilder();
+            ByteBuffer records = ByteBuffer.allocate(entries.size() * ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < entries.size(); i++) {
+                IocEntry entry = entries.get(i);
+                int base = i * ENTRY_BYTES;
+                putString(records, base + INDICATOR, entry.getIndicator(), pool, null);
+                putString(records, base + THREAT_TYPE, entry.getThreatType(), pool, offsets);
+                putString(records, base + SOURCE, entry.getSource(), pool, offsets);
+                records.putDouble(base + CONFIDENCE, entry.getConfidence());
+                records.put(base + TYPE, (byte) entry.getType().ordinal());
+            }
+
+            // Exact indicators sorted by type and hash; entries sharing a hash are told apart on lookup
+            List<long[]> keyed = new ArrayList<>();
+            exact.forEach((type, indicators) -> indicators.forEach((indicator, index) ->
+                    keyed.add(new long[]{exactKey(type, indicator), index})));
+            keyed.sort((a, b) -> Long.compare(a[0], b[0]));
+            long[] keys = new long[keyed.size()];
+            int[] keyEntries = new int[keyed.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = keyed.get(i)[0];
+                keyEntries[i] = (int) keyed.get(i)[1];
+            }
+
+            IocBloomFilter[] built = new IocBloomFilter[filters.length];
+            for (int i = 0; i < filters.length; i++) {
+                built[i] = filters[i].build(bloomBitsPerEntry);
+            }
+
+            return new IocIndex(addresses.build(), domains.build(), records, pool.toBuffer(),
+                    LongBuffer.wrap(keys), IntBuffer.wrap(keyEntries), built, Instant.now());
+        }
+
+        private static void putString(ByteBuffer records, int field, String value, ByteArrayBuilder pool,
+                                      Map<String, Integer> shared) {
+            byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+            Integer offset = shared != null ? shared.get(value) : null;
+            if (offset == null) {
+                offset = pool.append(bytes);
+                if (shared != null) {
+                    shared.put(value, offset);
+                }
+            }
+            records.putInt(field, offset);
+            records.putInt(field + 4, bytes.length);
+        }
+
+        private void addRange(String range, int index) {
+            int slash = range.indexOf('/');
+            String address = slash >= 0 ? range.substring(0, slash) : range;
+            long ipv4 = IpAddresses.parseIpv4(address);
+            long high;
+            long low;
+            int bits;
+            if (ipv4 >= 0) {
+                high = IpAddresses.IPV4_MAPPED_HIGH;
+                low = IpAddresses.ipv4MappedLow(ipv4);
+                bits = IpAddresses.IPV4_MAPPED_BITS + (slash >= 0 ? prefixLength(range, slash, 32) : 32);
+            } else if (IpAddresses.isIpv6(address)) {
+                high = IpAddresses.ipv6High(address);
+                low = IpAddresses.ipv6Low(address);
+                bits = slash >= 0 ? prefixLength(range, slash, 128) : 128;
+            } else {
+                throw new IllegalArgumentException("Not an IP address or CIDR range: " + range);
+            }
+            addresses.add(high, low, bits, index);
+            filters[IndicatorType.IP.ordinal()].addPrefix(high, low, bits);
+        }
+
+        private static int prefixLength(String range, int slash, int max) {
+            try {
+                int bits = Integer.parseInt(range.substring(slash + 1));
+                if (bits >= 0 && bits <= max) {
+                    return bits;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("Invalid prefix length in " + range);
+        }
+    }
+
+    private static final class ByteArrayBuilder {
+        private byte[] bytes = new byte[8192];
+        private int used;
+
+        int append(byte[] value) {
+            if (used + value.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + value.length));
+            }
+            System.arraycopy(value, 0, bytes, used, value.length);
+            int offset = used;
+            used += value.length;
+            return offset;
+        }
+
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(Arrays.copyOf(bytes, used));
+        }
+    }
+}
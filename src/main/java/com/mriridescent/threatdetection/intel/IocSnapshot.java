@@ -0,0 +1,269 @@
+package com.mriridescent.threatdetection.intel;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary file format for an {@link IocIndex}, read by mapping the file into memory.
+ *
+ * The file is the index's own buffers laid end to end, so opening it maps the file and wraps
+ * views around each section without reading or decoding anything: startup takes milliseconds
+ * whatever the number of indicators, lookups read the page cache directly, and JVMs on one host
+ * mapping the same file share a single copy of it.
+ *
+ * Layout, little-endian, with every section aligned to 8 bytes:
+ * <pre>
+ *   0  magic "IOCSNAP1"
+ *   8  int version, int section count
+ *  16  int address prefixes, int domains
+ *  24  long built-at epoch milliseconds
+ *  32  section table: long offset, long length in bytes, per section
+ * </pre>
+ * Sections are, in order: prefix trie nodes and IPv4 table, domain labels, nodes and edges,
+ * entry records and string pool, exact-match keys and entries, the versions of the feeds the
+ * index was built from, and the Bloom filters of each indicator type: their bits end to end, and
+ * per type the offset of its bits followed by {@link IocBloomFilter#meta()}.
+ *
+ * Files are written next to their final path and moved into place atomically, so a reader never
+ * maps a partial file, and JVMs that mapped the previous file keep reading it until they remap.
+ */
+public final class IocSnapshot {
+
+    private static final byte[] MAGIC = "IOCSNAP1".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int SECTIONS = 12;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int IP_NODES = 0;
+    private static final int IP_TABLE = 1;
+    private static final int DOMAIN_LABELS = 2;
+    private static final int DOMAIN_NODES = 3;
+    private static final int DOMAIN_EDGES = 4;
+    private static final int ENTRIES = 5;
+    private static final int STRINGS = 6;
+    private static final int EXACT_KEYS = 7;
+    private static final int EXACT_ENTRIES = 8;
+    private static final int FEED_VERSIONS = 9;
+    private static final int BLOOM_BITS = 10;
+    private static final int BLOOM_META = 11;
+
+    private final IocIndex index;
+    private final List<String> feedVersions;
+
+    private IocSnapshot(IocIndex index, List<String> feedVersions) {
+        this.index = index;
+        this.feedVersions = feedVersions;
+    }
+
+    public IocIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Versions of the feeds the index was built from, as passed to {@link #write}.
+     */
+    public List<String> getFeedVersions() {
+        return feedVersions;
+    }
+
+    /**
+     * Write an index to {@code file}, replacing it atomically.
+     */
+    public static void write(IocIndex index, List<String> feedVersions, Path file) throws IOException {
+        ByteBuffer versions = ByteBuffer.wrap(String.join("\n", feedVersions).getBytes(StandardCharsets.UTF_8));
+        Buffer[] sections = new Buffer[SECTIONS];
+        sections[IP_NODES] = index.addresses().nodes();
+        sections[IP_TABLE] = index.addresses().ipv4Table();
+        sections[DOMAIN_LABELS] = index.domains().labels();
+        sections[DOMAIN_NODES] = index.domains().nodes();
+        sections[DOMAIN_EDGES] = index.domains().edges();
+        sections[ENTRIES] = index.entries();
+        sections[STRINGS] = index.strings();
+        sections[EXACT_KEYS] = index.exactKeys();
+        sections[EXACT_ENTRIES] = index.exactEntries();
+        sections[FEED_VERSIONS] = versions;
+        IocBloomFilter[] filters = index.filters();
+        long[] meta = new long[filters.length * (1 + IocBloomFilter.META_LONGS)];
+        int bloomLongs = 0;
+        for (int i = 0; i < filters.length; i++) {
+            meta[i * (1 + IocBloomFilter.META_LONGS)] = bloomLongs;
+            System.arraycopy(filters[i].meta(), 0, meta, i * (1 + IocBloomFilter.META_LONGS) + 1, IocBloomFilter.META_LONGS);
+            bloomLongs += filters[i].bits().limit();
+        }
+        LongBuffer bloomBits = LongBuffer.allocate(bloomLongs);
+        for (IocBloomFilter filter : filters) {
+            bloomBits.put(filter.bits());
+        }
+        sections[BLOOM_BITS] = bloomBits.flip();
+        sections[BLOOM_META] = LongBuffer.wrap(meta);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + SECTIONS * 16).order(ORDER);
+        header.put(MAGIC)
+                .putInt(VERSION)
+                .putInt(SECTIONS)
+                .putInt(index.addressCount())
+                .putInt(index.domainCount())
+                .putLong(index.getBuiltAt().toEpochMilli());
+        long offset = header.capacity();
+        for (Buffer section : sections) {
+            long length = bytes(section);
+            header.putLong(offset).putLong(length);
+            offset = align(offset + length);
+        }
+        header.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ORDER);
+            for (Buffer section : sections) {
+                writeSection(channel, section, chunk);
+                long padding = align(channel.position()) - channel.position();
+                writeFully(channel, ByteBuffer.allocate((int) padding));
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Map a snapshot file. The mapping stays valid after the file is replaced or deleted.
+     *
+     * @throws IOException if the file cannot be read or is not a snapshot of this version
+     */
+    public static IocSnapshot map(Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("IOC snapshot larger than 2 GiB: " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ORDER);
+
+        byte[] magic = new byte[MAGIC.length];
+        if (mapped.limit() < HEADER_BYTES + SECTIONS * 16) {
+            throw new IOException("Truncated IOC snapshot: " + file);
+        }
+        mapped.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || mapped.getInt(8) != VERSION || mapped.getInt(12) != SECTIONS) {
+            throw new IOException("Not an IOC snapshot of version " + VERSION + ": " + file);
+        }
+        int prefixes = mapped.getInt(16);
+        int domains = mapped.getInt(20);
+        Instant builtAt = Instant.ofEpochMilli(mapped.getLong(24));
+
+        ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+        for (int i = 0; i < SECTIONS; i++) {
+            long offset = mapped.getLong(HEADER_BYTES + i * 16);
+            long length = mapped.getLong(HEADER_BYTES + i * 16 + 8);
+            if (offset % 8 != 0 || length < 0 || offset + length > mapped.limit()) {
+                throw new IOException("Corrupt section table in IOC snapshot: " + file);
+            }
+            sections[i] = mapped.slice((int) offset, (int) length).order(ORDER);
+        }
+
+        try {
+            IocBloomFilter[] filters = bloomFilters(sections[BLOOM_BITS].asLongBuffer(), sections[BLOOM_META].asLongBuffer());
+            IocIndex index = new IocIndex(
+                    new IpPrefixTrie(sections[IP_NODES].asLongBuffer(), sections[IP_TABLE].asLongBuffer(), prefixes),
+                    new DomainSuffixTrie(sections[DOMAIN_LABELS].asCharBuffer(), sections[DOMAIN_NODES].asIntBuffer(),
+                            sections[DOMAIN_EDGES].asIntBuffer(), domains),
+                    sections[ENTRIES],
+                    sections[STRINGS],
+                    sections[EXACT_KEYS].asLongBuffer(),
+                    sections[EXACT_ENTRIES].asIntBuffer(),
+                    filters,
+                    builtAt);
+            String versions = StandardCharsets.UTF_8.decode(sections[FEED_VERSIONS]).toString();
+            return new IocSnapshot(index, versions.isEmpty() ? List.of() : List.of(versions.split("\n", -1)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt IOC snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static IocBloomFilter[] bloomFilters(LongBuffer bits, LongBuffer meta) {
+        int stride = 1 + IocBloomFilter.META_LONGS;
+        if (meta.limit() % stride != 0) {
+            throw new IllegalArgumentException("Malformed Bloom filter table");
+        }
+        IocBloomFilter[] filters = new IocBloomFilter[meta.limit() / stride];
+        for (int i = 0; i < filters.length; i++) {
+            int offset = (int) meta.get(i * stride);
+            long[] filterMeta = new long[IocBloomFilter.META_LONGS];
+            meta.get(i * stride + 1, filterMeta);
+            int words = (int) ((filterMeta[0] + 63) / 64);
+            filters[i] = IocBloomFilter.fromMeta(bits.slice(offset, words), filterMeta);
+        }
+        return filters;
+    }
+
+    private static long bytes(Buffer section) {
+        int elements = section.remaining();
+        if (section instanceof LongBuffer) {
+            return elements * 8L;
+        }
+        if (section instanceof IntBuffer) {
+            return elements * 4L;
+        }
+        if (section instanceof CharBuffer) {
+            return elements * 2L;
+        }
+        return elements;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Copy a section to the channel in the file's byte order, a chunk at a time.
+     */
+    private static void writeSection(FileChannel channel, Buffer section, ByteBuffer chunk) throws IOException {
+        if (section instanceof ByteBuffer bytes) {
+            writeFully(channel, bytes.duplicate());
+            return;
+        }
+        while (section.hasRemaining()) {
+            chunk.clear();
+            if (section instanceof LongBuffer longs) {
+                while (longs.hasRemaining() && chunk.remaining() >= 8) {
+                    chunk.putLong(longs.get());
+                }
+            } else if (section instanceof IntBuffer ints) {
+                while (ints.hasRemaining() && chunk.remaining() >= 4) {
+                    chunk.putInt(ints.get());
+                }
+            } else if (section instanceof CharBuffer chars) {
+                while (chars.hasRemaining() && chunk.remaining() >= 2) {
+                    chunk.putChar(chars.get());
+                }
+            }
+            chunk.flip();
+            writeFully(channel, chunk);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
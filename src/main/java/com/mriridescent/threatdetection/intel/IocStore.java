@@ -0,0 +1,230 @@
+package com.mriridescent.threatdetection.intel;
+
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link IocIndex} built from the feeds listed in {@code threat-detection.intel.feeds}.
+ *
+ * Readers take {@link #current()} once per lookup and see a complete snapshot; a reload builds
+ * the next snapshot off to the side and swaps it in with a single reference write, so lookups
+ * never wait for or observe a half-loaded index. Feeds are re-read when any of them changes on
+ * disk, checked every {@code threat-detection.intel.reload-check-interval-ms}. A feed that fails
+ * to read keeps the previous snapshot in place.
+ *
+ * With {@code threat-detection.intel.snapshot} set, each rebuilt index is written to that file
+ * as an {@link IocSnapshot} and served from its memory mapping rather than the heap. At startup
+ * an existing snapshot is mapped at once and the feeds are only re-read if they changed since it
+ * was written. A store with a snapshot but no feeds only reads it, remapping the file whenever
+ * another process replaces it, so replicas on one host share a single builder and page cache.
+ *
+ * Each index carries a Bloom filter per indicator type, sized at
+ * {@code threat-detection.intel.bloom.bits-per-entry}.
+ *
+ * Publishes the number of indexed indicators, reloads by {@code result}, and the memory and
+ * expected false-positive rate of the current Bloom filter of each indicator {@code type}.
+ */
+@Slf4j
+@Component
+public class IocStore {
+
+    private static final String PREFIX = "threat-detection.intel.";
+
+    private final List<Path> feeds;
+    private final Path snapshot;
+    private final int bloomBitsPerEntry;
+    private final AtomicReference<IocIndex> current = new AtomicReference<>(IocIndex.empty());
+    private final List<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
+    private final Counter reloaded;
+    private final Counter failed;
+    private volatile List<String> loadedVersions = List.of();
+    private volatile String mappedVersion = "";
+
+    public IocStore(Environment environment, MeterRegistry meterRegistry) {
+        this(environment.getProperty(PREFIX + "feeds", String[].class, new String[0]),
+                environment.getProperty(PREFIX + "snapshot", ""),
+                environment.getProperty(PREFIX + "bloom.bits-per-entry", Integer.class, 10), meterRegistry);
+    }
+
+    IocStore(String[] feeds, String snapshot, MeterRegistry meterRegistry) {
+        this(feeds, snapshot, 10, meterRegistry);
+    }
+
+    IocStore(String[] feeds, String snapshot, int bloomBitsPerEntry, MeterRegistry meterRegistry) {
+        List<Path> paths = new ArrayList<>(feeds.length);
+        for (String feed : feeds) {
+            if (!feed.isBlank()) {
+                paths.add(Path.of(feed.trim()));
+            }
+        }
+        this.feeds = List.copyOf(paths);
+        this.snapshot = snapshot == null || snapshot.isBlank() ? null : Path.of(snapshot.trim());
+        this.bloomBitsPerEntry = bloomBitsPerEntry;
+        this.reloaded = reloadCounter(meterRegistry, "success");
+        this.failed = reloadCounter(meterRegistry, "failure");
+        Gauge.builder("threat_detection_ioc_index_entries", current, ref -> ref.get().size())
+                .description("Indicators of compromise in the current index")
+                .register(meterRegistry);
+        for (IndicatorType type : IndicatorType.values()) {
+            Gauge.builder("threat_detection_intel_bloom_bytes", current, ref -> ref.get().bloomFilter(type).sizeInBytes())
+                    .description("Memory held by the Bloom filter of an indicator type")
+                    .tag("type", type.name())
+                    .register(meterRegistry);
+            Gauge.builder("threat_detection_intel_bloom_expected_false_positive_rate", current,
+                            ref -> ref.get().bloomFilter(type).expectedFalsePositiveRate())
+                    .description("False-positive rate expected from the share of Bloom filter bits set")
+                    .tag("type", type.name())
+                    .register(meterRegistry);
+        }
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (snapshot != null && Files.exists(snapshot)) {
+            mapSnapshot();
+        }
+        reloadIfChanged();
+    }
+
+    /**
+     * Snapshot to match against; it does not change, so take it once per lookup or batch.
+     */
+    public IocIndex current() {
+        return current.get();
+    }
+
+    /**
+     * Run {@code listener} after each snapshot swap, e.g. to drop verdicts derived from the old one.
+     */
+    public void addReloadListener(Runnable listener) {
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * Re-read the feeds if any was added, removed or modified since the last load, or without
+     * feeds, remap the snapshot if it was replaced.
+     */
+    @Scheduled(initialDelayString = "${threat-detection.intel.reload-check-interval-ms:60000}",
+            fixedDelayString = "${threat-detection.intel.reload-check-interval-ms:60000}")
+    public void reloadIfChanged() {
+        if (feeds.isEmpty()) {
+            // Until a builder writes the snapshot there is nothing to map
+            if (snapshot != null && !version(snapshot).equals(mappedVersion) && Files.exists(snapshot)) {
+                mapSnapshot();
+            }
+            return;
+        }
+        if (!versions().equals(loadedVersions)) {
+            reload();
+        }
+    }
+
+    /**
+     * Re-read all feeds and swap in the new snapshot.
+     *
+     * @return Whether the feeds were loaded; on failure the previous snapshot stays current
+     */
+    public synchronized boolean reload() {
+        List<String> versions = versions();
+        IocIndex.Builder builder = IocIndex.builder().bloomBitsPerEntry(bloomBitsPerEntry);
+        int rejected = 0;
+        try {
+            for (Path feed : feeds) {
+                IocFeedLoader.Result result = IocFeedLoader.load(feed, builder);
+                rejected += result.getRejected();
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            log.warn("Failed to reload IOC feeds, keeping {} indicators loaded at {}: {}",
+                    current().size(), current().getBuiltAt(), e.toString());
+            return false;
+        }
+
+        IocIndex index = builder.build();
+        if (snapshot != null) {
+            try {
+                // Serve the mapped copy so the heap one can be collected
+                IocSnapshot.write(index, versions, snapshot);
+                mappedVersion = version(snapshot);
+                index = IocSnapshot.map(snapshot).getIndex();
+            } catch (IOException e) {
+                log.warn("Failed to write IOC snapshot {}, serving the index from the heap: {}", snapshot, e.toString());
+            }
+        }
+        log.info("Loaded {} indicators of compromise from {} feeds ({} addresses, {} domains, {} malformed entries skipped)",
+                index.size(), feeds.size(), index.addressCount(), index.domainCount(), rejected);
+        loadedVersions = versions;
+        swap(index);
+        return true;
+    }
+
+    /**
+     * Map the snapshot file and swap it in, taking the feed versions it was built from.
+     */
+    private synchronized void mapSnapshot() {
+        String version = version(snapshot);
+        IocSnapshot mapped;
+        try {
+            mapped = IocSnapshot.map(snapshot);
+        } catch (IOException e) {
+            failed.increment();
+            log.warn("Failed to map IOC snapshot {}, keeping {} indicators loaded at {}: {}",
+                    snapshot, current().size(), current().getBuiltAt(), e.toString());
+            return;
+        }
+        log.info("Mapped {} indicators of compromise built at {} from {}",
+                mapped.getIndex().size(), mapped.getIndex().getBuiltAt(), snapshot);
+        mappedVersion = version;
+        loadedVersions = mapped.getFeedVersions();
+        swap(mapped.getIndex());
+    }
+
+    private void swap(IocIndex index) {
+        current.set(index);
+        reloaded.increment();
+        for (Runnable listener : reloadListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Modification time and size of each feed, to detect changes without reading them.
+     */
+    private List<String> versions() {
+        List<String> versions = new ArrayList<>(feeds.size());
+        for (Path feed : feeds) {
+            versions.add(feed + "@" + version(feed));
+        }
+        return versions;
+    }
+
+    private static String version(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() + ":" + Files.size(file);
+        } catch (IOException e) {
+            return "missing";
+        }
+    }
+
+    private static Counter reloadCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("threat_detection_ioc_reloads_total")
+                .description("Reloads of the IOC feeds into a new index")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,297 @@
+package com.mriridescent.threatdetection.intel;
+
+/**
+ * Allocation-free parsing of IPv4 and IPv6 address literals into 128-bit keys.
+ *
+ * Addresses are keyed as two longs, the high and low 64 bits of an IPv6 address; IPv4
+ * addresses use their IPv4-mapped form {@code ::ffff:a.b.c.d}, so both families share one
+ * key space and an IPv4 prefix of length {@code n} is the mapped prefix of length {@code 96 + n}.
+ */
+public final class IpAddresses {
+
+    /** High 64 bits of every IPv4-mapped address. */
+    public static final long IPV4_MAPPED_HIGH = 0L;
+    /** Bits above the IPv4 address in the low 64 bits of an IPv4-mapped address. */
+    public static final long IPV4_MAPPED_LOW = 0x0000_ffff_0000_0000L;
+    /** Length of the IPv4-mapped prefix. */
+    public static final int IPV4_MAPPED_BITS = 96;
+
+    private static final long INVALID = -1L;
+
+    private IpAddresses() {
+    }
+
+    /**
+     * Parse a dotted-quad IPv4 address.
+     *
+     * @return Address as an unsigned 32-bit value, or -1 if {@code s} is not an IPv4 address
+     */
+    public static long parseIpv4(CharSequence s) {
+        return parseIpv4(s, 0, s.length());
+    }
+
+    /**
+     * Low 64 bits of the IPv4-mapped key of an IPv4 address from {@link #parseIpv4}.
+     */
+    public static long ipv4MappedLow(long ipv4) {
+        return IPV4_MAPPED_LOW | ipv4;
+    }
+
+    /**
+     * Whether {@code s} is an IPv6 address literal, optionally with an embedded IPv4 address.
+     */
+    public static boolean isIpv6(CharSequence s) {
+        return parseIpv6(s, Half.VALIDATE) == 1;
+    }
+
+    /**
+     * High 64 bits of an IPv6 address; {@code s} must pass {@link #isIpv6}.
+     */
+    public static long ipv6High(CharSequence s) {
+        return parseIpv6(s, Half.HIGH);
+    }
+
+    /**
+     * Low 64 bits of an IPv6 address; {@code s} must pass {@link #isIpv6}.
+     */
+    public static long ipv6Low(CharSequence s) {
+        return parseIpv6(s, Half.LOW);
+    }
+
+    /**
+     * Whether a 128-bit key is an IPv4-mapped address.
+     */
+    public static boolean isIpv4Mapped(long high, long low) {
+        return high == IPV4_MAPPED_HIGH && (low & 0xffff_ffff_0000_0000L) == IPV4_MAPPED_LOW;
+    }
+
+    /**
+     * Text form of a 128-bit key: a dotted quad for IPv4-mapped addresses, otherwise the
+     * canonical IPv6 form, with the longest run of two or more zero groups written {@code ::}.
+     */
+    public static String format(long high, long low) {
+        if (isIpv4Mapped(high, low)) {
+            return ((low >>> 24) & 0xff) + "." + ((low >>> 16) & 0xff) + "." + ((low >>> 8) & 0xff) + "." + (low & 0xff);
+        }
+        int[] groups = new int[8];
+        for (int i = 0; i < 4; i++) {
+            groups[i] = (int) (high >>> (48 - 16 * i)) & 0xffff;
+            groups[i + 4] = (int) (low >>> (48 - 16 * i)) & 0xffff;
+        }
+        int gapStart = -1;
+        int gapLength = 1;
+        for (int i = 0; i < 8; ) {
+            int j = i;
+            while (j < 8 && groups[j] == 0) {
+                j++;
+            }
+            if (j - i > gapLength) {
+                gapStart = i;
+                gapLength = j - i;
+            }
+            i = j == i ? i + 1 : j;
+        }
+        StringBuilder text = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == gapStart) {
+                text.append("::");
+                i += gapLength - 1;
+                continue;
+            }
+            if (!text.isEmpty() && text.charAt(text.length() - 1) != ':') {
+                text.append(':');
+            }
+            text.append(Integer.toHexString(groups[i]));
+        }
+        return text.toString();
+    }
+
+    private enum Half { VALIDATE, HIGH, LOW }
+
+    private static long parseIpv4(CharSequence s, int from, int to) {
+        long address = 0;
+        int octets = 0;
+        int i = from;
+        while (i < to) {
+            int value = 0;
+            int digits = 0;
+            while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                value = value * 10 + (s.charAt(i) - '0');
+                digits++;
+                i++;
+                if (digits > 3) {
+                    return INVALID;
+                }
+            }
+            if (digits == 0 || value > 255) {
+                return INVALID;
+            }
+            address = (address << 8) | value;
+            octets++;
+            if (i < to) {
+                if (s.charAt(i) != '.' || octets == 4) {
+                    return INVALID;
+                }
+                i++;
+                if (i == to) {
+                    return INVALID;
+                }
+            }
+        }
+        return octets == 4 ? address : INVALID;
+    }
+
+    /**
+     * Parse an IPv6 literal in one pass over its 16-bit groups, without allocating.
+     * Groups after a {@code ::} are counted first so they can be placed at the end of the address.
+     *
+     * @return For {@link Half#VALIDATE}, 1 if valid and 0 otherwise; otherwise the requested half
+     */
+    private static long parseIpv6(CharSequence s, Half half) {
+        int length = s.length();
+        int gap = indexOfDoubleColon(s);
+        if (gap == -2 || length < 2) {
+            return half == Half.VALIDATE ? 0 : INVALID;
+        }
+
+        int groupsAfterGap = 0;
+        if (gap >= 0) {
+            groupsAfterGap = countGroups(s, gap + 2, length);
+            if (groupsAfterGap < 0) {
+                return half == Half.VALIDATE ? 0 : INVALID;
+            }
+        }
+
+        long high = 0;
+        long low = 0;
+        int group = 0;
+        int i = 0;
+        int end = gap >= 0 ? gap : length;
+        for (int section = 0; section < 2; section++) {
+            while (i < end) {
+                int groupEnd = i;
+                while (groupEnd < end && s.charAt(groupEnd) != ':') {
+                    groupEnd++;
+                }
+                long value;
+                int width;
+                if (groupEnd == end && containsDot(s, i, groupEnd)) {
+                    // Embedded IPv4 address, only as the last group
+                    if (section == 0 && gap >= 0) {
+                        return half == Half.VALIDATE ? 0 : INVALID;
+                    }
+                    value = parseIpv4(s, i, groupEnd);
+                    width = 2;
+                } else {
+                    value = parseHexGroup(s, i, groupEnd);
+                    width = 1;
+                }
+                if (value < 0 || group + width > 8) {
+                    return half == Half.VALIDATE ? 0 : INVALID;
+                }
+                for (int w = width - 1; w >= 0; w--) {
+                    long part = (value >>> (16 * w)) & 0xffff;
+                    if (group < 4) {
+                        high |= part << (16 * (3 - group));
+                    } else {
+                        low |= part << (16 * (7 - group));
+                    }
+                    group++;
+                }
+                i = groupEnd;
+                if (i < end) {
+                    i++;
+                    if (i == end) {
+                        // Trailing single colon
+                        return half == Half.VALIDATE ? 0 : INVALID;
+                    }
+                }
+            }
+            if (gap < 0) {
+                break;
+            }
+            if (section == 0) {
+                // Skip the zero groups the gap stands for
+                int zeros = 8 - group - groupsAfterGap;
+                if (zeros < 1) {
+                    return half == Half.VALIDATE ? 0 : INVALID;
+                }
+                group += zeros;
+                i = gap + 2;
+                end = length;
+            }
+        }
+
+        if (group != 8) {
+            return half == Half.VALIDATE ? 0 : INVALID;
+        }
+        return switch (half) {
+            case VALIDATE -> 1;
+            case HIGH -> high;
+            case LOW -> low;
+        };
+    }
+
+    /**
+     * @return Index of the only {@code ::}, -1 if there is none, -2 if there are several
+     */
+    private static int indexOfDoubleColon(CharSequence s) {
+        int found = -1;
+        for (int i = 0; i + 1 < s.length(); i++) {
+            if (s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+                if (found >= 0) {
+                    return -2;
+                }
+                found = i;
+                i++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Number of 16-bit groups in {@code s[from, to)}, counting an embedded IPv4 address as two,
+     * or -1 if the section is malformed.
+     */
+    private static int countGroups(CharSequence s, int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        int groups = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || s.charAt(i) == ':') {
+                if (i == start) {
+                    return -1;
+                }
+                groups += i == to && containsDot(s, start, i) ? 2 : 1;
+                start = i + 1;
+            }
+        }
+        return groups;
+    }
+
+    private static boolean containsDot(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '.') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long parseHexGroup(CharSequence s, int from, int to) {
+        if (from == to || to - from > 4) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(s.charAt(i), 16);
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
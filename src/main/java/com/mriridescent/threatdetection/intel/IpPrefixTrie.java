@@ -0,0 +1,300 @@
+package com.mriridescent.threatdetection.intel;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Path-compressed binary radix trie for longest-prefix match over IPv4 and IPv6 prefixes.
+ *
+ * Keys are 128-bit addresses as produced by {@link IpAddresses}; IPv4 prefixes are stored in
+ * their IPv4-mapped form. Each node holds a prefix and at most two children that extend it, and
+ * chains of single-child nodes are collapsed, so the depth is bounded by the number of distinct
+ * branch points on a path rather than by the prefix length.
+ *
+ * Each node is packed into four consecutive longs (key high and low words, children, prefix
+ * length and value), so visiting a node touches one cache line. A lookup walks from the root
+ * comparing masked 64-bit words and remembers the value of the longest matching prefix, without
+ * allocating. IPv4 lookups skip the first 16 bits of their walk through a table indexed by the
+ * top 16 bits of the address, which holds the node to resume from and the best match among the
+ * prefixes of up to 16 bits.
+ *
+ * Nodes and table are plain long buffers, either on the heap or mapped from an
+ * {@link IocSnapshot}. A trie is immutable and safe to share between threads; {@link Builder} is
+ * not thread-safe.
+ */
+public final class IpPrefixTrie {
+
+    /** Value returned when no prefix matches. */
+    public static final int NO_MATCH = -1;
+
+    /** Longs per node. */
+    static final int STRIDE = 4;
+    /** Entries of the IPv4 table. */
+    static final int IPV4_TABLE_SIZE = 1 << 16;
+
+    private static final int ROOT = 0;
+    private static final int IPV4_TABLE_BITS = 16;
+
+    // Node layout: key high, key low, zero child << 32 | one child, length << 32 | value
+    private final LongBuffer nodes;
+    // Top 16 bits of an IPv4 address -> node to resume from << 32 | best value so far
+    private final LongBuffer ipv4Table;
+    private final int prefixes;
+
+    IpPrefixTrie(LongBuffer nodes, LongBuffer ipv4Table, int prefixes) {
+        if (nodes.limit() == 0 || nodes.limit() % STRIDE != 0 || ipv4Table.limit() != IPV4_TABLE_SIZE) {
+            throw new IllegalArgumentException("Malformed prefix trie");
+        }
+        this.nodes = nodes;
+        this.ipv4Table = ipv4Table;
+        this.prefixes = prefixes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Value of the longest prefix containing the address, or {@link #NO_MATCH}.
+     */
+    public int lookup(long high, long low) {
+        return lookup(ROOT, NO_MATCH, high, low);
+    }
+
+    /**
+     * Value of the longest prefix containing the IPv4 address from {@link IpAddresses#parseIpv4}.
+     */
+    public int lookupIpv4(long ipv4) {
+        long start = ipv4Table.get((int) (ipv4 >>> (32 - IPV4_TABLE_BITS)));
+        return lookup((int) (start >> 32), (int) start, IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(ipv4));
+    }
+
+    /**
+     * Number of prefixes stored.
+     */
+    public int size() {
+        return prefixes;
+    }
+
+    /**
+     * Number of trie nodes, including branch points that hold no prefix.
+     */
+    public int nodeCount() {
+        return nodes.limit() / STRIDE;
+    }
+
+    LongBuffer nodes() {
+        return nodes.duplicate();
+    }
+
+    LongBuffer ipv4Table() {
+        return ipv4Table.duplicate();
+    }
+
+    private int lookup(int node, int best, long high, long low) {
+        LongBuffer nodes = this.nodes;
+        while (node != NO_MATCH) {
+            int base = node * STRIDE;
+            long meta = nodes.get(base + 3);
+            int bits = (int) (meta >>> 32);
+            if (!matches(nodes.get(base), nodes.get(base + 1), bits, high, low)) {
+                break;
+            }
+            if ((int) meta != NO_MATCH) {
+                best = (int) meta;
+            }
+            if (bits == 128) {
+                break;
+            }
+            long children = nodes.get(base + 2);
+            node = bit(high, low, bits) == 0 ? (int) (children >> 32) : (int) children;
+        }
+        return best;
+    }
+
+    private static boolean matches(long prefixHigh, long prefixLow, int bits, long high, long low) {
+        return ((prefixHigh ^ high) & highMask(bits)) == 0 && ((prefixLow ^ low) & lowMask(bits)) == 0;
+    }
+
+    private static long highMask(int bits) {
+        return bits >= 64 ? -1L : bits == 0 ? 0L : -1L << (64 - bits);
+    }
+
+    private static long lowMask(int bits) {
+        return bits <= 64 ? 0L : bits == 128 ? -1L : -1L << (128 - bits);
+    }
+
+    private static int bit(long high, long low, int index) {
+        return (int) (index < 64 ? (high >>> (63 - index)) & 1 : (low >>> (127 - index)) & 1);
+    }
+
+    private static long pack(int upper, int lower) {
+        return ((long) upper << 32) | (lower & 0xffffffffL);
+    }
+
+    /**
+     * Length of the common prefix of two keys, capped at {@code max}.
+     */
+    private static int commonPrefix(long highA, long lowA, long highB, long lowB, int max) {
+        long high = highA ^ highB;
+        int common = high != 0 ? Long.numberOfLeadingZeros(high) : 64 + Long.numberOfLeadingZeros(lowA ^ lowB);
+        return Math.min(common, max);
+    }
+
+    /**
+     * Builds an {@link IpPrefixTrie}. Inserting a prefix that is already present replaces its value.
+     */
+    public static final class Builder {
+        private long[] keyHigh = new long[1024];
+        private long[] keyLow = new long[1024];
+        private byte[] length = new byte[1024];
+        private int[] zero = new int[1024];
+        private int[] one = new int[1024];
+        private int[] value = new int[1024];
+        private int nodes;
+        private int prefixes;
+
+        private Builder() {
+            node(0, 0, 0, NO_MATCH);
+        }
+
+        /**
+         * Add an IPv4 prefix, such as {@code 192.0.2.0/24}.
+         */
+        public Builder addIpv4(long ipv4, int bits, int prefixValue) {
+            if (bits < 0 || bits > 32) {
+                throw new IllegalArgumentException("Invalid IPv4 prefix length: " + bits);
+            }
+            return add(IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(ipv4),
+                    IpAddresses.IPV4_MAPPED_BITS + bits, prefixValue);
+        }
+
+        /**
+         * Add a prefix of {@code bits} bits of a 128-bit key.
+         */
+        public Builder add(long high, long low, int bits, int prefixValue) {
+            if (bits < 0 || bits > 128) {
+                throw new IllegalArgumentException("Invalid prefix length: " + bits);
+            }
+            if (prefixValue < 0) {
+                throw new IllegalArgumentException("Prefix values must not be negative");
+            }
+            high &= highMask(bits);
+            low &= lowMask(bits);
+
+            int node = ROOT;
+            while (true) {
+                int nodeBits = length[node] & 0xff;
+                if (nodeBits == bits) {
+                    if (value[node] == NO_MATCH) {
+                        prefixes++;
+                    }
+                    value[node] = prefixValue;
+                    return this;
+                }
+                int branch = bit(high, low, nodeBits);
+                int child = branch == 0 ? zero[node] : one[node];
+                if (child == NO_MATCH) {
+                    setChild(node, branch, node(high, low, bits, prefixValue));
+                    prefixes++;
+                    return this;
+                }
+
+                int childBits = length[child] & 0xff;
+                int common = commonPrefix(keyHigh[child], keyLow[child], high, low, Math.min(childBits, bits));
+                if (common == childBits) {
+                    // The child's prefix contains the new one; descend
+                    node = child;
+                    continue;
+                }
+                if (common == bits) {
+                    // The new prefix contains the child's; insert it between
+                    int inserted = node(high, low, bits, prefixValue);
+                    setChild(inserted, bit(keyHigh[child], keyLow[child], bits), child);
+                    setChild(node, branch, inserted);
+                    prefixes++;
+                    return this;
+                }
+                // The prefixes diverge below the child's start; branch where they do
+                int split = node(high & highMask(common), low & lowMask(common), common, NO_MATCH);
+                setChild(split, bit(keyHigh[child], keyLow[child], common), child);
+                setChild(split, bit(high, low, common), node(high, low, bits, prefixValue));
+                setChild(node, branch, split);
+                prefixes++;
+                return this;
+            }
+        }
+
+        public IpPrefixTrie build() {
+            long[] packed = new long[nodes * STRIDE];
+            for (int node = 0; node < nodes; node++) {
+                int base = node * STRIDE;
+                packed[base] = keyHigh[node];
+                packed[base + 1] = keyLow[node];
+                packed[base + 2] = pack(zero[node], one[node]);
+                packed[base + 3] = pack(length[node] & 0xff, value[node]);
+            }
+            long[] table = new long[IPV4_TABLE_SIZE];
+            for (int slot = 0; slot < table.length; slot++) {
+                table[slot] = walk(packed, IpAddresses.ipv4MappedLow((long) slot << (32 - IPV4_TABLE_BITS)));
+            }
+            return new IpPrefixTrie(LongBuffer.wrap(packed), LongBuffer.wrap(table), prefixes);
+        }
+
+        /**
+         * Walk the IPv4-mapped prefix of a table slot down to the first node at least as long as
+         * the slot, which lookups resume from, collecting the best match above it.
+         */
+        private static long walk(long[] nodes, long low) {
+            int slotBits = IpAddresses.IPV4_MAPPED_BITS + IPV4_TABLE_BITS;
+            int best = NO_MATCH;
+            int node = ROOT;
+            while (node != NO_MATCH) {
+                int base = node * STRIDE;
+                long meta = nodes[base + 3];
+                int bits = (int) (meta >>> 32);
+                if (bits >= slotBits) {
+                    break;
+                }
+                if (!matches(nodes[base], nodes[base + 1], bits, IpAddresses.IPV4_MAPPED_HIGH, low)) {
+                    node = NO_MATCH;
+                    break;
+                }
+                if ((int) meta != NO_MATCH) {
+                    best = (int) meta;
+                }
+                long children = nodes[base + 2];
+                node = bit(IpAddresses.IPV4_MAPPED_HIGH, low, bits) == 0 ? (int) (children >> 32) : (int) children;
+            }
+            return pack(node, best);
+        }
+
+        private int node(long high, long low, int bits, int nodeValue) {
+            if (nodes == keyHigh.length) {
+                int capacity = nodes * 2;
+                keyHigh = Arrays.copyOf(keyHigh, capacity);
+                keyLow = Arrays.copyOf(keyLow, capacity);
+                length = Arrays.copyOf(length, capacity);
+                zero = Arrays.copyOf(zero, capacity);
+                one = Arrays.copyOf(one, capacity);
+                value = Arrays.copyOf(value, capacity);
+            }
+            int node = nodes++;
+            keyHigh[node] = high;
+            keyLow[node] = low;
+            length[node] = (byte) bits;
+            zero[node] = NO_MATCH;
+            one[node] = NO_MATCH;
+            value[node] = nodeValue;
+            return node;
+        }
+
+        private void setChild(int node, int branch, int child) {
+            if (branch == 0) {
+                zero[node] = child;
+            } else {
+                one[node] = child;
+            }
+        }
+    }
+}
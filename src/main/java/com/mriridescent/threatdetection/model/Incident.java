@@ -0,0 +1,26 @@
+package com.mriridescent.threatdetection.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * A group of related alerts: the alerts raised on a set of users, IP addresses, hosts and
+ * sessions that are connected through recent activity.
+ *
+ * {@code incidentId} names the incident's representative entity, which can change as
+ * incidents merge. {@code entities} and {@code alertIds} may be truncated; the counts are not.
+ */
+@Data
+@Builder
+public class Incident {
+    private String incidentId;
+    private int entityCount;
+    private int alertCount;
+    private ThreatAlert.Severity maxSeverity;
+    private LocalDateTime lastActivity;
+    private List<String> entities;
+    private List<String> alertIds;
+}
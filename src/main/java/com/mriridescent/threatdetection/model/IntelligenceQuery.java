@@ -1,11 +1,17 @@
 package com.mriridescent.threatdetection.model;
 
+import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 /**
  * Represents a query for threat intelligence information.
  */
 @Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class IntelligenceQuery {
     private String indicator;
     private IndicatorType indicatorType;
@@ -0,0 +1,22 @@
+package com.mriridescent.threatdetection.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of a batch intelligence query response: the verdict for the query at {@code index}
+ * in the request, or why it could not be answered.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IntelligenceQueryResult {
+    private int index;
+    private ThreatIntelligence intelligence;
+    private String error;
+}
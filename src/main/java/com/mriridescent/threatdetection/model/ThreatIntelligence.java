@@ -1,7 +1,9 @@
 package com.mriridescent.threatdetection.model;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -13,6 +15,8 @@ import java.util.Map;
  */
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class ThreatIntelligence {
     private String indicator;
     private IntelligenceQuery.IndicatorType indicatorType;
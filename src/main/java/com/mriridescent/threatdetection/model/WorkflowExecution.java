@@ -5,10 +5,16 @@ import lombok.Data;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Represents the execution state of a workflow.
  * Tracks the progress and status of workflow execution.
+ * Steps of one workflow may run concurrently, so {@code steps} should be a thread-safe list.
+ *
+ * Executions of the same unit of work, such as the retries of one call for a packet, share a
+ * {@code workflowKey}. An execution resumed from a failed one records its id in
+ * {@code resumedFrom} and reuses the completed steps of that attempt.
  */
 @Data
 @Builder
@@ -16,6 +22,8 @@ public class WorkflowExecution {
     
     private String workflowId;
     private String workflowName;
+    private String workflowKey;
+    private String resumedFrom;
     private WorkflowStatus status;
     private LocalDateTime startTime;
     private LocalDateTime endTime;
@@ -37,6 +45,69 @@ public class WorkflowExecution {
         steps.add(step);
     }
     
+    /**
+     * Record a step that has started running; the caller completes or fails it.
+     */
+    public WorkflowStep startStep(String stepName, String description, String idempotencyKey) {
+        WorkflowStep step = WorkflowStep.builder()
+                .stepName(stepName)
+                .description(description)
+                .idempotencyKey(idempotencyKey)
+                .timestamp(LocalDateTime.now())
+                .startNanos(System.nanoTime())
+                .status(WorkflowStepStatus.RUNNING)
+                .build();
+        steps.add(step);
+        return step;
+    }
+
+    /**
+     * Record a step that was skipped because its condition did not hold.
+     */
+    public void skipStep(String stepName, String description) {
+        WorkflowStep step = WorkflowStep.builder()
+                .stepName(stepName)
+                .description(description)
+                .timestamp(LocalDateTime.now())
+                .status(WorkflowStepStatus.SKIPPED)
+                .build();
+        steps.add(step);
+    }
+
+    /**
+     * Record a step whose result is reused from an earlier attempt of the workflow.
+     */
+    public void reuseStep(WorkflowStep checkpoint) {
+        WorkflowStep step = WorkflowStep.builder()
+                .stepName(checkpoint.getStepName())
+                .description(checkpoint.getDescription())
+                .idempotencyKey(checkpoint.getIdempotencyKey())
+                .timestamp(LocalDateTime.now())
+                .result(checkpoint.getResult())
+                .status(WorkflowStepStatus.REUSED)
+                .build();
+        steps.add(step);
+    }
+
+    /**
+     * The completed step with the given name, if this execution has one.
+     */
+    public Optional<WorkflowStep> findCheckpoint(String stepName) {
+        if (steps == null) {
+            return Optional.empty();
+        }
+        return steps.stream()
+                .filter(step -> step.getStepName().equals(stepName) && step.isCheckpoint())
+                .findFirst();
+    }
+
+    /**
+     * Whether any step of this execution completed, so a retry has work to reuse.
+     */
+    public boolean hasCheckpoints() {
+        return steps != null && steps.stream().anyMatch(WorkflowStep::isCheckpoint);
+    }
+
     /**
      * Mark the workflow as completed successfully.
      */
@@ -69,38 +140,3 @@ public class WorkflowExecution {
         return steps != null ? steps.size() : 0;
     }
 }
-
-/**
- * Workflow execution status enumeration.
- */
-enum WorkflowStatus {
-    PENDING,
-    RUNNING,
-    COMPLETED,
-    FAILED,
-    CANCELLED
-}
-
-/**
- * Individual workflow step.
- */
-@Data
-@Builder
-class WorkflowStep {
-    private String stepName;
-    private String description;
-    private LocalDateTime timestamp;
-    private WorkflowStepStatus status;
-    private String errorMessage;
-}
-
-/**
- * Workflow step status enumeration.
- */
-enum WorkflowStepStatus {
-    PENDING,
-    RUNNING,
-    COMPLETED,
-    FAILED,
-    SKIPPED
-}
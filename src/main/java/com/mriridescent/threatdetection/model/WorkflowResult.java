@@ -1,5 +1,6 @@
 package com.mriridescent.threatdetection.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Builder;
 import lombok.Data;
 
@@ -20,6 +21,12 @@ public class WorkflowResult<T> {
     private Duration executionTime;
     private ThreatAlert threatAlert;
     private RiskScore riskScore;
+
+    /**
+     * Whether the workflow failed for a transient reason, so running it again may succeed.
+     */
+    @JsonIgnore
+    private boolean retryable;
     
     /**
      * Check if the workflow completed successfully.
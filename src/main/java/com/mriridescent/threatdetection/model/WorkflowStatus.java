@@ -0,0 +1,12 @@
+package com.mriridescent.threatdetection.model;
+
+/**
+ * Workflow execution status enumeration.
+ */
+public enum WorkflowStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED
+}
@@ -0,0 +1,81 @@
+package com.mriridescent.threatdetection.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Individual workflow step.
+ * {@code timestamp} is when the step started and {@code durationMillis} how long it ran.
+ * A completed step keeps its result as a checkpoint, so a retry of the workflow can reuse it.
+ * Steps that process many items report {@code completedItems} of {@code totalItems} while running.
+ */
+@Data
+@Builder
+public class WorkflowStep {
+    private String stepName;
+    private String description;
+    private LocalDateTime timestamp;
+    private LocalDateTime endTime;
+    private Long durationMillis;
+    private WorkflowStepStatus status;
+    private String errorMessage;
+    private String idempotencyKey;
+    private Integer completedItems;
+    private Integer totalItems;
+
+    @JsonIgnore
+    private Object result;
+
+    @JsonIgnore
+    private long startNanos;
+
+    /**
+     * Mark the step as completed and record its duration.
+     */
+    public void complete() {
+        finish(WorkflowStepStatus.COMPLETED);
+    }
+
+    /**
+     * Mark the step as completed, keeping its result as a checkpoint.
+     */
+    public void complete(Object result) {
+        this.result = result;
+        finish(WorkflowStepStatus.COMPLETED);
+    }
+
+    /**
+     * Record progress of a running step.
+     */
+    public synchronized void progress(int completedItems, int totalItems) {
+        this.completedItems = completedItems;
+        this.totalItems = totalItems;
+    }
+
+    /**
+     * Whether this step finished with a result that a later attempt may reuse.
+     */
+    @JsonIgnore
+    public boolean isCheckpoint() {
+        return status == WorkflowStepStatus.COMPLETED || status == WorkflowStepStatus.REUSED;
+    }
+
+    /**
+     * Mark the step as failed and record its duration.
+     */
+    public void fail(String errorMessage) {
+        this.errorMessage = errorMessage;
+        finish(WorkflowStepStatus.FAILED);
+    }
+
+    private void finish(WorkflowStepStatus finalStatus) {
+        this.endTime = LocalDateTime.now();
+        if (startNanos != 0) {
+            this.durationMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        }
+        this.status = finalStatus;
+    }
+}
@@ -0,0 +1,14 @@
+package com.mriridescent.threatdetection.model;
+
+/**
+ * Workflow step status enumeration.
+ */
+public enum WorkflowStepStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    SKIPPED,
+    /** Completed by an earlier attempt of the workflow; its result was reused. */
+    REUSED
+}
@@ -0,0 +1,204 @@
+package com.mriridescent.threatdetection.orchestration;
+
+import com.mriridescent.threatdetection.agent.core.AgentFramework;
+import com.mriridescent.threatdetection.agent.core.AgentOverloadedException;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Key-affinity dispatch to one agent through a fixed set of serial lanes.
+ *
+ * Each submission is routed to a lane by the hash of its affinity key, such as the source IP
+ * of a packet. A lane has at most one batch in flight at the agent and dispatches queued inputs
+ * in arrival order, so inputs for the same key are processed one at a time and in order, and
+ * per-key state in the agent needs no locking. Inputs queued behind an in-flight batch are
+ * sent together as the lane's next batch.
+ */
+class AffinityLanes {
+
+    private static final Duration RETRY_AFTER = Duration.ofMillis(100);
+
+    private final AgentFramework agent;
+    private final int maxBatchSize;
+    private final int laneCapacity;
+    private final Lane[] lanes;
+
+    AffinityLanes(AgentFramework agent, int laneCount, int maxBatchSize, int laneCapacity,
+                  MeterRegistry meterRegistry) {
+        this.agent = agent;
+        this.maxBatchSize = maxBatchSize;
+        this.laneCapacity = laneCapacity;
+        this.lanes = new Lane[laneCount];
+
+        for (int i = 0; i < laneCount; i++) {
+            Lane lane = new Lane();
+            lanes[i] = lane;
+            String laneTag = Integer.toString(i);
+
+            Gauge.builder("threat_detection_agent_lane_depth", lane, Lane::depth)
+                    .description("Inputs queued in an affinity lane")
+                    .tag("agent", agent.getAgentId())
+                    .tag("lane", laneTag)
+                    .register(meterRegistry);
+
+            FunctionCounter.builder("threat_detection_agent_lane_tasks_total", lane, l -> l.dispatched.get())
+                    .description("Inputs dispatched through an affinity lane")
+                    .tag("agent", agent.getAgentId())
+                    .tag("lane", laneTag)
+                    .register(meterRegistry);
+        }
+
+        Gauge.builder("threat_detection_agent_lane_skew", this, AffinityLanes::skew)
+                .description("Busiest lane's share of dispatched inputs relative to an even spread (1.0 = balanced)")
+                .tag("agent", agent.getAgentId())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue an input on the lane for its key.
+     */
+    @SuppressWarnings("unchecked")
+    <R> CompletableFuture<R> submit(Object key, Object input, TaskPriority priority) {
+        Pending pending = new Pending(input, priority);
+        lanes[laneFor(key)].submit(pending);
+        return (CompletableFuture<R>) pending.future;
+    }
+
+    int laneFor(Object key) {
+        int h = key.hashCode();
+        // Spread the high bits so keys with similar hash codes do not pile onto one lane
+        return Math.floorMod(h ^ (h >>> 16), lanes.length);
+    }
+
+    double skew() {
+        long total = 0;
+        long max = 0;
+        for (Lane lane : lanes) {
+            long dispatched = lane.dispatched.get();
+            total += dispatched;
+            max = Math.max(max, dispatched);
+        }
+        return total == 0 ? 1.0 : (double) max * lanes.length / total;
+    }
+
+    private static final class Pending {
+        private final Object input;
+        private final TaskPriority priority;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        private Pending(Object input, TaskPriority priority) {
+            this.input = input;
+            this.priority = priority;
+        }
+    }
+
+    private final class Lane {
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        private final AtomicLong dispatched = new AtomicLong();
+        private boolean busy;
+
+        void submit(Pending pending) {
+            List<Pending> batch;
+            synchronized (this) {
+                if (queue.size() >= laneCapacity) {
+                    pending.future.completeExceptionally(new AgentOverloadedException(agent.getAgentId(),
+                            "Agent " + agent.getAgentId() + " overloaded: affinity lane full", RETRY_AFTER));
+                    return;
+                }
+                queue.addLast(pending);
+                if (busy) {
+                    return;
+                }
+                busy = true;
+                batch = takeBatch();
+            }
+            run(batch);
+        }
+
+        synchronized int depth() {
+            return queue.size();
+        }
+
+        /**
+         * Dispatch batches until one completes asynchronously; its completion resumes the loop.
+         * Looping rather than recursing keeps synchronous completions from growing the stack.
+         */
+        private void run(List<Pending> batch) {
+            while (batch != null) {
+                CompletableFuture<List<Object>> result = dispatch(batch);
+                if (!result.isDone()) {
+                    List<Pending> inFlight = batch;
+                    result.whenComplete((results, ex) -> {
+                        complete(inFlight, results, ex);
+                        run(next());
+                    });
+                    return;
+                }
+                try {
+                    complete(batch, result.join(), null);
+                } catch (CompletionException | CancellationException e) {
+                    complete(batch, null, e);
+                }
+                batch = next();
+            }
+        }
+
+        private CompletableFuture<List<Object>> dispatch(List<Pending> batch) {
+            List<Object> inputs = new ArrayList<>(batch.size());
+            TaskPriority priority = TaskPriority.LOW;
+            for (Pending pending : batch) {
+                inputs.add(pending.input);
+                if (pending.priority.compareTo(priority) < 0) {
+                    priority = pending.priority;
+                }
+            }
+            dispatched.addAndGet(batch.size());
+
+            try {
+                return agent.submitBatch(inputs, priority);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private void complete(List<Pending> batch, List<Object> results, Throwable ex) {
+            if (ex instanceof CompletionException && ex.getCause() != null) {
+                ex = ex.getCause();
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (ex != null) {
+                    batch.get(i).future.completeExceptionally(ex);
+                } else {
+                    batch.get(i).future.complete(results.get(i));
+                }
+            }
+        }
+
+        private synchronized List<Pending> next() {
+            if (queue.isEmpty()) {
+                busy = false;
+                return null;
+            }
+            return takeBatch();
+        }
+
+        private List<Pending> takeBatch() {
+            List<Pending> batch = new ArrayList<>(Math.min(queue.size(), maxBatchSize));
+            while (!queue.isEmpty() && batch.size() < maxBatchSize) {
+                batch.add(queue.pollFirst());
+            }
+            return batch;
+        }
+    }
+}
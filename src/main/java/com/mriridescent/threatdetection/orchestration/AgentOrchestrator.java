@@ -1,16 +1,35 @@
 package com.mriridescent.threatdetection.orchestration;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.mriridescent.threatdetection.agent.core.AgentFramework;
 import com.mriridescent.threatdetection.agent.core.AgentStatus;
 import com.mriridescent.threatdetection.agent.core.AgentTask;
+import com.mriridescent.threatdetection.agent.core.BoundedWindow;
+import com.mriridescent.threatdetection.agent.core.SingleFlight;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import com.mriridescent.threatdetection.model.IntelligenceQuery;
+import com.mriridescent.threatdetection.model.NetworkPacket;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.UserActivity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 /**
  * Orchestrates communication and coordination between different AI agents.
@@ -20,12 +39,70 @@ import java.util.concurrent.CompletableFuture;
 public class AgentOrchestrator {
 
     private final Map<String, AgentFramework> agents = new HashMap<>();
+    private final Map<String, Map<TaskPriority, MicroBatcher<Object, Object>>> batchers = new HashMap<>();
+    private final Map<String, AffinityLanes> shardedAgents = new HashMap<>();
+    private final Map<String, SingleFlight<Object, Object>> coalescedAgents = new HashMap<>();
+    private final ScheduledThreadPoolExecutor batchScheduler;
+    // Results of idempotent submissions by agent and key; failed submissions are removed
+    private final Cache<String, CompletableFuture<Object>> idempotentTasks;
+    private final MeterRegistry meterRegistry;
+    private final List<AlertListener> alertListeners;
 
     /**
      * Construct with all available agents in the system.
+     * Agents with {@code threat-detection.agents.<id>.batch.max-size} above one have their
+     * single submissions coalesced into micro-batches, flushed after {@code batch.linger}.
+     * Agents with {@code threat-detection.agents.<id>.sharding.lanes} set instead dispatch
+     * keyed inputs through that many serial lanes chosen by {@link #affinityKey}.
+     * Agents with {@code threat-detection.agents.<id>.coalesce} set share one in-flight task between
+     * concurrent submissions with the same {@link #coalescingKey}, such as lookups of one indicator.
+     * Results of idempotent submissions are kept for {@code threat-detection.agents.idempotency.retention}.
+     * Every input submitted and every {@link ThreatAlert} an agent returns, alone or in a list, is passed to the {@code alertListeners}.
      */
-    public AgentOrchestrator(List<AgentFramework> agentList) {
+    public AgentOrchestrator(List<AgentFramework> agentList, List<AlertListener> alertListeners,
+                             Environment environment, MeterRegistry meterRegistry) {
         agentList.forEach(agent -> agents.put(agent.getAgentId(), agent));
+        this.alertListeners = List.copyOf(alertListeners);
+        this.meterRegistry = meterRegistry;
+        this.idempotentTasks = Caffeine.newBuilder()
+                .expireAfterWrite(environment.getProperty("threat-detection.agents.idempotency.retention",
+                        Duration.class, Duration.ofMinutes(10)))
+                .maximumSize(environment.getProperty("threat-detection.agents.idempotency.max-size",
+                        Long.class, 10_000L))
+                .build();
+
+        batchScheduler = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("agent-batch-"));
+        batchScheduler.setRemoveOnCancelPolicy(true);
+
+        agents.forEach((id, agent) -> {
+            if (environment.getProperty("threat-detection.agents." + id + ".coalesce", Boolean.class, false)) {
+                coalescedAgents.put(id, new SingleFlight<>(id, meterRegistry));
+                log.info("Request coalescing enabled for agent {}", id);
+            }
+
+            String shardingPrefix = "threat-detection.agents." + id + ".sharding.";
+            int lanes = environment.getProperty(shardingPrefix + "lanes", Integer.class, 0);
+            if (lanes > 0) {
+                int maxBatchSize = environment.getProperty(shardingPrefix + "max-batch-size", Integer.class, 64);
+                int laneCapacity = environment.getProperty(shardingPrefix + "lane-capacity", Integer.class, 1000);
+                shardedAgents.put(id, new AffinityLanes(agent, lanes, maxBatchSize, laneCapacity, meterRegistry));
+                log.info("Key-affinity sharding enabled for agent {}: lanes={}", id, lanes);
+                return;
+            }
+
+            String prefix = "threat-detection.agents." + id + ".batch.";
+            int maxBatchSize = environment.getProperty(prefix + "max-size", Integer.class, 1);
+            if (maxBatchSize > 1) {
+                Duration linger = environment.getProperty(prefix + "linger", Duration.class, Duration.ofMillis(2));
+                Map<TaskPriority, MicroBatcher<Object, Object>> byPriority = new EnumMap<>(TaskPriority.class);
+                for (TaskPriority priority : TaskPriority.values()) {
+                    byPriority.put(priority, new MicroBatcher<>(agent, priority, maxBatchSize, linger, batchScheduler));
+                }
+                batchers.put(id, byPriority);
+                log.info("Micro-batching enabled for agent {}: max-size={}, linger={}", id, maxBatchSize, linger);
+            }
+        });
+
         log.info("Agent Orchestrator initialized with {} agents", agents.size());
     }
 
@@ -54,6 +131,15 @@ public class AgentOrchestrator {
         log.info("All agents stopped");
     }
 
+    /**
+     * Flush pending micro-batches and stop the linger timer.
+     */
+    @PreDestroy
+    public void shutdown() {
+        batchers.values().forEach(byPriority -> byPriority.values().forEach(MicroBatcher::flush));
+        batchScheduler.shutdown();
+    }
+
     /**
      * Get the status of all agents.
      */
@@ -64,21 +150,186 @@ public class AgentOrchestrator {
     }
 
     /**
-     * Submit a task to a specific agent.
+     * Submit a task to a specific agent at {@link TaskPriority#NORMAL} priority.
      */
     public <T, R> CompletableFuture<R> submitTask(String agentId, T input) {
-        AgentFramework agent = agents.get(agentId);
-        if (agent == null) {
-            throw new IllegalArgumentException("Unknown agent ID: " + agentId);
+        return submitTask(agentId, input, TaskPriority.NORMAL);
+    }
+
+    /**
+     * Submit a task to a specific agent at the given priority.
+     * An input the agent can {@linkplain AgentFramework#answerInline answer inline} completes at
+     * once without a task. For agents that coalesce submissions, a submission whose key matches
+     * a task already in flight joins that task, which keeps the priority it was submitted with.
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> CompletableFuture<R> submitTask(String agentId, T input, TaskPriority priority) {
+        if (!alertListeners.isEmpty()) {
+            publishInput(agentId, input);
+        }
+        Optional<R> inline = getAgent(agentId).answerInline(input);
+        if (inline.isPresent()) {
+            if (!alertListeners.isEmpty()) {
+                publishAlert(agentId, inline.get());
+            }
+            return CompletableFuture.completedFuture(inline.get());
+        }
+        SingleFlight<Object, Object> flight = coalescedAgents.get(agentId);
+        Object key = flight != null ? coalescingKey(input) : null;
+        if (key != null) {
+            return (CompletableFuture<R>) flight.execute(key, () -> dispatchAndPublish(agentId, input, priority));
+        }
+        return dispatchAndPublish(agentId, input, priority);
+    }
+
+    private <T, R> CompletableFuture<R> dispatchAndPublish(String agentId, T input, TaskPriority priority) {
+        CompletableFuture<R> result = dispatch(agentId, input, priority);
+        if (!alertListeners.isEmpty()) {
+            result.thenAccept(value -> publishAlert(agentId, value));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T, R> CompletableFuture<R> dispatch(String agentId, T input, TaskPriority priority) {
+        AgentFramework agent = getAgent(agentId);
+
+        AffinityLanes lanes = shardedAgents.get(agentId);
+        Object key = lanes != null ? affinityKey(input) : null;
+        if (key != null) {
+            return lanes.submit(key, input, priority);
+        }
+
+        Map<TaskPriority, MicroBatcher<Object, Object>> batcher = batchers.get(agentId);
+        if (batcher != null) {
+            return (CompletableFuture<R>) batcher.get(priority).submit(input);
         }
 
         AgentTask<T, R> task = new AgentTask<>();
         task.setInput(input);
+        task.setPriority(priority.getLevel());
 
-        log.debug("Submitting task to agent: {}", agentId);
+        log.debug("Submitting {} priority task to agent: {}", priority, agentId);
         return agent.submitTask(task);
     }
 
+    /**
+     * Submit a task that must take effect at most once per idempotency key, such as a response action.
+     *
+     * A submission whose key matches one to the same agent that is still running or has succeeded
+     * returns that submission's result instead of running again; a failed submission may be run
+     * again under the same key. The task keeps running if the caller stops waiting for it, so a
+     * retry picks up its result rather than carrying it out a second time.
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> CompletableFuture<R> submitTask(String agentId, T input, TaskPriority priority,
+                                                  String idempotencyKey) {
+        String key = agentId + "/" + idempotencyKey;
+        CompletableFuture<Object> submission = new CompletableFuture<>();
+        CompletableFuture<Object> existing = idempotentTasks.asMap().putIfAbsent(key, submission);
+        if (existing != null) {
+            log.debug("Reusing submission {} to agent {}", idempotencyKey, agentId);
+            Counter.builder("threat_detection_agent_duplicate_submissions_total")
+                    .description("Idempotent submissions answered by an earlier submission with the same key")
+                    .tag("agent", agentId)
+                    .register(meterRegistry)
+                    .increment();
+            // Callers get copies, so one caller giving up does not cancel the shared task
+            return (CompletableFuture<R>) existing.copy();
+        }
+
+        CompletableFuture<Object> result;
+        try {
+            result = submitTask(agentId, input, priority);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((value, ex) -> {
+            if (ex != null) {
+                idempotentTasks.asMap().remove(key, submission);
+                submission.completeExceptionally(ex);
+            } else {
+                submission.complete(value);
+            }
+        });
+        return (CompletableFuture<R>) submission.copy();
+    }
+
+    /**
+     * Submit each input to an agent as its own task, with at most {@code maxInFlight} tasks outstanding.
+     *
+     * Each input goes through {@link #submitTask(String, Object, TaskPriority)}, so inputs the agent
+     * answers inline are reported to {@code onResult} at once, on the caller's thread, while the rest
+     * are reported from completing tasks as they finish, in no particular order. The next input is
+     * submitted as soon as a task completes. Completing the returned future stops further submissions.
+     *
+     * @return Future completed once every input's result has been reported
+     */
+    public <T, R> CompletableFuture<Void> submitEach(String agentId, List<T> inputs, TaskPriority priority,
+                                                     int maxInFlight, ResultHandler<R> onResult) {
+        getAgent(agentId);
+        return new BoundedWindow<R>(inputs.size(), maxInFlight,
+                index -> submitTask(agentId, inputs.get(index), priority),
+                onResult::onResult).start();
+    }
+
+    /**
+     * Receives the result of one input of {@link #submitEach}.
+     */
+    @FunctionalInterface
+    public interface ResultHandler<R> {
+        /**
+         * @param index   Position of the input in the submitted list
+         * @param result  Result of the input, or {@code null} if it failed
+         * @param failure Why the input failed, or {@code null}
+         */
+        void onResult(int index, R result, Throwable failure);
+    }
+
+    /**
+     * Submit a batch of inputs to a specific agent as a single unit of work.
+     * The returned list holds one result per input, in input order.
+     */
+    public <T, R> CompletableFuture<List<R>> submitBatch(String agentId, List<T> inputs) {
+        AgentFramework agent = getAgent(agentId);
+
+        log.debug("Submitting batch of {} tasks to agent: {}", inputs.size(), agentId);
+        CompletableFuture<List<R>> results = agent.submitBatch(inputs);
+        if (!alertListeners.isEmpty()) {
+            inputs.forEach(input -> publishInput(agentId, input));
+            results.thenAccept(values -> values.forEach(value -> publishAlert(agentId, value)));
+        }
+        return results;
+    }
+
+    private void publishInput(String agentId, Object input) {
+        for (AlertListener listener : alertListeners) {
+            try {
+                listener.onInput(agentId, input);
+            } catch (RuntimeException e) {
+                log.warn("Alert listener {} failed: {}", listener.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+    }
+
+    private void publishAlert(String agentId, Object result) {
+        if (result instanceof Collection<?> results) {
+            // Agents analyzing a whole batch of input return its alerts as a list
+            results.forEach(value -> publishAlert(agentId, value));
+            return;
+        }
+        if (!(result instanceof ThreatAlert alert)) {
+            return;
+        }
+        for (AlertListener listener : alertListeners) {
+            try {
+                listener.onAlert(agentId, alert);
+            } catch (RuntimeException e) {
+                log.warn("Alert listener {} failed: {}", listener.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+    }
+
     /**
      * Route a task result to another agent for further processing.
      */
@@ -94,4 +345,35 @@ public class AgentOrchestrator {
             return this.<R, U>submitTask(targetAgentId, result);
         });
     }
+
+    /**
+     * Entity an input belongs to for key-affinity dispatch, or {@code null} if it has none.
+     */
+    static Object affinityKey(Object input) {
+        if (input instanceof NetworkPacket packet) {
+            return packet.getSourceIp();
+        }
+        if (input instanceof UserActivity activity) {
+            return activity.getUserId();
+        }
+        return null;
+    }
+
+    /**
+     * Identity of an input for coalescing concurrent submissions, or {@code null} if it has none.
+     */
+    static Object coalescingKey(Object input) {
+        if (input instanceof IntelligenceQuery query && query.getIndicator() != null) {
+            return query.getIndicatorType() + ":" + query.getIndicator();
+        }
+        return null;
+    }
+
+    private AgentFramework getAgent(String agentId) {
+        AgentFramework agent = agents.get(agentId);
+        if (agent == null) {
+            throw new IllegalArgumentException("Unknown agent ID: " + agentId);
+        }
+        return agent;
+    }
 }
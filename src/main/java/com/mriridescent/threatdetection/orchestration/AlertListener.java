@@ -0,0 +1,21 @@
+package com.mriridescent.threatdetection.orchestration;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+
+/**
+ * Receives every {@link ThreatAlert} an agent returns through the {@link AgentOrchestrator}
+ * and, optionally, every input submitted to an agent.
+ *
+ * Called on the thread that submitted or completed the agent's task, so implementations must
+ * be thread-safe and return quickly.
+ */
+public interface AlertListener {
+
+    void onAlert(String agentId, ThreatAlert alert);
+
+    /**
+     * Called for every input submitted to an agent, before it is processed.
+     */
+    default void onInput(String agentId, Object input) {
+    }
+}
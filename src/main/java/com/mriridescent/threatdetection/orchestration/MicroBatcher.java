@@ -0,0 +1,116 @@
+package com.mriridescent.threatdetection.orchestration;
+
+import com.mriridescent.threatdetection.agent.core.AgentFramework;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces single submissions of one priority class to one agent into micro-batches.
+ *
+ * A batch is dispatched through {@link AgentFramework#submitBatch} as soon as it reaches
+ * {@code maxBatchSize}, or {@code linger} after its first input arrived, whichever comes first.
+ * Each caller still gets its own future, completed with the result at its position in the batch.
+ */
+@Slf4j
+class MicroBatcher<T, R> {
+
+    private final AgentFramework agent;
+    private final TaskPriority priority;
+    private final int maxBatchSize;
+    private final Duration linger;
+    private final ScheduledExecutorService scheduler;
+
+    private List<T> inputs;
+    private List<CompletableFuture<R>> waiters;
+    private ScheduledFuture<?> lingerFlush;
+
+    MicroBatcher(AgentFramework agent, TaskPriority priority, int maxBatchSize, Duration linger,
+                 ScheduledExecutorService scheduler) {
+        this.agent = agent;
+        this.priority = priority;
+        this.maxBatchSize = maxBatchSize;
+        this.linger = linger;
+        this.scheduler = scheduler;
+        reset();
+    }
+
+    CompletableFuture<R> submit(T input) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        List<T> readyInputs = null;
+        List<CompletableFuture<R>> readyWaiters = null;
+
+        synchronized (this) {
+            inputs.add(input);
+            waiters.add(future);
+            if (inputs.size() >= maxBatchSize) {
+                if (lingerFlush != null) {
+                    lingerFlush.cancel(false);
+                }
+                readyInputs = inputs;
+                readyWaiters = waiters;
+                reset();
+            } else if (inputs.size() == 1) {
+                lingerFlush = scheduler.schedule(this::flush, linger.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (readyInputs != null) {
+            dispatch(readyInputs, readyWaiters);
+        }
+        return future;
+    }
+
+    /**
+     * Dispatch whatever is currently buffered.
+     */
+    void flush() {
+        List<T> readyInputs;
+        List<CompletableFuture<R>> readyWaiters;
+
+        synchronized (this) {
+            if (inputs.isEmpty()) {
+                return;
+            }
+            readyInputs = inputs;
+            readyWaiters = waiters;
+            reset();
+        }
+
+        dispatch(readyInputs, readyWaiters);
+    }
+
+    private void reset() {
+        inputs = new ArrayList<>(maxBatchSize);
+        waiters = new ArrayList<>(maxBatchSize);
+        lingerFlush = null;
+    }
+
+    private void dispatch(List<T> batch, List<CompletableFuture<R>> batchWaiters) {
+        log.debug("Dispatching micro-batch of {} tasks to agent: {}", batch.size(), agent.getAgentId());
+
+        CompletableFuture<List<R>> result;
+        try {
+            result = agent.submitBatch(batch, priority);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        result.whenComplete((results, ex) -> {
+            for (int i = 0; i < batchWaiters.size(); i++) {
+                if (ex != null) {
+                    batchWaiters.get(i).completeExceptionally(ex);
+                } else {
+                    batchWaiters.get(i).complete(results.get(i));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,197 @@
+package com.mriridescent.threatdetection.packet;
+
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.orchestration.AgentOrchestrator;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Collects NetFlow v5/v9 and IPFIX export packets on a UDP port and feeds the flows to the
+ * network-monitor agent as {@link PacketBatch}es, one entry per flow.
+ *
+ * A single thread receives datagrams into one direct buffer and decodes them with a
+ * {@link FlowDecoder} straight into the batch being filled, which is submitted when full or
+ * {@code threat-detection.flow.linger} after its first flow. Up to
+ * {@code threat-detection.flow.max-in-flight} batches are analyzed at once; beyond that the
+ * collector waits, and the socket's receive buffer absorbs bursts. Export packets are only
+ * accepted from {@code threat-detection.flow.allowed-exporters} if set, and from at most
+ * {@code threat-detection.flow.max-exporters} addresses otherwise. A datagram that fails to decode
+ * is counted as malformed and does not stop the collector. Enabled with
+ * {@code threat-detection.flow.enabled}.
+ */
+@Slf4j
+@Component
+public class FlowCollector {
+
+    private static final String PREFIX = "threat-detection.flow.";
+    private static final String AGENT_ID = "network-monitor";
+    // Largest UDP payload
+    private static final int MAX_DATAGRAM_BYTES = 65535;
+
+    private final boolean enabled;
+    private final InetSocketAddress bindAddress;
+    private final long lingerNanos;
+    private final int receiveBufferBytes;
+    private final InFlightBatches batches;
+    private final FlowDecoder decoder;
+    private final FlowDecoder.BatchSink flush;
+    private volatile DatagramChannel channel;
+    private volatile Selector selector;
+    private volatile boolean running;
+    private Thread receiver;
+
+    public FlowCollector(AgentOrchestrator orchestrator, Environment environment, MeterRegistry meterRegistry) {
+        this(environment.getProperty(PREFIX + "enabled", Boolean.class, false),
+                new InetSocketAddress(environment.getProperty(PREFIX + "bind-address", "0.0.0.0"),
+                        environment.getProperty(PREFIX + "port", Integer.class, 2055)),
+                environment.getProperty(PREFIX + "batch-size", Integer.class, 1024),
+                environment.getProperty(PREFIX + "linger", Duration.class, Duration.ofMillis(100)),
+                environment.getProperty(PREFIX + "max-in-flight", Integer.class, 8),
+                environment.getProperty(PREFIX + "receive-buffer-bytes", Integer.class, 4 << 20),
+                batch -> orchestrator.submitTask(AGENT_ID, batch, TaskPriority.NORMAL),
+                new FlowDecoder(addresses(environment.getProperty(PREFIX + "allowed-exporters", String[].class,
+                        new String[0])), environment.getProperty(PREFIX + "max-exporters", Integer.class, 256),
+                        meterRegistry));
+    }
+
+    FlowCollector(boolean enabled, InetSocketAddress bindAddress, int batchSize, Duration linger, int maxInFlight,
+                  int receiveBufferBytes, Function<PacketBatch, CompletableFuture<List<ThreatAlert>>> submitter,
+                  FlowDecoder decoder) {
+        this.enabled = enabled;
+        this.bindAddress = bindAddress;
+        this.lingerNanos = linger.toNanos();
+        this.receiveBufferBytes = receiveBufferBytes;
+        this.batches = new InFlightBatches(maxInFlight, batchSize, submitter);
+        this.decoder = decoder;
+        this.flush = batches::submit;
+    }
+
+    private static Set<InetAddress> addresses(String[] names) {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (String name : names) {
+            if (name.isBlank()) {
+                continue;
+            }
+            try {
+                addresses.add(InetAddress.getByName(name.trim()));
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Unknown flow exporter: " + name, e);
+            }
+        }
+        return addresses;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled || running) {
+            return;
+        }
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferBytes);
+        channel.bind(bindAddress);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        running = true;
+        receiver = new Thread(this::receive, "flow-collector");
+        receiver.setDaemon(true);
+        receiver.start();
+        log.info("Collecting NetFlow/IPFIX on {}", channel.getLocalAddress());
+    }
+
+    /**
+     * Stop receiving, submit the flows collected so far and wait for them to be analyzed.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        receiver.join();
+    }
+
+    /**
+     * Port the collector listens on, or -1 if it is not running.
+     */
+    public int getLocalPort() {
+        DatagramChannel current = channel;
+        try {
+            return current != null && current.isOpen()
+                    ? ((InetSocketAddress) current.getLocalAddress()).getPort() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void receive() {
+        ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_BYTES);
+        PacketBatch batch = batches.take();
+        // When the batch being filled got its first flow
+        long firstFlowAt = 0;
+        try {
+            while (running) {
+                long timeout = 0;
+                if (batch.size() > 0) {
+                    long remaining = lingerNanos - (System.nanoTime() - firstFlowAt);
+                    if (remaining <= 0) {
+                        batch = batches.submit(batch);
+                        continue;
+                    }
+                    timeout = Math.max(1, remaining / 1_000_000);
+                }
+                selector.select(timeout);
+                selector.selectedKeys().clear();
+
+                SocketAddress sender;
+                while ((sender = channel.receive(datagram.clear())) != null) {
+                    PacketBatch filling = batch;
+                    boolean wasEmpty = batch.size() == 0;
+                    batch = decoder.decode(datagram.flip(), ((InetSocketAddress) sender).getAddress(), batch, flush);
+                    if (batch.size() > 0 && (wasEmpty || batch != filling)) {
+                        firstFlowAt = System.nanoTime();
+                    }
+                }
+            }
+        } catch (ClosedChannelException | ClosedSelectorException e) {
+            // Closed while stopping
+        } catch (IOException | RuntimeException e) {
+            log.error("Flow collector stopped receiving: {}", e.toString());
+        } finally {
+            batches.submit(batch);
+            batches.awaitAll();
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close flow collector channel: {}", e.getMessage());
+            }
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,620 @@
+package com.mriridescent.threatdetection.packet;
+
+import com.mriridescent.threatdetection.intel.IpAddresses;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes NetFlow v5, NetFlow v9 and IPFIX export packets into {@link PacketBatch}es, one entry
+ * per flow with the flow's octet count as its wire length and no payload.
+ *
+ * Templates are cached per exporter and observation domain (source ID in v9), and compiled into
+ * the offsets of the fields detection reads, so a record of a fixed-length template is decoded
+ * with a handful of absolute reads and nothing is allocated per datagram or record once an
+ * exporter's templates are known. Records of templates with variable-length fields are walked
+ * field by field instead. Data for a template not yet received is dropped, as exporters resend
+ * templates periodically.
+ *
+ * Publishes per exporter: flows decoded, flows (v5, IPFIX) or export packets (v9) lost according
+ * to the sequence numbers, sets without a template, malformed datagrams and decode time.
+ * Exporters are limited to an allowlist if one is given, and to at most {@code maxExporters}
+ * otherwise, so datagrams from arbitrary or spoofed sources cannot grow the templates and meters
+ * kept per exporter; datagrams from other sources are dropped and counted.
+ * Not thread-safe: one receiving thread drives a decoder.
+ */
+final class FlowDecoder {
+
+    /**
+     * Takes a full batch and returns an empty one to continue with.
+     */
+    interface BatchSink {
+        PacketBatch flush(PacketBatch full);
+    }
+
+    // Information elements detection reads, by position in a template's offsets
+    private static final int SOURCE_IPV4 = 0;
+    private static final int DESTINATION_IPV4 = 1;
+    private static final int SOURCE_IPV6 = 2;
+    private static final int DESTINATION_IPV6 = 3;
+    private static final int SOURCE_PORT = 4;
+    private static final int DESTINATION_PORT = 5;
+    private static final int PROTOCOL = 6;
+    private static final int OCTETS = 7;
+    private static final int LAST_SWITCHED = 8;
+    private static final int END_MILLISECONDS = 9;
+    private static final int END_SECONDS = 10;
+    private static final int TCP_FLAGS = 11;
+    private static final int FIELDS = 12;
+
+    private static final int VARIABLE_LENGTH = 65535;
+    private static final int DEFAULT_MAX_EXPORTERS = 256;
+
+    private final MeterRegistry meterRegistry;
+    private final Set<InetAddress> allowedExporters;
+    private final int maxExporters;
+    private final Map<InetAddress, Exporter> exporters = new HashMap<>();
+    private final Counter notAllowed;
+    private final Counter tooManyExporters;
+    // Offsets of the fields of the record being decoded with a variable-length template
+    private final int[] recordOffsets = new int[FIELDS];
+    private final int[] recordLengths = new int[FIELDS];
+
+    // State of the datagram being decoded
+    private ByteBuffer buffer;
+    private PacketBatch batch;
+    private BatchSink sink;
+    private long exportMillis;
+    private long uptimeMillis;
+    private int decoded;
+    // Options records read, which count towards IPFIX sequence numbers but are not flows
+    private int optionRecords;
+    private boolean missingTemplate;
+
+    FlowDecoder(MeterRegistry meterRegistry) {
+        this(Set.of(), DEFAULT_MAX_EXPORTERS, meterRegistry);
+    }
+
+    /**
+     * @param allowedExporters Addresses to accept export packets from; empty for any
+     * @param maxExporters     Exporters tracked at once; later ones are refused
+     */
+    FlowDecoder(Set<InetAddress> allowedExporters, int maxExporters, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.allowedExporters = Set.copyOf(allowedExporters);
+        this.maxExporters = maxExporters;
+        this.notAllowed = refusedCounter(meterRegistry, "not_allowed");
+        this.tooManyExporters = refusedCounter(meterRegistry, "too_many_exporters");
+    }
+
+    private static Counter refusedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("threat_detection_flow_refused_total")
+                .description("Export packets dropped because their exporter is not allowed or too many are known")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Decode an export packet between the datagram's position and limit, appending its flows
+     * to {@code batch} and handing full batches to {@code sink}.
+     *
+     * @return Batch to append the next datagram's flows to
+     */
+    PacketBatch decode(ByteBuffer datagram, InetAddress address, PacketBatch batch, BatchSink sink) {
+        long started = System.nanoTime();
+        Exporter exporter = exporters.get(address);
+        if (exporter == null) {
+            if (!allowedExporters.isEmpty() && !allowedExporters.contains(address)) {
+                notAllowed.increment();
+                return batch;
+            }
+            if (exporters.size() >= maxExporters) {
+                tooManyExporters.increment();
+                return batch;
+            }
+            exporter = new Exporter(address.getHostAddress(), meterRegistry);
+            exporters.put(address, exporter);
+        }
+        this.buffer = datagram;
+        this.batch = batch;
+        this.sink = sink;
+        this.decoded = 0;
+        this.optionRecords = 0;
+        this.missingTemplate = false;
+        try {
+            int base = datagram.position();
+            int end = datagram.limit();
+            boolean valid = end - base >= 2 && switch (u16(base)) {
+                case 5 -> decodeV5(exporter, base, end);
+                case 9 -> decodeV9(exporter, base, end);
+                case 10 -> decodeIpfix(exporter, base, end);
+                default -> false;
+            };
+            if (!valid) {
+                exporter.malformed.increment();
+            }
+            return this.batch;
+        } catch (RuntimeException e) {
+            // Typically lengths that point past the datagram; flows read before them are kept, and
+            // one bad datagram never stops the collector
+            exporter.malformed.increment();
+            return this.batch;
+        } finally {
+            if (decoded > 0) {
+                exporter.flows.increment(decoded);
+            }
+            this.buffer = null;
+            this.batch = null;
+            this.sink = null;
+            exporter.decodeTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private boolean decodeV5(Exporter exporter, int base, int end) {
+        if (end - base < 24) {
+            return false;
+        }
+        int count = u16(base + 2);
+        if (base + 24 + count * 48 > end) {
+            return false;
+        }
+        uptimeMillis = u32(base + 4);
+        exportMillis = u32(base + 8) * 1000 + u32(base + 12) / 1_000_000;
+        // Engine type and ID tell apart the flow caches of one exporter
+        Domain domain = exporter.domain(u16(base + 20));
+        long sequence = u32(base + 16);
+        exporter.checkSequence(domain, sequence);
+        domain.nextSequence = (sequence + count) & 0xffff_ffffL;
+        for (int r = base + 24, last = r + count * 48; r < last; r += 48) {
+            int i = append();
+            batch.setSource(i, IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(u32(r)), u16(r + 32));
+            batch.setDestination(i, IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(u32(r + 4)), u16(r + 34));
+            batch.setProtocol(i, buffer.get(r + 38) & 0xff);
+            batch.setTcpFlags(i, buffer.get(r + 37));
+            batch.setWireLength(i, clamp(u32(r + 20)));
+            batch.setTimestamp(i, uptimeRelative(u32(r + 28)) * 1000);
+        }
+        return true;
+    }
+
+    private boolean decodeV9(Exporter exporter, int base, int end) {
+        if (end - base < 20) {
+            return false;
+        }
+        uptimeMillis = u32(base + 4);
+        exportMillis = u32(base + 8) * 1000;
+        Domain domain = exporter.domain(u32(base + 16));
+        // v9 numbers export packets rather than flows
+        long sequence = u32(base + 12);
+        exporter.checkSequence(domain, sequence);
+        domain.nextSequence = (sequence + 1) & 0xffff_ffffL;
+        return decodeSets(exporter, domain, base + 20, end, false);
+    }
+
+    private boolean decodeIpfix(Exporter exporter, int base, int end) {
+        if (end - base < 16) {
+            return false;
+        }
+        end = Math.min(end, base + u16(base + 2));
+        uptimeMillis = -1;
+        exportMillis = u32(base + 4) * 1000;
+        Domain domain = exporter.domain(u32(base + 12));
+        long sequence = u32(base + 8);
+        exporter.checkSequence(domain, sequence);
+        // IPFIX numbers data records, so the next number is only known if every set could be decoded
+        boolean valid = decodeSets(exporter, domain, base + 16, end, true);
+        domain.nextSequence = valid && !missingTemplate ? (sequence + decoded + optionRecords) & 0xffff_ffffL : -1;
+        return valid;
+    }
+
+    /**
+     * Decode the template and data sets of a v9 or IPFIX message.
+     *
+     * @return Whether every set was well-formed
+     */
+    private boolean decodeSets(Exporter exporter, Domain domain, int p, int end, boolean ipfix) {
+        boolean valid = true;
+        while (p + 4 <= end) {
+            int id = u16(p);
+            int length = u16(p + 2);
+            if (length < 4 || p + length > end) {
+                return false;
+            }
+            int body = p + 4;
+            int setEnd = p + length;
+            if (id == (ipfix ? 2 : 0)) {
+                valid &= readTemplates(domain, body, setEnd, ipfix);
+            } else if (id == (ipfix ? 3 : 1)) {
+                valid &= readOptionsTemplates(domain, body, setEnd, ipfix);
+            } else if (id >= 256) {
+                Template template = domain.template(id);
+                if (template == null) {
+                    exporter.missingTemplate.increment();
+                    missingTemplate = true;
+                } else {
+                    readRecords(template, body, setEnd);
+                }
+            }
+            p = setEnd;
+        }
+        return valid;
+    }
+
+    private boolean readTemplates(Domain domain, int p, int end, boolean ipfix) {
+        while (p + 4 <= end) {
+            int id = u16(p);
+            int count = u16(p + 2);
+            p += 4;
+            if (count == 0) {
+                // IPFIX template withdrawal
+                domain.put(id, null);
+                continue;
+            }
+            int[] ids = new int[count];
+            int[] lengths = new int[count];
+            p = readFields(p, end, ids, lengths, ipfix);
+            if (p < 0 || id < 256) {
+                return false;
+            }
+            Template template = Template.of(ids, lengths, false);
+            if (template == null) {
+                return false;
+            }
+            domain.put(id, template);
+        }
+        return true;
+    }
+
+    /**
+     * Register options templates so their data, which describes the exporter rather than
+     * traffic, is skipped.
+     */
+    private boolean readOptionsTemplates(Domain domain, int p, int end, boolean ipfix) {
+        while (p + 6 <= end) {
+            int id = u16(p);
+            // IPFIX gives the field count, v9 the byte lengths of the scope and option fields
+            int count = ipfix ? u16(p + 2) : (u16(p + 2) + u16(p + 4)) / 4;
+            p += 6;
+            int[] ids = new int[count];
+            int[] lengths = new int[count];
+            p = readFields(p, end, ids, lengths, ipfix);
+            Template template = p >= 0 && id >= 256 ? Template.of(ids, lengths, true) : null;
+            if (template == null) {
+                return false;
+            }
+            domain.put(id, template);
+        }
+        return true;
+    }
+
+    /**
+     * Read field specifiers into {@code ids} and {@code lengths}; enterprise-specific IPFIX
+     * fields get id -1.
+     *
+     * @return Offset after the fields, or -1 if they run past {@code end}
+     */
+    private int readFields(int p, int end, int[] ids, int[] lengths, boolean ipfix) {
+        for (int f = 0; f < ids.length; f++) {
+            if (p + 4 > end) {
+                return -1;
+            }
+            int id = u16(p);
+            lengths[f] = u16(p + 2);
+            p += 4;
+            if (ipfix && (id & 0x8000) != 0) {
+                id = -1;
+                p += 4;
+            }
+            ids[f] = id;
+        }
+        return p <= end ? p : -1;
+    }
+
+    private void readRecords(Template template, int p, int end) {
+        if (template.length > 0) {
+            for (; p + template.length <= end; p += template.length) {
+                readRecord(template, p, template.offsets, template.lengths);
+            }
+            return;
+        }
+        // Variable-length fields: locate the fields of each record in turn; what is left is padding
+        int[] ids = template.ids;
+        int[] lengths = template.fieldLengths;
+        while (p < end) {
+            Arrays.fill(recordOffsets, -1);
+            int q = p;
+            for (int f = 0; f < ids.length; f++) {
+                int length = lengths[f];
+                if (length == VARIABLE_LENGTH) {
+                    if (q + 1 > end) {
+                        return;
+                    }
+                    length = buffer.get(q++) & 0xff;
+                    if (length == 255) {
+                        if (q + 2 > end) {
+                            return;
+                        }
+                        length = u16(q);
+                        q += 2;
+                    }
+                }
+                // Fields with a length their element cannot have are not read, as in fixed-length templates
+                int field = Template.field(ids[f]);
+                if (field >= 0 && Template.validLength(field, length)) {
+                    recordOffsets[field] = q - p;
+                    recordLengths[field] = length;
+                }
+                q += length;
+            }
+            if (q > end || q == p) {
+                return;
+            }
+            readRecord(template, p, recordOffsets, recordLengths);
+            p = q;
+        }
+    }
+
+    private void readRecord(Template template, int p, int[] offsets, int[] lengths) {
+        if (template.options) {
+            optionRecords++;
+            return;
+        }
+        int i = append();
+        int sourcePort = offsets[SOURCE_PORT] >= 0 ? u16(p + offsets[SOURCE_PORT]) : 0;
+        int destinationPort = offsets[DESTINATION_PORT] >= 0 ? u16(p + offsets[DESTINATION_PORT]) : 0;
+        if (offsets[SOURCE_IPV4] >= 0) {
+            batch.setSource(i, IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(u32(p + offsets[SOURCE_IPV4])), sourcePort);
+        } else if (offsets[SOURCE_IPV6] >= 0) {
+            batch.setSource(i, u64(p + offsets[SOURCE_IPV6]), u64(p + offsets[SOURCE_IPV6] + 8), sourcePort);
+        } else {
+            batch.setSource(i, 0, 0, sourcePort);
+        }
+        if (offsets[DESTINATION_IPV4] >= 0) {
+            batch.setDestination(i, IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(u32(p + offsets[DESTINATION_IPV4])), destinationPort);
+        } else if (offsets[DESTINATION_IPV6] >= 0) {
+            batch.setDestination(i, u64(p + offsets[DESTINATION_IPV6]), u64(p + offsets[DESTINATION_IPV6] + 8), destinationPort);
+        } else {
+            batch.setDestination(i, 0, 0, destinationPort);
+        }
+        if (offsets[PROTOCOL] >= 0) {
+            batch.setProtocol(i, buffer.get(p + offsets[PROTOCOL]) & 0xff);
+        }
+        if (offsets[TCP_FLAGS] >= 0) {
+            // The flags are the low byte of tcpControlBits, whatever its length
+            batch.setTcpFlags(i, buffer.get(p + offsets[TCP_FLAGS] + lengths[TCP_FLAGS] - 1));
+        }
+        if (offsets[OCTETS] >= 0) {
+            batch.setWireLength(i, clamp(unsigned(p + offsets[OCTETS], lengths[OCTETS])));
+        }
+        long millis = exportMillis;
+        if (offsets[END_MILLISECONDS] >= 0) {
+            millis = u64(p + offsets[END_MILLISECONDS]);
+        } else if (offsets[END_SECONDS] >= 0) {
+            millis = u32(p + offsets[END_SECONDS]) * 1000;
+        } else if (offsets[LAST_SWITCHED] >= 0 && uptimeMillis >= 0) {
+            millis = uptimeRelative(u32(p + offsets[LAST_SWITCHED]));
+        }
+        batch.setTimestamp(i, millis * 1000);
+    }
+
+    private int append() {
+        int i = batch.append();
+        if (i < 0) {
+            batch = sink.flush(batch);
+            i = batch.append();
+        }
+        decoded++;
+        return i;
+    }
+
+    /**
+     * Epoch milliseconds of a time given in milliseconds of exporter uptime.
+     */
+    private long uptimeRelative(long uptime) {
+        return exportMillis - ((uptimeMillis - uptime) & 0xffff_ffffL);
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+
+    private int u16(int p) {
+        return buffer.getShort(p) & 0xffff;
+    }
+
+    private long u32(int p) {
+        return buffer.getInt(p) & 0xffff_ffffL;
+    }
+
+    private long u64(int p) {
+        return buffer.getLong(p);
+    }
+
+    private long unsigned(int p, int length) {
+        long value = 0;
+        for (int b = 0; b < length; b++) {
+            value = value << 8 | buffer.get(p + b) & 0xff;
+        }
+        return value < 0 ? Long.MAX_VALUE : value;
+    }
+
+    /**
+     * Template compiled to the offsets within a record of the fields detection reads.
+     */
+    private static final class Template {
+
+        final boolean options;
+        // Record length, or 0 if a field has variable length
+        final int length;
+        final int[] offsets = new int[FIELDS];
+        final int[] lengths = new int[FIELDS];
+        final int[] ids;
+        final int[] fieldLengths;
+
+        private Template(boolean options, int length, int[] ids, int[] fieldLengths) {
+            this.options = options;
+            this.length = length;
+            this.ids = ids;
+            this.fieldLengths = fieldLengths;
+            Arrays.fill(offsets, -1);
+        }
+
+        /**
+         * @return The template, or {@code null} if a field has a length its element cannot have
+         */
+        static Template of(int[] ids, int[] fieldLengths, boolean options) {
+            int length = 0;
+            for (int fieldLength : fieldLengths) {
+                if (fieldLength == VARIABLE_LENGTH) {
+                    length = -1;
+                    break;
+                }
+                length += fieldLength;
+            }
+            Template template = new Template(options, Math.max(length, 0), ids, fieldLengths);
+            int offset = 0;
+            for (int f = 0; f < ids.length; f++) {
+                int field = field(ids[f]);
+                int fieldLength = fieldLengths[f];
+                if (field >= 0 && fieldLength != VARIABLE_LENGTH && !options) {
+                    if (!validLength(field, fieldLength)) {
+                        return null;
+                    }
+                    template.offsets[field] = offset;
+                    template.lengths[field] = fieldLength;
+                }
+                offset += fieldLength;
+            }
+            return template.length > 0 || length < 0 ? template : null;
+        }
+
+        /**
+         * Position in the offsets of an information element detection reads, or -1.
+         */
+        static int field(int id) {
+            return switch (id) {
+                case 8 -> SOURCE_IPV4;
+                case 12 -> DESTINATION_IPV4;
+                case 27 -> SOURCE_IPV6;
+                case 28 -> DESTINATION_IPV6;
+                case 7 -> SOURCE_PORT;
+                case 11 -> DESTINATION_PORT;
+                case 4 -> PROTOCOL;
+                case 1 -> OCTETS;
+                case 21 -> LAST_SWITCHED;
+                case 153 -> END_MILLISECONDS;
+                case 151 -> END_SECONDS;
+                case 6 -> TCP_FLAGS;
+                default -> -1;
+            };
+        }
+
+        private static boolean validLength(int field, int length) {
+            return switch (field) {
+                case SOURCE_IPV4, DESTINATION_IPV4, LAST_SWITCHED, END_SECONDS -> length == 4;
+                case SOURCE_IPV6, DESTINATION_IPV6 -> length == 16;
+                case SOURCE_PORT, DESTINATION_PORT -> length == 2;
+                case PROTOCOL -> length == 1;
+                case TCP_FLAGS -> length == 1 || length == 2;
+                case END_MILLISECONDS -> length == 8;
+                default -> length >= 1 && length <= 8;
+            };
+        }
+    }
+
+    /**
+     * Templates and sequence numbers of one observation domain of an exporter.
+     */
+    private static final class Domain {
+        final long id;
+        // By template ID - 256, grown to the highest ID seen
+        Template[] templates = new Template[16];
+        // Expected next sequence number, or -1 if unknown
+        long nextSequence = -1;
+
+        Domain(long id) {
+            this.id = id;
+        }
+
+        Template template(int id) {
+            int slot = id - 256;
+            return slot < templates.length ? templates[slot] : null;
+        }
+
+        void put(int id, Template template) {
+            int slot = id - 256;
+            if (slot < 0) {
+                return;
+            }
+            if (slot >= templates.length) {
+                templates = Arrays.copyOf(templates, Math.max(slot + 1, templates.length * 2));
+            }
+            templates[slot] = template;
+        }
+    }
+
+    private static final class Exporter {
+        final Counter flows;
+        final Counter lost;
+        final Counter missingTemplate;
+        final Counter malformed;
+        final Timer decodeTime;
+        Domain[] domains = new Domain[0];
+
+        Exporter(String name, MeterRegistry meterRegistry) {
+            flows = Counter.builder("threat_detection_flow_records_total")
+                    .description("Flow records decoded")
+                    .tag("exporter", name)
+                    .register(meterRegistry);
+            lost = Counter.builder("threat_detection_flow_lost_total")
+                    .description("Flow records (v5, IPFIX) or export packets (v9) missing from the exporter's sequence numbers")
+                    .tag("exporter", name)
+                    .register(meterRegistry);
+            missingTemplate = Counter.builder("threat_detection_flow_sets_without_template_total")
+                    .description("Data sets dropped because their template has not been received")
+                    .tag("exporter", name)
+                    .register(meterRegistry);
+            malformed = Counter.builder("threat_detection_flow_malformed_total")
+                    .description("Export packets that could not be decoded")
+                    .tag("exporter", name)
+                    .register(meterRegistry);
+            decodeTime = Timer.builder("threat_detection_flow_decode_seconds")
+                    .description("Time to decode an export packet")
+                    .tag("exporter", name)
+                    .register(meterRegistry);
+        }
+
+        Domain domain(long id) {
+            for (Domain domain : domains) {
+                if (domain.id == id) {
+                    return domain;
+                }
+            }
+            Domain domain = new Domain(id);
+            domains = Arrays.copyOf(domains, domains.length + 1);
+            domains[domains.length - 1] = domain;
+            return domain;
+        }
+
+        /**
+         * Count what was lost between the expected and the received sequence number. Numbers
+         * behind the expected one are taken for reordering or an exporter restart.
+         */
+        void checkSequence(Domain domain, long sequence) {
+            if (domain.nextSequence >= 0) {
+                long gap = (sequence - domain.nextSequence) & 0xffff_ffffL;
+                if (gap > 0 && gap < 1L << 31) {
+                    lost.increment(gap);
+                }
+            }
+        }
+    }
+}
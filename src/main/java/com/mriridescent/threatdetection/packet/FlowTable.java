@@ -0,0 +1,554 @@
+package com.mriridescent.threatdetection.packet;
+
+import java.util.Arrays;
+
+/**
+ * Per-flow state for connection-level detection, keyed on the 5-tuple of source and destination
+ * address and port and protocol, in a fixed amount of memory.
+ *
+ * Flows are entries in primitive columns, identified by an int that stays the same while the
+ * flow is tracked: packet and byte counts, first and last packet times, the running mean and
+ * variance of inter-arrival times, and the OR of the TCP flags seen. They are found through an
+ * open-addressing index of longs, each holding a key hash and an entry number, so lookups box
+ * nothing and compare the stored hash before touching the entry. Deletion shifts later entries
+ * of a probe run back rather than leaving tombstones.
+ *
+ * A flow completes when it has been idle for the idle timeout, when a TCP FIN or RST is seen, or
+ * when the table is full and a new flow needs its entry, in which case the flow closest to
+ * expiring goes first. Idle flows are found with a timer wheel of one-tick buckets driven
+ * through {@link #advance}, by packet time or by the wall clock: a flow is linked into the
+ * bucket of the tick it would expire at, and is only moved, to a later bucket, if it turns out
+ * to have seen packets since when the bucket comes due, so updates never touch the wheel.
+ *
+ * A {@link Listener} is told of every update and completion. A table is not thread-safe.
+ */
+public final class FlowTable {
+
+    /**
+     * Detection run on flow updates and completions; flow numbers are only valid during the call.
+     */
+    public interface Listener {
+
+        /**
+         * A packet of a batch was added to a flow.
+         */
+        default void onUpdate(FlowTable flows, int flow, PacketBatch packets, int packet) {
+        }
+
+        /**
+         * A flow is about to be removed from the table.
+         */
+        default void onComplete(FlowTable flows, int flow) {
+        }
+    }
+
+    public static final int TCP_FIN = 0x01;
+    public static final int TCP_SYN = 0x02;
+    public static final int TCP_RST = 0x04;
+    public static final int TCP_ACK = 0x10;
+
+    // Rough bytes held per flow, including its share of the index
+    public static final int BYTES_PER_FLOW = 10 * 8 + 6 * 4 + 3 + 2 * 8;
+
+    private static final Listener NO_LISTENER = new Listener() {
+    };
+
+    private final int maxFlows;
+    private final long idleTimeoutMicros;
+    private final long tickMicros;
+
+    // Index: key hash in the upper 32 bits, entry + 1 in the lower; 0 for a free slot
+    private final long[] index;
+    private final int indexMask;
+
+    // Entry columns
+    private final long[] sourceHigh;
+    private final long[] sourceLow;
+    private final long[] destinationHigh;
+    private final long[] destinationLow;
+    private final int[] ports;
+    private final byte[] protocols;
+    private final int[] hashes;
+    private final long[] packets;
+    private final long[] bytes;
+    private final long[] firstSeen;
+    private final long[] lastSeen;
+    // Welford's running mean and sum of squared deviations of the inter-arrival times
+    private final double[] gapMean;
+    private final double[] gapSquares;
+    private final int[] gaps;
+    private final byte[] tcpFlags;
+    private final byte[] marks;
+
+    // Timer wheel: doubly linked lists of entries per bucket
+    private final int[] bucketHeads;
+    private final int bucketMask;
+    private final int[] next;
+    private final int[] previous;
+    private final int[] bucket;
+    private long currentTick = Long.MIN_VALUE;
+
+    // Unused entries, linked through next
+    private int freeHead;
+    private int size;
+    private long completed;
+    private long evicted;
+
+    /**
+     * @param maxFlows    Flows tracked at once
+     * @param idleTimeoutMicros Time without packets after which a flow completes
+     * @param tickMicros  Resolution of idle expiry
+     */
+    public FlowTable(int maxFlows, long idleTimeoutMicros, long tickMicros) {
+        if (maxFlows < 1 || maxFlows > 1 << 29) {
+            throw new IllegalArgumentException("maxFlows must be between 1 and 2^29");
+        }
+        if (tickMicros < 1 || idleTimeoutMicros < tickMicros) {
+            throw new IllegalArgumentException("idle timeout must be at least one tick");
+        }
+        this.maxFlows = maxFlows;
+        this.idleTimeoutMicros = idleTimeoutMicros;
+        this.tickMicros = tickMicros;
+
+        // At most half full, so probe runs stay short
+        this.index = new long[Integer.highestOneBit(maxFlows * 2 - 1) << 1];
+        this.indexMask = index.length - 1;
+
+        this.sourceHigh = new long[maxFlows];
+        this.sourceLow = new long[maxFlows];
+        this.destinationHigh = new long[maxFlows];
+        this.destinationLow = new long[maxFlows];
+        this.ports = new int[maxFlows];
+        this.protocols = new byte[maxFlows];
+        this.hashes = new int[maxFlows];
+        this.packets = new long[maxFlows];
+        this.bytes = new long[maxFlows];
+        this.firstSeen = new long[maxFlows];
+        this.lastSeen = new long[maxFlows];
+        this.gapMean = new double[maxFlows];
+        this.gapSquares = new double[maxFlows];
+        this.gaps = new int[maxFlows];
+        this.tcpFlags = new byte[maxFlows];
+        this.marks = new byte[maxFlows];
+
+        // Enough buckets that a flow's expiry tick is always less than a turn of the wheel away
+        long ticks = idleTimeoutMicros / tickMicros + 2;
+        if (ticks > 1 << 24) {
+            throw new IllegalArgumentException("idle timeout spans too many ticks: " + ticks);
+        }
+        this.bucketHeads = new int[Integer.highestOneBit((int) ticks - 1) << 1];
+        Arrays.fill(bucketHeads, -1);
+        this.bucketMask = bucketHeads.length - 1;
+        this.next = new int[maxFlows];
+        this.previous = new int[maxFlows];
+        this.bucket = new int[maxFlows];
+        for (int e = 0; e < maxFlows; e++) {
+            next[e] = e + 1 < maxFlows ? e + 1 : -1;
+        }
+        this.freeHead = 0;
+    }
+
+    /**
+     * Add the packets of a batch to their flows. Idle flows are only completed by {@link #advance}.
+     *
+     * @param nowMicros Time for packets without a timestamp
+     * @return Latest packet time, or {@link Long#MIN_VALUE} for an empty batch
+     */
+    public long update(PacketBatch packets, long nowMicros, Listener listener) {
+        long latest = Long.MIN_VALUE;
+        for (int i = 0; i < packets.size(); i++) {
+            latest = Math.max(latest, add(packets, i, nowMicros, listener != null ? listener : NO_LISTENER));
+        }
+        return latest;
+    }
+
+    /**
+     * Add the packets of a batch numbered {@code order[from]} to {@code order[to - 1]}, such as
+     * those of one shard of the flows.
+     *
+     * @return Latest packet time, or {@link Long#MIN_VALUE} for none
+     */
+    public long update(PacketBatch packets, int[] order, int from, int to, long nowMicros, Listener listener) {
+        long latest = Long.MIN_VALUE;
+        for (int n = from; n < to; n++) {
+            latest = Math.max(latest, add(packets, order[n], nowMicros, listener != null ? listener : NO_LISTENER));
+        }
+        return latest;
+    }
+
+    /**
+     * Complete the flows that have been idle for the idle timeout at {@code nowMicros}.
+     */
+    public void advance(long nowMicros, Listener listener) {
+        if (listener == null) {
+            listener = NO_LISTENER;
+        }
+        long target = Math.floorDiv(nowMicros, tickMicros);
+        if (currentTick == Long.MIN_VALUE) {
+            currentTick = target;
+            return;
+        }
+        if (target <= currentTick) {
+            return;
+        }
+        if (target - currentTick >= bucketHeads.length) {
+            // More than a turn behind: every bucket is looked at once, as of the target tick
+            currentTick = target;
+            for (int b = 0; b < bucketHeads.length; b++) {
+                expireBucket(b, target, listener);
+            }
+            return;
+        }
+        while (currentTick < target) {
+            currentTick++;
+            expireBucket((int) (currentTick & bucketMask), currentTick, listener);
+        }
+    }
+
+    /**
+     * Complete every flow, e.g. at the end of a capture.
+     */
+    public void completeAll(Listener listener) {
+        if (listener == null) {
+            listener = NO_LISTENER;
+        }
+        for (int b = 0; b < bucketHeads.length; b++) {
+            while (bucketHeads[b] >= 0) {
+                complete(bucketHeads[b], listener);
+            }
+        }
+    }
+
+    /**
+     * Flow with the given 5-tuple, or -1 if it is not tracked; e.g. to find the reverse direction.
+     */
+    public int find(long sourceHigh, long sourceLow, long destinationHigh, long destinationLow,
+                    int sourcePort, int destinationPort, int protocol) {
+        int packedPorts = sourcePort << 16 | destinationPort;
+        int hash = hash(sourceHigh, sourceLow, destinationHigh, destinationLow, packedPorts, protocol);
+        int slot = find(hash, sourceHigh, sourceLow, destinationHigh, destinationLow, packedPorts, protocol);
+        return slot >= 0 ? (int) index[slot] - 1 : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return maxFlows;
+    }
+
+    /**
+     * Flows completed so far, including evicted ones.
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Flows completed early to make room for new ones.
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    public long sourceHigh(int flow) {
+        return sourceHigh[flow];
+    }
+
+    public long sourceLow(int flow) {
+        return sourceLow[flow];
+    }
+
+    public int sourcePort(int flow) {
+        return ports[flow] >>> 16;
+    }
+
+    public long destinationHigh(int flow) {
+        return destinationHigh[flow];
+    }
+
+    public long destinationLow(int flow) {
+        return destinationLow[flow];
+    }
+
+    public int destinationPort(int flow) {
+        return ports[flow] & 0xffff;
+    }
+
+    public int protocol(int flow) {
+        return protocols[flow] & 0xff;
+    }
+
+    public long packets(int flow) {
+        return packets[flow];
+    }
+
+    public long bytes(int flow) {
+        return bytes[flow];
+    }
+
+    public long firstSeen(int flow) {
+        return firstSeen[flow];
+    }
+
+    public long lastSeen(int flow) {
+        return lastSeen[flow];
+    }
+
+    /**
+     * Times between the flow's packets counted in {@link #meanInterArrival}.
+     */
+    public int interArrivals(int flow) {
+        return gaps[flow];
+    }
+
+    /**
+     * Mean time between the flow's packets in microseconds, or 0 before its second packet.
+     */
+    public double meanInterArrival(int flow) {
+        return gapMean[flow];
+    }
+
+    /**
+     * Standard deviation of the time between the flow's packets in microseconds.
+     */
+    public double interArrivalDeviation(int flow) {
+        return gaps[flow] > 1 ? Math.sqrt(gapSquares[flow] / gaps[flow]) : 0;
+    }
+
+    /**
+     * TCP flags seen on any packet of the flow.
+     */
+    public int tcpFlags(int flow) {
+        return tcpFlags[flow] & 0xff;
+    }
+
+    /**
+     * Whether a listener set {@code mark}, one of 8 bits, on the flow, e.g. to report it once.
+     */
+    public boolean isMarked(int flow, int mark) {
+        return (marks[flow] & mark) != 0;
+    }
+
+    public void mark(int flow, int mark) {
+        marks[flow] |= (byte) mark;
+    }
+
+    /**
+     * Add one packet to its flow, completing the flow on a TCP FIN or RST.
+     *
+     * @return Time of the packet
+     */
+    private long add(PacketBatch packets, int i, long nowMicros, Listener listener) {
+        long time = time(packets, i, nowMicros);
+        if (currentTick == Long.MIN_VALUE) {
+            // The wheel starts at the first packet's time
+            currentTick = Math.floorDiv(time, tickMicros);
+        }
+        int flow = update(packets.sourceHigh(i), packets.sourceLow(i), packets.destinationHigh(i),
+                packets.destinationLow(i), packets.sourcePort(i) << 16 | packets.destinationPort(i),
+                packets.protocol(i), packets.wireLength(i), packets.tcpFlags(i), time, listener);
+        listener.onUpdate(this, flow, packets, i);
+        if (protocols[flow] == NetworkPackets.TCP && (tcpFlags[flow] & (TCP_FIN | TCP_RST)) != 0) {
+            complete(flow, listener);
+        }
+        return time;
+    }
+
+    private int update(long sh, long sl, long dh, long dl, int packedPorts, int protocol, int length, int flags,
+                       long time, Listener listener) {
+        int hash = hash(sh, sl, dh, dl, packedPorts, protocol);
+        int slot = find(hash, sh, sl, dh, dl, packedPorts, protocol);
+        int flow;
+        if (slot >= 0) {
+            flow = (int) index[slot] - 1;
+            long gap = time - lastSeen[flow];
+            if (gap >= 0) {
+                // Packets out of order add to the counts but not to the timing
+                int n = ++gaps[flow];
+                double delta = gap - gapMean[flow];
+                gapMean[flow] += delta / n;
+                gapSquares[flow] += delta * (gap - gapMean[flow]);
+                lastSeen[flow] = time;
+            }
+        } else {
+            if (size == maxFlows) {
+                evict(listener);
+            }
+            flow = insert(hash, sh, sl, dh, dl, packedPorts, protocol, time);
+        }
+        packets[flow]++;
+        bytes[flow] += length;
+        tcpFlags[flow] |= (byte) flags;
+        return flow;
+    }
+
+    /**
+     * Index slot of the key, or -1.
+     */
+    private int find(int hash, long sh, long sl, long dh, long dl, int packedPorts, int protocol) {
+        for (int slot = hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            long value = index[slot];
+            if (value == 0) {
+                return -1;
+            }
+            if ((int) (value >>> 32) == hash) {
+                int e = (int) value - 1;
+                if (sourceLow[e] == sl && destinationLow[e] == dl && ports[e] == packedPorts
+                        && sourceHigh[e] == sh && destinationHigh[e] == dh && (protocols[e] & 0xff) == protocol) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private int insert(int hash, long sh, long sl, long dh, long dl, int packedPorts, int protocol, long time) {
+        int flow = freeHead;
+        freeHead = next[flow];
+        size++;
+
+        sourceHigh[flow] = sh;
+        sourceLow[flow] = sl;
+        destinationHigh[flow] = dh;
+        destinationLow[flow] = dl;
+        ports[flow] = packedPorts;
+        protocols[flow] = (byte) protocol;
+        hashes[flow] = hash;
+        packets[flow] = 0;
+        bytes[flow] = 0;
+        firstSeen[flow] = time;
+        lastSeen[flow] = time;
+        gapMean[flow] = 0;
+        gapSquares[flow] = 0;
+        gaps[flow] = 0;
+        tcpFlags[flow] = 0;
+        marks[flow] = 0;
+
+        int slot = hash & indexMask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index[slot] = (long) hash << 32 | (flow + 1L);
+        link(flow, expiryTick(flow));
+        return flow;
+    }
+
+    private void complete(int flow, Listener listener) {
+        listener.onComplete(this, flow);
+        completed++;
+        unlink(flow);
+        removeFromIndex(flow);
+        next[flow] = freeHead;
+        freeHead = flow;
+        size--;
+    }
+
+    /**
+     * Complete the flow in the first non-empty bucket from the current tick on, the one closest
+     * to expiring.
+     */
+    private void evict(Listener listener) {
+        for (int k = 1; k <= bucketHeads.length; k++) {
+            int head = bucketHeads[(int) ((currentTick + k) & bucketMask)];
+            if (head >= 0) {
+                evicted++;
+                complete(head, listener);
+                return;
+            }
+        }
+        throw new IllegalStateException("Flow table is full but no flow is scheduled to expire");
+    }
+
+    private void expireBucket(int b, long tick, Listener listener) {
+        // Detach the list, so flows moved back into this bucket are not visited again
+        int flow = bucketHeads[b];
+        bucketHeads[b] = -1;
+        while (flow >= 0) {
+            int following = next[flow];
+            if (Math.floorDiv(lastSeen[flow] + idleTimeoutMicros, tickMicros) <= tick) {
+                // Completing unlinks from the bucket, which must hold the flow again for that
+                bucket[flow] = b;
+                previous[flow] = -1;
+                next[flow] = bucketHeads[b];
+                if (bucketHeads[b] >= 0) {
+                    previous[bucketHeads[b]] = flow;
+                }
+                bucketHeads[b] = flow;
+                complete(flow, listener);
+            } else {
+                link(flow, expiryTick(flow));
+            }
+            flow = following;
+        }
+    }
+
+    /**
+     * Tick of the bucket to link a flow into.
+     */
+    private long expiryTick(int flow) {
+        long expiry = Math.floorDiv(lastSeen[flow] + idleTimeoutMicros, tickMicros);
+        // Within one turn of the wheel, whatever the packet time
+        return Math.max(currentTick + 1, Math.min(expiry, currentTick + bucketHeads.length - 1));
+    }
+
+    private void link(int flow, long tick) {
+        int b = (int) (tick & bucketMask);
+        bucket[flow] = b;
+        previous[flow] = -1;
+        next[flow] = bucketHeads[b];
+        if (bucketHeads[b] >= 0) {
+            previous[bucketHeads[b]] = flow;
+        }
+        bucketHeads[b] = flow;
+    }
+
+    private void unlink(int flow) {
+        int before = previous[flow];
+        int after = next[flow];
+        if (before >= 0) {
+            next[before] = after;
+        } else {
+            bucketHeads[bucket[flow]] = after;
+        }
+        if (after >= 0) {
+            previous[after] = before;
+        }
+    }
+
+    /**
+     * Remove a flow's index slot, shifting back later entries of its probe run that would no
+     * longer be reachable from their home slot.
+     */
+    private void removeFromIndex(int flow) {
+        int slot = hashes[flow] & indexMask;
+        while ((int) index[slot] - 1 != flow) {
+            slot = (slot + 1) & indexMask;
+        }
+        int hole = slot;
+        for (int j = (hole + 1) & indexMask; index[j] != 0; j = (j + 1) & indexMask) {
+            int home = (int) (index[j] >>> 32) & indexMask;
+            // Move the entry into the hole unless its home lies cyclically in (hole, j]
+            boolean reachable = hole <= j ? home > hole && home <= j : home > hole || home <= j;
+            if (!reachable) {
+                index[hole] = index[j];
+                hole = j;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private static long time(PacketBatch packets, int i, long nowMicros) {
+        long time = packets.timestamp(i);
+        return time != PacketBatch.NO_TIMESTAMP ? time : nowMicros;
+    }
+
+    private static int hash(long sh, long sl, long dh, long dl, int packedPorts, int protocol) {
+        long h = sl * 0x9e3779b97f4a7c15L;
+        h = (h ^ dl) * 0xc2b2ae3d27d4eb4fL;
+        h = (h ^ sh) * 0x9e3779b97f4a7c15L;
+        h = (h ^ dh) * 0xc2b2ae3d27d4eb4fL;
+        h = (h ^ ((long) packedPorts << 8 | protocol)) * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ h >>> 32);
+    }
+}
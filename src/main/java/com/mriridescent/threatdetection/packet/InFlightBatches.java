@@ -0,0 +1,124 @@
+package com.mriridescent.threatdetection.packet;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Fixed set of {@link PacketBatch}es cycled between a producer filling them and the tasks
+ * analyzing them, with at most {@code maxInFlight} submitted at once.
+ *
+ * A producer fills the batch from {@link #take()} and hands it to {@link #submit}, which returns
+ * the next empty batch, waiting for the oldest submission once all are in flight; a batch is only
+ * refilled after its task has finished with it. Batches are made {@linkplain PacketBatch#over over}
+ * an external buffer. Not thread-safe: one producer drives it.
+ */
+@Slf4j
+final class InFlightBatches {
+
+    private final Function<PacketBatch, CompletableFuture<List<ThreatAlert>>> submitter;
+    private final int capacity;
+    private final ArrayDeque<PacketBatch> free;
+    private final ArrayDeque<Submission> inFlight;
+    private long alerts;
+    private long failedBatches;
+
+    InFlightBatches(int maxInFlight, int capacity,
+                    Function<PacketBatch, CompletableFuture<List<ThreatAlert>>> submitter) {
+        this.submitter = submitter;
+        this.capacity = capacity;
+        this.free = new ArrayDeque<>(maxInFlight);
+        this.inFlight = new ArrayDeque<>(maxInFlight);
+        // One more than may be in flight, for the producer to fill
+        for (int i = 0; i <= Math.max(1, maxInFlight); i++) {
+            free.add(newBatch());
+        }
+    }
+
+    /**
+     * Empty batch to fill, waiting for the oldest submission if none is free.
+     */
+    PacketBatch take() {
+        PacketBatch batch = free.isEmpty() ? await(inFlight.poll()) : free.poll();
+        batch.clear();
+        return batch;
+    }
+
+    /**
+     * Submit a filled batch, or keep an empty one.
+     *
+     * @return Empty batch to fill next
+     */
+    PacketBatch submit(PacketBatch batch) {
+        if (batch.size() == 0) {
+            return batch;
+        }
+        CompletableFuture<List<ThreatAlert>> result;
+        try {
+            result = submitter.apply(batch);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        inFlight.add(new Submission(batch, result));
+        return take();
+    }
+
+    /**
+     * Wait for every submitted batch to be analyzed.
+     */
+    void awaitAll() {
+        while (!inFlight.isEmpty()) {
+            free.add(await(inFlight.poll()));
+        }
+    }
+
+    /**
+     * Alerts raised on the batches finished so far.
+     */
+    long getAlerts() {
+        return alerts;
+    }
+
+    long getFailedBatches() {
+        return failedBatches;
+    }
+
+    private PacketBatch newBatch() {
+        return PacketBatch.over(ByteBuffer.allocate(0), capacity);
+    }
+
+    /**
+     * Wait for a submitted batch and count its alerts.
+     *
+     * @return The batch, free to be refilled
+     */
+    private PacketBatch await(Submission submission) {
+        try {
+            List<ThreatAlert> found = submission.result.join();
+            alerts += found != null ? found.size() : 0;
+        } catch (CompletionException | CancellationException e) {
+            failedBatches++;
+            log.warn("Batch of {} packets failed: {}", submission.batch.size(), e.getMessage());
+            // A batch that timed out may still be being analyzed, so it is not refilled
+            return newBatch();
+        }
+        return submission.batch;
+    }
+
+    private static final class Submission {
+        final PacketBatch batch;
+        final CompletableFuture<List<ThreatAlert>> result;
+
+        Submission(PacketBatch batch, CompletableFuture<List<ThreatAlert>> result) {
+            this.batch = batch;
+            this.result = result;
+        }
+    }
+}
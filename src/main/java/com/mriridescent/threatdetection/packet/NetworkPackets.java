@@ -0,0 +1,191 @@
+package com.mriridescent.threatdetection.packet;
+
+import com.mriridescent.threatdetection.intel.IpAddresses;
+import com.mriridescent.threatdetection.model.NetworkPacket;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Converts between the {@link NetworkPacket} JSON DTO and {@link PacketBatch} columns.
+ *
+ * The DTO is what the REST API and workflows exchange; detection runs on batches. Converting
+ * parses the addresses and encodes the text payload as UTF-8 straight into the batch's arena,
+ * without intermediate strings or arrays. Timestamps, which the DTO holds without a zone, are
+ * local times in the system zone both ways, as {@code LocalDateTime.now()} and captures'
+ * epoch times agree.
+ */
+public final class NetworkPackets {
+
+    public static final int ICMP = 1;
+    public static final int TCP = 6;
+    public static final int UDP = 17;
+    public static final int ICMPV6 = 58;
+
+    private NetworkPackets() {
+    }
+
+    /**
+     * Append a DTO to an allocated batch.
+     *
+     * @return Index of the packet, or -1 if the batch is full or its arena cannot take the
+     *         payload; a payload larger than a whole empty arena is truncated to it instead
+     */
+    public static int append(PacketBatch batch, NetworkPacket packet) {
+        int i = batch.append();
+        if (i < 0) {
+            return -1;
+        }
+        setAddress(batch, i, packet.getSourceIp(), packet.getSourcePort(), true);
+        setAddress(batch, i, packet.getDestinationIp(), packet.getDestinationPort(), false);
+        batch.setProtocol(i, protocolNumber(packet.getProtocol()));
+        batch.setWireLength(i, packet.getSize());
+        if (packet.getTimestamp() != null) {
+            LocalDateTime time = packet.getTimestamp();
+            batch.setTimestamp(i, time.atZone(ZoneId.systemDefault()).toEpochSecond() * 1_000_000
+                    + time.getNano() / 1_000);
+        }
+        String payload = packet.getPayload();
+        if (payload != null && !payload.isEmpty()) {
+            // Encoded straight into the arena, giving the packet back if it runs out of room
+            int length = encodeUtf8(payload, batch.payloads(), batch.arenaEnd(), batch.remainingPayloadBytes());
+            if (length < 0 && batch.size() > 1) {
+                batch.removeLast();
+                return -1;
+            }
+            batch.commitPayload(i, length < 0 ? -length - 1 : length);
+        }
+        return i;
+    }
+
+    /**
+     * Text form of a packet's source address, or {@code null} if it has none.
+     */
+    public static String sourceAddress(PacketBatch batch, int i) {
+        return address(batch.sourceHigh(i), batch.sourceLow(i));
+    }
+
+    /**
+     * Text form of a packet's destination address, or {@code null} if it has none.
+     */
+    public static String destinationAddress(PacketBatch batch, int i) {
+        return address(batch.destinationHigh(i), batch.destinationLow(i));
+    }
+
+    public static LocalDateTime timestamp(PacketBatch batch, int i) {
+        return timestamp(batch.timestamp(i));
+    }
+
+    /**
+     * Local time in the system zone of a packet timestamp in epoch microseconds, or {@code null}
+     * for {@link PacketBatch#NO_TIMESTAMP}.
+     */
+    public static LocalDateTime timestamp(long micros) {
+        if (micros == PacketBatch.NO_TIMESTAMP) {
+            return null;
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                Math.floorMod(micros, 1_000_000) * 1_000L), ZoneId.systemDefault());
+    }
+
+    /**
+     * IP protocol number of a protocol name such as {@code TCP}, or of a decimal number; 0 if unknown.
+     */
+    public static int protocolNumber(String protocol) {
+        if (protocol == null) {
+            return 0;
+        }
+        if (protocol.equalsIgnoreCase("TCP")) {
+            return TCP;
+        }
+        if (protocol.equalsIgnoreCase("UDP")) {
+            return UDP;
+        }
+        if (protocol.equalsIgnoreCase("ICMP")) {
+            return ICMP;
+        }
+        if (protocol.equalsIgnoreCase("ICMPv6")) {
+            return ICMPV6;
+        }
+        int number = 0;
+        for (int i = 0; i < protocol.length(); i++) {
+            char c = protocol.charAt(i);
+            if (c < '0' || c > '9' || (number = number * 10 + (c - '0')) > 255) {
+                return 0;
+            }
+        }
+        return number;
+    }
+
+    private static void setAddress(PacketBatch batch, int i, String address, int port, boolean source) {
+        long high = 0;
+        long low = 0;
+        if (address != null) {
+            long ipv4 = IpAddresses.parseIpv4(address);
+            if (ipv4 >= 0) {
+                high = IpAddresses.IPV4_MAPPED_HIGH;
+                low = IpAddresses.ipv4MappedLow(ipv4);
+            } else if (IpAddresses.isIpv6(address)) {
+                high = IpAddresses.ipv6High(address);
+                low = IpAddresses.ipv6Low(address);
+            }
+        }
+        if (source) {
+            batch.setSource(i, high, low, port);
+        } else {
+            batch.setDestination(i, high, low, port);
+        }
+    }
+
+    /**
+     * Text form of an address held as two longs, or {@code null} for the unspecified address.
+     */
+    public static String address(long high, long low) {
+        return high == 0 && low == 0 ? null : IpAddresses.format(high, low);
+    }
+
+    /**
+     * Encode as UTF-8 at {@code offset}, stopping before a character that would pass {@code maxLength}.
+     *
+     * @return Bytes written, or {@code -written - 1} if the text was cut short
+     */
+    private static int encodeUtf8(String text, ByteBuffer out, int offset, int maxLength) {
+        int position = offset;
+        int end = offset + maxLength;
+        for (int i = 0; i < text.length(); i++) {
+            int c = text.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, text.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+            int length = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            if (position + length > end) {
+                return offset - position - 1;
+            }
+            switch (length) {
+                case 1 -> out.put(position, (byte) c);
+                case 2 -> {
+                    out.put(position, (byte) (0xc0 | c >> 6));
+                    out.put(position + 1, (byte) (0x80 | c & 0x3f));
+                }
+                case 3 -> {
+                    out.put(position, (byte) (0xe0 | c >> 12));
+                    out.put(position + 1, (byte) (0x80 | c >> 6 & 0x3f));
+                    out.put(position + 2, (byte) (0x80 | c & 0x3f));
+                }
+                default -> {
+                    out.put(position, (byte) (0xf0 | c >> 18));
+                    out.put(position + 1, (byte) (0x80 | c >> 12 & 0x3f));
+                    out.put(position + 2, (byte) (0x80 | c >> 6 & 0x3f));
+                    out.put(position + 3, (byte) (0x80 | c & 0x3f));
+                }
+            }
+            position += length;
+        }
+        return position - offset;
+    }
+}
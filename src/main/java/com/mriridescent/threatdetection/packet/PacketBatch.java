@@ -0,0 +1,295 @@
+package com.mriridescent.threatdetection.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packets held as primitive columns over one payload buffer, for detection without an object,
+ * a string or a payload copy per packet.
+ *
+ * Addresses are 128-bit keys as produced by {@link com.mriridescent.threatdetection.intel.IpAddresses},
+ * IPv4 in its mapped form; the unspecified address {@code ::} stands for a missing one. Protocols
+ * are IP protocol numbers and timestamps are microseconds since the epoch, or
+ * {@link #NO_TIMESTAMP}. Each payload is a range of {@link #payloads()}: either the batch's own
+ * arena, which {@link #copyPayload} fills, or an external buffer such as a mapped capture file,
+ * which {@link #setPayload} points into without copying.
+ *
+ * Packets are appended with {@link #append()} and their fields set by index. A batch is reused
+ * through {@link #clear()} rather than reallocated; it is not thread-safe, and must not be
+ * changed while a task it was submitted with is running.
+ */
+public final class PacketBatch {
+
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    // Capture of packets from live traffic rather than a replayed file
+    public static final int LIVE_CAPTURE = 0;
+
+    private final long[] sourceHigh;
+    private final long[] sourceLow;
+    private final long[] destinationHigh;
+    private final long[] destinationLow;
+    // Source port in the upper 16 bits, destination port in the lower
+    private final int[] ports;
+    private final byte[] protocols;
+    // TCP control bits, for TCP packets and flows
+    private final byte[] tcpFlags;
+    private final int[] wireLengths;
+    private final long[] timestamps;
+    private final int[] payloadOffsets;
+    private final int[] payloadLengths;
+    private final boolean ownsPayloads;
+    private ByteBuffer payloads;
+    private int size;
+    // End of the used part of the arena
+    private int arenaUsed;
+    private int capture = LIVE_CAPTURE;
+
+    private PacketBatch(int capacity, ByteBuffer payloads, boolean ownsPayloads) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.sourceHigh = new long[capacity];
+        this.sourceLow = new long[capacity];
+        this.destinationHigh = new long[capacity];
+        this.destinationLow = new long[capacity];
+        this.ports = new int[capacity];
+        this.protocols = new byte[capacity];
+        this.tcpFlags = new byte[capacity];
+        this.wireLengths = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.payloadOffsets = new int[capacity];
+        this.payloadLengths = new int[capacity];
+        this.payloads = payloads;
+        this.ownsPayloads = ownsPayloads;
+    }
+
+    /**
+     * Batch of up to {@code capacity} packets whose payloads are copied into a direct arena of
+     * {@code payloadBytes}.
+     */
+    public static PacketBatch allocate(int capacity, int payloadBytes) {
+        return new PacketBatch(capacity, ByteBuffer.allocateDirect(payloadBytes), true);
+    }
+
+    /**
+     * Batch of up to {@code capacity} packets whose payloads are ranges of {@code payloads}.
+     */
+    public static PacketBatch over(ByteBuffer payloads, int capacity) {
+        return new PacketBatch(capacity, payloads, false);
+    }
+
+    /**
+     * Point a batch made {@link #over} a buffer at another one, e.g. the next capture file.
+     * The batch must be empty.
+     */
+    public void setPayloads(ByteBuffer payloads) {
+        if (ownsPayloads || size > 0) {
+            throw new IllegalStateException("Payload buffer can only be replaced on an empty external batch");
+        }
+        this.payloads = payloads;
+    }
+
+    /**
+     * Add a packet with all fields zero and no payload.
+     *
+     * @return Index of the packet, or -1 if the batch is full
+     */
+    public int append() {
+        if (size == sourceHigh.length) {
+            return -1;
+        }
+        int i = size++;
+        sourceHigh[i] = 0;
+        sourceLow[i] = 0;
+        destinationHigh[i] = 0;
+        destinationLow[i] = 0;
+        ports[i] = 0;
+        protocols[i] = 0;
+        tcpFlags[i] = 0;
+        wireLengths[i] = 0;
+        timestamps[i] = NO_TIMESTAMP;
+        payloadOffsets[i] = 0;
+        payloadLengths[i] = 0;
+        return i;
+    }
+
+    /**
+     * Remove the last packet added, e.g. one that turned out to be malformed.
+     */
+    public void removeLast() {
+        if (size > 0) {
+            size--;
+            // Payloads are copied in order, so the last packet's is at the end of the arena
+            if (ownsPayloads && payloadLengths[size] > 0) {
+                arenaUsed = payloadOffsets[size];
+            }
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        arenaUsed = 0;
+        capture = LIVE_CAPTURE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return sourceHigh.length;
+    }
+
+    public boolean isFull() {
+        return size == sourceHigh.length;
+    }
+
+    /**
+     * Mark the packets as replayed from a capture, numbered by the replayer, so that their
+     * timestamps are kept apart from live traffic and other replays; reset by {@link #clear()}.
+     */
+    public void setCapture(int capture) {
+        this.capture = capture;
+    }
+
+    public int capture() {
+        return capture;
+    }
+
+    /**
+     * Free space left in the payload arena, or 0 for a batch over an external buffer.
+     */
+    public int remainingPayloadBytes() {
+        return ownsPayloads ? payloads.capacity() - arenaUsed : 0;
+    }
+
+    public void setSource(int i, long high, long low, int port) {
+        sourceHigh[i] = high;
+        sourceLow[i] = low;
+        ports[i] = (port & 0xffff) << 16 | (ports[i] & 0xffff);
+    }
+
+    public void setDestination(int i, long high, long low, int port) {
+        destinationHigh[i] = high;
+        destinationLow[i] = low;
+        ports[i] = (ports[i] & 0xffff_0000) | (port & 0xffff);
+    }
+
+    public void setProtocol(int i, int protocol) {
+        protocols[i] = (byte) protocol;
+    }
+
+    public void setTcpFlags(int i, int flags) {
+        tcpFlags[i] = (byte) flags;
+    }
+
+    public void setWireLength(int i, int length) {
+        wireLengths[i] = length;
+    }
+
+    public void setTimestamp(int i, long epochMicros) {
+        timestamps[i] = epochMicros;
+    }
+
+    /**
+     * Set the payload to a range of an external {@link #payloads()} buffer.
+     */
+    public void setPayload(int i, int offset, int length) {
+        if (ownsPayloads) {
+            throw new IllegalStateException("Payloads of an allocated batch are copied into its arena");
+        }
+        payloadOffsets[i] = offset;
+        payloadLengths[i] = length;
+    }
+
+    /**
+     * Copy the remaining bytes of {@code payload} into the arena, without moving its position.
+     *
+     * @return Whether the payload fitted; if not, the packet keeps an empty payload
+     */
+    public boolean copyPayload(int i, ByteBuffer payload) {
+        if (!ownsPayloads) {
+            throw new IllegalStateException("Payloads of a batch over an external buffer are set in place");
+        }
+        int length = payload.remaining();
+        if (length > payloads.capacity() - arenaUsed) {
+            return false;
+        }
+        payloads.put(arenaUsed, payload, payload.position(), length);
+        payloadOffsets[i] = arenaUsed;
+        payloadLengths[i] = length;
+        arenaUsed += length;
+        return true;
+    }
+
+    /**
+     * Offset in the arena a payload written in place starts at; finish it with {@link #commitPayload}.
+     */
+    int arenaEnd() {
+        if (!ownsPayloads) {
+            throw new IllegalStateException("Payloads of a batch over an external buffer are set in place");
+        }
+        return arenaUsed;
+    }
+
+    void commitPayload(int i, int length) {
+        payloadOffsets[i] = arenaUsed;
+        payloadLengths[i] = length;
+        arenaUsed += length;
+    }
+
+    public long sourceHigh(int i) {
+        return sourceHigh[i];
+    }
+
+    public long sourceLow(int i) {
+        return sourceLow[i];
+    }
+
+    public int sourcePort(int i) {
+        return ports[i] >>> 16;
+    }
+
+    public long destinationHigh(int i) {
+        return destinationHigh[i];
+    }
+
+    public long destinationLow(int i) {
+        return destinationLow[i];
+    }
+
+    public int destinationPort(int i) {
+        return ports[i] & 0xffff;
+    }
+
+    public int protocol(int i) {
+        return protocols[i] & 0xff;
+    }
+
+    public int tcpFlags(int i) {
+        return tcpFlags[i] & 0xff;
+    }
+
+    public int wireLength(int i) {
+        return wireLengths[i];
+    }
+
+    public long timestamp(int i) {
+        return timestamps[i];
+    }
+
+    public int payloadOffset(int i) {
+        return payloadOffsets[i];
+    }
+
+    public int payloadLength(int i) {
+        return payloadLengths[i];
+    }
+
+    /**
+     * Buffer the payload ranges refer to, read with absolute gets; its position and limit are
+     * not meaningful.
+     */
+    public ByteBuffer payloads() {
+        return payloads;
+    }
+}
@@ -0,0 +1,35 @@
+package com.mriridescent.threatdetection.packet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reuses {@link PacketBatch}es with payload arenas, so their direct buffers are allocated once
+ * rather than per batch.
+ *
+ * {@link #acquire()} hands out an empty batch, allocating one when none is free, and
+ * {@link #release} takes it back once the task it was submitted with has completed. Up to
+ * {@code maxPooled} released batches are kept; the rest are left to the garbage collector.
+ */
+public final class PacketBatchPool {
+
+    private final int capacity;
+    private final int payloadBytes;
+    private final BlockingQueue<PacketBatch> free;
+
+    public PacketBatchPool(int capacity, int payloadBytes, int maxPooled) {
+        this.capacity = capacity;
+        this.payloadBytes = payloadBytes;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public PacketBatch acquire() {
+        PacketBatch batch = free.poll();
+        return batch != null ? batch : PacketBatch.allocate(capacity, payloadBytes);
+    }
+
+    public void release(PacketBatch batch) {
+        batch.clear();
+        free.offer(batch);
+    }
+}
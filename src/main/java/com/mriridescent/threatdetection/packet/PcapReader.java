@@ -0,0 +1,486 @@
+package com.mriridescent.threatdetection.packet;
+
+import com.mriridescent.threatdetection.intel.IpAddresses;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads packets from a PCAP or PCAPNG capture file into {@link PacketBatch}es without copying
+ * their payloads.
+ *
+ * The file is mapped into memory a window at a time, so captures of any size are read with a
+ * bounded mapping, and each batch is {@linkplain PacketBatch#over over} the window its packets
+ * came from: payload ranges point straight into the page cache. Ethernet (with VLAN tags), raw
+ * IP, BSD loopback and Linux cooked captures are decoded down to IPv4/IPv6 and TCP/UDP headers;
+ * other frames, and fragments and headers cut short by the snapshot length, are kept where
+ * possible and otherwise counted as {@linkplain #getSkipped() skipped}.
+ *
+ * A reader is not thread-safe. Mapped windows stay valid after the reader is closed, as long as
+ * a batch refers to them.
+ */
+public final class PcapReader implements Closeable {
+
+    public static final int DEFAULT_WINDOW_BYTES = 256 << 20;
+
+    private static final int PCAP_MICROS = 0xa1b2c3d4;
+    private static final int PCAP_NANOS = 0xa1b23c4d;
+    private static final int PCAPNG_SECTION = 0x0a0d0d0a;
+    private static final int PCAPNG_BYTE_ORDER = 0x1a2b3c4d;
+    private static final int PCAPNG_INTERFACE = 1;
+    private static final int PCAPNG_SIMPLE_PACKET = 3;
+    private static final int PCAPNG_ENHANCED_PACKET = 6;
+
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    // Raw IP under the value some BSDs write in place of LINKTYPE_RAW
+    private static final int DLT_RAW = 12;
+
+    // Larger records are taken for corruption rather than packets
+    private static final int MAX_RECORD_BYTES = 64 << 20;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowBytes;
+    private final boolean pcapng;
+
+    private MappedByteBuffer window;
+    // File offset of the window
+    private long windowStart;
+    // Offset of the next record in the window
+    private int position;
+    private boolean exhausted;
+
+    // Classic PCAP
+    private int linkType;
+    private boolean nanoseconds;
+
+    // PCAPNG: link type and timestamp units per second of each interface in the current section
+    private int[] interfaceLinkTypes = new int[0];
+    private long[] interfaceUnits = new long[0];
+
+    private long packets;
+    private long skipped;
+
+    private PcapReader(Path file, FileChannel channel, int windowBytes) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.windowBytes = windowBytes;
+        map(0);
+        if (window.limit() < 12) {
+            throw new IOException("Not a PCAP or PCAPNG file: " + file);
+        }
+        int magic = window.order(ByteOrder.BIG_ENDIAN).getInt(0);
+        if (magic == PCAPNG_SECTION) {
+            pcapng = true;
+        } else {
+            pcapng = false;
+            if (magic == Integer.reverseBytes(PCAP_MICROS) || magic == Integer.reverseBytes(PCAP_NANOS)) {
+                window.order(ByteOrder.LITTLE_ENDIAN);
+                magic = Integer.reverseBytes(magic);
+            }
+            if (magic != PCAP_MICROS && magic != PCAP_NANOS) {
+                throw new IOException("Not a PCAP or PCAPNG file: " + file);
+            }
+            if (window.limit() < 24) {
+                throw new IOException("Truncated PCAP header: " + file);
+            }
+            nanoseconds = magic == PCAP_NANOS;
+            linkType = window.getInt(20) & 0x0fff_ffff;
+            position = 24;
+        }
+    }
+
+    /**
+     * Open a capture file, mapping it {@link #DEFAULT_WINDOW_BYTES} at a time.
+     */
+    public static PcapReader open(Path file) throws IOException {
+        return open(file, DEFAULT_WINDOW_BYTES);
+    }
+
+    /**
+     * Open a capture file, mapping it {@code windowBytes} at a time; no packet may be larger.
+     *
+     * @throws IOException if the file cannot be read or is not a PCAP or PCAPNG capture
+     */
+    public static PcapReader open(Path file, int windowBytes) throws IOException {
+        if (windowBytes < 1 << 16) {
+            throw new IllegalArgumentException("windowBytes must be at least 64 KiB");
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new PcapReader(file, channel, windowBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Fill an empty batch made {@linkplain PacketBatch#over over} any buffer with the next packets,
+     * pointing it at the mapped window they are in. A batch ends early where a window does.
+     *
+     * @return Packets added, 0 only at the end of the file
+     * @throws IOException if the file cannot be mapped or a record is corrupt
+     */
+    public int read(PacketBatch batch) throws IOException {
+        if (batch.size() > 0) {
+            throw new IllegalArgumentException("Batch must be empty");
+        }
+        boolean remapped = false;
+        while (!exhausted && !batch.isFull()) {
+            // Every PCAPNG block is at least 12 bytes, which includes a section header's byte order
+            int header = pcapng ? 12 : 16;
+            int length = position + header <= window.limit() ? recordLength() : -1;
+            if (length < 0 || position + length > window.limit()) {
+                long next = windowStart + position;
+                if (next + (length < 0 ? header : length) > fileSize) {
+                    // A record cut short at the end of the file, as left by an interrupted capture
+                    exhausted = true;
+                } else if (batch.size() > 0) {
+                    break;
+                } else if (remapped) {
+                    throw new IOException("Record at offset " + next + " larger than the mapping window in " + file);
+                } else {
+                    map(next);
+                    remapped = true;
+                }
+                continue;
+            }
+            if (batch.size() == 0) {
+                batch.setPayloads(window);
+            }
+            if (pcapng) {
+                readBlock(batch, length);
+            } else {
+                readRecord(batch, length);
+            }
+            position += length;
+        }
+        return batch.size();
+    }
+
+    /**
+     * Packets read into batches so far.
+     */
+    public long getPackets() {
+        return packets;
+    }
+
+    /**
+     * Records read so far that were not IP packets or could not be decoded.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void map(long start) throws IOException {
+        ByteOrder order = window != null ? window.order() : ByteOrder.BIG_ENDIAN;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowBytes, fileSize - start));
+        window.order(order);
+        windowStart = start;
+        position = 0;
+    }
+
+    /**
+     * Length of the record at {@link #position}, whose fixed header is in the window.
+     */
+    private int recordLength() throws IOException {
+        long length;
+        if (!pcapng) {
+            length = 16 + (window.getInt(position + 8) & 0xffff_ffffL);
+        } else {
+            if (window.getInt(position) == PCAPNG_SECTION) {
+                // A new section may switch byte order, which its header says after the length
+                ByteOrder order = window.order();
+                if (window.order(ByteOrder.BIG_ENDIAN).getInt(position + 8) != PCAPNG_BYTE_ORDER) {
+                    window.order(ByteOrder.LITTLE_ENDIAN);
+                    if (window.getInt(position + 8) != PCAPNG_BYTE_ORDER) {
+                        window.order(order);
+                        throw new IOException("Bad byte order magic at offset " + (windowStart + position) + " in " + file);
+                    }
+                }
+            }
+            length = window.getInt(position + 4) & 0xffff_ffffL;
+            if (length < 12 || length % 4 != 0) {
+                throw new IOException("Bad block length at offset " + (windowStart + position) + " in " + file);
+            }
+        }
+        if (length > MAX_RECORD_BYTES) {
+            throw new IOException("Record of " + length + " bytes at offset " + (windowStart + position) + " in " + file);
+        }
+        return (int) length;
+    }
+
+    private void readRecord(PacketBatch batch, int length) {
+        long seconds = window.getInt(position) & 0xffff_ffffL;
+        long fraction = window.getInt(position + 4) & 0xffff_ffffL;
+        long micros = seconds * 1_000_000 + (nanoseconds ? fraction / 1_000 : fraction);
+        int originalLength = window.getInt(position + 12);
+        decode(batch, linkType, position + 16, length - 16, originalLength, micros);
+    }
+
+    private void readBlock(PacketBatch batch, int length) {
+        int type = window.getInt(position);
+        int body = position + 8;
+        int bodyEnd = position + length - 4;
+        switch (type) {
+            case PCAPNG_SECTION -> {
+                interfaceLinkTypes = new int[0];
+                interfaceUnits = new long[0];
+            }
+            case PCAPNG_INTERFACE -> {
+                if (bodyEnd - body >= 8) {
+                    addInterface(window.getShort(body) & 0xffff, timestampUnits(body + 8, bodyEnd));
+                }
+            }
+            case PCAPNG_ENHANCED_PACKET -> {
+                if (bodyEnd - body < 20) {
+                    skipped++;
+                    return;
+                }
+                int id = window.getInt(body);
+                if (id < 0 || id >= interfaceLinkTypes.length) {
+                    skipped++;
+                    return;
+                }
+                long timestamp = (window.getInt(body + 4) & 0xffff_ffffL) << 32 | (window.getInt(body + 8) & 0xffff_ffffL);
+                int captured = (int) Math.min(window.getInt(body + 12) & 0xffff_ffffL, bodyEnd - body - 20);
+                int originalLength = window.getInt(body + 16);
+                decode(batch, interfaceLinkTypes[id], body + 20, captured, originalLength,
+                        micros(timestamp, interfaceUnits[id]));
+            }
+            case PCAPNG_SIMPLE_PACKET -> {
+                if (bodyEnd - body < 4 || interfaceLinkTypes.length == 0) {
+                    skipped++;
+                    return;
+                }
+                int originalLength = window.getInt(body);
+                int captured = (int) Math.min(originalLength & 0xffff_ffffL, bodyEnd - body - 4);
+                decode(batch, interfaceLinkTypes[0], body + 4, captured, originalLength, PacketBatch.NO_TIMESTAMP);
+            }
+            default -> {
+                // Name resolution, statistics and custom blocks carry no packets
+            }
+        }
+    }
+
+    private void addInterface(int type, long units) {
+        int n = interfaceLinkTypes.length;
+        interfaceLinkTypes = Arrays.copyOf(interfaceLinkTypes, n + 1);
+        interfaceUnits = Arrays.copyOf(interfaceUnits, n + 1);
+        interfaceLinkTypes[n] = type;
+        interfaceUnits[n] = units;
+    }
+
+    /**
+     * Timestamp units per second from an interface's {@code if_tsresol} option, microseconds by default.
+     */
+    private long timestampUnits(int options, int end) {
+        while (options + 4 <= end) {
+            int code = window.getShort(options) & 0xffff;
+            int length = window.getShort(options + 2) & 0xffff;
+            if (code == 0) {
+                break;
+            }
+            if (code == 9 && length == 1 && options + 5 <= end) {
+                int resolution = window.get(options + 4);
+                int exponent = resolution & 0x7f;
+                if (resolution < 0) {
+                    return exponent < 63 ? 1L << exponent : 1_000_000;
+                }
+                return exponent <= 18 ? pow10(exponent) : 1_000_000;
+            }
+            options += 4 + ((length + 3) & ~3);
+        }
+        return 1_000_000;
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private static long micros(long timestamp, long unitsPerSecond) {
+        if (unitsPerSecond == 1_000_000) {
+            return timestamp;
+        }
+        long seconds = timestamp / unitsPerSecond;
+        long fraction = timestamp % unitsPerSecond;
+        return seconds * 1_000_000 + (long) (fraction * (1_000_000.0 / unitsPerSecond));
+    }
+
+    /**
+     * Decode a captured frame of {@code captured} bytes at window offset {@code frame} and append
+     * it to the batch, or count it as skipped.
+     */
+    private void decode(PacketBatch batch, int link, int frame, int captured, int originalLength, long micros) {
+        int end = frame + captured;
+        int ip;
+        int version;
+        switch (link) {
+            case LINKTYPE_ETHERNET -> {
+                int p = frame + 12;
+                if (p + 2 > end) {
+                    skipped++;
+                    return;
+                }
+                int etherType = u16(p);
+                // 802.1Q and 802.1ad tags
+                while ((etherType == 0x8100 || etherType == 0x88a8 || etherType == 0x9100) && p + 6 <= end) {
+                    p += 4;
+                    etherType = u16(p);
+                }
+                ip = p + 2;
+                version = etherType == 0x0800 ? 4 : etherType == 0x86dd ? 6 : 0;
+            }
+            case LINKTYPE_LINUX_SLL -> {
+                if (frame + 16 > end) {
+                    skipped++;
+                    return;
+                }
+                int protocol = u16(frame + 14);
+                ip = frame + 16;
+                version = protocol == 0x0800 ? 4 : protocol == 0x86dd ? 6 : 0;
+            }
+            case LINKTYPE_NULL -> {
+                if (frame + 4 > end) {
+                    skipped++;
+                    return;
+                }
+                // Address family in the byte order of the capturing host
+                int family = window.getInt(frame);
+                if (family > 0xffff) {
+                    family = Integer.reverseBytes(family);
+                }
+                ip = frame + 4;
+                version = family == 2 ? 4 : family == 24 || family == 28 || family == 30 ? 6 : 0;
+            }
+            case LINKTYPE_RAW, DLT_RAW -> {
+                ip = frame;
+                version = frame < end ? (window.get(frame) & 0xff) >>> 4 : 0;
+            }
+            default -> {
+                skipped++;
+                return;
+            }
+        }
+        if (version == 4 ? !decodeIpv4(batch, ip, end) : version != 6 || !decodeIpv6(batch, ip, end)) {
+            skipped++;
+            return;
+        }
+        int i = batch.size() - 1;
+        batch.setWireLength(i, originalLength);
+        batch.setTimestamp(i, micros);
+        packets++;
+    }
+
+    private boolean decodeIpv4(PacketBatch batch, int ip, int end) {
+        if (ip + 20 > end) {
+            return false;
+        }
+        int headerLength = (window.get(ip) & 0x0f) * 4;
+        if (headerLength < 20 || ip + headerLength > end) {
+            return false;
+        }
+        // Ethernet pads short frames; the IP length says where the packet really ends
+        int totalLength = u16(ip + 2);
+        if (totalLength >= headerLength) {
+            end = Math.min(end, ip + totalLength);
+        }
+        int i = batch.append();
+        batch.setSource(i, IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(u32(ip + 12)), 0);
+        batch.setDestination(i, IpAddresses.IPV4_MAPPED_HIGH, IpAddresses.ipv4MappedLow(u32(ip + 16)), 0);
+        int protocol = window.get(ip + 9) & 0xff;
+        boolean firstFragment = (u16(ip + 6) & 0x1fff) == 0;
+        decodeTransport(batch, i, protocol, ip + headerLength, end, firstFragment);
+        return true;
+    }
+
+    private boolean decodeIpv6(PacketBatch batch, int ip, int end) {
+        if (ip + 40 > end) {
+            return false;
+        }
+        end = Math.min(end, ip + 40 + u16(ip + 4));
+        int i = batch.append();
+        batch.setSource(i, u64(ip + 8), u64(ip + 16), 0);
+        batch.setDestination(i, u64(ip + 24), u64(ip + 32), 0);
+        int next = window.get(ip + 6) & 0xff;
+        int p = ip + 40;
+        boolean firstFragment = true;
+        // Extension headers, up to the transport header
+        while (p + 8 <= end) {
+            if (next == 0 || next == 43 || next == 60) {
+                int length = ((window.get(p + 1) & 0xff) + 1) * 8;
+                next = window.get(p) & 0xff;
+                p += length;
+            } else if (next == 44) {
+                firstFragment = (u16(p + 2) & 0xfff8) == 0;
+                next = window.get(p) & 0xff;
+                p += 8;
+            } else if (next == 51) {
+                int length = ((window.get(p + 1) & 0xff) + 2) * 4;
+                next = window.get(p) & 0xff;
+                p += length;
+            } else {
+                break;
+            }
+        }
+        decodeTransport(batch, i, next, Math.min(p, end), end, firstFragment);
+        return true;
+    }
+
+    /**
+     * Set the protocol, ports and payload of a packet whose IP payload is {@code [p, end)}.
+     * Later fragments and truncated transport headers keep the whole IP payload and no ports.
+     */
+    private void decodeTransport(PacketBatch batch, int i, int protocol, int p, int end, boolean firstFragment) {
+        batch.setProtocol(i, protocol);
+        if (firstFragment && protocol == NetworkPackets.TCP && p + 20 <= end) {
+            int headerLength = ((window.get(p + 12) & 0xff) >>> 4) * 4;
+            batch.setTcpFlags(i, window.get(p + 13));
+            batch.setSource(i, batch.sourceHigh(i), batch.sourceLow(i), u16(p));
+            batch.setDestination(i, batch.destinationHigh(i), batch.destinationLow(i), u16(p + 2));
+            p = Math.min(p + Math.max(headerLength, 20), end);
+        } else if (firstFragment && protocol == NetworkPackets.UDP && p + 8 <= end) {
+            batch.setSource(i, batch.sourceHigh(i), batch.sourceLow(i), u16(p));
+            batch.setDestination(i, batch.destinationHigh(i), batch.destinationLow(i), u16(p + 2));
+            p += 8;
+        }
+        batch.setPayload(i, p, end - p);
+    }
+
+    // Header fields are big-endian whatever the byte order of the capture file
+
+    private int u16(int p) {
+        return (window.get(p) & 0xff) << 8 | window.get(p + 1) & 0xff;
+    }
+
+    private long u32(int p) {
+        int value = window.getInt(p);
+        return (window.order() == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value)) & 0xffff_ffffL;
+    }
+
+    private long u64(int p) {
+        long value = window.getLong(p);
+        return window.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value);
+    }
+}
@@ -0,0 +1,150 @@
+package com.mriridescent.threatdetection.packet;
+
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import com.mriridescent.threatdetection.orchestration.AgentOrchestrator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays PCAP and PCAPNG capture files through the network-monitor agent, for back-testing
+ * detection rules on recorded traffic and for reproducible throughput measurements.
+ *
+ * Packets go from the mapped file into {@link PacketBatch}es with {@link PcapReader} and are
+ * submitted batch by batch, bypassing HTTP and JSON; alerts reach the alert listeners like any
+ * other. Up to {@code threat-detection.replay.max-in-flight} batches are analyzed at once, and
+ * replay runs as fast as the agent keeps up or is paced to {@code threat-detection.replay.rate}
+ * packets per second. Files listed in {@code threat-detection.replay.files} are replayed in turn
+ * once the application has started.
+ *
+ * Publishes the packets replayed and skipped, and the alerts raised.
+ */
+@Slf4j
+@Component
+public class PcapReplayer implements ApplicationRunner {
+
+    private static final String PREFIX = "threat-detection.replay.";
+    private static final String AGENT_ID = "network-monitor";
+    // Paced replay submits about this many batches a second, so packets are spread evenly
+    private static final int PACED_BATCHES_PER_SECOND = 100;
+    // Numbers the replays, so each keeps its own flow state
+    private static final AtomicInteger CAPTURES = new AtomicInteger(PacketBatch.LIVE_CAPTURE);
+
+    private final AgentOrchestrator orchestrator;
+    private final String[] files;
+    private final double rate;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int windowBytes;
+    private final Counter replayedPackets;
+    private final Counter skippedPackets;
+    private final Counter alerts;
+
+    public PcapReplayer(AgentOrchestrator orchestrator, Environment environment, MeterRegistry meterRegistry) {
+        this.orchestrator = orchestrator;
+        this.files = environment.getProperty(PREFIX + "files", String[].class, new String[0]);
+        this.rate = environment.getProperty(PREFIX + "rate", Double.class, 0.0);
+        this.batchSize = environment.getProperty(PREFIX + "batch-size", Integer.class, 1024);
+        this.maxInFlight = Math.max(1, environment.getProperty(PREFIX + "max-in-flight", Integer.class, 8));
+        this.windowBytes = environment.getProperty(PREFIX + "window-bytes", Integer.class, PcapReader.DEFAULT_WINDOW_BYTES);
+        this.replayedPackets = Counter.builder("threat_detection_replay_packets_total")
+                .description("Packets replayed from capture files")
+                .register(meterRegistry);
+        this.skippedPackets = Counter.builder("threat_detection_replay_skipped_total")
+                .description("Capture records that were not IP packets or could not be decoded")
+                .register(meterRegistry);
+        this.alerts = Counter.builder("threat_detection_replay_alerts_total")
+                .description("Alerts raised on replayed packets")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        for (String file : files) {
+            if (file.isBlank()) {
+                continue;
+            }
+            try {
+                replay(Path.of(file.trim()), rate);
+            } catch (IOException e) {
+                log.error("Failed to replay capture {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replay a capture file and wait until every packet has been analyzed.
+     *
+     * @param packetsPerSecond Pace to replay at, or 0 for as fast as possible
+     * @throws IOException if the file cannot be read or is not a valid capture
+     */
+    public Result replay(Path file, double packetsPerSecond) throws IOException {
+        int capacity = packetsPerSecond > 0
+                ? (int) Math.max(1, Math.min(batchSize, packetsPerSecond / PACED_BATCHES_PER_SECOND))
+                : batchSize;
+        InFlightBatches batches = new InFlightBatches(maxInFlight, capacity,
+                batch -> orchestrator.submitTask(AGENT_ID, batch, TaskPriority.NORMAL));
+
+        log.info("Replaying capture {} {}", file,
+                packetsPerSecond > 0 ? "at " + packetsPerSecond + " packets/s" : "as fast as possible");
+        long start = System.nanoTime();
+        long submitted = 0;
+        int capture = CAPTURES.incrementAndGet();
+        try (PcapReader reader = PcapReader.open(file, windowBytes)) {
+            PacketBatch batch = batches.take();
+            for (int packets; (packets = reader.read(batch)) > 0; ) {
+                if (packetsPerSecond > 0) {
+                    pace(start + (long) (submitted * 1e9 / packetsPerSecond));
+                }
+                submitted += packets;
+                batch.setCapture(capture);
+                batch = batches.submit(batch);
+            }
+            batches.awaitAll();
+
+            replayedPackets.increment(reader.getPackets());
+            skippedPackets.increment(reader.getSkipped());
+            alerts.increment(batches.getAlerts());
+            Result result = new Result(reader.getPackets(), reader.getSkipped(), batches.getAlerts(),
+                    batches.getFailedBatches(), Duration.ofNanos(System.nanoTime() - start));
+            log.info("Replayed {} packets from {} in {} ms ({} packets/s): {} alerts, {} records skipped, {} batches failed",
+                    result.getPackets(), file, result.getElapsed().toMillis(), Math.round(result.getPacketsPerSecond()),
+                    result.getAlerts(), result.getSkipped(), result.getFailedBatches());
+            return result;
+        }
+    }
+
+    private static void pace(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    /**
+     * Outcome of replaying one capture file.
+     */
+    @Value
+    public static class Result {
+        long packets;
+        long skipped;
+        long alerts;
+        long failedBatches;
+        Duration elapsed;
+
+        public double getPacketsPerSecond() {
+            return elapsed.isZero() ? 0 : packets * 1e9 / elapsed.toNanos();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.mriridescent.threatdetection.signature;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Byte sequence whose presence anywhere in a packet payload indicates a threat.
+ */
+@Value
+@Builder
+public class Signature {
+    String id;
+    byte[] pattern;
+    ThreatAlert.Severity severity;
+    String description;
+}
@@ -0,0 +1,291 @@
+package com.mriridescent.threatdetection.signature;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a set of {@link Signature}s, finding every signature in a payload
+ * in a single pass whatever the number of signatures.
+ *
+ * The automaton is compiled into a dense DFA: failure links are resolved ahead of time, so each
+ * payload byte costs one table load and one branch, with no backtracking. Bytes that occur in no
+ * signature share one column, so the table is {@code states x (distinct signature bytes + 1)}
+ * ints rather than {@code states x 256}. Each entry is the next state's row offset, and states
+ * where a signature ends are numbered after all others, so the scan loop tells a match by
+ * comparing the offset with a threshold, and only leaves the fast path on a match.
+ *
+ * Scans do not allocate unless something matches. A matcher is immutable and thread-safe; a new
+ * rule set is compiled into a new matcher and swapped in whole.
+ */
+public final class SignatureMatcher {
+
+    private static final SignatureMatcher EMPTY = compile(List.of());
+
+    // Column of each byte value; 0 for bytes in no signature
+    private final int[] classes;
+    private final int columns;
+    // Row offset of the next state per state and column
+    private final int[] table;
+    // Row offset of the first state where a signature ends; all later states end one too
+    private final int acceptingFrom;
+    // Trie state of each table row, which the match arrays below are indexed by
+    private final int[] trieState;
+    // Signatures ending in each state, as a range of matchRules
+    private final int[] matchStart;
+    private final int[] matchRules;
+    // Nearest state along the failure links that ends a signature, or -1
+    private final int[] outputLink;
+    private final Signature[] signatures;
+    private final Instant builtAt;
+
+    private SignatureMatcher(int[] classes, int columns, int[] table, int acceptingFrom, int[] trieState,
+                             int[] matchStart, int[] matchRules, int[] outputLink, Signature[] signatures) {
+        this.classes = classes;
+        this.columns = columns;
+        this.table = table;
+        this.acceptingFrom = acceptingFrom;
+        this.trieState = trieState;
+        this.matchStart = matchStart;
+        this.matchRules = matchRules;
+        this.outputLink = outputLink;
+        this.signatures = signatures;
+        this.builtAt = Instant.now();
+    }
+
+    public static SignatureMatcher empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Compile a matcher for {@code signatures}; signatures with the same pattern are all reported.
+     */
+    public static SignatureMatcher compile(List<Signature> signatures) {
+        int[] classes = new int[256];
+        int columns = 1;
+        int maxStates = 1;
+        for (Signature signature : signatures) {
+            if (signature.getPattern() == null || signature.getPattern().length == 0) {
+                throw new IllegalArgumentException("Empty pattern in signature " + signature.getId());
+            }
+            for (byte b : signature.getPattern()) {
+                if (classes[b & 0xff] == 0) {
+                    classes[b & 0xff] = columns++;
+                }
+            }
+            maxStates += signature.getPattern().length;
+        }
+        if ((long) maxStates * columns > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many signatures to compile: " + signatures.size());
+        }
+
+        // Trie of the patterns; -1 where a state has no child
+        int[] next = new int[maxStates * columns];
+        Arrays.fill(next, -1);
+        int[] ends = new int[signatures.size()];
+        int states = 1;
+        for (int rule = 0; rule < signatures.size(); rule++) {
+            int state = 0;
+            for (byte b : signatures.get(rule).getPattern()) {
+                int slot = state * columns + classes[b & 0xff];
+                if (next[slot] < 0) {
+                    next[slot] = states++;
+                }
+                state = next[slot];
+            }
+            ends[rule] = state;
+        }
+
+        // Signatures ending in each state, grouped by state
+        int[] matchStart = new int[states + 1];
+        for (int end : ends) {
+            matchStart[end + 1]++;
+        }
+        for (int s = 0; s < states; s++) {
+            matchStart[s + 1] += matchStart[s];
+        }
+        int[] matchRules = new int[signatures.size()];
+        int[] fill = Arrays.copyOf(matchStart, states);
+        for (int rule = 0; rule < ends.length; rule++) {
+            matchRules[fill[ends[rule]]++] = rule;
+        }
+
+        // Breadth-first, so a state's failure target is complete before the state itself
+        int[] fail = new int[states];
+        int[] outputLink = new int[states];
+        boolean[] accepting = new boolean[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        outputLink[0] = -1;
+        for (int c = 0; c < columns; c++) {
+            int child = next[c];
+            if (child < 0) {
+                next[c] = 0;
+            } else {
+                fail[child] = 0;
+                outputLink[child] = -1;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            int failure = fail[state];
+            accepting[state] = matchStart[state + 1] > matchStart[state] || outputLink[state] >= 0;
+            for (int c = 0; c < columns; c++) {
+                int slot = state * columns + c;
+                int child = next[slot];
+                int viaFailure = next[failure * columns + c];
+                if (child < 0) {
+                    next[slot] = viaFailure;
+                } else {
+                    fail[child] = viaFailure;
+                    outputLink[child] = matchStart[viaFailure + 1] > matchStart[viaFailure]
+                            ? viaFailure : outputLink[viaFailure];
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        // Renumber the states so those where a signature ends come last; the root stays first
+        int[] row = new int[states];
+        int[] trieState = new int[states];
+        int rows = 0;
+        int acceptingFrom = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int state = 0; state < states; state++) {
+                if (accepting[state] == (pass == 1)) {
+                    trieState[rows] = state;
+                    row[state] = rows++;
+                }
+            }
+            if (pass == 0) {
+                acceptingFrom = rows * columns;
+            }
+        }
+        int[] table = new int[states * columns];
+        for (int r = 0; r < states; r++) {
+            for (int c = 0; c < columns; c++) {
+                table[r * columns + c] = row[next[trieState[r] * columns + c]] * columns;
+            }
+        }
+        return new SignatureMatcher(classes, columns, table, acceptingFrom, trieState, matchStart, matchRules,
+                outputLink, signatures.toArray(new Signature[0]));
+    }
+
+    /**
+     * Signatures found in the payload, each once, in the order they were first completed.
+     */
+    public List<Signature> scan(byte[] payload) {
+        return scan(payload, 0, payload.length);
+    }
+
+    public List<Signature> scan(byte[] payload, int offset, int length) {
+        List<Signature> matches = List.of();
+        int[] table = this.table;
+        int[] classes = this.classes;
+        int acceptingFrom = this.acceptingFrom;
+        int state = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            state = table[state + classes[payload[i] & 0xff]];
+            if (state >= acceptingFrom) {
+                matches = report(state, matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Signatures found between the buffer's position and limit, which are left unchanged.
+     */
+    public List<Signature> scan(ByteBuffer payload) {
+        return scan(payload, payload.position(), payload.remaining());
+    }
+
+    /**
+     * Signatures found in {@code length} bytes of the buffer from index {@code offset}, regardless
+     * of its position and limit.
+     */
+    public List<Signature> scan(ByteBuffer payload, int offset, int length) {
+        if (payload.hasArray()) {
+            return scan(payload.array(), payload.arrayOffset() + offset, length);
+        }
+        List<Signature> matches = List.of();
+        int[] table = this.table;
+        int[] classes = this.classes;
+        int acceptingFrom = this.acceptingFrom;
+        int state = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            state = table[state + classes[payload.get(i) & 0xff]];
+            if (state >= acceptingFrom) {
+                matches = report(state, matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Signatures found in a text payload read as ISO-8859-1, one byte per character; characters
+     * beyond it match no signature byte.
+     */
+    public List<Signature> scan(CharSequence payload) {
+        List<Signature> matches = List.of();
+        int[] table = this.table;
+        int[] classes = this.classes;
+        int acceptingFrom = this.acceptingFrom;
+        int state = 0;
+        for (int i = 0, end = payload.length(); i < end; i++) {
+            char c = payload.charAt(i);
+            state = table[state + (c < 256 ? classes[c] : 0)];
+            if (state >= acceptingFrom) {
+                matches = report(state, matches);
+            }
+        }
+        return matches;
+    }
+
+    public int size() {
+        return signatures.length;
+    }
+
+    /**
+     * Memory held by the transition table.
+     */
+    public long sizeInBytes() {
+        return table.length * 4L;
+    }
+
+    public Instant getBuiltAt() {
+        return builtAt;
+    }
+
+    /**
+     * Add the signatures ending in the state at row offset {@code offset} and along its output
+     * links, skipping repeats.
+     */
+    private List<Signature> report(int offset, List<Signature> matches) {
+        for (int s = trieState[offset / columns]; s >= 0; s = outputLink[s]) {
+            for (int m = matchStart[s]; m < matchStart[s + 1]; m++) {
+                Signature signature = signatures[matchRules[m]];
+                if (matches.isEmpty()) {
+                    matches = new ArrayList<>(4);
+                }
+                if (!containsSame(matches, signature)) {
+                    matches.add(signature);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static boolean containsSame(List<Signature> matches, Signature signature) {
+        for (Signature match : matches) {
+            if (match == signature) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,124 @@
+package com.mriridescent.threatdetection.signature;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads payload signature rules files.
+ *
+ * Each line is {@code id,content[,severity[,description]]}, with {@code #} comments. The content
+ * is text matched as its UTF-8 bytes, with Snort-style {@code |..|} sections of hexadecimal
+ * bytes for anything else, e.g. {@code |4d 5a|This program}; a literal {@code |} or {@code ,}
+ * is written {@code |7c|} or {@code |2c|}. Severity is a {@link ThreatAlert.Severity} name and
+ * defaults to {@code MEDIUM}. Malformed lines are skipped and counted rather than failing the file.
+ */
+@Slf4j
+public final class SignatureRuleLoader {
+
+    private static final ThreatAlert.Severity DEFAULT_SEVERITY = ThreatAlert.Severity.MEDIUM;
+
+    private SignatureRuleLoader() {
+    }
+
+    /**
+     * Rules added from a file, and lines skipped because they were malformed.
+     */
+    public static final class Result {
+        private final int loaded;
+        private final int rejected;
+
+        private Result(int loaded, int rejected) {
+            this.loaded = loaded;
+            this.rejected = rejected;
+        }
+
+        public int getLoaded() {
+            return loaded;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+    }
+
+    public static Result load(Path file, List<Signature> signatures) throws IOException {
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return load(in, file.getFileName().toString(), signatures);
+        }
+    }
+
+    public static Result load(Reader in, String source, List<Signature> signatures) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader buffered ? buffered : new BufferedReader(in);
+        int loaded = 0;
+        int rejected = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",", 4);
+            try {
+                if (fields.length < 2 || fields[0].isBlank()) {
+                    throw new IllegalArgumentException("Missing id or content");
+                }
+                String severity = fields.length > 2 ? fields[2].trim() : "";
+                signatures.add(Signature.builder()
+                        .id(fields[0].trim())
+                        .pattern(content(fields[1].trim()))
+                        .severity(severity.isEmpty() ? DEFAULT_SEVERITY
+                                : ThreatAlert.Severity.valueOf(severity.toUpperCase(Locale.ROOT)))
+                        .description(fields.length > 3 && !fields[3].isBlank()
+                                ? fields[3].trim() : "Payload matched signature " + fields[0].trim())
+                        .build());
+                loaded++;
+            } catch (IllegalArgumentException e) {
+                rejected++;
+                log.debug("Skipping signature line in {}: {} ({})", source, line, e.getMessage());
+            }
+        }
+        return new Result(loaded, rejected);
+    }
+
+    /**
+     * Bytes of a rule's content, decoding {@code |..|} hexadecimal sections.
+     */
+    static byte[] content(String content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length());
+        int text = 0;
+        while (text < content.length()) {
+            int open = content.indexOf('|', text);
+            if (open < 0) {
+                bytes.writeBytes(content.substring(text).getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            bytes.writeBytes(content.substring(text, open).getBytes(StandardCharsets.UTF_8));
+            int close = content.indexOf('|', open + 1);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unterminated hex section");
+            }
+            String hex = content.substring(open + 1, close).replace(" ", "");
+            if (hex.length() % 2 != 0) {
+                throw new IllegalArgumentException("Odd number of hex digits");
+            }
+            for (int i = 0; i < hex.length(); i += 2) {
+                bytes.write(Integer.parseInt(hex, i, i + 2, 16));
+            }
+            text = close + 1;
+        }
+        if (bytes.size() == 0) {
+            throw new IllegalArgumentException("Empty content");
+        }
+        return bytes.toByteArray();
+    }
+}
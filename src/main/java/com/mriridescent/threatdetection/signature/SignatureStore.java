@@ -0,0 +1,139 @@
+package com.mriridescent.threatdetection.signature;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link SignatureMatcher} compiled from the rules files listed in
+ * {@code threat-detection.signatures.rules}.
+ *
+ * Scanners take {@link #current()} once per packet or batch. A reload compiles the next matcher
+ * off to the side and swaps it in with a single reference write, so scans never wait for or
+ * observe a half-built automaton. Rules files are re-read when any of them changes on disk,
+ * checked every {@code threat-detection.signatures.reload-check-interval-ms}. A file that fails
+ * to read keeps the previous matcher in place.
+ *
+ * Publishes the number of compiled signatures, the size of the automaton and reloads by {@code result}.
+ */
+@Slf4j
+@Component
+public class SignatureStore {
+
+    private static final String PREFIX = "threat-detection.signatures.";
+
+    private final List<Path> rules;
+    private final AtomicReference<SignatureMatcher> current = new AtomicReference<>(SignatureMatcher.empty());
+    private final Counter reloaded;
+    private final Counter failed;
+    private volatile List<String> loadedVersions = List.of();
+
+    public SignatureStore(Environment environment, MeterRegistry meterRegistry) {
+        this(environment.getProperty(PREFIX + "rules", String[].class, new String[0]), meterRegistry);
+    }
+
+    SignatureStore(String[] rules, MeterRegistry meterRegistry) {
+        List<Path> paths = new ArrayList<>(rules.length);
+        for (String file : rules) {
+            if (!file.isBlank()) {
+                paths.add(Path.of(file.trim()));
+            }
+        }
+        this.rules = List.copyOf(paths);
+        this.reloaded = reloadCounter(meterRegistry, "success");
+        this.failed = reloadCounter(meterRegistry, "failure");
+        Gauge.builder("threat_detection_signature_rules", current, ref -> ref.get().size())
+                .description("Payload signatures in the current automaton")
+                .register(meterRegistry);
+        Gauge.builder("threat_detection_signature_automaton_bytes", current, ref -> ref.get().sizeInBytes())
+                .description("Memory held by the transition table of the current signature automaton")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void initialize() {
+        reloadIfChanged();
+    }
+
+    /**
+     * Matcher to scan with; it does not change, so take it once per packet or batch.
+     */
+    public SignatureMatcher current() {
+        return current.get();
+    }
+
+    /**
+     * Re-read the rules if any file was added, removed or modified since the last load.
+     */
+    @Scheduled(initialDelayString = "${threat-detection.signatures.reload-check-interval-ms:60000}",
+            fixedDelayString = "${threat-detection.signatures.reload-check-interval-ms:60000}")
+    public void reloadIfChanged() {
+        if (!rules.isEmpty() && !versions().equals(loadedVersions)) {
+            reload();
+        }
+    }
+
+    /**
+     * Re-read all rules files and swap in a newly compiled matcher.
+     *
+     * @return Whether the rules were loaded; on failure the previous matcher stays current
+     */
+    public synchronized boolean reload() {
+        List<String> versions = versions();
+        List<Signature> signatures = new ArrayList<>();
+        int rejected = 0;
+        SignatureMatcher matcher;
+        try {
+            for (Path file : rules) {
+                rejected += SignatureRuleLoader.load(file, signatures).getRejected();
+            }
+            matcher = SignatureMatcher.compile(signatures);
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            log.warn("Failed to reload signature rules, keeping {} signatures compiled at {}: {}",
+                    current().size(), current().getBuiltAt(), e.toString());
+            return false;
+        }
+
+        log.info("Compiled {} payload signatures from {} rules files into a {} KiB automaton ({} malformed rules skipped)",
+                matcher.size(), rules.size(), matcher.sizeInBytes() / 1024, rejected);
+        loadedVersions = versions;
+        current.set(matcher);
+        reloaded.increment();
+        return true;
+    }
+
+    /**
+     * Modification time and size of each rules file, to detect changes without reading them.
+     */
+    private List<String> versions() {
+        List<String> versions = new ArrayList<>(rules.size());
+        for (Path file : rules) {
+            try {
+                versions.add(file + "@" + Files.getLastModifiedTime(file).toMillis() + ":" + Files.size(file));
+            } catch (IOException e) {
+                versions.add(file + "@missing");
+            }
+        }
+        return versions;
+    }
+
+    private static Counter reloadCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("threat_detection_signature_reloads_total")
+                .description("Reloads of the payload signature rules into a new automaton")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
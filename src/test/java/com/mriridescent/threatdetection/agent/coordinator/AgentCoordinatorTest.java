@@ -1,5 +1,7 @@
 package com.mriridescent.threatdetection.agent.coordinator;
 
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import com.mriridescent.threatdetection.correlation.CorrelationCriteria;
 import com.mriridescent.threatdetection.model.*;
 import com.mriridescent.threatdetection.orchestration.AgentOrchestrator;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -11,9 +13,13 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -34,12 +40,20 @@ class AgentCoordinatorTest {
     @BeforeEach
     void setUp() {
         meterRegistry = new SimpleMeterRegistry();
-        agentCoordinator = new AgentCoordinator(orchestrator, meterRegistry);
+        agentCoordinator = new AgentCoordinator(orchestrator, meterRegistry, Runnable::run);
         
         // Set test configuration
         ReflectionTestUtils.setField(agentCoordinator, "maxConcurrentWorkflows", 10);
         ReflectionTestUtils.setField(agentCoordinator, "workflowTimeoutSeconds", 30);
         ReflectionTestUtils.setField(agentCoordinator, "enableIntelligenceEnrichment", true);
+        ReflectionTestUtils.setField(agentCoordinator, "intelligenceTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(agentCoordinator, "admissionQueueTimeout", Duration.ofMillis(20));
+        ReflectionTestUtils.setField(agentCoordinator, "admissionRetryAfter", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(agentCoordinator, "normalAdmissionReserve", 0.1);
+        ReflectionTestUtils.setField(agentCoordinator, "lowAdmissionReserve", 0.3);
+        ReflectionTestUtils.setField(agentCoordinator, "checkpointRetention", Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(agentCoordinator, "correlationChunkSize", 2);
+        ReflectionTestUtils.setField(agentCoordinator, "correlationMaxInFlightChunks", 2);
         
         // Initialize metrics
         agentCoordinator.initializeMetrics();
@@ -54,10 +68,11 @@ class AgentCoordinatorTest {
 
         when(orchestrator.<NetworkPacket, ThreatAlert>submitTask(eq("network-monitor"), any()))
                 .thenReturn(CompletableFuture.completedFuture(alert));
-        when(orchestrator.<ThreatAlert, List<ResponseAction>>submitTask(eq("threat-response"), any()))
+        when(orchestrator.<ThreatAlert, List<ResponseAction>>submitTask(eq("threat-response"), any(), any(), anyString()))
                 .thenReturn(CompletableFuture.completedFuture(actions));
-        when(orchestrator.<IntelligenceQuery, ThreatIntelligence>submitTask(eq("threat-intelligence"), any()))
+        when(orchestrator.<IntelligenceQuery, ThreatIntelligence>submitTask(eq("threat-intelligence"), any(), any()))
                 .thenReturn(CompletableFuture.completedFuture(createTestThreatIntelligence()));
+        stubPatternLearning();
 
         // Act
         WorkflowResult<List<ResponseAction>> result = agentCoordinator
@@ -73,8 +88,10 @@ class AgentCoordinatorTest {
         
         // Verify orchestrator interactions
         verify(orchestrator, times(1)).submitTask(eq("network-monitor"), eq(packet));
-        verify(orchestrator, times(1)).submitTask(eq("threat-response"), any(ThreatAlert.class));
-        verify(orchestrator, times(1)).submitTask(eq("threat-intelligence"), any(IntelligenceQuery.class));
+        verify(orchestrator, times(1)).submitTask(eq("threat-response"), any(ThreatAlert.class), eq(TaskPriority.CRITICAL),
+                eq(result.getWorkflowId() + "/response-generation"));
+        verify(orchestrator, times(1)).submitTask(eq("threat-intelligence"), any(IntelligenceQuery.class), eq(TaskPriority.HIGH));
+        verify(orchestrator, times(1)).submitTask(eq("pattern-learning"), any(), eq(TaskPriority.LOW));
     }
 
     @Test
@@ -97,7 +114,124 @@ class AgentCoordinatorTest {
         
         // Verify only network monitor was called
         verify(orchestrator, times(1)).submitTask(eq("network-monitor"), eq(packet));
-        verify(orchestrator, never()).submitTask(eq("threat-response"), any());
+        verify(orchestrator, never()).submitTask(eq("threat-response"), any(), any(), anyString());
+    }
+
+    @Test
+    void testNetworkTrafficWorkflow_SlowIntelligenceIsAbandoned() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(agentCoordinator, "intelligenceTimeoutSeconds", 1);
+        NetworkPacket packet = createTestNetworkPacket();
+        CompletableFuture<ThreatIntelligence> hangingLookup = new CompletableFuture<>();
+
+        when(orchestrator.<NetworkPacket, ThreatAlert>submitTask(eq("network-monitor"), any()))
+                .thenReturn(CompletableFuture.completedFuture(createTestThreatAlert()));
+        when(orchestrator.<IntelligenceQuery, ThreatIntelligence>submitTask(eq("threat-intelligence"), any(), any()))
+                .thenReturn(hangingLookup);
+        stubPatternLearning();
+        when(orchestrator.<ThreatAlert, List<ResponseAction>>submitTask(eq("threat-response"), any(), any(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(createTestResponseActions()));
+
+        // Act
+        WorkflowResult<List<ResponseAction>> result = agentCoordinator
+                .processNetworkTrafficWorkflow(packet)
+                .get(10, TimeUnit.SECONDS);
+
+        // Assert
+        assertTrue(result.isSuccessful());
+        assertEquals("UNKNOWN", result.getThreatAlert().getIntelligenceData().getReputation());
+        assertTrue(hangingLookup.isCompletedExceptionally(), "abandoned lookup should be released");
+    }
+
+    @Test
+    void testNetworkTrafficWorkflow_DeadlineExceeded() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(agentCoordinator, "workflowTimeoutSeconds", 1);
+        NetworkPacket packet = createTestNetworkPacket();
+        CompletableFuture<ThreatAlert> hangingAnalysis = new CompletableFuture<>();
+
+        when(orchestrator.<NetworkPacket, ThreatAlert>submitTask(eq("network-monitor"), any()))
+                .thenReturn(hangingAnalysis);
+
+        // Act
+        WorkflowResult<List<ResponseAction>> result = agentCoordinator
+                .processNetworkTrafficWorkflow(packet)
+                .get(10, TimeUnit.SECONDS);
+
+        // Assert
+        assertFalse(result.isSuccessful());
+        assertTrue(result.getError().contains("deadline exceeded"));
+        assertTrue(hangingAnalysis.isCompletedExceptionally());
+        verify(orchestrator, never()).submitTask(eq("threat-response"), any(), any(), anyString());
+        assertTrue(agentCoordinator.getAllActiveWorkflows().isEmpty());
+    }
+
+    @Test
+    void testNetworkTrafficWorkflow_RetryResumesFromFailedStep() throws Exception {
+        // Arrange
+        NetworkPacket packet = createTestNetworkPacket();
+        List<ResponseAction> actions = createTestResponseActions();
+
+        when(orchestrator.<NetworkPacket, ThreatAlert>submitTask(eq("network-monitor"), any()))
+                .thenReturn(CompletableFuture.completedFuture(createTestThreatAlert()));
+        when(orchestrator.<IntelligenceQuery, ThreatIntelligence>submitTask(eq("threat-intelligence"), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(createTestThreatIntelligence()));
+        stubPatternLearning();
+        when(orchestrator.<ThreatAlert, List<ResponseAction>>submitTask(eq("threat-response"), any(), any(), anyString()))
+                .thenReturn(CompletableFuture.failedFuture(new TimeoutException("response agent timed out")))
+                .thenReturn(CompletableFuture.completedFuture(actions));
+
+        // Act
+        WorkflowResult<List<ResponseAction>> failed = agentCoordinator
+                .processNetworkTrafficWorkflow(packet)
+                .get(5, TimeUnit.SECONDS);
+        WorkflowResult<List<ResponseAction>> retried = agentCoordinator
+                .processNetworkTrafficWorkflow(packet)
+                .get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertFalse(failed.isSuccessful());
+        assertTrue(failed.isRetryable());
+        assertTrue(retried.isSuccessful());
+        assertEquals(actions.size(), retried.getResult().size());
+
+        // Completed steps are reused; only the failed response step runs again, under the same key
+        verify(orchestrator, times(1)).submitTask(eq("network-monitor"), any());
+        verify(orchestrator, times(1)).submitTask(eq("threat-intelligence"), any(), any());
+        verify(orchestrator, times(2)).submitTask(eq("threat-response"), any(), any(),
+                eq(failed.getWorkflowId() + "/response-generation"));
+        assertEquals(1.0, meterRegistry.get("threat_detection_workflow_steps_reused_total")
+                .tag("step", "network-analysis").counter().count());
+    }
+
+    @Test
+    void testNetworkTrafficWorkflow_ReusedPacketIdIsNewWork() throws Exception {
+        // Arrange
+        when(orchestrator.<NetworkPacket, ThreatAlert>submitTask(eq("network-monitor"), any()))
+                .thenReturn(CompletableFuture.completedFuture(createTestThreatAlert()));
+        when(orchestrator.<IntelligenceQuery, ThreatIntelligence>submitTask(eq("threat-intelligence"), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(createTestThreatIntelligence()));
+        stubPatternLearning();
+        when(orchestrator.<ThreatAlert, List<ResponseAction>>submitTask(eq("threat-response"), any(), any(), anyString()))
+                .thenReturn(CompletableFuture.failedFuture(new TimeoutException("response agent timed out")))
+                .thenReturn(CompletableFuture.completedFuture(createTestResponseActions()));
+
+        // Act: a failed call, then an independent call for another packet with the same id
+        WorkflowResult<List<ResponseAction>> failed = agentCoordinator
+                .processNetworkTrafficWorkflow(createTestNetworkPacket())
+                .get(5, TimeUnit.SECONDS);
+        WorkflowResult<List<ResponseAction>> other = agentCoordinator
+                .processNetworkTrafficWorkflow(createTestNetworkPacket())
+                .get(5, TimeUnit.SECONDS);
+
+        // Assert: the second call neither resumes the first nor shares its response key
+        assertTrue(failed.isRetryable());
+        assertTrue(other.isSuccessful());
+        verify(orchestrator, times(2)).submitTask(eq("network-monitor"), any());
+        verify(orchestrator).submitTask(eq("threat-response"), any(), any(),
+                eq(failed.getWorkflowId() + "/response-generation"));
+        verify(orchestrator).submitTask(eq("threat-response"), any(), any(),
+                eq(other.getWorkflowId() + "/response-generation"));
     }
 
     @Test
@@ -139,7 +273,7 @@ class AgentCoordinatorTest {
 
         // Act
         WorkflowResult<ThreatCorrelationReport> result = agentCoordinator
-                .correlateThreatDataWorkflow(networkPackets, userActivities)
+                .correlateThreatDataWorkflow(networkPackets, userActivities, CorrelationCriteria.defaults())
                 .get();
 
         // Assert
@@ -169,29 +303,41 @@ class AgentCoordinatorTest {
     }
 
     @Test
-    void testMaxConcurrentWorkflowsLimit() {
+    void testMaxConcurrentWorkflowsLimit() throws Exception {
         // Set a very low limit for testing
         ReflectionTestUtils.setField(agentCoordinator, "maxConcurrentWorkflows", 1);
-        
-        // Fill up the workflow capacity
-        NetworkPacket packet1 = createTestNetworkPacket();
-        NetworkPacket packet2 = createTestNetworkPacket();
-        
-        when(orchestrator.<NetworkPacket, ThreatAlert>submitTask(any(), any()))
-                .thenReturn(CompletableFuture.completedFuture(null));
+        agentCoordinator.initializeMetrics();
 
-        // First workflow should succeed
-        assertDoesNotThrow(() -> {
-            agentCoordinator.processNetworkTrafficWorkflow(packet1);
-        });
+        CompletableFuture<ThreatAlert> pendingAnalysis = new CompletableFuture<>();
+        when(orchestrator.<NetworkPacket, ThreatAlert>submitTask(eq("network-monitor"), any()))
+                .thenReturn(pendingAnalysis)
+                .thenReturn(CompletableFuture.completedFuture(null));
 
-        // Second workflow should be rejected due to capacity limit
-        // Note: This test may need adjustment based on actual implementation
-        // as the limit check might be in a different place
+        // First workflow holds the only permit
+        CompletableFuture<WorkflowResult<List<ResponseAction>>> first =
+                agentCoordinator.processNetworkTrafficWorkflow(createTestNetworkPacket());
+
+        // Second workflow waits for the queue timeout and is rejected
+        CompletableFuture<WorkflowResult<List<ResponseAction>>> second =
+                agentCoordinator.processNetworkTrafficWorkflow(createTestNetworkPacket());
+        ExecutionException rejected = assertThrows(ExecutionException.class, second::get);
+        assertInstanceOf(WorkflowRejectedException.class, rejected.getCause());
+        assertEquals(Duration.ofSeconds(1), ((WorkflowRejectedException) rejected.getCause()).getRetryAfter());
+
+        // Once the first workflow finishes its permit is available again
+        pendingAnalysis.complete(null);
+        assertTrue(first.get(5, TimeUnit.SECONDS).isSuccessful());
+        assertTrue(agentCoordinator.processNetworkTrafficWorkflow(createTestNetworkPacket())
+                .get(5, TimeUnit.SECONDS).isSuccessful());
     }
 
     // Helper methods to create test data
 
+    private void stubPatternLearning() {
+        when(orchestrator.<PatternLearningData, Object>submitTask(eq("pattern-learning"), any(), eq(TaskPriority.LOW)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+    }
+
     private NetworkPacket createTestNetworkPacket() {
         NetworkPacket packet = new NetworkPacket();
         packet.setPacketId("test-packet-123");
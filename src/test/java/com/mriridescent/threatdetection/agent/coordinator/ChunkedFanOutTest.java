@@ -0,0 +1,98 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for bounded, chunked fan-out.
+ */
+class ChunkedFanOutTest {
+
+    @Test
+    void testWindowBoundsChunksInFlightAndKeepsInputOrder() throws Exception {
+        List<Integer> inputs = IntStream.range(0, 10).boxed().toList();
+        List<CompletableFuture<List<Integer>>> submitted = new ArrayList<>();
+        List<List<Integer>> reported = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<List<Integer>> result = ChunkedFanOut.<Integer, Integer>run(inputs, 3, 2,
+                chunk -> {
+                    CompletableFuture<List<Integer>> future = new CompletableFuture<>();
+                    submitted.add(future);
+                    return future.thenApply(ignored -> chunk.stream().map(i -> i * 10).toList());
+                },
+                (chunk, results) -> reported.add(chunk));
+
+        assertEquals(2, submitted.size());
+        // Completing the second chunk first frees one slot
+        submitted.get(1).complete(null);
+        assertEquals(3, submitted.size());
+        assertEquals(List.of(List.of(3, 4, 5)), reported);
+
+        submitted.get(0).complete(null);
+        submitted.get(2).complete(null);
+        assertEquals(4, submitted.size());
+        assertFalse(result.isDone());
+        submitted.get(3).complete(null);
+
+        assertEquals(IntStream.range(0, 10).map(i -> i * 10).boxed().toList(), result.get());
+        assertEquals(4, reported.size());
+    }
+
+    @Test
+    void testFailureCancelsChunksInFlightAndStopsSubmitting() {
+        List<Integer> inputs = IntStream.range(0, 100).boxed().toList();
+        List<CompletableFuture<List<Integer>>> submitted = new ArrayList<>();
+
+        CompletableFuture<List<Integer>> result = ChunkedFanOut.<Integer, Integer>run(inputs, 10, 3,
+                chunk -> {
+                    CompletableFuture<List<Integer>> future = new CompletableFuture<>();
+                    submitted.add(future);
+                    return future;
+                },
+                (chunk, results) -> { });
+
+        submitted.get(0).completeExceptionally(new TimeoutException("deadline"));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, result::get);
+        assertInstanceOf(TimeoutException.class, failure.getCause());
+        assertEquals(3, submitted.size());
+        assertTrue(submitted.get(1).isCancelled());
+        assertTrue(submitted.get(2).isCancelled());
+    }
+
+    @Test
+    void testCallerCancellationCancelsChunksInFlight() {
+        List<CompletableFuture<List<Integer>>> submitted = new ArrayList<>();
+        CompletableFuture<List<Integer>> result = ChunkedFanOut.<Integer, Integer>run(List.of(1, 2, 3, 4), 1, 2,
+                chunk -> {
+                    CompletableFuture<List<Integer>> future = new CompletableFuture<>();
+                    submitted.add(future);
+                    return future;
+                },
+                (chunk, results) -> { });
+
+        result.cancel(false);
+
+        assertEquals(2, submitted.size());
+        assertTrue(submitted.stream().allMatch(CompletableFuture::isCancelled));
+    }
+
+    @Test
+    void testSynchronousChunksCompleteWithoutRecursion() throws Exception {
+        List<Integer> inputs = IntStream.range(0, 200_000).boxed().toList();
+
+        List<Integer> result = ChunkedFanOut.<Integer, Integer>run(inputs, 1, 4,
+                CompletableFuture::completedFuture, (chunk, results) -> { }).get();
+
+        assertEquals(inputs, result);
+    }
+}
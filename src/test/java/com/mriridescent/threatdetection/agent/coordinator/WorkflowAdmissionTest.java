@@ -0,0 +1,71 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for workflow admission control.
+ */
+class WorkflowAdmissionTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testLowPriorityWorkflowsAreShedFirst() {
+        WorkflowAdmission admission = admission(10, Duration.ofMillis(10));
+
+        // Low priority workflows may use 7 of 10 permits, normal ones 9
+        for (int i = 0; i < 7; i++) {
+            admission.acquire("user-behavior", TaskPriority.LOW);
+        }
+        WorkflowRejectedException shed = assertThrows(WorkflowRejectedException.class,
+                () -> admission.acquire("user-behavior", TaskPriority.LOW));
+        assertEquals(TaskPriority.LOW, shed.getPriority());
+
+        admission.acquire("threat-correlation", TaskPriority.NORMAL);
+        admission.acquire("threat-correlation", TaskPriority.NORMAL);
+        assertThrows(WorkflowRejectedException.class,
+                () -> admission.acquire("threat-correlation", TaskPriority.NORMAL));
+
+        // The last permit is kept for the most urgent workflows
+        admission.acquire("network-traffic", TaskPriority.HIGH);
+        assertEquals(0, admission.availablePermits());
+        assertThrows(WorkflowRejectedException.class,
+                () -> admission.acquire("network-traffic", TaskPriority.HIGH));
+
+        assertEquals(1.0, meterRegistry.get("threat_detection_workflows_rejected_total")
+                .tag("priority", "low").tag("reason", "shed").counter().count());
+        assertEquals(1.0, meterRegistry.get("threat_detection_workflows_rejected_total")
+                .tag("priority", "high").tag("reason", "saturated").counter().count());
+    }
+
+    @Test
+    void testQueuedWorkflowIsAdmittedWhenPermitIsReleased() throws Exception {
+        WorkflowAdmission admission = admission(1, Duration.ofSeconds(5));
+        admission.acquire("network-traffic", TaskPriority.HIGH);
+
+        CompletableFuture<Void> queued = CompletableFuture.runAsync(
+                () -> admission.acquire("network-traffic", TaskPriority.HIGH));
+        Thread.sleep(50);
+        assertFalse(queued.isDone());
+
+        admission.release();
+        queued.get(5, TimeUnit.SECONDS);
+        assertEquals(0, admission.availablePermits());
+    }
+
+    private WorkflowAdmission admission(int maxConcurrent, Duration queueTimeout) {
+        return new WorkflowAdmission(maxConcurrent,
+                Map.of(TaskPriority.NORMAL, 0.1, TaskPriority.LOW, 0.3),
+                queueTimeout, Duration.ofSeconds(1), meterRegistry);
+    }
+}
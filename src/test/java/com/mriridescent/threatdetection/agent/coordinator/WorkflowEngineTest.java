@@ -0,0 +1,172 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import com.mriridescent.threatdetection.model.WorkflowExecution;
+import com.mriridescent.threatdetection.model.WorkflowStatus;
+import com.mriridescent.threatdetection.model.WorkflowStep;
+import com.mriridescent.threatdetection.model.WorkflowStepStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the DAG workflow engine.
+ */
+class WorkflowEngineTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final WorkflowEngine engine = new WorkflowEngine(executor, new SimpleMeterRegistry());
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testIndependentStepsOverlapAndTimingsAreRecorded() throws Exception {
+        CompletableFuture<String> left = new CompletableFuture<>();
+        CompletableFuture<String> right = new CompletableFuture<>();
+        WorkflowDefinition<Integer> definition = WorkflowDefinition.<Integer>builder("test")
+                .step("start", "Start").compute(ctx -> ctx.input() * 2)
+                .step("left", "Left").after("start").call(ctx -> left)
+                .step("right", "Right").after("start").call(ctx -> right)
+                .step("skipped", "Skipped").after("start").when(ctx -> false).compute(ctx -> "never")
+                .step("join", "Join").after("left", "right", "skipped")
+                    .compute(ctx -> ctx.get("left") + "+" + ctx.get("right") + "+" + ctx.get("skipped"))
+                .build();
+        WorkflowExecution execution = execution();
+
+        CompletableFuture<WorkflowContext<Integer>> outcome = engine.execute(definition, 21, execution, deadline());
+        awaitRunning(execution, 2);
+        left.complete("L");
+        right.complete("R");
+
+        WorkflowContext<Integer> context = outcome.get(5, TimeUnit.SECONDS);
+        assertEquals(42, context.<Integer>get("start"));
+        assertEquals("L+R+null", context.get("join"));
+        assertEquals(WorkflowStepStatus.SKIPPED, step(execution, "skipped").getStatus());
+        WorkflowStep join = step(execution, "join");
+        assertEquals(WorkflowStepStatus.COMPLETED, join.getStatus());
+        assertNotNull(join.getDurationMillis());
+    }
+
+    @Test
+    void testParallelismIsBounded() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        WorkflowDefinition.Builder<Void> builder = WorkflowDefinition.<Void>builder("bounded").maxParallelSteps(2);
+        for (int i = 0; i < 6; i++) {
+            builder.step("step-" + i, "Step " + i).call(ctx -> CompletableFuture.supplyAsync(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(20);
+                running.decrementAndGet();
+                return null;
+            }, executor));
+        }
+
+        engine.execute(builder.build(), null, execution(), deadline()).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void testFailedStepFailsWorkflowAndSkipsDependents() {
+        AtomicInteger dependentRuns = new AtomicInteger();
+        WorkflowDefinition<Void> definition = WorkflowDefinition.<Void>builder("failing")
+                .step("broken", "Broken").call(ctx -> CompletableFuture.failedFuture(new IllegalStateException("boom")))
+                .step("dependent", "Dependent").after("broken").compute(ctx -> dependentRuns.incrementAndGet())
+                .build();
+        WorkflowExecution execution = execution();
+
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> engine.execute(definition, null, execution, deadline()).get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(IllegalStateException.class, ex.getCause());
+        assertEquals(0, dependentRuns.get());
+        assertEquals(WorkflowStepStatus.FAILED, step(execution, "broken").getStatus());
+    }
+
+    @Test
+    void testFailedStepCancelsRunningSteps() throws Exception {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        CompletableFuture<String> broken = new CompletableFuture<>();
+        CompletableFuture<Void> progressReported = new CompletableFuture<>();
+        WorkflowDefinition<Void> definition = WorkflowDefinition.<Void>builder("failing")
+                .step("slow", "Slow").call(ctx -> {
+                    ctx.reportProgress("slow", 3, 10);
+                    progressReported.complete(null);
+                    return slow;
+                })
+                .step("broken", "Broken").call(ctx -> broken)
+                .build();
+        WorkflowExecution execution = execution();
+
+        CompletableFuture<WorkflowContext<Void>> outcome = engine.execute(definition, null, execution, deadline());
+        awaitRunning(execution, 2);
+        progressReported.get(5, TimeUnit.SECONDS);
+        assertEquals(3, step(execution, "slow").getCompletedItems());
+        assertEquals(10, step(execution, "slow").getTotalItems());
+        broken.completeExceptionally(new IllegalStateException("boom"));
+
+        assertThrows(ExecutionException.class, () -> outcome.get(5, TimeUnit.SECONDS));
+        assertTrue(slow.isCancelled());
+    }
+
+    @Test
+    void testCyclesAreRejected() {
+        WorkflowDefinition.Builder<Void> builder = WorkflowDefinition.<Void>builder("cyclic")
+                .step("a", "A").after("b").compute(ctx -> null)
+                .step("b", "B").after("a").compute(ctx -> null);
+
+        assertThrows(IllegalStateException.class, builder::build);
+    }
+
+    private static WorkflowExecution execution() {
+        return WorkflowExecution.builder()
+                .workflowId("wf-1")
+                .workflowName("test")
+                .status(WorkflowStatus.RUNNING)
+                .startTime(LocalDateTime.now())
+                .steps(new CopyOnWriteArrayList<>())
+                .build();
+    }
+
+    private static WorkflowDeadline deadline() {
+        return WorkflowDeadline.after(Duration.ofSeconds(5));
+    }
+
+    private static WorkflowStep step(WorkflowExecution execution, String name) {
+        return execution.getSteps().stream()
+                .filter(step -> step.getStepName().equals(name))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static void awaitRunning(WorkflowExecution execution, int count) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (execution.getSteps().stream().filter(s -> s.getStatus() == WorkflowStepStatus.RUNNING).count() < count
+                && System.nanoTime() < deadline) {
+            sleep(1);
+        }
+        assertEquals(count, execution.getSteps().stream().filter(s -> s.getStatus() == WorkflowStepStatus.RUNNING).count());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
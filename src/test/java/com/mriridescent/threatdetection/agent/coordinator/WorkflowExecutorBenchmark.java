@@ -0,0 +1,145 @@
+package com.mriridescent.threatdetection.agent.coordinator;
+
+import com.mriridescent.threatdetection.config.AgentConfig;
+import com.mriridescent.threatdetection.model.NetworkPacket;
+import com.mriridescent.threatdetection.model.ResponseAction;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.WorkflowResult;
+import com.mriridescent.threatdetection.orchestration.AgentOrchestrator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Compares coordinator workflow throughput on virtual threads against the platform pool fallback.
+ *
+ * Workflows are run through {@link AgentCoordinator#processNetworkTrafficWorkflow}, as the API runs
+ * them, against agents that answer each step a few milliseconds later. Every packet raises an
+ * alert, so each workflow waits on analysis, intelligence enrichment and response generation.
+ *
+ * Run with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.mriridescent.threatdetection.agent.coordinator.WorkflowExecutorBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WorkflowExecutorBenchmark {
+
+    private static final long STEP_LATENCY_MILLIS = 5;
+
+    @Param({"true", "false"})
+    private boolean virtualThreads;
+
+    @Param({"1000", "10000"})
+    private int concurrentWorkflows;
+
+    private AsyncTaskExecutor workflowExecutor;
+    private ScheduledExecutorService agents;
+    private AgentCoordinator coordinator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AgentConfig config = new AgentConfig();
+        ReflectionTestUtils.setField(config, "virtualThreads", virtualThreads);
+        workflowExecutor = config.workflowExecutor();
+        agents = Executors.newScheduledThreadPool(4);
+
+        AgentOrchestrator orchestrator = mock(AgentOrchestrator.class, withSettings()
+                .stubOnly()
+                .defaultAnswer(invocation -> invocation.getMethod().getName().equals("submitTask")
+                        ? agentStep(invocation.getArgument(0))
+                        : null));
+        coordinator = new AgentCoordinator(orchestrator, new SimpleMeterRegistry(), workflowExecutor);
+        ReflectionTestUtils.setField(coordinator, "maxConcurrentWorkflows", concurrentWorkflows);
+        ReflectionTestUtils.setField(coordinator, "admissionQueueTimeout", Duration.ofMillis(50));
+        ReflectionTestUtils.setField(coordinator, "admissionRetryAfter", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(coordinator, "checkpointRetention", Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(coordinator, "workflowTimeoutSeconds", 300);
+        ReflectionTestUtils.setField(coordinator, "enableIntelligenceEnrichment", true);
+        ReflectionTestUtils.setField(coordinator, "intelligenceTimeoutSeconds", 30);
+        coordinator.initializeMetrics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (workflowExecutor instanceof AutoCloseable closeable) {
+            closeable.close();
+        } else if (workflowExecutor instanceof DisposableBean disposable) {
+            disposable.destroy();
+        }
+        agents.shutdownNow();
+    }
+
+    @Benchmark
+    public int networkTrafficWorkflows() {
+        List<CompletableFuture<WorkflowResult<List<ResponseAction>>>> workflows = new ArrayList<>(concurrentWorkflows);
+        for (int i = 0; i < concurrentWorkflows; i++) {
+            NetworkPacket packet = new NetworkPacket();
+            packet.setPacketId("packet-" + i);
+            packet.setSourceIp("203.0.113.7");
+            workflows.add(coordinator.processNetworkTrafficWorkflow(packet));
+        }
+        CompletableFuture.allOf(workflows.toArray(new CompletableFuture[0])).join();
+        if (!workflows.stream().allMatch(workflow -> workflow.join().isSuccessful())) {
+            throw new IllegalStateException("Workflow failed");
+        }
+        return workflows.size();
+    }
+
+    /**
+     * Agent answer to a submitted step: an alert from analysis, no response actions, and no
+     * intelligence verdict.
+     */
+    private CompletableFuture<Object> agentStep(String agentId) {
+        Object result = switch (agentId) {
+            case "network-monitor" -> {
+                ThreatAlert alert = new ThreatAlert();
+                alert.setSourceIp("203.0.113.7");
+                yield alert;
+            }
+            case "threat-response" -> List.of();
+            default -> null;
+        };
+        CompletableFuture<Object> step = new CompletableFuture<>();
+        agents.schedule(() -> step.complete(result), STEP_LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        return step;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WorkflowExecutorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,49 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for per-agent latency histograms.
+ */
+class AgentLatencyRecorderTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testPercentilesAreReportedPerPhase() {
+        AgentLatencyRecorder recorder = new AgentLatencyRecorder("test-agent", meterRegistry);
+        for (int millis = 1; millis <= 100; millis++) {
+            recorder.recordProcessing(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        recorder.recordQueueWait(TimeUnit.MILLISECONDS.toNanos(3));
+
+        LatencySnapshot processing = recorder.processing();
+        assertEquals(100, processing.getCount());
+        assertEquals(50, processing.getP50Millis(), 1.0);
+        assertEquals(99, processing.getP99Millis(), 1.0);
+        assertEquals(100, processing.getMaxMillis(), 1.0);
+        assertEquals(1, recorder.queueWait().getCount());
+
+        double p99Seconds = meterRegistry.get("threat_detection_agent_latency")
+                .tag("agent", "test-agent")
+                .tag("phase", "processing")
+                .tag("quantile", "0.99")
+                .gauge()
+                .value();
+        assertEquals(0.099, p99Seconds, 0.001);
+    }
+
+    @Test
+    void testEmptyRecorderReportsEmptySnapshot() {
+        AgentLatencyRecorder recorder = new AgentLatencyRecorder("idle-agent", meterRegistry);
+
+        assertSame(LatencySnapshot.EMPTY, recorder.queueWait());
+        assertSame(LatencySnapshot.EMPTY, recorder.processing());
+    }
+}
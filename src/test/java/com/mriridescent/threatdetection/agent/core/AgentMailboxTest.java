@@ -0,0 +1,299 @@
+package com.mriridescent.threatdetection.agent.core;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the bounded agent mailbox, its overflow policies and priority scheduling.
+ */
+class AgentMailboxTest {
+
+    private ExecutorService executor;
+    private MeterRegistry meterRegistry;
+    private PriorityScheduler scheduler;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        meterRegistry = new SimpleMeterRegistry();
+        scheduler = PriorityScheduler.unlimited(Duration.ofSeconds(1), meterRegistry);
+        release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testProcessesAllTasksWithBoundedConsumers() throws Exception {
+        AgentMailbox mailbox = mailbox(AgentMailbox.OverflowPolicy.BLOCK, 100, 2);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int value = i;
+            futures.add(mailbox.submit(() -> {
+                maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                sleep(1);
+                concurrent.decrementAndGet();
+                return value;
+            }));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, futures.get(i).get());
+        }
+        assertTrue(maxConcurrent.get() <= 2);
+        assertEquals(50, meterRegistry.get("threat_detection_agent_mailbox_wait").tag("priority", "normal").timer().count());
+    }
+
+    @Test
+    void testRejectPolicyFailsFastWithRetryAfterHint() throws Exception {
+        AgentMailbox mailbox = mailbox(AgentMailbox.OverflowPolicy.REJECT, 1, 1);
+        mailbox.submit(this::awaitRelease);
+        awaitDepth(mailbox, 0);
+        mailbox.submit(() -> "queued");
+
+        CompletableFuture<String> rejected = mailbox.submit(() -> "rejected");
+
+        ExecutionException ex = assertThrows(ExecutionException.class, rejected::get);
+        AgentOverloadedException overloaded = assertInstanceOf(AgentOverloadedException.class, ex.getCause());
+        assertEquals("test-agent", overloaded.getAgentId());
+        assertTrue(overloaded.getRetryAfter().compareTo(Duration.ZERO) > 0);
+        assertEquals(1.0, overflowCount("rejected"));
+    }
+
+    @Test
+    void testDropOldestEvictsQueuedTask() throws Exception {
+        AgentMailbox mailbox = mailbox(AgentMailbox.OverflowPolicy.DROP_OLDEST, 1, 1);
+        mailbox.submit(this::awaitRelease);
+        awaitDepth(mailbox, 0);
+        CompletableFuture<String> oldest = mailbox.submit(() -> "oldest");
+
+        CompletableFuture<String> newest = mailbox.submit(() -> "newest");
+        release.countDown();
+
+        ExecutionException ex = assertThrows(ExecutionException.class, oldest::get);
+        assertInstanceOf(AgentOverloadedException.class, ex.getCause());
+        assertEquals("newest", newest.get(5, TimeUnit.SECONDS));
+        assertEquals(1.0, overflowCount("dropped"));
+    }
+
+    @Test
+    void testDropOldestRefusalCountsAsRejected() {
+        AgentMailbox mailbox = mailbox(AgentMailbox.OverflowPolicy.DROP_OLDEST, 1, 1);
+        mailbox.submit(this::awaitRelease);
+        awaitDepth(mailbox, 0);
+        CompletableFuture<String> critical = mailbox.submit(TaskPriority.CRITICAL, () -> "critical");
+
+        // Nothing queued is less urgent than the newcomer, so it is refused rather than evicting
+        CompletableFuture<String> low = mailbox.submit(TaskPriority.LOW, () -> "low");
+
+        assertTrue(low.isCompletedExceptionally());
+        assertFalse(critical.isDone());
+        assertEquals(0.0, overflowCount("dropped"));
+        assertEquals(1.0, overflowCount("rejected"));
+    }
+
+    @Test
+    void testRejectedConsumerFailsTasksInsteadOfRunningOnCaller() {
+        Thread caller = Thread.currentThread();
+        AgentMailbox mailbox = new AgentMailbox("test-agent", settings(AgentMailbox.OverflowPolicy.BLOCK, 10, 1),
+                command -> {
+                    throw new RejectedExecutionException("saturated");
+                }, scheduler, meterRegistry);
+
+        CompletableFuture<Thread> task = mailbox.submit(Thread::currentThread);
+
+        ExecutionException ex = assertThrows(ExecutionException.class, task::get);
+        assertInstanceOf(AgentOverloadedException.class, ex.getCause());
+        assertEquals(0, mailbox.depth());
+        assertEquals(1.0, overflowCount("executor_rejected"));
+
+        // The consumer slot was given back, so the mailbox recovers once the executor does
+        AgentMailbox recovering = new AgentMailbox("recovering", settings(AgentMailbox.OverflowPolicy.BLOCK, 10, 1),
+                new Executor() {
+                    private boolean saturated = true;
+
+                    @Override
+                    public void execute(Runnable command) {
+                        if (saturated) {
+                            saturated = false;
+                            throw new RejectedExecutionException("saturated");
+                        }
+                        executor.execute(command);
+                    }
+                }, scheduler, meterRegistry);
+        assertTrue(recovering.submit(() -> "first").isCompletedExceptionally());
+        assertNotSame(caller, recovering.submit(Thread::currentThread).join());
+    }
+
+    @Test
+    void testBlockPolicyTimesOutWhenMailboxStaysFull() {
+        AgentMailbox mailbox = mailbox(AgentMailbox.OverflowPolicy.BLOCK, 1, 1);
+        mailbox.submit(this::awaitRelease);
+        awaitDepth(mailbox, 0);
+        mailbox.submit(() -> "queued");
+
+        CompletableFuture<String> blocked;
+        try (AgentMailbox.BlockingScope ignored = AgentMailbox.allowBlocking()) {
+            blocked = mailbox.submit(() -> "blocked");
+        }
+
+        assertTrue(blocked.isCompletedExceptionally());
+        assertEquals(1.0, overflowCount("block_timeout"));
+    }
+
+    @Test
+    void testBlockPolicyRefusesSubmittersThatMayNotBlock() throws Exception {
+        AgentMailbox mailbox = mailbox(AgentMailbox.OverflowPolicy.BLOCK, 1, 1);
+        AgentMailbox upstream = new AgentMailbox("upstream", settings(AgentMailbox.OverflowPolicy.BLOCK, 10, 1),
+                executor, scheduler, meterRegistry);
+        mailbox.submit(this::awaitRelease);
+        awaitDepth(mailbox, 0);
+        mailbox.submit(() -> "queued");
+
+        // Another agent's consumer submitting downstream is refused rather than stalled
+        CompletableFuture<String> fromConsumer = upstream.<CompletableFuture<String>>submit(
+                () -> mailbox.submit(() -> "downstream")).get(5, TimeUnit.SECONDS);
+        ExecutionException refused = assertThrows(ExecutionException.class, () -> fromConsumer.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(AgentOverloadedException.class, refused.getCause());
+
+        // So is any thread that has not opted in, without waiting for the block timeout
+        assertTrue(mailbox.submit(() -> "unscoped").isCompletedExceptionally());
+        assertEquals(2.0, meterRegistry.get("threat_detection_agent_mailbox_overflow_total")
+                .tag("agent", "test-agent").tag("outcome", "rejected").counter().count());
+        assertEquals(0.0, meterRegistry.get("threat_detection_agent_mailbox_overflow_total")
+                .tag("agent", "test-agent").tag("outcome", "block_timeout").counter().count());
+    }
+
+    @Test
+    void testRejectIsTheDefaultPolicy() {
+        assertEquals(AgentMailbox.OverflowPolicy.REJECT, AgentMailbox.Settings.builder().build().getOverflowPolicy());
+    }
+
+    @Test
+    void testHigherPriorityClassRunsFirst() throws Exception {
+        AgentMailbox mailbox = mailbox(AgentMailbox.OverflowPolicy.BLOCK, 10, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        mailbox.submit(this::awaitRelease);
+        awaitDepth(mailbox, 0);
+
+        CompletableFuture<Boolean> low = mailbox.submit(TaskPriority.LOW, () -> order.add("low"));
+        CompletableFuture<Boolean> normal = mailbox.submit(TaskPriority.NORMAL, () -> order.add("normal"));
+        CompletableFuture<Boolean> critical = mailbox.submit(TaskPriority.CRITICAL, () -> order.add("critical"));
+        release.countDown();
+
+        CompletableFuture.allOf(low, normal, critical).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("critical", "normal", "low"), order);
+        assertEquals(1, meterRegistry.get("threat_detection_agent_mailbox_wait").tag("priority", "low").timer().count());
+    }
+
+    @Test
+    void testAgedLowPriorityTaskOvertakesNewerCriticalTask() throws Exception {
+        scheduler = PriorityScheduler.unlimited(Duration.ofMillis(10), meterRegistry);
+        AgentMailbox mailbox = mailbox(AgentMailbox.OverflowPolicy.BLOCK, 10, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        mailbox.submit(this::awaitRelease);
+        awaitDepth(mailbox, 0);
+
+        CompletableFuture<Boolean> low = mailbox.submit(TaskPriority.LOW, () -> order.add("low"));
+        Thread.sleep(100);
+        CompletableFuture<Boolean> critical = mailbox.submit(TaskPriority.CRITICAL, () -> order.add("critical"));
+        release.countDown();
+
+        CompletableFuture.allOf(low, critical).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("low", "critical"), order);
+    }
+
+    @Test
+    void testClassConcurrencyLimitIsSharedAcrossMailboxes() throws Exception {
+        scheduler = new PriorityScheduler(Map.of(TaskPriority.LOW, 1), Duration.ofSeconds(1), meterRegistry);
+        AgentMailbox first = new AgentMailbox("first", settings(AgentMailbox.OverflowPolicy.BLOCK, 10, 2),
+                executor, scheduler, meterRegistry);
+        AgentMailbox second = new AgentMailbox("second", settings(AgentMailbox.OverflowPolicy.BLOCK, 10, 2),
+                executor, scheduler, meterRegistry);
+
+        first.submit(TaskPriority.LOW, this::awaitRelease);
+        awaitDepth(first, 0);
+        CompletableFuture<String> blocked = second.submit(TaskPriority.LOW, () -> "low");
+        CompletableFuture<String> unaffected = second.submit(TaskPriority.NORMAL, () -> "normal");
+
+        assertEquals("normal", unaffected.get(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertFalse(blocked.isDone());
+
+        release.countDown();
+        assertEquals("low", blocked.get(5, TimeUnit.SECONDS));
+    }
+
+    private AgentMailbox mailbox(AgentMailbox.OverflowPolicy policy, int capacity, int consumers) {
+        return new AgentMailbox("test-agent", settings(policy, capacity, consumers), executor, scheduler, meterRegistry);
+    }
+
+    private AgentMailbox.Settings settings(AgentMailbox.OverflowPolicy policy, int capacity, int consumers) {
+        return AgentMailbox.Settings.builder()
+                .capacity(capacity)
+                .consumers(consumers)
+                .overflowPolicy(policy)
+                .blockTimeout(Duration.ofMillis(50))
+                .build();
+    }
+
+    private double overflowCount(String outcome) {
+        return meterRegistry.get("threat_detection_agent_mailbox_overflow_total")
+                .tag("outcome", outcome)
+                .counter()
+                .count();
+    }
+
+    private String awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "released";
+    }
+
+    private void awaitDepth(AgentMailbox mailbox, int depth) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mailbox.depth() != depth && System.nanoTime() < deadline) {
+            sleep(1);
+        }
+        assertEquals(depth, mailbox.depth());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
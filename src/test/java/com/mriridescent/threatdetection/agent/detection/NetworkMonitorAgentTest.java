@@ -0,0 +1,123 @@
+package com.mriridescent.threatdetection.agent.detection;
+
+import com.mriridescent.threatdetection.agent.core.AgentMailboxFactory;
+import com.mriridescent.threatdetection.intel.IocStore;
+import com.mriridescent.threatdetection.model.NetworkPacket;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.packet.FlowTable;
+import com.mriridescent.threatdetection.packet.NetworkPackets;
+import com.mriridescent.threatdetection.packet.PacketBatch;
+import com.mriridescent.threatdetection.signature.SignatureStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.mriridescent.threatdetection.packet.TestPackets.tcp;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the network-monitor agent's results and its flow alerts.
+ */
+class NetworkMonitorAgentTest {
+
+    private static final String FLOWS = "threat-detection.agents.network-monitor.flows.";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<ThreatAlert> flowAlerts = new CopyOnWriteArrayList<>();
+
+    @Test
+    void testFlowAlertsAreNotResultsOfOtherInputs() {
+        NetworkMonitorAgent agent = agent(new MockEnvironment().withProperty(FLOWS + "exfiltration.bytes", "1000"));
+        // A large transfer on one flow, and a packet to a suspicious port on another
+        NetworkPacket transfer = tcp("10.0.0.1", 50000, "10.0.0.2", 443, 1500, null, LocalDateTime.now());
+        NetworkPacket suspicious = tcp("10.0.0.3", 50001, "10.0.0.4", 4444, 60, null, LocalDateTime.now());
+
+        List<ThreatAlert> results = agent.processBatch(List.of(transfer, transfer, suspicious));
+
+        assertNull(results.get(0));
+        assertNull(results.get(1));
+        assertEquals("10.0.0.4", results.get(2).getDestinationIp());
+        assertEquals(1, flowAlerts.size());
+        assertEquals("Possible Data Exfiltration", flowAlerts.get(0).getThreatType());
+        assertEquals("10.0.0.2", flowAlerts.get(0).getDestinationIp());
+
+        // A packet batch's result only has its packets' own alerts
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 4);
+        NetworkPackets.append(batch, transfer);
+        NetworkPackets.append(batch, tcp("10.0.0.5", 50002, "10.0.0.6", 443, 5000, null, LocalDateTime.now()));
+        List<ThreatAlert> alerts = agent.processBatch(List.of(batch)).get(0) instanceof List<?> list
+                ? (List<ThreatAlert>) list : null;
+        assertEquals(List.of(), alerts);
+        assertEquals(2, flowAlerts.size());
+        assertEquals("10.0.0.6", flowAlerts.get(1).getDestinationIp());
+    }
+
+    @Test
+    void testIdleFlowsCompleteWithoutFurtherTraffic() {
+        NetworkMonitorAgent agent = agent(new MockEnvironment()
+                .withProperty(FLOWS + "idle-timeout", "5s")
+                .withProperty(FLOWS + "scan.threshold", "3"));
+        // Unanswered connection attempts a minute ago
+        long minuteAgo = (System.currentTimeMillis() - 60_000) * 1_000;
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 4);
+        for (int port = 1; port <= 3; port++) {
+            int i = batch.append();
+            batch.setSource(i, 0, 0xffff_0a00_0009L, 40000 + port);
+            batch.setDestination(i, 0, 0xffff_0a00_0001L, port);
+            batch.setProtocol(i, NetworkPackets.TCP);
+            batch.setTcpFlags(i, FlowTable.TCP_SYN);
+            batch.setTimestamp(i, minuteAgo);
+        }
+        agent.processBatch(List.of(batch));
+        assertTrue(flowAlerts.isEmpty());
+
+        agent.expireFlows();
+        assertEquals(1, flowAlerts.size());
+        assertEquals("Port Scan", flowAlerts.get(0).getThreatType());
+    }
+
+    @Test
+    void testReplayedCapturesKeepTheirOwnTime() {
+        NetworkMonitorAgent agent = agent(new MockEnvironment()
+                .withProperty(FLOWS + "idle-timeout", "5s")
+                .withProperty(FLOWS + "scan.threshold", "1"));
+        long now = System.currentTimeMillis() * 1_000;
+        agent.processBatch(List.of(syn(PacketBatch.LIVE_CAPTURE, now)));
+
+        // A capture from a year ago neither expires live flows nor is expired by the wall clock
+        agent.processBatch(List.of(syn(1, now - 365L * 86_400_000_000L)));
+        agent.expireFlows();
+        assertTrue(flowAlerts.isEmpty());
+
+        // Time moving on in the capture completes its flow
+        agent.processBatch(List.of(syn(1, now - 365L * 86_400_000_000L + 60_000_000L)));
+        assertEquals(1, flowAlerts.size());
+    }
+
+    private NetworkMonitorAgent agent(MockEnvironment environment) {
+        // Durations as in application.yml
+        environment.setConversionService(new ApplicationConversionService());
+        return new NetworkMonitorAgent(Runnable::run, new AgentMailboxFactory(environment, meterRegistry),
+                new IocStore(environment, meterRegistry), new SignatureStore(environment, meterRegistry),
+                List.of((agentId, alert) -> flowAlerts.add(alert)), environment, meterRegistry);
+    }
+
+    private static PacketBatch syn(int capture, long time) {
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 1);
+        int i = batch.append();
+        batch.setSource(i, 0, 0xffff_0a00_0009L, 40000 + (int) (time / 1_000_000 % 1000));
+        batch.setDestination(i, 0, 0xffff_0a00_0001L, 22);
+        batch.setProtocol(i, NetworkPackets.TCP);
+        batch.setTcpFlags(i, FlowTable.TCP_SYN);
+        batch.setTimestamp(i, time);
+        batch.setCapture(capture);
+        return batch;
+    }
+}
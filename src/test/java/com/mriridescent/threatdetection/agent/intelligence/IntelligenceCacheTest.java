@@ -0,0 +1,196 @@
+package com.mriridescent.threatdetection.agent.intelligence;
+
+import com.mriridescent.threatdetection.model.IntelligenceQuery;
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+import com.mriridescent.threatdetection.model.ThreatIntelligence;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the threat intelligence verdict cache.
+ */
+class IntelligenceCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong(1);
+    private final AtomicInteger loads = new AtomicInteger();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testTtlDependsOnTypeAndVerdict() {
+        IntelligenceCache cache = cache(IntelligenceCache.Settings.builder()
+                .ttlByType(Map.of(IndicatorType.IP, Duration.ofHours(1)))
+                .negativeTtl(Duration.ofMinutes(15))
+                .refreshAhead(1.0)
+                .build());
+
+        cache.get(query("203.0.113.7", IndicatorType.IP));
+        cache.get(query("10.0.0.7", IndicatorType.IP));
+        cache.get(query("abc123", IndicatorType.HASH));
+        assertEquals(3, loads.get());
+
+        // The clean verdict expires first, the IP verdict after an hour, the hash after the default day
+        advance(Duration.ofMinutes(20));
+        cache.get(query("203.0.113.7", IndicatorType.IP));
+        cache.get(query("10.0.0.7", IndicatorType.IP));
+        assertEquals(4, loads.get());
+
+        advance(Duration.ofMinutes(50));
+        cache.get(query("203.0.113.7", IndicatorType.IP));
+        cache.get(query("abc123", IndicatorType.HASH));
+        assertEquals(5, loads.get());
+
+        assertEquals(2.0, meterRegistry.get("threat_detection_intel_cache_requests_total")
+                .tag("result", "hit").functionCounter().count());
+        assertEquals(5.0, meterRegistry.get("threat_detection_intel_cache_requests_total")
+                .tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void testReadsNearExpiryRefreshInBackground() {
+        IntelligenceCache cache = cache(IntelligenceCache.Settings.builder()
+                .ttlByType(Map.of(IndicatorType.DOMAIN, Duration.ofMinutes(10)))
+                .refreshAhead(0.8)
+                .build());
+        IntelligenceQuery query = query("evil.test", IndicatorType.DOMAIN);
+
+        ThreatIntelligence first = cache.get(query);
+        advance(Duration.ofMinutes(7));
+        assertSame(first, cache.get(query));
+        assertEquals(1, loads.get());
+
+        // Past 80% of the ttl the cached verdict is returned and reloaded behind it
+        advance(Duration.ofMinutes(2));
+        assertSame(first, cache.get(query));
+        assertEquals(2, loads.get());
+
+        // The reloaded verdict lives a full ttl from its reload
+        advance(Duration.ofMinutes(5));
+        assertNotSame(first, cache.get(query));
+        assertEquals(2, loads.get());
+        assertEquals(1.0, meterRegistry.get("threat_detection_intel_cache_refreshes_total").functionCounter().count());
+    }
+
+    @Test
+    void testConcurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IntelligenceCache cache = new IntelligenceCache(IntelligenceCache.Settings.builder().build(), query -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            ThreatIntelligence intelligence = new ThreatIntelligence();
+            intelligence.setMalicious(true);
+            return intelligence;
+        }, Runnable::run, nanos::get, meterRegistry);
+        IntelligenceQuery query = query("203.0.113.7", IndicatorType.IP);
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            CompletableFuture<ThreatIntelligence> leader = CompletableFuture.supplyAsync(() -> cache.get(query), callers);
+            await(loading);
+            List<CompletableFuture<ThreatIntelligence>> followers = List.of(
+                    CompletableFuture.supplyAsync(() -> cache.get(query), callers),
+                    CompletableFuture.supplyAsync(() -> cache.get(query), callers));
+            while (meterRegistry.get("threat_detection_single_flight_calls_total")
+                    .tag("result", "coalesced").counter().count() < 2) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            ThreatIntelligence verdict = leader.get(5, TimeUnit.SECONDS);
+            for (CompletableFuture<ThreatIntelligence> follower : followers) {
+                assertSame(verdict, follower.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void testSlowLoadDoesNotBlockOtherIndicators() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IntelligenceCache cache = new IntelligenceCache(IntelligenceCache.Settings.builder().build(), query -> {
+            if (query.getIndicator().equals("slow.test")) {
+                loading.countDown();
+                await(release);
+            }
+            loads.incrementAndGet();
+            return new ThreatIntelligence();
+        }, Runnable::run, nanos::get, meterRegistry);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<ThreatIntelligence> slow = CompletableFuture.supplyAsync(
+                    () -> cache.get(query("slow.test", IndicatorType.DOMAIN)), callers);
+            await(loading);
+
+            // Enough indicators to share the slow one's hash bin and to grow the table
+            CompletableFuture<Void> others = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    cache.get(query("host" + i + ".test", IndicatorType.DOMAIN));
+                }
+            }, callers);
+            others.get(5, TimeUnit.SECONDS);
+            assertFalse(slow.isDone());
+            assertEquals(1000, loads.get());
+
+            release.countDown();
+            assertSame(slow.get(5, TimeUnit.SECONDS), cache.getIfPresent(query("slow.test", IndicatorType.DOMAIN)));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        IntelligenceCache cache = cache(IntelligenceCache.Settings.builder().maximumSize(100).build());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get(query("198.51.100." + i, IndicatorType.IP));
+        }
+
+        assertTrue(cache.estimatedSize() <= 100);
+    }
+
+    private IntelligenceCache cache(IntelligenceCache.Settings settings) {
+        return new IntelligenceCache(settings, query -> {
+            loads.incrementAndGet();
+            ThreatIntelligence intelligence = new ThreatIntelligence();
+            intelligence.setIndicator(query.getIndicator());
+            intelligence.setMalicious(!query.getIndicator().startsWith("10."));
+            return intelligence;
+        }, Runnable::run, nanos::get, meterRegistry);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void advance(Duration duration) {
+        nanos.addAndGet(duration.toNanos());
+    }
+
+    private static IntelligenceQuery query(String indicator, IndicatorType type) {
+        return IntelligenceQuery.builder().indicator(indicator).indicatorType(type).build();
+    }
+}
@@ -0,0 +1,57 @@
+package com.mriridescent.threatdetection.controller;
+
+import com.mriridescent.threatdetection.agent.coordinator.AgentCoordinator;
+import com.mriridescent.threatdetection.correlation.EntityGraph;
+import com.mriridescent.threatdetection.correlation.StreamingThreatCorrelator;
+import com.mriridescent.threatdetection.exception.GlobalExceptionHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Tests for request validation in the agent coordinator API.
+ */
+@ExtendWith(MockitoExtension.class)
+class AgentCoordinatorControllerTest {
+
+    @Mock
+    private AgentCoordinator agentCoordinator;
+
+    @Mock
+    private StreamingThreatCorrelator streamingCorrelator;
+
+    @Mock
+    private EntityGraph entityGraph;
+
+    @InjectMocks
+    private AgentCoordinatorController controller;
+
+    @Test
+    void testMalformedOrNegativeTimeWindowIsBadRequest() {
+        for (String timeWindow : List.of("30 minutes", "-PT5M")) {
+            ThreatCorrelationRequest request = ThreatCorrelationRequest.builder()
+                    .networkPackets(List.of())
+                    .userActivities(List.of())
+                    .timeWindow(timeWindow)
+                    .build();
+
+            ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                    () -> controller.correlateThreatData(request));
+
+            assertEquals(HttpStatus.BAD_REQUEST, ex.getStatusCode());
+            assertTrue(ex.getReason().contains(timeWindow));
+            assertEquals(HttpStatus.BAD_REQUEST,
+                    new GlobalExceptionHandler().handleResponseStatusException(ex).getStatusCode());
+        }
+        verifyNoInteractions(agentCoordinator);
+    }
+}
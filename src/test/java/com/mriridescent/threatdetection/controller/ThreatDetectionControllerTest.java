@@ -0,0 +1,196 @@
+package com.mriridescent.threatdetection.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import com.mriridescent.threatdetection.exception.GlobalExceptionHandler;
+import com.mriridescent.threatdetection.model.ThreatIntelligence;
+import com.mriridescent.threatdetection.orchestration.AgentOrchestrator;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Tests for the streaming threat intelligence batch endpoint.
+ */
+@ExtendWith(MockitoExtension.class)
+class ThreatDetectionControllerTest {
+
+    private static final String BATCH = "[{\"indicator\":\"203.0.113.7\",\"indicatorType\":\"IP\"},"
+            + "{\"indicator\":\"evil.test\",\"indicatorType\":\"DOMAIN\"}]";
+
+    @Mock
+    private AgentOrchestrator orchestrator;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ExecutorService taskExecutor;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        taskExecutor = Executors.newSingleThreadExecutor();
+        ThreatDetectionController controller = new ThreatDetectionController(orchestrator, objectMapper, taskExecutor);
+        ReflectionTestUtils.setField(controller, "maxBatchQueries", 2);
+        ReflectionTestUtils.setField(controller, "maxBatchQueriesInFlight", 16);
+        ReflectionTestUtils.setField(controller, "batchQueryTimeout", Duration.ofSeconds(60));
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        taskExecutor.shutdownNow();
+    }
+
+    @Test
+    void testBatchOverLimitIsPayloadTooLarge() throws Exception {
+        String tooMany = BATCH.replace("]", ",{\"indicator\":\"abc123\",\"indicatorType\":\"HASH\"}]");
+
+        mvc.perform(post("/api/v1/intelligence/query/batch").contentType(MediaType.APPLICATION_JSON).content(tooMany))
+                .andExpect(status().isPayloadTooLarge());
+
+        verifyNoInteractions(orchestrator);
+    }
+
+    @Test
+    void testStreamsOneJsonLinePerQueryAsTheyComplete() throws Exception {
+        ThreatIntelligence intelligence = new ThreatIntelligence();
+        intelligence.setIndicator("evil.test");
+        intelligence.setMalicious(true);
+        when(orchestrator.<Object, ThreatIntelligence>submitEach(eq("threat-intelligence"), anyList(),
+                eq(TaskPriority.NORMAL), eq(16), any()))
+                .thenAnswer(invocation -> {
+                    AgentOrchestrator.ResultHandler<ThreatIntelligence> handler = invocation.getArgument(4);
+                    // The second query is answered first, the first fails
+                    handler.onResult(1, intelligence, null);
+                    handler.onResult(0, null, new IllegalStateException("sources unavailable"));
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        MvcResult result = mvc.perform(post("/api/v1/intelligence/query/batch")
+                        .contentType(MediaType.APPLICATION_JSON).content(BATCH))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        List<String> lines = awaitLines(result, 2);
+        assertEquals(MediaType.APPLICATION_NDJSON_VALUE, result.getResponse().getContentType());
+        assertTrue(result.getResponse().getContentAsString().endsWith("\n"));
+        JsonNode first = objectMapper.readTree(lines.get(0));
+        assertEquals(1, first.get("index").asInt());
+        assertTrue(first.get("intelligence").get("malicious").asBoolean());
+        assertFalse(first.has("error"));
+        JsonNode second = objectMapper.readTree(lines.get(1));
+        assertEquals(0, second.get("index").asInt());
+        assertEquals("sources unavailable", second.get("error").asText());
+        assertFalse(second.has("intelligence"));
+    }
+
+    @Test
+    void testStopsLookupsWhenClientTimesOutOrDisconnects() throws Exception {
+        for (boolean timeout : new boolean[] {true, false}) {
+            AtomicReference<CompletableFuture<Void>> lookups = new AtomicReference<>();
+            when(orchestrator.submitEach(eq("threat-intelligence"), anyList(), eq(TaskPriority.NORMAL), eq(16), any()))
+                    .thenAnswer(invocation -> {
+                        lookups.set(new CompletableFuture<>());
+                        return lookups.get();
+                    });
+
+            MvcResult result = mvc.perform(post("/api/v1/intelligence/query/batch")
+                            .contentType(MediaType.APPLICATION_JSON).content(BATCH))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            verify(orchestrator, timeout(5000).times(timeout ? 1 : 2))
+                    .submitEach(eq("threat-intelligence"), anyList(), eq(TaskPriority.NORMAL), eq(16), any());
+            assertFalse(lookups.get().isDone());
+
+            MockAsyncContext context = (MockAsyncContext) result.getRequest().getAsyncContext();
+            for (AsyncListener listener : context.getListeners()) {
+                if (timeout) {
+                    listener.onTimeout(new AsyncEvent(context));
+                } else {
+                    listener.onError(new AsyncEvent(context, new IOException("Broken pipe")));
+                }
+            }
+
+            assertTrue(lookups.get().isDone(), timeout ? "timeout" : "disconnect");
+        }
+    }
+
+    @Test
+    void testStreamsFirstLineBeforeLastLookupFinishes() throws Exception {
+        ThreatIntelligence intelligence = new ThreatIntelligence();
+        intelligence.setIndicator("203.0.113.7");
+        CountDownLatch firstLineSeen = new CountDownLatch(1);
+        when(orchestrator.<Object, ThreatIntelligence>submitEach(eq("threat-intelligence"), anyList(),
+                eq(TaskPriority.NORMAL), eq(16), any()))
+                .thenAnswer(invocation -> {
+                    AgentOrchestrator.ResultHandler<ThreatIntelligence> handler = invocation.getArgument(4);
+                    // The first query is answered inline, as a cached verdict is, the second only later
+                    handler.onResult(0, intelligence, null);
+                    firstLineSeen.await(5, TimeUnit.SECONDS);
+                    handler.onResult(1, intelligence, null);
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        MvcResult result = mvc.perform(post("/api/v1/intelligence/query/batch")
+                        .contentType(MediaType.APPLICATION_JSON).content(BATCH))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertEquals(1, awaitLines(result, 1).size());
+        firstLineSeen.countDown();
+        assertEquals(2, awaitLines(result, 2).size());
+    }
+
+    /**
+     * Wait until the response holds at least {@code count} complete lines, and return them.
+     */
+    private static List<String> awaitLines(MvcResult result, int count) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        List<String> lines;
+        do {
+            String content = result.getResponse().getContentAsString();
+            lines = content.isEmpty() ? List.of() : List.of(content.substring(0, content.lastIndexOf('\n') + 1).split("\n"));
+            if (lines.size() >= count) {
+                return lines;
+            }
+            Thread.sleep(1);
+        } while (System.nanoTime() < deadline);
+        fail("Expected " + count + " lines, got " + lines.size());
+        return lines;
+    }
+}
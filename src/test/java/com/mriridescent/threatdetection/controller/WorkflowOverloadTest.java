@@ -0,0 +1,136 @@
+package com.mriridescent.threatdetection.controller;
+
+import com.mriridescent.threatdetection.agent.coordinator.AgentCoordinator;
+import com.mriridescent.threatdetection.config.AgentConfig;
+import com.mriridescent.threatdetection.config.AsyncConfig;
+import com.mriridescent.threatdetection.correlation.EntityGraph;
+import com.mriridescent.threatdetection.correlation.StreamingThreatCorrelator;
+import com.mriridescent.threatdetection.exception.GlobalExceptionHandler;
+import com.mriridescent.threatdetection.model.NetworkPacket;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.orchestration.AgentOrchestrator;
+import io.github.resilience4j.springboot3.circuitbreaker.autoconfigure.CircuitBreakerAutoConfiguration;
+import io.github.resilience4j.springboot3.ratelimiter.autoconfigure.RateLimiterAutoConfiguration;
+import io.github.resilience4j.springboot3.retry.autoconfigure.RetryAutoConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.ConfigDataApplicationContextInitializer;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Tests that workflow overload reaches API clients as admission's 429, through the coordinator's
+ * Spring proxy and the resilience configuration it runs with in production.
+ */
+@SpringJUnitConfig(classes = WorkflowOverloadTest.Config.class, initializers = ConfigDataApplicationContextInitializer.class)
+@TestPropertySource(properties = {
+        "spring.config.location=classpath:/application-resilience.yml",
+        // More workflows than the platform task executor could hold (10 running, 25 queued)
+        "threat-detection.coordinator.max-concurrent-workflows=40",
+        "threat-detection.agents.virtual-threads=false"
+})
+class WorkflowOverloadTest {
+
+    private static final int MAX_CONCURRENT_WORKFLOWS = 40;
+    private static final String PACKET = "{\"packetId\":\"p-1\",\"sourceIp\":\"203.0.113.7\",\"sourcePort\":4444,"
+            + "\"destinationIp\":\"10.0.0.5\",\"destinationPort\":443,\"protocol\":\"TCP\",\"size\":512}";
+
+    @Configuration
+    @ImportAutoConfiguration({AopAutoConfiguration.class, CircuitBreakerAutoConfiguration.class,
+            RetryAutoConfiguration.class, RateLimiterAutoConfiguration.class})
+    @Import({AgentConfig.class, AsyncConfig.class, AgentCoordinator.class, AgentCoordinatorController.class})
+    static class Config {
+        // Converts durations such as 50ms in @Value fields, as a Spring Boot application does
+        @Bean
+        static ConversionService conversionService() {
+            return ApplicationConversionService.getSharedInstance();
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @MockBean
+    private AgentOrchestrator orchestrator;
+
+    @MockBean
+    private StreamingThreatCorrelator streamingCorrelator;
+
+    @MockBean
+    private EntityGraph entityGraph;
+
+    @Autowired
+    private AgentCoordinatorController controller;
+
+    @Test
+    void testFullAdmissionIsTooManyRequests() throws Exception {
+        List<CompletableFuture<ThreatAlert>> analyses = new CopyOnWriteArrayList<>();
+        when(orchestrator.<NetworkPacket, ThreatAlert>submitTask(eq("network-monitor"), any()))
+                .thenAnswer(invocation -> {
+                    CompletableFuture<ThreatAlert> analysis = new CompletableFuture<>();
+                    analyses.add(analysis);
+                    return analysis;
+                });
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        // Every permit is held by a workflow waiting on its analysis
+        List<MvcResult> admitted = new ArrayList<>();
+        for (int i = 0; i < MAX_CONCURRENT_WORKFLOWS; i++) {
+            admitted.add(mvc.perform(post("/api/v1/coordinator/network-analysis")
+                            .contentType(MediaType.APPLICATION_JSON).content(PACKET))
+                    .andExpect(request().asyncStarted())
+                    .andReturn());
+        }
+
+        MvcResult overloaded = mvc.perform(post("/api/v1/coordinator/network-analysis")
+                        .contentType(MediaType.APPLICATION_JSON).content(PACKET))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(overloaded))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                .andExpect(jsonPath("$.message").value("Maximum concurrent workflows reached: " + MAX_CONCURRENT_WORKFLOWS));
+
+        verify(orchestrator, timeout(5000).times(MAX_CONCURRENT_WORKFLOWS)).submitTask(eq("network-monitor"), any());
+        analyses.forEach(analysis -> analysis.complete(null));
+        for (MvcResult result : admitted) {
+            mvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.mriridescent.threatdetection.correlation;
+
+import com.mriridescent.threatdetection.correlation.EntityGraph.EntityType;
+import com.mriridescent.threatdetection.model.Incident;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.UserActivity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for incident grouping in the entity graph.
+ */
+class EntityGraphTest {
+
+    private final LocalDateTime now = LocalDateTime.now();
+
+    @Test
+    void testMultiHopChainFormsOneIncident() {
+        EntityGraph graph = graph(EntityGraph.Settings.builder().build());
+
+        // user -> IP (activity), IP -> host (alert), host -> IP (alert)
+        graph.onInput("behavior-analysis", activity("alice", "10.0.0.1", "s-1", 10));
+        graph.addAlert(alert(null, "10.0.0.1", "web-01", null, ThreatAlert.Severity.MEDIUM, 9));
+        graph.addAlert(alert(null, "192.168.5.5", "web-01", null, ThreatAlert.Severity.CRITICAL, 8));
+        graph.addAlert(alert("bob", "10.9.9.9", null, null, ThreatAlert.Severity.LOW, 7));
+
+        assertTrue(graph.connected(EntityType.USER, "alice", EntityType.IP, "192.168.5.5"));
+        assertFalse(graph.connected(EntityType.USER, "alice", EntityType.USER, "bob"));
+
+        Incident incident = graph.incidentOf(EntityType.SESSION, "s-1").orElseThrow();
+        assertEquals(5, incident.getEntityCount());
+        assertEquals(2, incident.getAlertCount());
+        assertEquals(ThreatAlert.Severity.CRITICAL, incident.getMaxSeverity());
+        assertTrue(incident.getEntities().containsAll(List.of("user:alice", "ip:10.0.0.1", "host:web-01")));
+
+        List<Incident> incidents = graph.incidents(1, 10);
+        assertEquals(2, incidents.size());
+        assertEquals(incident.getIncidentId(), incidents.get(0).getIncidentId());
+        assertEquals(1, graph.incidents(2, 10).size());
+    }
+
+    @Test
+    void testExpiredLinksSplitIncidents() {
+        EntityGraph graph = graph(EntityGraph.Settings.builder().edgeTtl(Duration.ofMinutes(30)).build());
+
+        graph.onInput("behavior-analysis", activity("alice", "10.0.0.1", null, 50));
+        graph.onInput("behavior-analysis", activity("alice", "10.0.0.2", null, 5));
+        assertTrue(graph.connected(EntityType.IP, "10.0.0.1", EntityType.IP, "10.0.0.2"));
+        assertEquals(1, graph.componentCount());
+
+        graph.expire(now);
+
+        assertFalse(graph.connected(EntityType.IP, "10.0.0.1", EntityType.IP, "10.0.0.2"));
+        assertTrue(graph.connected(EntityType.USER, "alice", EntityType.IP, "10.0.0.2"));
+        assertTrue(graph.incidentOf(EntityType.IP, "10.0.0.1").isEmpty());
+        assertEquals(1, graph.edgeCount());
+        assertEquals(2, graph.entityCount());
+    }
+
+    @Test
+    void testHubsTakeNoFurtherLinks() {
+        EntityGraph graph = graph(EntityGraph.Settings.builder().maxDegree(2).build());
+
+        for (int i = 0; i < 3; i++) {
+            graph.addAlert(alert(null, "10.0.0." + i, null, "8.8.8.8", ThreatAlert.Severity.LOW, 1));
+        }
+
+        assertTrue(graph.connected(EntityType.IP, "10.0.0.0", EntityType.IP, "10.0.0.1"));
+        assertFalse(graph.connected(EntityType.IP, "10.0.0.0", EntityType.IP, "10.0.0.2"));
+    }
+
+    private EntityGraph graph(EntityGraph.Settings settings) {
+        return new EntityGraph(settings, new SimpleMeterRegistry());
+    }
+
+    private UserActivity activity(String user, String ip, String session, int minutesAgo) {
+        UserActivity activity = new UserActivity();
+        activity.setUserId(user);
+        activity.setIpAddress(ip);
+        activity.setSessionId(session);
+        activity.setTimestamp(now.minusMinutes(minutesAgo));
+        return activity;
+    }
+
+    private ThreatAlert alert(String user, String sourceIp, String host, String destinationIp,
+                              ThreatAlert.Severity severity, int minutesAgo) {
+        ThreatAlert alert = new ThreatAlert();
+        alert.setUserId(user);
+        alert.setSourceIp(sourceIp);
+        alert.setSystemId(host);
+        alert.setDestinationIp(destinationIp);
+        alert.setSeverity(severity);
+        alert.setDetectionTime(now.minusMinutes(minutesAgo));
+        return alert;
+    }
+}
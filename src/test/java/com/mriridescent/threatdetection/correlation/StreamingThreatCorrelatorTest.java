@@ -0,0 +1,138 @@
+package com.mriridescent.threatdetection.correlation;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.ThreatCorrelation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the streaming threat correlator.
+ */
+class StreamingThreatCorrelatorTest {
+
+    private static final String NETWORK = "network-monitor";
+    private static final String BEHAVIOR = "behavior-analysis";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LocalDateTime start = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @Test
+    void testCorrelatesByIpAndUserAsAlertsArrive() {
+        StreamingThreatCorrelator correlator = correlator(StreamingThreatCorrelator.Settings.builder().build());
+
+        correlator.onAlert(BEHAVIOR, alert("10.0.0.1", "alice", 0));
+        correlator.onAlert(BEHAVIOR, alert("10.0.0.2", "alice", 1));
+        correlator.onAlert(BEHAVIOR, alert("10.0.0.9", "bob", 1));
+        assertTrue(correlator.recentCorrelations(10).isEmpty());
+
+        ThreatAlert network = alert("10.0.0.2", null, 2);
+        correlator.onAlert(NETWORK, network);
+
+        List<ThreatCorrelation> correlations = correlator.recentCorrelations(10);
+        assertEquals(2, correlations.size());
+        ThreatCorrelation sameIp = find(correlations, CorrelationCriteria.IP_BASED);
+        assertSame(network, sameIp.getNetworkAlert());
+        assertEquals("10.0.0.2", sameIp.getBehaviorAlert().getSourceIp());
+        ThreatCorrelation sameUser = find(correlations, StreamingThreatCorrelator.USER_BASED);
+        assertEquals("10.0.0.1", sameUser.getBehaviorAlert().getSourceIp());
+
+        // A later behavior alert for the user correlates with the network alert from their other address
+        correlator.onAlert(BEHAVIOR, alert("10.0.0.3", "alice", 3));
+        ThreatCorrelation latest = correlator.recentCorrelations(1).get(0);
+        assertEquals(StreamingThreatCorrelator.USER_BASED, latest.getCorrelationType());
+        assertSame(network, latest.getNetworkAlert());
+    }
+
+    @Test
+    void testCorrelationsDoNotDependOnArrivalOrder() {
+        // A network alert on alice's first address, and her behavior alerts from it and from another
+        ThreatAlert network = alert("10.0.0.1", null, 0);
+        ThreatAlert onSameIp = alert("10.0.0.1", "alice", 1);
+        ThreatAlert onOtherIp = alert("10.0.0.2", "alice", 2);
+        List<List<ThreatAlert>> orders = List.of(
+                List.of(network, onSameIp, onOtherIp), List.of(network, onOtherIp, onSameIp),
+                List.of(onSameIp, network, onOtherIp), List.of(onSameIp, onOtherIp, network),
+                List.of(onOtherIp, network, onSameIp), List.of(onOtherIp, onSameIp, network));
+
+        for (List<ThreatAlert> order : orders) {
+            StreamingThreatCorrelator correlator = correlator(StreamingThreatCorrelator.Settings.builder().build());
+            for (ThreatAlert alert : order) {
+                correlator.onAlert(alert == network ? NETWORK : BEHAVIOR, alert);
+            }
+
+            List<ThreatCorrelation> correlations = correlator.recentCorrelations(10);
+            String arrival = order.stream().map(alert -> alert == network ? "network" : alert.getSourceIp()).toList()
+                    .toString();
+            assertEquals(2, correlations.size(), arrival);
+            assertSame(onSameIp, find(correlations, CorrelationCriteria.IP_BASED).getBehaviorAlert(), arrival);
+            ThreatCorrelation sameUser = find(correlations, StreamingThreatCorrelator.USER_BASED);
+            assertSame(network, sameUser.getNetworkAlert(), arrival);
+            assertSame(onOtherIp, sameUser.getBehaviorAlert(), arrival);
+        }
+    }
+
+    @Test
+    void testAlertsExpireWithTheWindow() {
+        StreamingThreatCorrelator correlator = correlator(StreamingThreatCorrelator.Settings.builder()
+                .window(Duration.ofMinutes(10))
+                .build());
+
+        correlator.onAlert(NETWORK, alert("10.0.0.1", null, 0));
+        correlator.onAlert(BEHAVIOR, alert("10.0.0.1", "alice", 11));
+        assertTrue(correlator.recentCorrelations(10).isEmpty());
+        assertEquals(1, correlator.alertCount());
+
+        correlator.evictExpired(start.plusMinutes(30));
+        assertEquals(0, correlator.alertCount());
+
+        // Too old for the window by now
+        correlator.onAlert(NETWORK, alert("10.0.0.1", null, 15));
+        assertEquals(0, correlator.alertCount());
+        assertEquals(1.0, meterRegistry.get("threat_detection_streaming_correlator_dropped_total")
+                .tag("reason", "late").counter().count());
+    }
+
+    @Test
+    void testHeldAlertsAreCapped() {
+        StreamingThreatCorrelator correlator = correlator(StreamingThreatCorrelator.Settings.builder()
+                .maxAlerts(10)
+                .maxAlertsPerKey(2)
+                .build());
+
+        for (int minute = 0; minute < 20; minute++) {
+            for (int i = 0; i < 3; i++) {
+                correlator.onAlert(NETWORK, alert("10.0.0." + i % 2, null, minute));
+            }
+        }
+
+        assertTrue(correlator.alertCount() <= 10);
+        assertTrue(meterRegistry.get("threat_detection_streaming_correlator_dropped_total")
+                .tag("reason", "overflow").counter().count() > 0);
+    }
+
+    private StreamingThreatCorrelator correlator(StreamingThreatCorrelator.Settings settings) {
+        return new StreamingThreatCorrelator(settings, meterRegistry);
+    }
+
+    private ThreatAlert alert(String sourceIp, String userId, int minutesAfterStart) {
+        ThreatAlert alert = new ThreatAlert();
+        alert.setSourceIp(sourceIp);
+        alert.setUserId(userId);
+        alert.setDetectionTime(start.plusMinutes(minutesAfterStart));
+        return alert;
+    }
+
+    private static ThreatCorrelation find(List<ThreatCorrelation> correlations, String type) {
+        return correlations.stream()
+                .filter(correlation -> correlation.getCorrelationType().equals(type))
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,123 @@
+package com.mriridescent.threatdetection.correlation;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.ThreatCorrelation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the indexed correlation engine with the nested-loop correlation it replaced.
+ *
+ * Both sides hold {@code alerts} alerts spread over ten seconds per alert, with source IPs drawn
+ * from a pool a tenth the size, so each alert has a handful of correlations and the cost is
+ * dominated by finding them. The nested loops grow quadratically with {@code alerts}; the
+ * engine grows close to linearly.
+ *
+ * Run with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.mriridescent.threatdetection.correlation.ThreatCorrelationBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreatCorrelationBenchmark {
+
+    private static final Duration WINDOW = Duration.ofMinutes(1);
+
+    @Param({"1000", "10000", "50000"})
+    private int alerts;
+
+    private List<ThreatAlert> networkAlerts;
+    private List<ThreatAlert> behaviorAlerts;
+    private final ThreatCorrelationEngine engine = new ThreatCorrelationEngine();
+    private final CorrelationCriteria criteria = new CorrelationCriteria(WINDOW,
+            Set.of(CorrelationCriteria.TIME_BASED, CorrelationCriteria.IP_BASED));
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        networkAlerts = randomAlerts(random);
+        behaviorAlerts = randomAlerts(random);
+    }
+
+    @Benchmark
+    public int indexedJoin() {
+        return engine.correlate(networkAlerts, behaviorAlerts, criteria).size();
+    }
+
+    @Benchmark
+    public int nestedLoops() {
+        List<ThreatCorrelation> correlations = new ArrayList<>();
+        for (ThreatAlert networkAlert : networkAlerts) {
+            for (ThreatAlert behaviorAlert : behaviorAlerts) {
+                Duration timeDiff = Duration.between(networkAlert.getDetectionTime(), behaviorAlert.getDetectionTime());
+                if (timeDiff.abs().compareTo(WINDOW) <= 0) {
+                    correlations.add(ThreatCorrelation.builder()
+                            .correlationType(CorrelationCriteria.TIME_BASED)
+                            .networkAlert(networkAlert)
+                            .behaviorAlert(behaviorAlert)
+                            .confidence(0.7)
+                            .build());
+                }
+            }
+        }
+        for (ThreatAlert networkAlert : networkAlerts) {
+            for (ThreatAlert behaviorAlert : behaviorAlerts) {
+                if (networkAlert.getSourceIp().equals(behaviorAlert.getSourceIp())) {
+                    correlations.add(ThreatCorrelation.builder()
+                            .correlationType(CorrelationCriteria.IP_BASED)
+                            .networkAlert(networkAlert)
+                            .behaviorAlert(behaviorAlert)
+                            .confidence(0.9)
+                            .build());
+                }
+            }
+        }
+        return correlations.size();
+    }
+
+    private List<ThreatAlert> randomAlerts(Random random) {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        long spanSeconds = alerts * 10L;
+        int ipPool = Math.max(1, alerts / 10);
+        List<ThreatAlert> result = new ArrayList<>(alerts);
+        for (int i = 0; i < alerts; i++) {
+            ThreatAlert alert = new ThreatAlert();
+            int ip = random.nextInt(ipPool);
+            alert.setSourceIp("10.0." + ip / 256 + "." + ip % 256);
+            alert.setDetectionTime(start.plusSeconds((long) (random.nextDouble() * spanSeconds)));
+            result.add(alert);
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ThreatCorrelationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
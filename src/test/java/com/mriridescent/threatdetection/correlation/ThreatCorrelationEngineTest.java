@@ -0,0 +1,104 @@
+package com.mriridescent.threatdetection.correlation;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import com.mriridescent.threatdetection.model.ThreatCorrelation;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the indexed threat correlation engine.
+ */
+class ThreatCorrelationEngineTest {
+
+    private final ThreatCorrelationEngine engine = new ThreatCorrelationEngine();
+    private final LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Test
+    void testMatchesPairwiseComparison() {
+        Random random = new Random(7);
+        List<ThreatAlert> network = randomAlerts(random, 300);
+        List<ThreatAlert> behavior = randomAlerts(random, 200);
+        Duration window = Duration.ofMinutes(5);
+
+        List<ThreatCorrelation> correlations = engine.correlate(network, behavior, CorrelationCriteria.of("PT5M", null));
+
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < network.size(); i++) {
+            for (int j = 0; j < behavior.size(); j++) {
+                ThreatAlert n = network.get(i);
+                ThreatAlert b = behavior.get(j);
+                if (n.getDetectionTime() != null && b.getDetectionTime() != null
+                        && Duration.between(n.getDetectionTime(), b.getDetectionTime()).abs().compareTo(window) <= 0) {
+                    expected.add("TIME_BASED:" + i + ":" + j);
+                }
+                if (n.getSourceIp() != null && n.getSourceIp().equals(b.getSourceIp())) {
+                    expected.add("IP_BASED:" + i + ":" + j);
+                }
+            }
+        }
+        Set<String> actual = new HashSet<>();
+        for (ThreatCorrelation correlation : correlations) {
+            actual.add(correlation.getCorrelationType() + ":" + indexOf(network, correlation.getNetworkAlert())
+                    + ":" + indexOf(behavior, correlation.getBehaviorAlert()));
+        }
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), correlations.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testHonoursTimeWindowAndCorrelationTypes() {
+        ThreatAlert network = alert("10.0.0.1", 0);
+        ThreatAlert nearby = alert("10.0.0.2", 10 * 60);
+        ThreatAlert sameIp = alert("10.0.0.1", 60 * 60);
+
+        List<ThreatCorrelation> timeOnly = engine.correlate(List.of(network), List.of(nearby, sameIp),
+                CorrelationCriteria.of("PT10M", List.of(CorrelationCriteria.TIME_BASED)));
+        assertEquals(1, timeOnly.size());
+        assertSame(nearby, timeOnly.get(0).getBehaviorAlert());
+
+        List<ThreatCorrelation> narrowWindow = engine.correlate(List.of(network), List.of(nearby, sameIp),
+                CorrelationCriteria.of("PT5M", null));
+        assertEquals(1, narrowWindow.size());
+        assertEquals(CorrelationCriteria.IP_BASED, narrowWindow.get(0).getCorrelationType());
+    }
+
+    private List<ThreatAlert> randomAlerts(Random random, int count) {
+        List<ThreatAlert> alerts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ThreatAlert alert = alert(random.nextInt(10) == 0 ? null : "10.0.0." + random.nextInt(40),
+                    random.nextInt(6 * 60 * 60));
+            if (random.nextInt(20) == 0) {
+                alert.setDetectionTime(null);
+            }
+            alerts.add(alert);
+        }
+        return alerts;
+    }
+
+    private ThreatAlert alert(String sourceIp, int secondsAfterStart) {
+        ThreatAlert alert = new ThreatAlert();
+        alert.setSourceIp(sourceIp);
+        alert.setDetectionTime(start.plusSeconds(secondsAfterStart));
+        return alert;
+    }
+
+    private static int indexOf(List<ThreatAlert> alerts, ThreatAlert alert) {
+        for (int i = 0; i < alerts.size(); i++) {
+            if (alerts.get(i) == alert) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,104 @@
+package com.mriridescent.threatdetection.intel;
+
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the per-type Bloom filters in front of IOC lookups.
+ */
+class IocBloomFilterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testEverythingTheIndexMatchesMightMatch() {
+        Random random = new Random(3);
+        IocIndex.Builder builder = IocIndex.builder()
+                .add(ioc("2001:db8::/32", IndicatorType.IP))
+                .add(ioc("198.51.100.7", IndicatorType.IP))
+                .add(ioc("evil.example", IndicatorType.DOMAIN))
+                .add(ioc("D41D8CD98F00B204E9800998ECF8427E", IndicatorType.HASH));
+        for (int i = 0; i < 2000; i++) {
+            builder.add(ioc(random.nextInt(256) + "." + random.nextInt(256) + ".0.0/" + (8 + random.nextInt(9)),
+                    IndicatorType.IP));
+        }
+        IocIndex index = builder.build();
+
+        for (int i = 0; i < 20000; i++) {
+            String address = random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + ".1";
+            if (index.matchIp(address) != null) {
+                assertTrue(index.mightMatch(IndicatorType.IP, address), address);
+            }
+        }
+        assertTrue(index.mightMatch(IndicatorType.IP, "2001:DB8:1::1"));
+        assertTrue(index.mightMatch(IndicatorType.IP, "::ffff:198.51.100.7"));
+        assertTrue(index.mightMatch(IndicatorType.DOMAIN, "Login.EVIL.example."));
+        assertTrue(index.mightMatch(IndicatorType.HASH, "d41d8cd98f00b204e9800998ecf8427e"));
+
+        // Types without indicators rule everything out
+        assertFalse(index.mightMatch(IndicatorType.EMAIL, "attacker@evil.example"));
+        assertEquals(0, index.bloomFilter(IndicatorType.EMAIL).sizeInBytes());
+    }
+
+    @Test
+    void testFalsePositiveRateMatchesExpectation() {
+        IocIndex.Builder builder = IocIndex.builder().bloomBitsPerEntry(10);
+        for (int i = 0; i < 50000; i++) {
+            builder.add(ioc("listed-" + i + ".example", IndicatorType.DOMAIN));
+        }
+        IocIndex index = builder.build();
+
+        int falsePositives = 0;
+        int probes = 100000;
+        for (int i = 0; i < probes; i++) {
+            if (index.mightMatch(IndicatorType.DOMAIN, "unlisted-" + i + ".test")) {
+                falsePositives++;
+            }
+        }
+        double expected = index.bloomFilter(IndicatorType.DOMAIN).expectedFalsePositiveRate();
+        // Two labels are probed per name, so up to twice the rate of a single probe
+        assertTrue(expected > 0.005 && expected < 0.02, "expected " + expected);
+        assertTrue((double) falsePositives / probes < 2.5 * expected, falsePositives + " false positives");
+        assertTrue(index.bloomFilter(IndicatorType.DOMAIN).sizeInBytes() <= 50000 * 10 / 8 + 8);
+    }
+
+    @Test
+    void testMappedFiltersAnswerLikeTheHeapFilters() throws IOException {
+        Random random = new Random(5);
+        IocIndex.Builder builder = IocIndex.builder().add(ioc("evil.example", IndicatorType.DOMAIN));
+        for (int i = 0; i < 1000; i++) {
+            builder.add(ioc(random.nextInt(256) + "." + random.nextInt(256) + ".0.0/16", IndicatorType.IP));
+        }
+        IocIndex heap = builder.build();
+        Path file = dir.resolve("iocs.snapshot");
+        IocSnapshot.write(heap, List.of(), file);
+        IocIndex mapped = IocSnapshot.map(file).getIndex();
+
+        for (int i = 0; i < 10000; i++) {
+            String address = random.nextInt(256) + "." + random.nextInt(256) + ".1.1";
+            assertEquals(heap.mightMatch(IndicatorType.IP, address), mapped.mightMatch(IndicatorType.IP, address));
+        }
+        assertTrue(mapped.mightMatch(IndicatorType.DOMAIN, "www.evil.example"));
+        assertEquals(heap.bloomFilter(IndicatorType.IP).expectedFalsePositiveRate(),
+                mapped.bloomFilter(IndicatorType.IP).expectedFalsePositiveRate());
+    }
+
+    private static IocEntry ioc(String indicator, IndicatorType type) {
+        return IocEntry.builder()
+                .indicator(indicator)
+                .type(type)
+                .threatType("Malware")
+                .confidence(0.9)
+                .source("test")
+                .build();
+    }
+}
@@ -0,0 +1,203 @@
+package com.mriridescent.threatdetection.intel;
+
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for IOC matching, feed loading and snapshot swaps.
+ */
+class IocIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testLongestPrefixMatchAcrossFamilies() {
+        IocIndex index = IocIndex.builder()
+                .add(ioc("198.51.0.0/16", IndicatorType.IP, "Scanner"))
+                .add(ioc("198.51.100.0/24", IndicatorType.IP, "Command and Control"))
+                .add(ioc("198.51.100.7", IndicatorType.IP, "Botnet"))
+                .add(ioc("2001:db8::/32", IndicatorType.IP, "Scanner"))
+                .add(ioc("2001:db8:abcd::/48", IndicatorType.IP, "Command and Control"))
+                .add(ioc("0.0.0.0/0", IndicatorType.IP, "Anything"))
+                .build();
+
+        assertEquals("Botnet", index.matchIp("198.51.100.7").getThreatType());
+        assertEquals("Command and Control", index.matchIp("198.51.100.8").getThreatType());
+        assertEquals("Scanner", index.matchIp("198.51.7.1").getThreatType());
+        assertEquals("Anything", index.matchIp("10.0.0.1").getThreatType());
+
+        assertEquals("Command and Control", index.matchIp("2001:db8:abcd:1::5").getThreatType());
+        assertEquals("Scanner", index.matchIp("2001:DB8:1::1").getThreatType());
+        assertNull(index.matchIp("2001:db9::1"));
+        // IPv4-mapped IPv6 addresses match IPv4 ranges
+        assertEquals("Botnet", index.matchIp("::ffff:198.51.100.7").getThreatType());
+
+        assertNull(index.matchIp("not-an-address"));
+        assertNull(index.matchIp("198.51.100.256"));
+    }
+
+    @Test
+    void testIpv4LookupsAgreeWithLinearScan() {
+        Random random = new Random(7);
+        long[] prefixes = new long[2000];
+        int[] lengths = new int[prefixes.length];
+        IpPrefixTrie.Builder builder = IpPrefixTrie.builder();
+        for (int i = 0; i < prefixes.length; i++) {
+            lengths[i] = random.nextInt(33);
+            prefixes[i] = random.nextInt(1 << 12) * 0x100000L & ipv4Mask(lengths[i]);
+            builder.addIpv4(prefixes[i], lengths[i], i);
+        }
+        IpPrefixTrie trie = builder.build();
+
+        for (int n = 0; n < 20000; n++) {
+            long address = (random.nextInt(1 << 12) * 0x100000L | random.nextInt(1 << 20)) & 0xffffffffL;
+            int expected = IpPrefixTrie.NO_MATCH;
+            int expectedLength = -1;
+            for (int i = 0; i < prefixes.length; i++) {
+                // Later duplicates replace earlier ones, as in the trie
+                if ((address & ipv4Mask(lengths[i])) == prefixes[i] && lengths[i] >= expectedLength) {
+                    expected = i;
+                    expectedLength = lengths[i];
+                }
+            }
+            assertEquals(expected, trie.lookupIpv4(address), "address " + address);
+        }
+    }
+
+    @Test
+    void testDomainsMatchWholeLabelSuffixes() {
+        IocIndex index = IocIndex.builder()
+                .add(ioc("evil.example", IndicatorType.DOMAIN, "Phishing"))
+                .add(ioc("login.evil.example", IndicatorType.DOMAIN, "Credential Theft"))
+                .build();
+
+        assertEquals("Phishing", index.matchDomain("evil.example").getThreatType());
+        assertEquals("Phishing", index.matchDomain("cdn.EVIL.example.").getThreatType());
+        assertEquals("Credential Theft", index.matchDomain("a.login.evil.example").getThreatType());
+        assertNull(index.matchDomain("notevil.example"));
+        assertNull(index.matchDomain("example"));
+        assertNull(index.matchDomain("evil.example.org"));
+    }
+
+    @Test
+    void testExactIndicatorsAndTypes() {
+        IocIndex index = IocIndex.builder()
+                .add(ioc("D41D8CD98F00B204E9800998ECF8427E", IndicatorType.HASH, "Ransomware"))
+                .add(ioc("http://evil.example/Payload", IndicatorType.URL, "Malware Download"))
+                .build();
+
+        assertNotNull(index.match(IndicatorType.HASH, "d41d8cd98f00b204e9800998ecf8427e"));
+        assertNotNull(index.match(IndicatorType.URL, "http://evil.example/Payload"));
+        assertNull(index.match(IndicatorType.URL, "http://evil.example/payload"));
+        assertNull(index.match(IndicatorType.EMAIL, "d41d8cd98f00b204e9800998ecf8427e"));
+        assertThrows(IllegalArgumentException.class,
+                () -> IocIndex.builder().add(ioc("10.0.0.0/33", IndicatorType.IP, "Bad")));
+    }
+
+    @Test
+    void testLoadsCsvAndStixFeeds() throws Exception {
+        String csv = """
+                # feed export
+                indicator,type,threat_type,confidence,source
+                203.0.113.0/24,cidr,Command and Control,90,abuse-feed
+                evil.example,domain,Phishing
+                bad line without type
+                10.0.0.1,ip,Scanner,250
+                """;
+        String stix = """
+                {"type": "bundle", "id": "bundle--1", "objects": [
+                  {"type": "identity", "id": "identity--1", "name": "CERT"},
+                  {"type": "indicator", "id": "indicator--1", "created_by_ref": "identity--1",
+                   "indicator_types": ["malicious-activity"], "confidence": 75,
+                   "pattern": "[ipv6-addr:value = '2001:db8::/32'] OR [domain-name:value = 'c2.example']"},
+                  {"type": "indicator", "id": "indicator--2",
+                   "pattern": "[file:hashes.'SHA-256' = 'AABBCC']", "pattern_type": "stix"},
+                  {"type": "indicator", "id": "indicator--3", "pattern": "[process:pid = 4]"}
+                ]}
+                """;
+
+        IocIndex.Builder builder = IocIndex.builder();
+        IocFeedLoader.Result csvResult = IocFeedLoader.loadCsv(new StringReader(csv), "feed.csv", builder);
+        IocFeedLoader.Result stixResult = IocFeedLoader.loadStix(
+                new ByteArrayInputStream(stix.getBytes(StandardCharsets.UTF_8)), "bundle.json", builder);
+        IocIndex index = builder.build();
+
+        assertEquals(2, csvResult.getLoaded());
+        assertEquals(2, csvResult.getRejected());
+        assertEquals(3, stixResult.getLoaded());
+        assertEquals(1, stixResult.getRejected());
+
+        IocEntry range = index.matchIp("203.0.113.9");
+        assertEquals(0.9, range.getConfidence(), 1e-9);
+        assertEquals("abuse-feed", range.getSource());
+        assertEquals("feed.csv", index.matchDomain("www.evil.example").getSource());
+        assertNull(index.matchIp("10.0.0.1"));
+
+        IocEntry v6 = index.matchIp("2001:db8::1");
+        assertEquals("malicious-activity", v6.getThreatType());
+        assertEquals(0.75, v6.getConfidence(), 1e-9);
+        assertEquals("identity--1", v6.getSource());
+        assertNotNull(index.matchDomain("c2.example"));
+        assertNotNull(index.match(IndicatorType.HASH, "aabbcc"));
+    }
+
+    @Test
+    void testStoreSwapsSnapshotOnlyWhenFeedsChange() throws Exception {
+        Path feed = dir.resolve("iocs.csv");
+        Files.writeString(feed, "198.51.100.0/24,cidr,Command and Control\n");
+        IocStore store = new IocStore(new String[]{feed.toString()}, null, new SimpleMeterRegistry());
+        int[] reloads = {0};
+        store.addReloadListener(() -> reloads[0]++);
+
+        store.initialize();
+        IocIndex first = store.current();
+        assertNotNull(first.matchIp("198.51.100.1"));
+        assertEquals(1, reloads[0]);
+
+        store.reloadIfChanged();
+        assertSame(first, store.current());
+
+        Files.writeString(feed, "evil.example,domain,Phishing\n");
+        Files.setLastModifiedTime(feed, FileTime.from(Instant.now().plusSeconds(5)));
+        store.reloadIfChanged();
+        IocIndex second = store.current();
+        assertNotSame(first, second);
+        assertNull(second.matchIp("198.51.100.1"));
+        assertNotNull(second.matchDomain("evil.example"));
+        // A snapshot taken before the swap is unaffected
+        assertNotNull(first.matchIp("198.51.100.1"));
+
+        Files.delete(feed);
+        assertFalse(store.reload());
+        assertSame(second, store.current());
+        assertEquals(2, reloads[0]);
+    }
+
+    private static long ipv4Mask(int bits) {
+        return bits == 0 ? 0 : (0xffffffffL << (32 - bits)) & 0xffffffffL;
+    }
+
+    private static IocEntry ioc(String indicator, IndicatorType type, String threatType) {
+        return IocEntry.builder()
+                .indicator(indicator)
+                .type(type)
+                .threatType(threatType)
+                .confidence(0.9)
+                .source("test")
+                .build();
+    }
+}
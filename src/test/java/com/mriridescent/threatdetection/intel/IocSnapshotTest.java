@@ -0,0 +1,117 @@
+package com.mriridescent.threatdetection.intel;
+
+import com.mriridescent.threatdetection.model.IntelligenceQuery.IndicatorType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for writing and mapping IOC snapshots.
+ */
+class IocSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testMappedIndexAnswersLikeTheHeapIndex() throws IOException {
+        Random random = new Random(11);
+        IocIndex.Builder builder = IocIndex.builder()
+                .add(ioc("2001:db8::/32", IndicatorType.IP, "Scanner"))
+                .add(ioc("évil.example", IndicatorType.DOMAIN, "Phishing"))
+                .add(ioc("login.evil.example", IndicatorType.DOMAIN, "Credential Theft"))
+                .add(ioc("D41D8CD98F00B204E9800998ECF8427E", IndicatorType.HASH, "Ransomware"))
+                .add(ioc("attacker@evil.example", IndicatorType.EMAIL, "Spam"));
+        for (int i = 0; i < 5000; i++) {
+            builder.add(ioc(random.nextInt(256) + "." + random.nextInt(256) + ".0.0/" + (8 + random.nextInt(25)),
+                    IndicatorType.IP, "Range " + i));
+        }
+        IocIndex heap = builder.build();
+
+        Path file = dir.resolve("iocs.snapshot");
+        IocSnapshot.write(heap, List.of("feed.csv@1:2"), file);
+        IocSnapshot snapshot = IocSnapshot.map(file);
+        IocIndex mapped = snapshot.getIndex();
+
+        assertEquals(List.of("feed.csv@1:2"), snapshot.getFeedVersions());
+        assertEquals(heap.size(), mapped.size());
+        assertEquals(heap.addressCount(), mapped.addressCount());
+        assertEquals(heap.domainCount(), mapped.domainCount());
+        assertEquals(heap.getBuiltAt().toEpochMilli(), mapped.getBuiltAt().toEpochMilli());
+
+        for (int i = 0; i < 20000; i++) {
+            String address = random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + ".1";
+            assertEquals(heap.matchIp(address), mapped.matchIp(address), address);
+        }
+        assertEquals("Scanner", mapped.matchIp("2001:db8::7").getThreatType());
+        assertEquals("Phishing", mapped.matchDomain("WWW.évil.example").getThreatType());
+        assertEquals("Credential Theft", mapped.matchDomain("a.login.evil.example").getThreatType());
+        assertEquals("Ransomware", mapped.match(IndicatorType.HASH, "d41d8cd98f00b204e9800998ecf8427e").getThreatType());
+        assertEquals(0.9, mapped.match(IndicatorType.EMAIL, "Attacker@evil.example").getConfidence());
+        assertNull(mapped.match(IndicatorType.URL, "http://evil.example/"));
+    }
+
+    @Test
+    void testRejectsFilesThatAreNotSnapshots() throws IOException {
+        Path file = dir.resolve("not-a.snapshot");
+        Files.writeString(file, "198.51.100.0/24,cidr,Command and Control\n".repeat(10));
+
+        assertThrows(IOException.class, () -> IocSnapshot.map(file));
+    }
+
+    @Test
+    void testReplicasShareTheBuildersSnapshot() throws Exception {
+        Path feed = dir.resolve("iocs.csv");
+        Path file = dir.resolve("iocs.snapshot");
+        Files.writeString(feed, "198.51.100.0/24,cidr,Command and Control\n");
+
+        IocStore builder = new IocStore(new String[]{feed.toString()}, file.toString(), new SimpleMeterRegistry());
+        builder.initialize();
+        assertTrue(Files.exists(file));
+        assertNotNull(builder.current().matchIp("198.51.100.1"));
+
+        // A restarted builder serves the snapshot at once, even while its feeds cannot be read
+        IocStore restarted = new IocStore(new String[]{feed.toString()}, file.toString(), new SimpleMeterRegistry());
+        Files.delete(feed);
+        restarted.initialize();
+        assertNotNull(restarted.current().matchIp("198.51.100.1"));
+        assertFalse(restarted.reload());
+        Files.writeString(feed, "198.51.100.0/24,cidr,Command and Control\n");
+
+        IocStore replica = new IocStore(new String[0], file.toString(), new SimpleMeterRegistry());
+        replica.initialize();
+        IocIndex before = replica.current();
+        assertNotNull(before.matchIp("198.51.100.1"));
+
+        Files.writeString(feed, "evil.example,domain,Phishing\n");
+        Files.setLastModifiedTime(feed, FileTime.from(Instant.now().plusSeconds(5)));
+        builder.reloadIfChanged();
+        replica.reloadIfChanged();
+
+        assertNotSame(before, replica.current());
+        assertNull(replica.current().matchIp("198.51.100.1"));
+        assertNotNull(replica.current().matchDomain("evil.example"));
+        // The old mapping stays readable after the file is replaced
+        assertNotNull(before.matchIp("198.51.100.1"));
+    }
+
+    private static IocEntry ioc(String indicator, IndicatorType type, String threatType) {
+        return IocEntry.builder()
+                .indicator(indicator)
+                .type(type)
+                .threatType(threatType)
+                .confidence(0.9)
+                .source("test")
+                .build();
+    }
+}
@@ -0,0 +1,77 @@
+package com.mriridescent.threatdetection.orchestration;
+
+import com.mriridescent.threatdetection.agent.core.AgentFramework;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for key-affinity lanes.
+ */
+class AffinityLanesTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<CompletableFuture<List<Object>>> inFlight = new ArrayList<>();
+    private final List<List<Object>> batches = new ArrayList<>();
+    private AgentFramework agent;
+
+    @BeforeEach
+    void setUp() {
+        agent = mock(AgentFramework.class);
+        when(agent.getAgentId()).thenReturn("test-agent");
+        when(agent.submitBatch(anyList(), any())).thenAnswer(invocation -> {
+            List<Object> inputs = invocation.getArgument(0);
+            batches.add(List.copyOf(inputs));
+            CompletableFuture<List<Object>> result = new CompletableFuture<>();
+            inFlight.add(result);
+            return result;
+        });
+    }
+
+    @Test
+    void testSameKeyIsDispatchedInOrderWithOneBatchInFlight() throws Exception {
+        AffinityLanes lanes = new AffinityLanes(agent, 4, 64, 100, meterRegistry);
+
+        CompletableFuture<Object> first = lanes.submit("10.0.0.1", "a", TaskPriority.NORMAL);
+        CompletableFuture<Object> second = lanes.submit("10.0.0.1", "b", TaskPriority.NORMAL);
+        CompletableFuture<Object> third = lanes.submit("10.0.0.1", "c", TaskPriority.NORMAL);
+
+        assertEquals(List.of(List.of("a")), batches);
+        inFlight.get(0).complete(List.of("A"));
+        assertEquals(List.of(List.of("a"), List.of("b", "c")), batches);
+        inFlight.get(1).complete(List.of("B", "C"));
+
+        assertEquals("A", first.get());
+        assertEquals("B", second.get());
+        assertEquals("C", third.get());
+        assertEquals(3.0, meterRegistry.get("threat_detection_agent_lane_tasks_total")
+                .tag("lane", Integer.toString(lanes.laneFor("10.0.0.1")))
+                .functionCounter()
+                .count());
+        assertEquals(4.0, meterRegistry.get("threat_detection_agent_lane_skew").gauge().value());
+    }
+
+    @Test
+    void testFailedBatchFailsItsInputsAndLaneContinues() {
+        AffinityLanes lanes = new AffinityLanes(agent, 1, 64, 100, meterRegistry);
+
+        CompletableFuture<Object> failed = lanes.submit("user-1", "a", TaskPriority.NORMAL);
+        CompletableFuture<Object> next = lanes.submit("user-1", "b", TaskPriority.NORMAL);
+        inFlight.get(0).completeExceptionally(new IllegalStateException("agent down"));
+        inFlight.get(1).complete(List.of("B"));
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals("B", next.join());
+    }
+}
@@ -0,0 +1,213 @@
+package com.mriridescent.threatdetection.orchestration;
+
+import com.mriridescent.threatdetection.agent.core.AgentFramework;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import com.mriridescent.threatdetection.model.IntelligenceQuery;
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for idempotent, coalesced and bounded task submission and alert publication.
+ */
+class AgentOrchestratorTest {
+
+    private final List<CompletableFuture<Object>> submitted = new ArrayList<>();
+    private final List<ThreatAlert> published = new ArrayList<>();
+    private AgentOrchestrator orchestrator;
+
+    @BeforeEach
+    void setUp() {
+        AgentFramework agent = mock(AgentFramework.class);
+        when(agent.getAgentId()).thenReturn("threat-response");
+        when(agent.submitTask(any())).thenAnswer(invocation -> {
+            CompletableFuture<Object> result = new CompletableFuture<>();
+            submitted.add(result);
+            return result;
+        });
+        orchestrator = new AgentOrchestrator(List.of(agent),
+                List.of((agentId, alert) -> published.add(alert)), new MockEnvironment(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void testDuplicateSubmissionReusesRunningTask() {
+        CompletableFuture<String> first = orchestrator.submitTask("threat-response", "alert", TaskPriority.CRITICAL, "wf/respond");
+        // The first caller giving up does not cancel the task for later callers
+        first.cancel(false);
+        CompletableFuture<String> second = orchestrator.submitTask("threat-response", "alert", TaskPriority.CRITICAL, "wf/respond");
+
+        submitted.get(0).complete("blocked");
+
+        assertEquals(1, submitted.size());
+        assertEquals("blocked", second.join());
+        assertEquals("blocked", orchestrator.<String, String>submitTask(
+                "threat-response", "alert", TaskPriority.CRITICAL, "wf/respond").join());
+    }
+
+    @Test
+    void testFailedSubmissionRunsAgain() {
+        CompletableFuture<String> first = orchestrator.submitTask("threat-response", "alert", TaskPriority.CRITICAL, "wf/respond");
+        submitted.get(0).completeExceptionally(new TimeoutException());
+        assertTrue(first.isCompletedExceptionally());
+
+        CompletableFuture<String> retry = orchestrator.submitTask("threat-response", "alert", TaskPriority.CRITICAL, "wf/respond");
+        submitted.get(1).complete("blocked");
+
+        assertEquals(2, submitted.size());
+        assertEquals("blocked", retry.join());
+    }
+
+    @Test
+    void testAlertsArePublishedToListeners() {
+        ThreatAlert alert = new ThreatAlert();
+        orchestrator.submitTask("threat-response", "packet");
+        orchestrator.submitTask("threat-response", "other");
+
+        submitted.get(0).complete(alert);
+        submitted.get(1).complete("not an alert");
+
+        assertEquals(List.of(alert), published);
+    }
+
+    @Test
+    void testConcurrentLookupsOfOneIndicatorShareOneTask() {
+        AgentFramework intel = mock(AgentFramework.class);
+        when(intel.getAgentId()).thenReturn("threat-intelligence");
+        when(intel.submitTask(any())).thenAnswer(invocation -> {
+            CompletableFuture<Object> result = new CompletableFuture<>();
+            submitted.add(result);
+            return result;
+        });
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AgentOrchestrator coalescing = new AgentOrchestrator(List.of(intel), List.of(),
+                new MockEnvironment().withProperty("threat-detection.agents.threat-intelligence.coalesce", "true"),
+                meterRegistry);
+        IntelligenceQuery query = IntelligenceQuery.builder()
+                .indicator("203.0.113.7").indicatorType(IntelligenceQuery.IndicatorType.IP).build();
+
+        CompletableFuture<String> first = coalescing.submitTask("threat-intelligence", query);
+        CompletableFuture<String> second = coalescing.submitTask("threat-intelligence", query);
+        // One caller giving up does not cancel the lookup for the other
+        first.cancel(false);
+        CompletableFuture<String> other = coalescing.submitTask("threat-intelligence", IntelligenceQuery.builder()
+                .indicator("203.0.113.8").indicatorType(IntelligenceQuery.IndicatorType.IP).build());
+        assertEquals(2, submitted.size());
+        assertFalse(submitted.get(0).isCancelled());
+
+        submitted.get(0).complete("verdict");
+        assertEquals("verdict", second.join());
+        assertFalse(other.isDone());
+        assertEquals(1.0, meterRegistry.get("threat_detection_single_flight_calls_total")
+                .tag("flight", "threat-intelligence").tag("result", "coalesced").counter().count());
+
+        // Once the lookup has completed, the next one starts afresh
+        coalescing.submitTask("threat-intelligence", query);
+        assertEquals(3, submitted.size());
+    }
+
+    @Test
+    void testLookupAbandonedByEveryCallerIsCancelled() {
+        AgentFramework intel = mock(AgentFramework.class);
+        when(intel.getAgentId()).thenReturn("threat-intelligence");
+        when(intel.submitTask(any())).thenAnswer(invocation -> {
+            CompletableFuture<Object> result = new CompletableFuture<>();
+            submitted.add(result);
+            return result;
+        });
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AgentOrchestrator coalescing = new AgentOrchestrator(List.of(intel), List.of(),
+                new MockEnvironment().withProperty("threat-detection.agents.threat-intelligence.coalesce", "true"),
+                meterRegistry);
+        IntelligenceQuery query = IntelligenceQuery.builder()
+                .indicator("203.0.113.7").indicatorType(IntelligenceQuery.IndicatorType.IP).build();
+
+        CompletableFuture<String> first = coalescing.submitTask("threat-intelligence", query);
+        CompletableFuture<String> second = coalescing.submitTask("threat-intelligence", query);
+        // One workflow is cancelled and the other hits its deadline, as the coordinator's enrichment step does
+        first.cancel(false);
+        assertFalse(submitted.get(0).isCancelled());
+        second.completeExceptionally(new TimeoutException("Workflow deadline exceeded during intelligence-enrichment"));
+
+        // The queued task is cancelled, so the agent's mailbox skips it
+        assertEquals(1, submitted.size());
+        assertTrue(submitted.get(0).isCancelled());
+        assertEquals(1.0, meterRegistry.get("threat_detection_single_flight_calls_total")
+                .tag("flight", "threat-intelligence").tag("result", "abandoned").counter().count());
+
+        // The next lookup starts afresh
+        coalescing.submitTask("threat-intelligence", query);
+        assertEquals(2, submitted.size());
+    }
+
+    @Test
+    void testSubmitEachAnswersInlineAndBoundsTasksInFlight() {
+        AgentFramework agent = mock(AgentFramework.class);
+        when(agent.getAgentId()).thenReturn("threat-response");
+        when(agent.submitTask(any())).thenAnswer(invocation -> {
+            CompletableFuture<Object> result = new CompletableFuture<>();
+            submitted.add(result);
+            return result;
+        });
+        doReturn(Optional.of("cached")).when(agent).answerInline("hit");
+        AgentOrchestrator each = new AgentOrchestrator(List.of(agent), List.of(), new MockEnvironment(),
+                new SimpleMeterRegistry());
+        Map<Integer, String> results = new ConcurrentHashMap<>();
+
+        CompletableFuture<Void> done = each.<String, String>submitEach("threat-response",
+                List.of("miss", "hit", "miss", "miss", "hit"), TaskPriority.NORMAL, 2,
+                (index, result, failure) -> results.put(index, failure != null ? failure.getMessage() : result));
+
+        // Inline answers are reported at once; misses wait for a free slot
+        assertEquals(Map.of(1, "cached"), results);
+        assertEquals(2, submitted.size());
+        assertFalse(submitted.get(0).isCancelled());
+
+        submitted.get(0).complete("verdict");
+        assertEquals(3, submitted.size());
+        assertFalse(results.containsKey(4));
+        submitted.get(1).completeExceptionally(new IllegalStateException("overloaded"));
+        assertEquals("cached", results.get(4));
+        assertFalse(done.isDone());
+        submitted.get(2).complete("verdict");
+
+        assertTrue(done.isDone());
+        assertEquals(Map.of(0, "verdict", 1, "cached", 2, "overloaded", 3, "verdict", 4, "cached"), results);
+    }
+
+    @Test
+    void testSubmitEachStopsSubmittingOnceCompleted() {
+        AgentFramework agent = mock(AgentFramework.class);
+        when(agent.getAgentId()).thenReturn("threat-response");
+        when(agent.submitTask(any())).thenAnswer(invocation -> {
+            CompletableFuture<Object> result = new CompletableFuture<>();
+            submitted.add(result);
+            return result;
+        });
+        AgentOrchestrator each = new AgentOrchestrator(List.of(agent), List.of(), new MockEnvironment(),
+                new SimpleMeterRegistry());
+
+        CompletableFuture<Void> done = each.<String, String>submitEach("threat-response",
+                List.of("a", "b", "c", "d"), TaskPriority.NORMAL, 2, (index, result, failure) -> { });
+        assertEquals(2, submitted.size());
+
+        // The caller gave up, e.g. its client disconnected
+        done.complete(null);
+        submitted.get(0).complete("verdict");
+        submitted.get(1).complete("verdict");
+        assertEquals(2, submitted.size());
+    }
+}
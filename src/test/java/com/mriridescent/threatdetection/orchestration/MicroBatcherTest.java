@@ -0,0 +1,88 @@
+package com.mriridescent.threatdetection.orchestration;
+
+import com.mriridescent.threatdetection.agent.core.AgentFramework;
+import com.mriridescent.threatdetection.agent.core.TaskPriority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for coalescing single submissions into micro-batches.
+ */
+class MicroBatcherTest {
+
+    private ScheduledExecutorService scheduler;
+    private AgentFramework agent;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        agent = mock(AgentFramework.class);
+        when(agent.<Integer, Integer>submitBatch(anyList(), any())).thenAnswer(invocation -> {
+            List<Integer> inputs = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(inputs.stream().map(i -> i * 10).toList());
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void testFullBatchIsDispatchedImmediately() throws Exception {
+        MicroBatcher<Integer, Integer> batcher = batcher(3, Duration.ofHours(1));
+
+        CompletableFuture<Integer> first = batcher.submit(1);
+        CompletableFuture<Integer> second = batcher.submit(2);
+        assertFalse(first.isDone());
+        CompletableFuture<Integer> third = batcher.submit(3);
+
+        assertEquals(10, first.get());
+        assertEquals(20, second.get());
+        assertEquals(30, third.get());
+        verify(agent, times(1)).submitBatch(List.of(1, 2, 3), TaskPriority.NORMAL);
+    }
+
+    @Test
+    void testPartialBatchIsFlushedAfterLinger() throws Exception {
+        MicroBatcher<Integer, Integer> batcher = batcher(64, Duration.ofMillis(5));
+
+        CompletableFuture<Integer> first = batcher.submit(1);
+        CompletableFuture<Integer> second = batcher.submit(2);
+
+        assertEquals(10, first.get(5, TimeUnit.SECONDS));
+        assertEquals(20, second.get(5, TimeUnit.SECONDS));
+        verify(agent, times(1)).submitBatch(List.of(1, 2), TaskPriority.NORMAL);
+    }
+
+    @Test
+    void testBatchFailureFailsEveryWaiter() {
+        when(agent.<Integer, Integer>submitBatch(anyList(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("agent down")));
+        MicroBatcher<Integer, Integer> batcher = batcher(2, Duration.ofHours(1));
+
+        CompletableFuture<Integer> first = batcher.submit(1);
+        CompletableFuture<Integer> second = batcher.submit(2);
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, first::get).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, second::get).getCause());
+    }
+
+    private MicroBatcher<Integer, Integer> batcher(int maxBatchSize, Duration linger) {
+        return new MicroBatcher<>(agent, TaskPriority.NORMAL, maxBatchSize, linger, scheduler);
+    }
+}
@@ -0,0 +1,271 @@
+package com.mriridescent.threatdetection.packet;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for decoding NetFlow and IPFIX export packets and collecting them over UDP.
+ */
+class FlowCollectorTest {
+
+    private static final long EXPORT_SECONDS = 1_700_000_000L;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FlowDecoder decoder = new FlowDecoder(meterRegistry);
+    private final InetAddress exporter = InetAddress.getLoopbackAddress();
+
+    @Test
+    void testDecodesNetflowV5AndCountsLostFlows() {
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+
+        decoder.decode(v5(0, 2), exporter, batch, full -> fail("batch should not fill"));
+        assertEquals(2, batch.size());
+        assertEquals("10.0.0.0", NetworkPackets.sourceAddress(batch, 0));
+        assertEquals("192.168.0.1", NetworkPackets.destinationAddress(batch, 1));
+        assertEquals(40001, batch.sourcePort(1));
+        assertEquals(4444, batch.destinationPort(1));
+        assertEquals(NetworkPackets.TCP, batch.protocol(0));
+        assertEquals(1500, batch.wireLength(0));
+        // Flow ended 1s of uptime before the export
+        assertEquals((EXPORT_SECONDS - 1) * 1_000_000, batch.timestamp(0));
+
+        // Sequence numbers count flows: 2 expected next, so 3 flows went missing
+        decoder.decode(v5(5, 1), exporter, batch, full -> fail("batch should not fill"));
+        assertEquals(3, batch.size());
+        assertEquals(3, counter("threat_detection_flow_lost_total"));
+        assertEquals(3, counter("threat_detection_flow_records_total"));
+    }
+
+    @Test
+    void testDecodesV9AndIpfixWithCachedTemplates() {
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+
+        // v9 data before its template is dropped
+        ByteBuffer data = v9(0, v9Data(256, new byte[] {10, 1, 1, 1}, new byte[] {10, 2, 2, 2}, 53));
+        decoder.decode(data, exporter, batch, full -> fail("batch should not fill"));
+        assertEquals(0, batch.size());
+        assertEquals(1, counter("threat_detection_flow_sets_without_template_total"));
+
+        decoder.decode(v9(1, v9Template(256), v9Data(256, new byte[] {10, 1, 1, 1}, new byte[] {10, 2, 2, 2}, 53)),
+                exporter, batch, full -> fail("batch should not fill"));
+        assertEquals(1, batch.size());
+        assertEquals("10.2.2.2", NetworkPackets.destinationAddress(batch, 0));
+        assertEquals(53, batch.destinationPort(0));
+        assertEquals(NetworkPackets.UDP, batch.protocol(0));
+        assertEquals(0, counter("threat_detection_flow_lost_total"));
+
+        // IPFIX with IPv6 addresses, a variable-length field and absolute end times
+        decoder.decode(ipfix(0, ipfixTemplate(300), ipfixData(300, "eth0", 8443), ipfixData(300, "wan", 22)),
+                exporter, batch, full -> fail("batch should not fill"));
+        assertEquals(3, batch.size());
+        assertEquals("2001:db8::1", NetworkPackets.sourceAddress(batch, 1));
+        assertEquals("2001:db8::2", NetworkPackets.destinationAddress(batch, 2));
+        assertEquals(8443, batch.destinationPort(1));
+        assertEquals(22, batch.destinationPort(2));
+        assertEquals(EXPORT_SECONDS * 1_000_000 + 250_000, batch.timestamp(1));
+
+        // IPFIX sequence numbers count data records: 2 expected next
+        decoder.decode(ipfix(2, ipfixData(300, "eth0", 443)), exporter, batch, full -> fail("batch should not fill"));
+        assertEquals(0, counter("threat_detection_flow_lost_total"));
+        assertEquals(0, counter("threat_detection_flow_malformed_total"));
+    }
+
+    @Test
+    void testHandsFullBatchesToSink() {
+        List<Integer> flushed = new ArrayList<>();
+        PacketBatch next = PacketBatch.over(ByteBuffer.allocate(0), 4);
+
+        PacketBatch batch = decoder.decode(v5(0, 6), exporter, PacketBatch.over(ByteBuffer.allocate(0), 4), full -> {
+            flushed.add(full.size());
+            return next;
+        });
+
+        assertEquals(List.of(4), flushed);
+        assertSame(next, batch);
+        assertEquals(2, batch.size());
+    }
+
+    @Test
+    void testCollectsFlowsOverLoopback() throws Exception {
+        List<String> flows = Collections.synchronizedList(new ArrayList<>());
+        FlowCollector collector = new FlowCollector(true, new InetSocketAddress(exporter, 0), 4, Duration.ofMillis(20),
+                2, 1 << 20, batch -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        flows.add(NetworkPackets.sourceAddress(batch, i) + ":" + batch.sourcePort(i));
+                    }
+                    return CompletableFuture.completedFuture(List.of());
+                }, decoder);
+        collector.start();
+        try (DatagramChannel sender = DatagramChannel.open()) {
+            InetSocketAddress target = new InetSocketAddress(exporter, collector.getLocalPort());
+            // A datagram that cannot be decoded does not stop the collector
+            sender.send(ByteBuffer.wrap(new byte[] {0, 9, 0, 1}), target);
+            sender.send(v5(0, 6), target);
+            sender.send(v5(6, 1), target);
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (flows.size() < 7 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            collector.stop();
+        }
+
+        assertEquals(7, flows.size());
+        assertEquals("10.0.0.5:40005", flows.get(5));
+        assertEquals(-1, collector.getLocalPort());
+        assertEquals(1, counter("threat_detection_flow_malformed_total"));
+    }
+
+    @Test
+    void testRefusesExportersNotAllowedOrBeyondTheLimit() throws Exception {
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+        InetAddress other = InetAddress.getByName("192.0.2.9");
+
+        FlowDecoder allowlisted = new FlowDecoder(Set.of(exporter), 256, meterRegistry);
+        allowlisted.decode(v5(0, 1), other, batch, full -> fail("batch should not fill"));
+        allowlisted.decode(v5(0, 1), exporter, batch, full -> fail("batch should not fill"));
+        assertEquals(1, batch.size());
+        assertEquals(1, refused("not_allowed"));
+
+        FlowDecoder limited = new FlowDecoder(Set.of(), 1, meterRegistry);
+        limited.decode(v5(0, 1), exporter, batch, full -> fail("batch should not fill"));
+        limited.decode(v5(0, 1), other, batch, full -> fail("batch should not fill"));
+        assertEquals(2, batch.size());
+        assertEquals(1, refused("too_many_exporters"));
+        // No meters for the refused exporter
+        assertNull(meterRegistry.find("threat_detection_flow_records_total").tag("exporter", "192.0.2.9").counter());
+    }
+
+    @Test
+    void testVariableLengthRecordsOnlyReadFieldsOfValidLength() {
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+        // Source address and destination port sent with variable-length encoding
+        int[][] fields = {{8, 65535}, {12, 4}, {7, 2}, {11, 65535}};
+        ByteBuffer template = ByteBuffer.allocate(8 + fields.length * 4);
+        template.putShort((short) 2).putShort((short) template.capacity()).putShort((short) 400)
+                .putShort((short) fields.length);
+        for (int[] field : fields) {
+            template.putShort((short) field[0]).putShort((short) field[1]);
+        }
+        ByteBuffer data = ByteBuffer.allocate(4 + 2 * 14);
+        data.putShort((short) 400).putShort((short) data.capacity())
+                // A 4-byte source address and a 2-byte port
+                .put((byte) 4).put(new byte[] {10, 1, 1, 1}).put(new byte[] {10, 2, 2, 2}).putShort((short) 5353)
+                .put((byte) 2).putShort((short) 53)
+                // A 3-byte source address and a 1-byte port, neither of which can be read
+                .put((byte) 3).put(new byte[] {10, 1, 1}).put(new byte[] {10, 2, 2, 3}).putShort((short) 5353)
+                .put((byte) 1).put((byte) 53).put(new byte[2]);
+
+        decoder.decode(ipfix(0, template.flip(), data.flip()), exporter, batch, full -> fail("batch should not fill"));
+
+        assertEquals(2, batch.size());
+        assertEquals("10.1.1.1", NetworkPackets.sourceAddress(batch, 0));
+        assertEquals(53, batch.destinationPort(0));
+        assertNull(NetworkPackets.sourceAddress(batch, 1));
+        assertEquals("10.2.2.3", NetworkPackets.destinationAddress(batch, 1));
+        assertEquals(0, batch.destinationPort(1));
+    }
+
+    private double refused(String reason) {
+        return meterRegistry.get("threat_detection_flow_refused_total").tag("reason", reason).counter().count();
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).counter().count();
+    }
+
+    private static ByteBuffer v5(int sequence, int count) {
+        ByteBuffer out = ByteBuffer.allocate(24 + count * 48);
+        out.putShort((short) 5).putShort((short) count).putInt(100_000).putInt((int) EXPORT_SECONDS).putInt(0)
+                .putInt(sequence).putShort((short) 0).putShort((short) 0);
+        for (int n = 0; n < count; n++) {
+            out.put(new byte[] {10, 0, 0, (byte) n}).put(new byte[] {(byte) 192, (byte) 168, 0, 1}).putInt(0)
+                    .putShort((short) 1).putShort((short) 2).putInt(10).putInt(1500)
+                    .putInt(98_000).putInt(99_000)
+                    .putShort((short) (40000 + n)).putShort((short) 4444)
+                    .put((byte) 0).put((byte) 0x18).put((byte) 6).put((byte) 0)
+                    .putShort((short) 0).putShort((short) 0).put((byte) 24).put((byte) 24).putShort((short) 0);
+        }
+        return out.flip();
+    }
+
+    private static ByteBuffer v9(int sequence, ByteBuffer... sets) {
+        ByteBuffer out = ByteBuffer.allocate(1500);
+        out.putShort((short) 9).putShort((short) sets.length).putInt(100_000).putInt((int) EXPORT_SECONDS)
+                .putInt(sequence).putInt(7);
+        for (ByteBuffer set : sets) {
+            out.put(set);
+        }
+        return out.flip();
+    }
+
+    // IPv4 source and destination, ports, protocol and octets
+    private static ByteBuffer v9Template(int id) {
+        int[][] fields = {{8, 4}, {12, 4}, {7, 2}, {11, 2}, {4, 1}, {1, 4}};
+        ByteBuffer set = ByteBuffer.allocate(8 + fields.length * 4);
+        set.putShort((short) 0).putShort((short) set.capacity()).putShort((short) id).putShort((short) fields.length);
+        for (int[] field : fields) {
+            set.putShort((short) field[0]).putShort((short) field[1]);
+        }
+        return set.flip();
+    }
+
+    private static ByteBuffer v9Data(int id, byte[] source, byte[] destination, int destinationPort) {
+        // One 17-byte record padded to 4 bytes
+        ByteBuffer set = ByteBuffer.allocate(4 + 20);
+        set.putShort((short) id).putShort((short) set.capacity()).put(source).put(destination)
+                .putShort((short) 5353).putShort((short) destinationPort).put((byte) 17).putInt(512).put(new byte[3]);
+        return set.flip();
+    }
+
+    private static ByteBuffer ipfix(int sequence, ByteBuffer... sets) {
+        int length = 16;
+        for (ByteBuffer set : sets) {
+            length += set.remaining();
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putShort((short) 10).putShort((short) length).putInt((int) EXPORT_SECONDS).putInt(sequence).putInt(1);
+        for (ByteBuffer set : sets) {
+            out.put(set);
+        }
+        return out.flip();
+    }
+
+    // IPv6 source and destination, interface name (variable length), ports, protocol, end time
+    private static ByteBuffer ipfixTemplate(int id) {
+        int[][] fields = {{27, 16}, {28, 16}, {82, 65535}, {7, 2}, {11, 2}, {4, 1}, {153, 8}};
+        ByteBuffer set = ByteBuffer.allocate(8 + fields.length * 4);
+        set.putShort((short) 2).putShort((short) set.capacity()).putShort((short) id).putShort((short) fields.length);
+        for (int[] field : fields) {
+            set.putShort((short) field[0]).putShort((short) field[1]);
+        }
+        return set.flip();
+    }
+
+    private static ByteBuffer ipfixData(int id, String interfaceName, int destinationPort) {
+        byte[] name = interfaceName.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer set = ByteBuffer.allocate(4 + 32 + 1 + name.length + 5 + 8);
+        set.putShort((short) id).putShort((short) set.capacity())
+                .putLong(0x2001_0db8_0000_0000L).putLong(1).putLong(0x2001_0db8_0000_0000L).putLong(2)
+                .put((byte) name.length).put(name)
+                .putShort((short) 50000).putShort((short) destinationPort).put((byte) 6)
+                .putLong(EXPORT_SECONDS * 1000 + 250);
+        return set.flip();
+    }
+}
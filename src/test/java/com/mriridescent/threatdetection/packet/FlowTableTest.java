@@ -0,0 +1,153 @@
+package com.mriridescent.threatdetection.packet;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for per-flow state, its idle expiry and eviction.
+ */
+class FlowTableTest {
+
+    private static final long SECOND = 1_000_000;
+
+    private final List<String> completed = new ArrayList<>();
+    private final FlowTable.Listener listener = new FlowTable.Listener() {
+        @Override
+        public void onComplete(FlowTable flows, int flow) {
+            completed.add(flows.sourcePort(flow) + ":" + flows.packets(flow));
+        }
+    };
+
+    @Test
+    void testTracksCountsTimingAndFlags() {
+        FlowTable flows = new FlowTable(16, 60 * SECOND, SECOND);
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+        for (int n = 0; n < 5; n++) {
+            add(batch, 1000, 443, NetworkPackets.TCP, n == 0 ? FlowTable.TCP_SYN : FlowTable.TCP_ACK,
+                    100 + n, n * 10 * SECOND);
+        }
+        add(batch, 1001, 443, NetworkPackets.TCP, FlowTable.TCP_SYN, 60, 0);
+        flows.update(batch, 0, listener);
+
+        assertEquals(2, flows.size());
+        int flow = flows.find(0, 0x0a000001L, 0, 0x0a000002L, 1000, 443, NetworkPackets.TCP);
+        assertTrue(flow >= 0);
+        assertEquals(5, flows.packets(flow));
+        assertEquals(510, flows.bytes(flow));
+        assertEquals(40 * SECOND, flows.lastSeen(flow) - flows.firstSeen(flow));
+        assertEquals(4, flows.interArrivals(flow));
+        assertEquals(10 * SECOND, flows.meanInterArrival(flow), 1e-6);
+        assertEquals(0, flows.interArrivalDeviation(flow), 1e-6);
+        assertEquals(FlowTable.TCP_SYN | FlowTable.TCP_ACK, flows.tcpFlags(flow));
+        // Direction and protocol are part of the key
+        assertEquals(-1, flows.find(0, 0x0a000002L, 0, 0x0a000001L, 443, 1000, NetworkPackets.TCP));
+        assertEquals(-1, flows.find(0, 0x0a000001L, 0, 0x0a000002L, 1000, 443, NetworkPackets.UDP));
+    }
+
+    @Test
+    void testCompletesOnFinAndWhenIdle() {
+        FlowTable flows = new FlowTable(16, 30 * SECOND, SECOND);
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+        add(batch, 1, 80, NetworkPackets.TCP, FlowTable.TCP_SYN, 60, 0);
+        add(batch, 1, 80, NetworkPackets.TCP, FlowTable.TCP_FIN | FlowTable.TCP_ACK, 60, SECOND);
+        add(batch, 2, 53, NetworkPackets.UDP, 0, 80, 0);
+        add(batch, 3, 53, NetworkPackets.UDP, 0, 80, 0);
+        flows.update(batch, 0, listener);
+        assertEquals(List.of("1:2"), completed);
+
+        // Packets keep flow 3 alive past its first expiry
+        batch.clear();
+        add(batch, 3, 53, NetworkPackets.UDP, 0, 80, 20 * SECOND);
+        flows.update(batch, 0, listener);
+        flows.advance(31 * SECOND, listener);
+        assertEquals(List.of("1:2", "2:1"), completed);
+
+        flows.advance(51 * SECOND, listener);
+        assertEquals(List.of("1:2", "2:1", "3:2"), completed);
+        assertEquals(0, flows.size());
+        assertEquals(3, flows.getCompleted());
+    }
+
+    @Test
+    void testExpiresAfterTimeJumpsPastTheWheel() {
+        FlowTable flows = new FlowTable(16, 4 * SECOND, SECOND);
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+        for (int port = 1; port <= 3; port++) {
+            add(batch, port, 53, NetworkPackets.UDP, 0, 80, port * SECOND);
+        }
+        flows.update(batch, 0, listener);
+
+        flows.advance(3600 * SECOND, listener);
+        assertEquals(3, completed.size());
+        assertEquals(0, flows.size());
+    }
+
+    @Test
+    void testEvictsFlowClosestToExpiringWhenFull() {
+        FlowTable flows = new FlowTable(2, 30 * SECOND, SECOND);
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+        add(batch, 1, 53, NetworkPackets.UDP, 0, 80, 0);
+        add(batch, 2, 53, NetworkPackets.UDP, 0, 80, 5 * SECOND);
+        add(batch, 3, 53, NetworkPackets.UDP, 0, 80, 6 * SECOND);
+        flows.update(batch, 0, listener);
+
+        assertEquals(List.of("1:1"), completed);
+        assertEquals(1, flows.getEvicted());
+        assertEquals(2, flows.size());
+        assertTrue(flows.find(0, 0x0a000001L, 0, 0x0a000002L, 3, 53, NetworkPackets.UDP) >= 0);
+    }
+
+    @Test
+    void testIndexStaysConsistentThroughChurn() {
+        FlowTable flows = new FlowTable(512, 10 * SECOND, SECOND);
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 64);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        FlowTable.Listener tracking = new FlowTable.Listener() {
+            @Override
+            public void onComplete(FlowTable table, int flow) {
+                assertEquals(expected.remove(table.sourcePort(flow)).longValue(), table.packets(flow));
+            }
+        };
+
+        // Mostly one-packet flows, some closed with RST, all in the same second so none expire
+        for (int round = 0; round < 200; round++) {
+            batch.clear();
+            for (int n = 0; n < 64; n++) {
+                int port = random.nextInt(2000);
+                boolean reset = random.nextInt(8) == 0;
+                add(batch, port, 80, NetworkPackets.TCP, reset ? FlowTable.TCP_RST : FlowTable.TCP_ACK, 40, 0);
+                expected.merge(port, 1, Integer::sum);
+                flows.update(batch, 0, tracking);
+                batch.clear();
+            }
+            assertEquals(expected.size(), flows.size());
+        }
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            int flow = flows.find(0, 0x0a000001L, 0, 0x0a000002L, entry.getKey(), 80, NetworkPackets.TCP);
+            assertTrue(flow >= 0, "flow " + entry.getKey());
+            assertEquals(entry.getValue().longValue(), flows.packets(flow));
+        }
+        flows.completeAll(tracking);
+        assertTrue(expected.isEmpty());
+    }
+
+    private static void add(PacketBatch batch, int sourcePort, int destinationPort, int protocol, int flags,
+                            int length, long time) {
+        int i = batch.append();
+        batch.setSource(i, 0, 0x0a000001L, sourcePort);
+        batch.setDestination(i, 0, 0x0a000002L, destinationPort);
+        batch.setProtocol(i, protocol);
+        batch.setTcpFlags(i, flags);
+        batch.setWireLength(i, length);
+        batch.setTimestamp(i, time);
+    }
+}
@@ -0,0 +1,100 @@
+package com.mriridescent.threatdetection.packet;
+
+import com.mriridescent.threatdetection.intel.IpAddresses;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.TimeZone;
+
+import static com.mriridescent.threatdetection.packet.TestPackets.tcp;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for columnar packet batches and their conversion from packet DTOs.
+ */
+class PacketBatchTest {
+
+    @Test
+    void testConvertsPacketDtoIntoColumns() {
+        PacketBatch batch = PacketBatch.allocate(4, 64);
+        LocalDateTime timestamp = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_456_000);
+
+        int i = NetworkPackets.append(batch, tcp("10.0.0.1", 51000, "2001:DB8::1", 443, 0, "héllo", timestamp));
+
+        assertEquals(0, i);
+        assertEquals("10.0.0.1", NetworkPackets.sourceAddress(batch, i));
+        assertEquals("2001:db8::1", NetworkPackets.destinationAddress(batch, i));
+        assertTrue(IpAddresses.isIpv4Mapped(batch.sourceHigh(i), batch.sourceLow(i)));
+        assertEquals(51000, batch.sourcePort(i));
+        assertEquals(443, batch.destinationPort(i));
+        assertEquals(NetworkPackets.TCP, batch.protocol(i));
+        assertEquals(timestamp, NetworkPackets.timestamp(batch, i));
+
+        byte[] payload = new byte[batch.payloadLength(i)];
+        batch.payloads().get(batch.payloadOffset(i), payload);
+        assertEquals("héllo", new String(payload, StandardCharsets.UTF_8));
+        assertEquals(64 - payload.length, batch.remainingPayloadBytes());
+    }
+
+    @Test
+    void testTimestampsAreLocalTimesInTheSystemZone() {
+        TimeZone zone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        try {
+            PacketBatch batch = PacketBatch.allocate(2, 8);
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+
+            int i = NetworkPackets.append(batch, tcp("10.0.0.1", 1, "10.0.0.2", 2, 0, null, now));
+
+            // Epoch time, as captures and flow exports give it, and the same local time back
+            assertEquals(System.currentTimeMillis() * 1_000, batch.timestamp(i), 60_000_000);
+            assertEquals(now, NetworkPackets.timestamp(batch, i));
+            assertEquals(LocalDateTime.of(2023, 11, 14, 17, 13, 20, 250_000_000),
+                    NetworkPackets.timestamp(1_700_000_000_250_000L));
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    @Test
+    void testMissingFieldsAndFullBatches() {
+        PacketBatch batch = PacketBatch.allocate(2, 8);
+
+        int i = NetworkPackets.append(batch, tcp("not an address", 1, null, 2, 0, null, null));
+        assertNull(NetworkPackets.sourceAddress(batch, i));
+        assertNull(NetworkPackets.destinationAddress(batch, i));
+        assertNull(NetworkPackets.timestamp(batch, i));
+        assertEquals(0, batch.payloadLength(i));
+
+        // A payload that does not fit what is left of the arena waits for the next batch
+        assertEquals(1, NetworkPackets.append(batch, tcp("10.0.0.1", 1, "10.0.0.2", 2, 0, "12345", null)));
+        assertEquals(-1, NetworkPackets.append(batch, tcp("10.0.0.1", 1, "10.0.0.2", 2, 0, "1234", null)));
+        batch.removeLast();
+        assertEquals(8, batch.remainingPayloadBytes());
+        assertEquals(1, NetworkPackets.append(batch, tcp("10.0.0.1", 1, "10.0.0.2", 2, 0, "12345678", null)));
+        assertTrue(batch.isFull());
+        assertEquals(-1, NetworkPackets.append(batch, tcp("10.0.0.1", 1, "10.0.0.2", 2, 0, "", null)));
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertEquals(8, batch.remainingPayloadBytes());
+    }
+
+    @Test
+    void testBatchOverExternalBufferPointsIntoIt() {
+        ByteBuffer capture = ByteBuffer.wrap("xxGET /xxPOST /".getBytes(StandardCharsets.US_ASCII));
+        PacketBatch batch = PacketBatch.over(capture, 2);
+
+        batch.setPayload(batch.append(), 2, 5);
+        batch.setPayload(batch.append(), 9, 6);
+
+        assertSame(capture, batch.payloads());
+        assertEquals(9, batch.payloadOffset(1));
+        assertEquals(6, batch.payloadLength(1));
+        assertEquals(0, batch.remainingPayloadBytes());
+        assertThrows(IllegalStateException.class, () -> batch.copyPayload(0, ByteBuffer.allocate(1)));
+    }
+}
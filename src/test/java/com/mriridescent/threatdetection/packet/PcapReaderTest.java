@@ -0,0 +1,195 @@
+package com.mriridescent.threatdetection.packet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for decoding PCAP and PCAPNG captures into packet batches.
+ */
+class PcapReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testDecodesClassicPcapFrames() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, pcapHeader(ByteOrder.LITTLE_ENDIAN, 1));
+        write(out, pcapRecord(ByteOrder.LITTLE_ENDIAN, 1_700_000_000, 250_000,
+                ethernet(0x0800, ipv4(new byte[] {10, 0, 0, 1}, new byte[] {(byte) 192, (byte) 168, 1, 5}, 6,
+                        tcp(51000, 4444, "GET /shell")))));
+        write(out, pcapRecord(ByteOrder.LITTLE_ENDIAN, 1_700_000_001, 0, ethernet(0x0806, new byte[28])));
+        write(out, pcapRecord(ByteOrder.LITTLE_ENDIAN, 1_700_000_002, 0,
+                vlan(ethernet(0x86dd, ipv6(udp(5353, 53, "query"))))));
+
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+        try (PcapReader reader = PcapReader.open(file("classic.pcap", out))) {
+            assertEquals(2, reader.read(batch));
+            assertEquals(1, reader.getSkipped());
+
+            assertEquals("10.0.0.1", NetworkPackets.sourceAddress(batch, 0));
+            assertEquals("192.168.1.5", NetworkPackets.destinationAddress(batch, 0));
+            assertEquals(51000, batch.sourcePort(0));
+            assertEquals(4444, batch.destinationPort(0));
+            assertEquals(NetworkPackets.TCP, batch.protocol(0));
+            assertEquals(LocalDateTime.ofInstant(Instant.ofEpochSecond(1_700_000_000L, 250_000_000), ZoneId.systemDefault()),
+                    NetworkPackets.timestamp(batch, 0));
+            assertEquals("GET /shell", payload(batch, 0));
+
+            assertEquals("2001:db8::7", NetworkPackets.sourceAddress(batch, 1));
+            assertEquals("2001:db8::8", NetworkPackets.destinationAddress(batch, 1));
+            assertEquals(53, batch.destinationPort(1));
+            assertEquals(NetworkPackets.UDP, batch.protocol(1));
+            assertEquals("query", payload(batch, 1));
+
+            batch.clear();
+            assertEquals(0, reader.read(batch));
+        }
+    }
+
+    @Test
+    void testDecodesPcapngWithNanosecondInterface() throws IOException {
+        byte[] frame = ipv4(new byte[] {1, 2, 3, 4}, new byte[] {5, 6, 7, 8}, 17, udp(1000, 2000, "hello"));
+        ByteBuffer blocks = ByteBuffer.allocate(1024).order(ByteOrder.BIG_ENDIAN);
+        // Section header
+        blocks.putInt(0x0a0d0d0a).putInt(28).putInt(0x1a2b3c4d).putShort((short) 1).putShort((short) 0)
+                .putLong(-1).putInt(28);
+        // Raw IP interface with if_tsresol 9
+        blocks.putInt(1).putInt(32).putShort((short) 101).putShort((short) 0).putInt(0)
+                .putShort((short) 9).putShort((short) 1).put((byte) 9).put(new byte[3])
+                .putInt(0).putInt(32);
+        // Enhanced packet
+        int padded = (frame.length + 3) & ~3;
+        long nanos = 1_700_000_000_123_456_789L;
+        blocks.putInt(6).putInt(32 + padded).putInt(0).putInt((int) (nanos >>> 32)).putInt((int) nanos)
+                .putInt(frame.length).putInt(frame.length).put(frame).put(new byte[padded - frame.length])
+                .putInt(32 + padded);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(blocks.array(), 0, blocks.position());
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 16);
+        try (PcapReader reader = PcapReader.open(file("capture.pcapng", out))) {
+            assertEquals(1, reader.read(batch));
+            assertEquals("5.6.7.8", NetworkPackets.destinationAddress(batch, 0));
+            assertEquals(2000, batch.destinationPort(0));
+            assertEquals(1_700_000_000_123_456L, batch.timestamp(0));
+            assertEquals("hello", payload(batch, 0));
+        }
+    }
+
+    @Test
+    void testReadsAcrossMappingWindows() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, pcapHeader(ByteOrder.BIG_ENDIAN, 101));
+        int count = 1000;
+        for (int n = 0; n < count; n++) {
+            write(out, pcapRecord(ByteOrder.BIG_ENDIAN, n, 0, ipv4(new byte[] {10, 0, (byte) (n >> 8), (byte) n},
+                    new byte[] {10, 0, 0, 1}, 6, tcp(n, 80, "x".repeat(200) + n))));
+        }
+        // Cut the last record short, as an interrupted capture leaves it
+        byte[] bytes = out.toByteArray();
+        Path file = dir.resolve("windows.pcap");
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+
+        PacketBatch batch = PacketBatch.over(ByteBuffer.allocate(0), 64);
+        int read = 0;
+        try (PcapReader reader = PcapReader.open(file, 1 << 16)) {
+            for (int packets; (packets = reader.read(batch)) > 0; batch.clear()) {
+                for (int i = 0; i < packets; i++) {
+                    assertEquals(read, batch.sourcePort(i));
+                    assertEquals("x".repeat(200) + read, payload(batch, i));
+                    read++;
+                }
+            }
+            assertEquals(count - 1, reader.getPackets());
+        }
+        assertEquals(count - 1, read);
+    }
+
+    @Test
+    void testRejectsOtherFiles() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "not a capture file at all".getBytes(StandardCharsets.US_ASCII));
+        Path file = file("text.pcap", out);
+        assertThrows(IOException.class, () -> PcapReader.open(file));
+    }
+
+    private Path file(String name, ByteArrayOutputStream out) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, out.toByteArray());
+        return file;
+    }
+
+    private static String payload(PacketBatch batch, int i) {
+        byte[] bytes = new byte[batch.payloadLength(i)];
+        batch.payloads().get(batch.payloadOffset(i), bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] pcapHeader(ByteOrder order, int linkType) {
+        return ByteBuffer.allocate(24).order(order)
+                .putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+                .putInt(65535).putInt(linkType).array();
+    }
+
+    private static byte[] pcapRecord(ByteOrder order, int seconds, int micros, byte[] frame) {
+        return ByteBuffer.allocate(16 + frame.length).order(order)
+                .putInt(seconds).putInt(micros).putInt(frame.length).putInt(frame.length).put(frame).array();
+    }
+
+    private static byte[] ethernet(int etherType, byte[] payload) {
+        return ByteBuffer.allocate(14 + payload.length)
+                .put(new byte[12]).putShort((short) etherType).put(payload).array();
+    }
+
+    private static byte[] vlan(byte[] frame) {
+        return ByteBuffer.allocate(frame.length + 4)
+                .put(frame, 0, 12).putShort((short) 0x8100).putShort((short) 42).put(frame, 12, frame.length - 12).array();
+    }
+
+    private static byte[] ipv4(byte[] source, byte[] destination, int protocol, byte[] transport) {
+        return ByteBuffer.allocate(20 + transport.length)
+                .put((byte) 0x45).put((byte) 0).putShort((short) (20 + transport.length)).putInt(0)
+                .put((byte) 64).put((byte) protocol).putShort((short) 0).put(source).put(destination)
+                .put(transport).array();
+    }
+
+    private static byte[] ipv6(byte[] udp) {
+        return ByteBuffer.allocate(40 + udp.length)
+                .putInt(0x6000_0000).putShort((short) udp.length).put((byte) 17).put((byte) 64)
+                .putLong(0x2001_0db8_0000_0000L).putLong(7).putLong(0x2001_0db8_0000_0000L).putLong(8)
+                .put(udp).array();
+    }
+
+    private static byte[] tcp(int sourcePort, int destinationPort, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(20 + data.length)
+                .putShort((short) sourcePort).putShort((short) destinationPort).putInt(0).putInt(0)
+                .put((byte) 0x50).put((byte) 0x18).putShort((short) 1024).putInt(0).put(data).array();
+    }
+
+    private static byte[] udp(int sourcePort, int destinationPort, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(8 + data.length)
+                .putShort((short) sourcePort).putShort((short) destinationPort)
+                .putShort((short) (8 + data.length)).putShort((short) 0).put(data).array();
+    }
+}
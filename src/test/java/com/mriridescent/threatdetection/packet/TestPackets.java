@@ -0,0 +1,31 @@
+package com.mriridescent.threatdetection.packet;
+
+import com.mriridescent.threatdetection.model.NetworkPacket;
+
+import java.time.LocalDateTime;
+
+/**
+ * Network packet DTOs shared by the packet and detection tests.
+ */
+public final class TestPackets {
+
+    private TestPackets() {
+    }
+
+    /**
+     * A TCP packet between two endpoints.
+     */
+    public static NetworkPacket tcp(String source, int sourcePort, String destination, int destinationPort,
+                                    int size, String payload, LocalDateTime timestamp) {
+        NetworkPacket packet = new NetworkPacket();
+        packet.setSourceIp(source);
+        packet.setSourcePort(sourcePort);
+        packet.setDestinationIp(destination);
+        packet.setDestinationPort(destinationPort);
+        packet.setProtocol("TCP");
+        packet.setSize(size);
+        packet.setPayload(payload);
+        packet.setTimestamp(timestamp);
+        return packet;
+    }
+}
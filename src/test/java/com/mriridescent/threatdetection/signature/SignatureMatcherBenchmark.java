@@ -0,0 +1,131 @@
+package com.mriridescent.threatdetection.signature;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures payload scanning throughput against the number of signatures.
+ *
+ * Payloads are 1,500-byte packets of HTTP-like text, and signatures are 8 to 24 bytes of the same
+ * alphabet, so the automaton is exercised the way it is by real traffic: long runs of partial
+ * matches and the occasional full one. Scores are packets per second; multiply by 1,500 for bytes.
+ * The automaton stays flat as {@code rules} grows, until its table outgrows the CPU caches;
+ * searching for each signature in turn falls off linearly.
+ *
+ * Run with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.mriridescent.threatdetection.signature.SignatureMatcherBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureMatcherBenchmark {
+
+    private static final int PAYLOAD_BYTES = 1500;
+    private static final byte[] ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789 /=&?.-_:\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"10", "100", "1000", "10000"})
+    private int rules;
+
+    private SignatureMatcher matcher;
+    private List<Signature> signatures;
+    private byte[][] payloads;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        signatures = new ArrayList<>(rules);
+        for (int i = 0; i < rules; i++) {
+            signatures.add(Signature.builder()
+                    .id(String.valueOf(i))
+                    .pattern(text(random, 8 + random.nextInt(17)))
+                    .severity(ThreatAlert.Severity.MEDIUM)
+                    .description("")
+                    .build());
+        }
+        matcher = SignatureMatcher.compile(signatures);
+
+        payloads = new byte[256][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = text(random, PAYLOAD_BYTES);
+            if (i % 16 == 0) {
+                // One packet in sixteen carries a signature
+                byte[] pattern = signatures.get(random.nextInt(rules)).getPattern();
+                System.arraycopy(pattern, 0, payloads[i], random.nextInt(PAYLOAD_BYTES - pattern.length), pattern.length);
+            }
+        }
+    }
+
+    @Benchmark
+    public int automaton() {
+        return matcher.scan(nextPayload()).size();
+    }
+
+    @Benchmark
+    public int searchEachSignature() {
+        byte[] payload = nextPayload();
+        int matches = 0;
+        for (Signature signature : signatures) {
+            if (indexOf(payload, signature.getPattern())) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private byte[] nextPayload() {
+        return payloads[next++ & (payloads.length - 1)];
+    }
+
+    private static boolean indexOf(byte[] payload, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= payload.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (payload[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static byte[] text(Random random, int length) {
+        byte[] text = new byte[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return text;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SignatureMatcherBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
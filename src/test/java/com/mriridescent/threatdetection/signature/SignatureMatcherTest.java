@@ -0,0 +1,151 @@
+package com.mriridescent.threatdetection.signature;
+
+import com.mriridescent.threatdetection.model.ThreatAlert;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for compiling, scanning and reloading payload signatures.
+ */
+class SignatureMatcherTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReportsOverlappingAndNestedSignaturesOnce() {
+        SignatureMatcher matcher = SignatureMatcher.compile(List.of(
+                signature("he"), signature("she"), signature("his"), signature("hers")));
+
+        assertEquals(List.of("she", "he", "hers"), ids(matcher.scan("ushers ushers".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals(List.of("his"), ids(matcher.scan("this")));
+        assertSame(List.of(), matcher.scan("nothing to see".getBytes(StandardCharsets.US_ASCII)));
+        assertSame(List.of(), SignatureMatcher.empty().scan("she".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void testScansAgreeWithNaiveSearch() {
+        Random random = new Random(17);
+        List<Signature> signatures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            byte[] pattern = new byte[1 + random.nextInt(6)];
+            for (int j = 0; j < pattern.length; j++) {
+                // A small alphabet, so signatures overlap and share prefixes
+                pattern[j] = (byte) (random.nextInt(4) * 85);
+            }
+            signatures.add(Signature.builder().id("sig-" + i).pattern(pattern)
+                    .severity(ThreatAlert.Severity.LOW).description("").build());
+        }
+        SignatureMatcher matcher = SignatureMatcher.compile(signatures);
+
+        for (int round = 0; round < 200; round++) {
+            byte[] payload = new byte[random.nextInt(64)];
+            for (int j = 0; j < payload.length; j++) {
+                payload[j] = (byte) (random.nextInt(5) * 85);
+            }
+            Set<String> expected = new HashSet<>();
+            for (Signature signature : signatures) {
+                if (indexOf(payload, signature.getPattern()) >= 0) {
+                    expected.add(signature.getId());
+                }
+            }
+            assertEquals(expected, new HashSet<>(ids(matcher.scan(payload))));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(payload.length + 2);
+            direct.put((byte) 0).put(payload).flip().position(1);
+            assertEquals(expected, new HashSet<>(ids(matcher.scan(direct))));
+            assertEquals(1, direct.position());
+        }
+    }
+
+    @Test
+    void testParsesRulesWithHexContent() throws Exception {
+        List<Signature> signatures = new ArrayList<>();
+        SignatureRuleLoader.Result result = SignatureRuleLoader.load(new StringReader("""
+                # id,content,severity,description
+                1001,|4d 5a 90 00|,high,Windows executable, unexpected here
+                1002,GET /shell.php|3f|cmd=
+                1003,|4d 5|,low
+                1004,,low
+                1005,evil,nonsense
+                """), "test.rules", signatures);
+
+        assertEquals(2, result.getLoaded());
+        assertEquals(3, result.getRejected());
+        SignatureMatcher matcher = SignatureMatcher.compile(signatures);
+
+        List<Signature> matched = matcher.scan(new byte[]{0x00, 0x4d, 0x5a, (byte) 0x90, 0x00, 0x03});
+        assertEquals(List.of("1001"), ids(matched));
+        assertEquals(ThreatAlert.Severity.HIGH, matched.get(0).getSeverity());
+        assertEquals("Windows executable, unexpected here", matched.get(0).getDescription());
+        assertEquals(List.of("1002"), ids(matcher.scan("GET /shell.php?cmd=id HTTP/1.1")));
+        assertEquals(ThreatAlert.Severity.MEDIUM, matcher.scan("GET /shell.php?cmd=").get(0).getSeverity());
+    }
+
+    @Test
+    void testStoreSwapsMatcherWhenRulesChange() throws Exception {
+        Path rules = dir.resolve("payload.rules");
+        Files.writeString(rules, "1,malicious_signature\n");
+        SignatureStore store = new SignatureStore(new String[]{rules.toString()}, new SimpleMeterRegistry());
+        store.initialize();
+        SignatureMatcher first = store.current();
+        assertEquals(1, first.scan("a malicious_signature here").size());
+
+        store.reloadIfChanged();
+        assertSame(first, store.current());
+
+        Files.writeString(rules, "2,beacon,high\n3,|de ad be ef|\n");
+        Files.setLastModifiedTime(rules, FileTime.from(Instant.now().plusSeconds(5)));
+        store.reloadIfChanged();
+        assertEquals(List.of("2"), ids(store.current().scan("beacon")));
+        assertTrue(store.current().scan("malicious_signature").isEmpty());
+
+        // A rules file that cannot be read keeps the current matcher
+        SignatureMatcher second = store.current();
+        Files.delete(rules);
+        assertFalse(store.reload());
+        assertSame(second, store.current());
+    }
+
+    private static Signature signature(String pattern) {
+        return Signature.builder()
+                .id(pattern)
+                .pattern(pattern.getBytes(StandardCharsets.US_ASCII))
+                .severity(ThreatAlert.Severity.MEDIUM)
+                .description("")
+                .build();
+    }
+
+    private static List<String> ids(List<Signature> signatures) {
+        return signatures.stream().map(Signature::getId).toList();
+    }
+
+    private static int indexOf(byte[] payload, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= payload.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (payload[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}